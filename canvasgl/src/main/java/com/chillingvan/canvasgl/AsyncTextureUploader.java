@@ -0,0 +1,203 @@
+/*
+ *
+ *  *
+ *  *  * Copyright (C) 2016 ChillingVan
+ *  *  *
+ *  *  * Licensed under the Apache License, Version 2.0 (the "License");
+ *  *  * you may not use this file except in compliance with the License.
+ *  *  * You may obtain a copy of the License at
+ *  *  *
+ *  *  * http://www.apache.org/licenses/LICENSE-2.0
+ *  *  *
+ *  *  * Unless required by applicable law or agreed to in writing, software
+ *  *  * distributed under the License is distributed on an "AS IS" BASIS,
+ *  *  * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  *  * See the License for the specific language governing permissions and
+ *  *  * limitations under the License.
+ *  *
+ *
+ */
+package com.chillingvan.canvasgl;
+
+import android.annotation.TargetApi;
+import android.graphics.Bitmap;
+import android.opengl.EGL14;
+import android.os.Build;
+import android.support.annotation.NonNull;
+
+import com.chillingvan.canvasgl.glcanvas.AsyncBitmapTexture;
+import com.chillingvan.canvasgl.glview.texture.gles.EglContextWrapper;
+import com.chillingvan.canvasgl.glview.texture.gles.EglHelperFactory;
+import com.chillingvan.canvasgl.glview.texture.gles.GLThread;
+import com.chillingvan.canvasgl.glview.texture.gles.IEglHelper;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+
+import javax.microedition.khronos.egl.EGL10;
+import javax.microedition.khronos.egl.EGLConfig;
+import javax.microedition.khronos.egl.EGLDisplay;
+import javax.microedition.khronos.egl.EGLSurface;
+
+/**
+ * Uploads bitmaps to textures on a background thread, so the first frame which draws a large
+ * bitmap does not wait for the upload. The thread owns an EGL context shared with the render
+ * context, from {@link GLThread.OnCreateGLContextListener}, and a 1x1 pbuffer surface.
+ * <p>
+ * Set it with {@link ICanvasGL#setAsyncUploader(AsyncTextureUploader)}. Bitmaps of at least
+ * {@link #getMinBytes()} bytes are then uploaded here, and drawing them draws nothing until they
+ * are ready; {@link ICanvasGL#isBitmapReady(Bitmap)} tells when to draw a placeholder instead.
+ * Call {@link #release()} when the render context is destroyed.
+ */
+public class AsyncTextureUploader implements Executor {
+    public static final int DEFAULT_MIN_BYTES = 256 * 1024;
+
+    private static final String TAG = "AsyncTextureUploader";
+
+    private final BlockingQueue<Runnable> tasks = new LinkedBlockingQueue<>();
+    private final EglContextWrapper sharedEglContext;
+    private volatile boolean released;
+    private volatile int minBytes = DEFAULT_MIN_BYTES;
+
+    public AsyncTextureUploader(@NonNull EglContextWrapper sharedEglContext) {
+        this.sharedEglContext = sharedEglContext;
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                loop();
+            }
+        }, TAG);
+        thread.start();
+    }
+
+    /**
+     * Bitmaps smaller than this are uploaded on the render thread as before, their upload is too
+     * short to be worth a frame of delay.
+     */
+    public void setMinBytes(int minBytes) {
+        this.minBytes = minBytes;
+    }
+
+    public int getMinBytes() {
+        return minBytes;
+    }
+
+    /**
+     * Creates a texture of the bitmap which is uploaded here when it is first drawn.
+     */
+    public AsyncBitmapTexture createTexture(Bitmap bitmap) {
+        return new AsyncBitmapTexture(bitmap, this);
+    }
+
+    /**
+     * Queues a task to run with the shared context current.
+     *
+     * @throws RejectedExecutionException after {@link #release()}, or if the thread could not
+     *                                    make its context current. Tasks which are still queued
+     *                                    when the thread ends are not run; those which are
+     *                                    {@link Future}s are cancelled.
+     */
+    @Override
+    public void execute(@NonNull Runnable task) {
+        if (released) {
+            throw new RejectedExecutionException("The uploader is released");
+        }
+        tasks.add(task);
+        // The thread may have ended meanwhile. Either it cancelled the task,
+        // or the task is still here and rejected.
+        if (released && tasks.remove(task)) {
+            throw new RejectedExecutionException("The uploader is released");
+        }
+    }
+
+    /**
+     * @return true after {@link #release()} or once the thread has ended; new tasks are rejected then
+     */
+    public boolean isReleased() {
+        return released;
+    }
+
+    /**
+     * Ends the thread after the queued tasks and destroys its context.
+     */
+    public void release() {
+        if (released) {
+            return;
+        }
+        released = true;
+        tasks.add(new Runnable() {
+            @Override
+            public void run() {
+            }
+        });
+    }
+
+    private void loop() {
+        IEglHelper eglHelper = EglHelperFactory.create(new GLThread.SimpleEGLConfigChooser(false, 2),
+                new GLThread.DefaultContextFactory(2), new PbufferSurfaceFactory());
+        try {
+            eglHelper.start(sharedEglContext);
+            if (!eglHelper.createSurface(null)) {
+                Loggers.e(TAG, "no surface for the upload context");
+                return;
+            }
+            while (!released || !tasks.isEmpty()) {
+                Runnable task = tasks.take();
+                try {
+                    task.run();
+                } catch (RuntimeException e) {
+                    Loggers.e(TAG, "upload failed: " + e);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            released = true;
+            Runnable task;
+            while ((task = tasks.poll()) != null) {
+                if (task instanceof Future) {
+                    ((Future<?>) task).cancel(false);
+                }
+            }
+            eglHelper.destroySurface();
+            eglHelper.finish();
+        }
+    }
+
+    private static class PbufferSurfaceFactory implements GLThread.EGLWindowSurfaceFactory {
+        @Override
+        public EGLSurface createWindowSurface(EGL10 egl, EGLDisplay display, EGLConfig config, Object nativeWindow) {
+            int[] attribList = new int[]{
+                    EGL10.EGL_WIDTH, 1,
+                    EGL10.EGL_HEIGHT, 1,
+                    EGL10.EGL_NONE
+            };
+            return egl.eglCreatePbufferSurface(display, config, attribList);
+        }
+
+        @Override
+        public void destroySurface(EGL10 egl, EGLDisplay display, EGLSurface surface) {
+            egl.eglDestroySurface(display, surface);
+        }
+
+        @TargetApi(Build.VERSION_CODES.JELLY_BEAN_MR1)
+        @Override
+        public android.opengl.EGLSurface createWindowSurface(android.opengl.EGLDisplay display, android.opengl.EGLConfig config, Object nativeWindow) {
+            int[] attribList = new int[]{
+                    EGL14.EGL_WIDTH, 1,
+                    EGL14.EGL_HEIGHT, 1,
+                    EGL14.EGL_NONE
+            };
+            return EGL14.eglCreatePbufferSurface(display, config, attribList, 0);
+        }
+
+        @TargetApi(Build.VERSION_CODES.JELLY_BEAN_MR1)
+        @Override
+        public void destroySurface(android.opengl.EGLDisplay display, android.opengl.EGLSurface surface) {
+            EGL14.eglDestroySurface(display, surface);
+        }
+    }
+}
@@ -26,22 +26,24 @@ import android.graphics.Paint;
 import android.graphics.Rect;
 import android.graphics.RectF;
 import android.graphics.SurfaceTexture;
-import android.opengl.GLES20;
 import android.os.Build;
 import android.support.annotation.IntRange;
 import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
 
+import com.chillingvan.canvasgl.glcanvas.AsyncBitmapTexture;
 import com.chillingvan.canvasgl.glcanvas.BasicTexture;
+import com.chillingvan.canvasgl.glcanvas.BitmapAtlas;
 import com.chillingvan.canvasgl.glcanvas.BitmapTexture;
 import com.chillingvan.canvasgl.glcanvas.GLCanvas;
 import com.chillingvan.canvasgl.glcanvas.GLES20Canvas;
 import com.chillingvan.canvasgl.glcanvas.GLPaint;
+import com.chillingvan.canvasgl.glcanvas.GLPath;
 import com.chillingvan.canvasgl.glcanvas.RawTexture;
 import com.chillingvan.canvasgl.glcanvas.UploadedTexture;
 import com.chillingvan.canvasgl.shapeFilter.BasicDrawShapeFilter;
-import com.chillingvan.canvasgl.shapeFilter.DrawCircleFilter;
 import com.chillingvan.canvasgl.shapeFilter.DrawShapeFilter;
+import com.chillingvan.canvasgl.shapeFilter.SdfShapeFilter;
 import com.chillingvan.canvasgl.textureFilter.BasicTextureFilter;
 import com.chillingvan.canvasgl.textureFilter.FilterGroup;
 import com.chillingvan.canvasgl.textureFilter.TextureFilter;
@@ -62,7 +64,11 @@ public class CanvasGL implements ICanvasGL {
     private int width;
     private int height;
     private BasicDrawShapeFilter basicDrawShapeFilter;
-    private DrawCircleFilter drawCircleFilter = new DrawCircleFilter();
+    private final SdfShapeFilter sdfShapeFilter = new SdfShapeFilter();
+    private BitmapAtlas bitmapAtlas;
+    private AsyncTextureUploader asyncUploader;
+    private final RectF atlasSource = new RectF();
+    private final RectF atlasTarget = new RectF();
 
     public CanvasGL() {
         this(new GLES20Canvas());
@@ -89,12 +95,11 @@ public class CanvasGL implements ICanvasGL {
 
     @Override
     public BitmapTexture bindBitmapToTexture(int whichTexture, Bitmap bitmap) {
-        GLES20.glActiveTexture(whichTexture);
-        GLES20Canvas.checkError();
-        BitmapTexture texture = (BitmapTexture) getTexture(bitmap, null);
+        glCanvas.getState().activeTexture(whichTexture);
+        throwIfCannotDraw(bitmap);
+        BitmapTexture texture = getBitmapTexture(bitmap);
         texture.onBind(glCanvas);
-        GLES20.glBindTexture(texture.getTarget(), texture.getId());
-        GLES20Canvas.checkError();
+        glCanvas.getState().bindTexture(texture.getTarget(), texture.getId());
         return texture;
     }
 
@@ -137,6 +142,9 @@ public class CanvasGL implements ICanvasGL {
     @Override
     public void drawBitmap(Bitmap bitmap, final BitmapMatrix matrix, TextureFilter textureFilter) {
         BasicTexture basicTexture = getTexture(bitmap, textureFilter);
+        if (basicTexture == null) {
+            return;
+        }
         save();
         glCanvas.drawTexture(basicTexture, 0, 0, bitmap.getWidth(), bitmap.getHeight(), textureFilter, new GLCanvas.ICustomMVPMatrix() {
             @Override
@@ -159,7 +167,15 @@ public class CanvasGL implements ICanvasGL {
 
     @Override
     public void drawBitmap(Bitmap bitmap, int left, int top, TextureFilter textureFilter) {
+        throwIfCannotDraw(bitmap);
+        atlasTarget.set(left, top, left + bitmap.getWidth(), top + bitmap.getHeight());
+        if (drawFromAtlas(bitmap, null, atlasTarget, textureFilter)) {
+            return;
+        }
         BasicTexture basicTexture = getTexture(bitmap, textureFilter);
+        if (basicTexture == null) {
+            return;
+        }
         glCanvas.drawTexture(basicTexture, left, top, bitmap.getWidth(), bitmap.getHeight(), textureFilter, null);
     }
 
@@ -173,7 +189,14 @@ public class CanvasGL implements ICanvasGL {
         if (dst == null) {
             throw new NullPointerException();
         }
+        throwIfCannotDraw(bitmap);
+        if (drawFromAtlas(bitmap, src, dst, textureFilter)) {
+            return;
+        }
         BasicTexture basicTexture = getTexture(bitmap, textureFilter);
+        if (basicTexture == null) {
+            return;
+        }
         glCanvas.drawTexture(basicTexture, src, dst, textureFilter, null);
     }
 
@@ -184,14 +207,43 @@ public class CanvasGL implements ICanvasGL {
 
     @Override
     public void drawBitmap(Bitmap bitmap, int left, int top, int width, int height, TextureFilter textureFilter) {
+        throwIfCannotDraw(bitmap);
+        atlasTarget.set(left, top, left + width, top + height);
+        if (drawFromAtlas(bitmap, null, atlasTarget, textureFilter)) {
+            return;
+        }
         BasicTexture basicTexture = getTexture(bitmap, textureFilter);
+        if (basicTexture == null) {
+            return;
+        }
         glCanvas.drawTexture(basicTexture, left, top, width, height, textureFilter, null);
     }
 
+    @Override
+    public void drawBitmapInstances(Bitmap bitmap, float[] instances, int count) {
+        BasicTexture basicTexture = getTexture(bitmap, null);
+        if (basicTexture == null) {
+            return;
+        }
+        glCanvas.drawTextureInstances(basicTexture, bitmap.getWidth(), bitmap.getHeight(), instances, 0, count);
+    }
+
+    /**
+     * @return the texture to draw the bitmap with, or null if it is still being uploaded by the
+     * {@link AsyncTextureUploader}
+     */
+    @Nullable
     protected BasicTexture getTexture(Bitmap bitmap, @Nullable TextureFilter textureFilter) {
         throwIfCannotDraw(bitmap);
+        return getCheckedTexture(bitmap, textureFilter);
+    }
 
+    // Returns null if the bitmap is still being uploaded by the async uploader.
+    private BasicTexture getCheckedTexture(Bitmap bitmap, @Nullable TextureFilter textureFilter) {
         BasicTexture resultTexture = getTextureFromMap(bitmap);
+        if (resultTexture instanceof AsyncBitmapTexture && !((AsyncBitmapTexture) resultTexture).isReady(glCanvas)) {
+            return null;
+        }
 
         if (textureFilter instanceof FilterGroup) {
             FilterGroup filterGroup = (FilterGroup) textureFilter;
@@ -202,18 +254,122 @@ public class CanvasGL implements ICanvasGL {
         return resultTexture;
     }
 
+    // Used by DisplayList replay, the bitmap was checked when it was recorded.
+    void drawRecordedBitmap(Bitmap bitmap, int left, int top, int width, int height, TextureFilter textureFilter) {
+        atlasTarget.set(left, top, left + width, top + height);
+        if (drawFromAtlas(bitmap, null, atlasTarget, textureFilter)) {
+            return;
+        }
+        BasicTexture basicTexture = getCheckedTexture(bitmap, textureFilter);
+        if (basicTexture == null) {
+            return;
+        }
+        glCanvas.drawTexture(basicTexture, left, top, width, height, textureFilter, null);
+    }
+
+    void drawRecordedBitmap(Bitmap bitmap, RectF src, RectF dst, TextureFilter textureFilter) {
+        if (drawFromAtlas(bitmap, src, dst, textureFilter)) {
+            return;
+        }
+        BasicTexture basicTexture = getCheckedTexture(bitmap, textureFilter);
+        if (basicTexture == null) {
+            return;
+        }
+        glCanvas.drawTexture(basicTexture, src, dst, textureFilter, null);
+    }
+
+    // Draws the part src of the bitmap, all of it if src is null, from its
+    // place in the atlas. Only plain draws go through the atlas, filters may
+    // sample outside the bitmap or need a texture of their own.
+    private boolean drawFromAtlas(Bitmap bitmap, @Nullable RectF src, RectF dst, TextureFilter textureFilter) {
+        if (bitmapAtlas == null || textureFilter == null || textureFilter.getClass() != BasicTextureFilter.class) {
+            return false;
+        }
+        if (src != null && (src.left < 0 || src.top < 0
+                || src.right > bitmap.getWidth() || src.bottom > bitmap.getHeight())) {
+            return false;
+        }
+        BasicTexture page = bitmapAtlas.get(glCanvas, bitmap, atlasSource);
+        if (page == null) {
+            return false;
+        }
+        if (src != null) {
+            float left = atlasSource.left;
+            float top = atlasSource.top;
+            atlasSource.set(left + src.left, top + src.top, left + src.right, top + src.bottom);
+        }
+        glCanvas.drawTexture(page, atlasSource, dst, textureFilter, null);
+        return true;
+    }
+
+    @Override
+    public void setBitmapAtlas(@Nullable BitmapAtlas bitmapAtlas) {
+        if (this.bitmapAtlas != null && this.bitmapAtlas != bitmapAtlas) {
+            glCanvas.flush();
+        }
+        this.bitmapAtlas = bitmapAtlas;
+    }
+
     @Override
     public void invalidateTextureContent(Bitmap bitmap) {
+        if (bitmapAtlas != null) {
+            bitmapAtlas.invalidate(bitmap);
+        }
         BasicTexture resultTexture = getTextureFromMap(bitmap);
         if (resultTexture instanceof UploadedTexture) {
             ((UploadedTexture) resultTexture).invalidateContent();
+        } else if (resultTexture instanceof AsyncBitmapTexture) {
+            // Uploaded again from the start when it is next drawn.
+            bitmapTextureMap.remove(bitmap);
+            resultTexture.recycle();
+        }
+    }
+
+    @Override
+    public void invalidateTextureContent(Bitmap bitmap, Rect rect) {
+        BasicTexture resultTexture = getTextureFromMap(bitmap);
+        if (resultTexture instanceof UploadedTexture) {
+            if (bitmapAtlas != null) {
+                bitmapAtlas.invalidate(bitmap);
+            }
+            ((UploadedTexture) resultTexture).invalidateContent(rect);
+        } else if (resultTexture instanceof AsyncBitmapTexture) {
+            if (bitmapAtlas != null) {
+                bitmapAtlas.invalidate(bitmap);
+            }
+            // Drawn as it was until the rectangle is uploaded.
+            ((AsyncBitmapTexture) resultTexture).invalidateContent(rect);
+        } else {
+            invalidateTextureContent(bitmap);
         }
     }
 
+    @Override
+    public void setAsyncUploader(@Nullable AsyncTextureUploader asyncUploader) {
+        this.asyncUploader = asyncUploader;
+    }
+
+    @Override
+    public boolean isBitmapReady(Bitmap bitmap) {
+        throwIfCannotDraw(bitmap);
+        BasicTexture texture = getTextureFromMap(bitmap);
+        return !(texture instanceof AsyncBitmapTexture) || ((AsyncBitmapTexture) texture).isReady(glCanvas);
+    }
+
     private BasicTexture getTextureFromMap(Bitmap bitmap) {
         BasicTexture resultTexture;
         if (bitmapTextureMap.containsKey(bitmap)) {
             resultTexture = bitmapTextureMap.get(bitmap);
+            if (resultTexture instanceof AsyncBitmapTexture && ((AsyncBitmapTexture) resultTexture).isFailed()) {
+                // E.g. the uploader was released, the bitmap is uploaded here instead.
+                resultTexture.recycle();
+                resultTexture = new BitmapTexture(bitmap);
+                bitmapTextureMap.put(bitmap, resultTexture);
+            }
+        } else if (asyncUploader != null && !asyncUploader.isReleased()
+                && bitmap.getByteCount() >= asyncUploader.getMinBytes()) {
+            resultTexture = new AsyncBitmapTexture(bitmap, asyncUploader);
+            bitmapTextureMap.put(bitmap, resultTexture);
         } else {
             resultTexture = new BitmapTexture(bitmap);
             bitmapTextureMap.put(bitmap, resultTexture);
@@ -221,14 +377,23 @@ public class CanvasGL implements ICanvasGL {
         return resultTexture;
     }
 
+    // Binding needs the texture right away, so it is never uploaded async.
+    private BitmapTexture getBitmapTexture(Bitmap bitmap) {
+        BasicTexture texture = bitmapTextureMap.get(bitmap);
+        if (texture instanceof BitmapTexture) {
+            return (BitmapTexture) texture;
+        }
+        if (texture != null) {
+            texture.recycle();
+        }
+        BitmapTexture bitmapTexture = new BitmapTexture(bitmap);
+        bitmapTextureMap.put(bitmap, bitmapTexture);
+        return bitmapTexture;
+    }
+
     @Override
     public void drawCircle(float x, float y, float radius, GLPaint paint) {
-        if (paint.getStyle() == Paint.Style.FILL) {
-            drawCircleFilter.setLineWidth(0.5f);
-        } else {
-            drawCircleFilter.setLineWidth(paint.getLineWidth() / (2*radius));
-        }
-        glCanvas.drawCircle(x - radius, y - radius, radius, paint, drawCircleFilter);
+        glCanvas.drawCircle(x - radius, y - radius, radius, paint, sdfShapeFilter);
     }
 
     @Override
@@ -256,6 +421,52 @@ public class CanvasGL implements ICanvasGL {
         }
     }
 
+    @Override
+    public void drawRoundRect(float left, float top, float right, float bottom, float radius, GLPaint paint) {
+        glCanvas.drawRoundRect(left, top, right - left, bottom - top, radius, paint, sdfShapeFilter);
+    }
+
+    @Override
+    public void drawRoundRect(@NonNull RectF rect, float radius, @NonNull GLPaint paint) {
+        drawRoundRect(rect.left, rect.top, rect.right, rect.bottom, radius, paint);
+    }
+
+    @Override
+    public void drawOval(float left, float top, float right, float bottom, GLPaint paint) {
+        glCanvas.drawOval(left, top, right - left, bottom - top, paint, sdfShapeFilter);
+    }
+
+    @Override
+    public void drawOval(@NonNull RectF oval, @NonNull GLPaint paint) {
+        drawOval(oval.left, oval.top, oval.right, oval.bottom, paint);
+    }
+
+    @Override
+    public void drawArc(@NonNull RectF oval, float startAngle, float sweepAngle, @NonNull GLPaint paint) {
+        glCanvas.drawArc(oval.left, oval.top, oval.width(), oval.height(), startAngle, sweepAngle, paint,
+                sdfShapeFilter);
+    }
+
+    @Override
+    public void drawPath(@NonNull GLPath path, @NonNull GLPaint paint) {
+        glCanvas.drawPath(path, paint, basicDrawShapeFilter);
+    }
+
+    @Override
+    public void drawPolyline(@NonNull float[] points, int offset, int pointCount, @NonNull GLPaint paint) {
+        glCanvas.drawPolyline(points, offset, pointCount, paint, basicDrawShapeFilter);
+    }
+
+    @Override
+    public void drawText(@NonNull String text, float x, float y, @NonNull GLPaint paint) {
+        glCanvas.drawText(text, 0, text.length(), x, y, paint);
+    }
+
+    @Override
+    public void drawText(@NonNull CharSequence text, int start, int end, float x, float y, @NonNull GLPaint paint) {
+        glCanvas.drawText(text, start, end, x, y, paint);
+    }
+
     @Override
     public void save() {
         glCanvas.save();
@@ -265,6 +476,7 @@ public class CanvasGL implements ICanvasGL {
      * @param saveFlags {@link GLCanvas.SAVE_FLAG_ALL}
      *                  {@link GLCanvas.SAVE_FLAG_ALPHA}
      *                  {@link GLCanvas.SAVE_FLAG_MATRIX}
+     *                  {@link GLCanvas.SAVE_FLAG_CLIP}
      */
     @Override
     public void save(int saveFlags) {
@@ -276,6 +488,16 @@ public class CanvasGL implements ICanvasGL {
         glCanvas.restore();
     }
 
+    @Override
+    public void clipRect(float left, float top, float right, float bottom) {
+        glCanvas.clipRect(left, top, right, bottom);
+    }
+
+    @Override
+    public void clipRect(@NonNull RectF rect) {
+        clipRect(rect.left, rect.top, rect.right, rect.bottom);
+    }
+
 
     @Override
     public void rotate(float degrees) {
@@ -351,6 +573,10 @@ public class CanvasGL implements ICanvasGL {
     }
 
     protected void throwIfCannotDraw(Bitmap bitmap) {
+        checkBitmap(bitmap);
+    }
+
+    static void checkBitmap(Bitmap bitmap) {
         if (bitmap.isRecycled()) {
             throw new RuntimeException("Canvas: trying to use a recycled bitmap " + bitmap);
         }
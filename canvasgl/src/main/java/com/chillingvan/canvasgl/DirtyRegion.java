@@ -0,0 +1,175 @@
+/*
+ *
+ *  *
+ *  *  * Copyright (C) 2016 ChillingVan
+ *  *  *
+ *  *  * Licensed under the Apache License, Version 2.0 (the "License");
+ *  *  * you may not use this file except in compliance with the License.
+ *  *  * You may obtain a copy of the License at
+ *  *  *
+ *  *  * http://www.apache.org/licenses/LICENSE-2.0
+ *  *  *
+ *  *  * Unless required by applicable law or agreed to in writing, software
+ *  *  * distributed under the License is distributed on an "AS IS" BASIS,
+ *  *  * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  *  * See the License for the specific language governing permissions and
+ *  *  * limitations under the License.
+ *  *
+ *
+ */
+
+package com.chillingvan.canvasgl;
+
+import android.graphics.Rect;
+
+/**
+ * Collects the areas of a surface invalidated between frames and works out what a frame must
+ * redraw so the rest of the buffer can be kept.
+ * <p>
+ * A buffer with an age of n holds the frame drawn n frames ago, so it misses the damage of the
+ * n - 1 frames drawn since. The area to redraw is the union of those and of the damage of the
+ * new frame. When the age is unknown, or older than the frames remembered, the whole surface is
+ * redrawn.
+ * <p>
+ * {@link #invalidate(int, int, int, int)} and {@link #invalidateAll()} may be called on any
+ * thread, the other methods on the GL thread only.
+ */
+public class DirtyRegion {
+
+    // Swap chains are rarely longer than triple buffering.
+    private static final int MAX_BUFFER_AGE = 4;
+
+    private final Object lock = new Object();
+    // Guarded by lock
+    private int pendingLeft;
+    private int pendingTop;
+    private int pendingRight;
+    private int pendingBottom;
+    private boolean hasPending;
+    private boolean pendingAll = true;
+
+    // Damage of the previous frames, newest first: left, top, right, bottom.
+    private final int[] history = new int[(MAX_BUFFER_AGE - 1) * 4];
+    private int historyCount;
+    private int width;
+    private int height;
+
+    /**
+     * Marks an area, in surface coordinates, to be redrawn by the next frame.
+     */
+    public void invalidate(int left, int top, int right, int bottom) {
+        if (left >= right || top >= bottom) {
+            return;
+        }
+        synchronized (lock) {
+            if (hasPending) {
+                pendingLeft = Math.min(pendingLeft, left);
+                pendingTop = Math.min(pendingTop, top);
+                pendingRight = Math.max(pendingRight, right);
+                pendingBottom = Math.max(pendingBottom, bottom);
+            } else {
+                pendingLeft = left;
+                pendingTop = top;
+                pendingRight = right;
+                pendingBottom = bottom;
+                hasPending = true;
+            }
+        }
+    }
+
+    /**
+     * Makes the next frame redraw the whole surface.
+     */
+    public void invalidateAll() {
+        synchronized (lock) {
+            pendingAll = true;
+        }
+    }
+
+    /**
+     * Called when the surface changes size. The content of the buffers is lost.
+     */
+    public void setSize(int width, int height) {
+        if (width != this.width || height != this.height) {
+            this.width = width;
+            this.height = height;
+            invalidateAll();
+        }
+    }
+
+    /**
+     * Starts a frame. A frame for which nothing was invalidated redraws the whole surface.
+     *
+     * @param bufferAge frames since the buffer drawn to was last drawn, 0 if its content is undefined.
+     * @param outRedraw set to the area to redraw when true is returned, it may be empty.
+     * @return false if the whole surface must be redrawn.
+     */
+    public boolean nextFrame(int bufferAge, Rect outRedraw) {
+        int left;
+        int top;
+        int right;
+        int bottom;
+        boolean full;
+        synchronized (lock) {
+            full = pendingAll || !hasPending;
+            left = pendingLeft;
+            top = pendingTop;
+            right = pendingRight;
+            bottom = pendingBottom;
+            pendingAll = false;
+            hasPending = false;
+        }
+        if (full) {
+            left = 0;
+            top = 0;
+            right = width;
+            bottom = height;
+            historyCount = 0;
+        } else {
+            left = Math.max(left, 0);
+            top = Math.max(top, 0);
+            right = Math.min(right, width);
+            bottom = Math.min(bottom, height);
+        }
+
+        boolean partial = !full && bufferAge > 0 && bufferAge - 1 <= historyCount;
+        int redrawLeft = left;
+        int redrawTop = top;
+        int redrawRight = right;
+        int redrawBottom = bottom;
+        if (partial) {
+            for (int i = 0, end = (bufferAge - 1) * 4; i < end; i += 4) {
+                if (history[i] >= history[i + 2] || history[i + 1] >= history[i + 3]) {
+                    continue;
+                }
+                if (redrawLeft >= redrawRight || redrawTop >= redrawBottom) {
+                    redrawLeft = history[i];
+                    redrawTop = history[i + 1];
+                    redrawRight = history[i + 2];
+                    redrawBottom = history[i + 3];
+                } else {
+                    redrawLeft = Math.min(redrawLeft, history[i]);
+                    redrawTop = Math.min(redrawTop, history[i + 1]);
+                    redrawRight = Math.max(redrawRight, history[i + 2]);
+                    redrawBottom = Math.max(redrawBottom, history[i + 3]);
+                }
+            }
+        }
+        pushHistory(left, top, right, bottom);
+
+        if (!partial || (redrawLeft <= 0 && redrawTop <= 0 && redrawRight >= width && redrawBottom >= height)) {
+            return false;
+        }
+        outRedraw.set(redrawLeft, redrawTop, redrawRight, redrawBottom);
+        return true;
+    }
+
+    private void pushHistory(int left, int top, int right, int bottom) {
+        System.arraycopy(history, 0, history, 4, history.length - 4);
+        history[0] = left;
+        history[1] = top;
+        history[2] = right;
+        history[3] = bottom;
+        historyCount = Math.min(historyCount + 1, MAX_BUFFER_AGE - 1);
+    }
+}
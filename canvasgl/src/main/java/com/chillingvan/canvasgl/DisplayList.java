@@ -0,0 +1,626 @@
+/*
+ *
+ *  *
+ *  *  * Copyright (C) 2016 ChillingVan
+ *  *  *
+ *  *  * Licensed under the Apache License, Version 2.0 (the "License");
+ *  *  * you may not use this file except in compliance with the License.
+ *  *  * You may obtain a copy of the License at
+ *  *  *
+ *  *  * http://www.apache.org/licenses/LICENSE-2.0
+ *  *  *
+ *  *  * Unless required by applicable law or agreed to in writing, software
+ *  *  * distributed under the License is distributed on an "AS IS" BASIS,
+ *  *  * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  *  * See the License for the specific language governing permissions and
+ *  *  * limitations under the License.
+ *  *
+ *
+ */
+
+package com.chillingvan.canvasgl;
+
+import android.graphics.Bitmap;
+import android.graphics.Paint;
+import android.graphics.Rect;
+import android.graphics.RectF;
+import android.graphics.SurfaceTexture;
+import android.graphics.Typeface;
+
+import com.chillingvan.canvasgl.glcanvas.BasicTexture;
+import com.chillingvan.canvasgl.glcanvas.GLCanvas;
+import com.chillingvan.canvasgl.glcanvas.GLPaint;
+import com.chillingvan.canvasgl.glcanvas.GLPath;
+import com.chillingvan.canvasgl.glcanvas.RawTexture;
+import com.chillingvan.canvasgl.textureFilter.FilterGroup;
+import com.chillingvan.canvasgl.textureFilter.TextureFilter;
+
+import java.util.Arrays;
+
+/**
+ * A list of recorded {@link ICanvasGL} calls which can be replayed any number of times.
+ * <p>
+ * Record with the canvas returned by {@link #beginRecording(int, int)}, then call
+ * {@link #endRecording()}. The calls are kept in three primitive-array streams, opcodes and
+ * int arguments, float arguments and object references, so replaying allocates nothing.
+ * <p>
+ * Arguments are checked while recording, and a replay onto a {@link CanvasGL} draws bitmaps
+ * straight through its {@link GLCanvas} without checking them again. Replay also turns on
+ * batching for its duration, so a static frame costs a handful of draw calls.
+ * <p>
+ * Bitmaps, textures, filters, paths and BitmapMatrix objects are referenced, not copied. Paints,
+ * rectangles, polyline points and instance arrays are copied, and so is text which is not a String.
+ */
+public class DisplayList {
+
+    static final int OP_SAVE = 1;
+    static final int OP_RESTORE = 2;
+    static final int OP_TRANSLATE = 3;
+    static final int OP_ROTATE = 4;
+    static final int OP_SCALE = 5;
+    static final int OP_SET_ALPHA = 6;
+    static final int OP_CLEAR = 7;
+    static final int OP_CLEAR_COLOR = 8;
+    static final int OP_BITMAP = 9;
+    static final int OP_BITMAP_RECT = 10;
+    static final int OP_BITMAP_MATRIX = 11;
+    static final int OP_BITMAP_INSTANCES = 12;
+    static final int OP_SURFACE_TEXTURE = 13;
+    static final int OP_CIRCLE = 14;
+    static final int OP_LINE = 15;
+    static final int OP_RECT = 16;
+    static final int OP_BEGIN_RENDER_TARGET = 17;
+    static final int OP_END_RENDER_TARGET = 18;
+    static final int OP_INVALIDATE_CONTENT = 19;
+    static final int OP_CLIP_RECT = 20;
+    static final int OP_ROUND_RECT = 21;
+    static final int OP_OVAL = 22;
+    static final int OP_ARC = 23;
+    static final int OP_PATH = 24;
+    static final int OP_POLYLINE = 25;
+    static final int OP_TEXT = 26;
+    static final int OP_INVALIDATE_CONTENT_RECT = 27;
+
+    private static final int NO_OP = -1;
+    private static final int INITIAL_CAPACITY = 64;
+
+    private int[] mInts = new int[INITIAL_CAPACITY];
+    private float[] mFloats = new float[INITIAL_CAPACITY];
+    private Object[] mObjects = new Object[INITIAL_CAPACITY];
+    private int mIntCount;
+    private int mFloatCount;
+    private int mObjectCount;
+    private int mOpCount;
+
+    // The last op and where it starts, so the next one can be merged into it.
+    private int mLastOp = NO_OP;
+    private int mLastIntStart;
+    private int mLastFloatStart;
+
+    // Created once and attached for every recording, so recording a list
+    // every frame allocates nothing.
+    private RecordingCanvasGL mRecordingCanvas;
+    private boolean mRecording;
+
+    // Reused by replay, created on first use.
+    private GLPaint mPaint;
+    private RectF mSource;
+    private RectF mTarget;
+    private Rect mDirtyRect;
+
+    /**
+     * Clears the list and returns a canvas which records into it.
+     *
+     * @param width  the width reported by the recording canvas
+     * @param height the height reported by the recording canvas
+     */
+    public ICanvasGL beginRecording(int width, int height) {
+        if (mRecording) {
+            throw new IllegalStateException("Already recording");
+        }
+        clear();
+        if (mRecordingCanvas == null) {
+            mRecordingCanvas = new RecordingCanvasGL();
+        }
+        mRecordingCanvas.attach(this, width, height);
+        mRecording = true;
+        return mRecordingCanvas;
+    }
+
+    public void endRecording() {
+        if (!mRecording) {
+            throw new IllegalStateException("Not recording");
+        }
+        mRecordingCanvas.detach();
+        mRecording = false;
+    }
+
+    public boolean isRecording() {
+        return mRecording;
+    }
+
+    public int getOpCount() {
+        return mOpCount;
+    }
+
+    public boolean isEmpty() {
+        return mOpCount == 0;
+    }
+
+    /**
+     * Drops the recorded calls and the references they hold.
+     */
+    public void clear() {
+        Arrays.fill(mObjects, 0, mObjectCount, null);
+        mIntCount = 0;
+        mFloatCount = 0;
+        mObjectCount = 0;
+        mOpCount = 0;
+        mLastOp = NO_OP;
+    }
+
+    /**
+     * Replays the recorded calls onto the canvas. Must be called on its GL thread.
+     */
+    public void replay(ICanvasGL canvas) {
+        if (mRecording) {
+            throw new IllegalStateException("Cannot replay while recording");
+        }
+        if (!(canvas instanceof CanvasGL)) {
+            // E.g. another recording canvas, the calls are just forwarded.
+            replayOps(canvas, null);
+            return;
+        }
+        CanvasGL canvasGL = (CanvasGL) canvas;
+        GLCanvas glCanvas = canvasGL.getGlCanvas();
+        boolean batchEnabled = glCanvas.isBatchEnabled();
+        glCanvas.setBatchEnabled(true);
+        try {
+            replayOps(canvas, canvasGL);
+        } finally {
+            glCanvas.setBatchEnabled(batchEnabled);
+        }
+    }
+
+    private void replayOps(ICanvasGL canvas, CanvasGL canvasGL) {
+        int[] ints = mInts;
+        float[] floats = mFloats;
+        Object[] objects = mObjects;
+        int i = 0;
+        int f = 0;
+        int o = 0;
+        while (i < mIntCount) {
+            int op = ints[i++];
+            switch (op) {
+                case OP_SAVE:
+                    canvas.save(ints[i++]);
+                    break;
+                case OP_RESTORE:
+                    canvas.restore();
+                    break;
+                case OP_TRANSLATE:
+                    canvas.translate(floats[f], floats[f + 1]);
+                    f += 2;
+                    break;
+                case OP_ROTATE:
+                    canvas.rotate(floats[f++]);
+                    break;
+                case OP_SCALE:
+                    canvas.scale(floats[f], floats[f + 1]);
+                    f += 2;
+                    break;
+                case OP_SET_ALPHA:
+                    canvas.setAlpha(ints[i++]);
+                    break;
+                case OP_CLEAR:
+                    canvas.clearBuffer();
+                    break;
+                case OP_CLEAR_COLOR:
+                    canvas.clearBuffer(ints[i++]);
+                    break;
+                case OP_BITMAP: {
+                    Bitmap bitmap = (Bitmap) objects[o];
+                    TextureFilter filter = (TextureFilter) objects[o + 1];
+                    o += 2;
+                    if (canvasGL != null && !(filter instanceof FilterGroup)) {
+                        canvasGL.drawRecordedBitmap(bitmap, ints[i], ints[i + 1], ints[i + 2], ints[i + 3], filter);
+                    } else {
+                        canvas.drawBitmap(bitmap, ints[i], ints[i + 1], ints[i + 2], ints[i + 3], filter);
+                    }
+                    i += 4;
+                    break;
+                }
+                case OP_BITMAP_RECT: {
+                    Bitmap bitmap = (Bitmap) objects[o];
+                    TextureFilter filter = (TextureFilter) objects[o + 1];
+                    o += 2;
+                    if (mSource == null) {
+                        mSource = new RectF();
+                        mTarget = new RectF();
+                    }
+                    mSource.set(floats[f], floats[f + 1], floats[f + 2], floats[f + 3]);
+                    mTarget.set(floats[f + 4], floats[f + 5], floats[f + 6], floats[f + 7]);
+                    f += 8;
+                    if (canvasGL != null && !(filter instanceof FilterGroup)) {
+                        canvasGL.drawRecordedBitmap(bitmap, mSource, mTarget, filter);
+                    } else {
+                        canvas.drawBitmap(bitmap, mSource, mTarget, filter);
+                    }
+                    break;
+                }
+                case OP_BITMAP_MATRIX: {
+                    Bitmap bitmap = (Bitmap) objects[o];
+                    CanvasGL.BitmapMatrix matrix = (CanvasGL.BitmapMatrix) objects[o + 1];
+                    TextureFilter filter = (TextureFilter) objects[o + 2];
+                    o += 3;
+                    canvas.drawBitmap(bitmap, matrix, filter);
+                    break;
+                }
+                case OP_BITMAP_INSTANCES:
+                    canvas.drawBitmapInstances((Bitmap) objects[o], (float[]) objects[o + 1], ints[i++]);
+                    o += 2;
+                    break;
+                case OP_SURFACE_TEXTURE: {
+                    BasicTexture texture = (BasicTexture) objects[o];
+                    SurfaceTexture surfaceTexture = (SurfaceTexture) objects[o + 1];
+                    TextureFilter filter = (TextureFilter) objects[o + 2];
+                    o += 3;
+                    canvas.drawSurfaceTexture(texture, surfaceTexture, ints[i], ints[i + 1], ints[i + 2], ints[i + 3], filter);
+                    i += 4;
+                    break;
+                }
+                case OP_CIRCLE:
+                    o = readPaint(ints[i++], floats[f + 3], objects, o);
+                    canvas.drawCircle(floats[f], floats[f + 1], floats[f + 2], mPaint);
+                    f += 4;
+                    break;
+                case OP_LINE:
+                    o = readPaint(ints[i++], floats[f + 4], objects, o);
+                    canvas.drawLine(floats[f], floats[f + 1], floats[f + 2], floats[f + 3], mPaint);
+                    f += 5;
+                    break;
+                case OP_RECT:
+                    o = readPaint(ints[i++], floats[f + 4], objects, o);
+                    canvas.drawRect(floats[f], floats[f + 1], floats[f + 2], floats[f + 3], mPaint);
+                    f += 5;
+                    break;
+                case OP_ROUND_RECT:
+                    o = readPaint(ints[i++], floats[f + 5], objects, o);
+                    canvas.drawRoundRect(floats[f], floats[f + 1], floats[f + 2], floats[f + 3], floats[f + 4], mPaint);
+                    f += 6;
+                    break;
+                case OP_OVAL:
+                    o = readPaint(ints[i++], floats[f + 4], objects, o);
+                    canvas.drawOval(floats[f], floats[f + 1], floats[f + 2], floats[f + 3], mPaint);
+                    f += 5;
+                    break;
+                case OP_ARC:
+                    o = readPaint(ints[i++], floats[f + 6], objects, o);
+                    if (mTarget == null) {
+                        mTarget = new RectF();
+                    }
+                    mTarget.set(floats[f], floats[f + 1], floats[f + 2], floats[f + 3]);
+                    canvas.drawArc(mTarget, floats[f + 4], floats[f + 5], mPaint);
+                    f += 7;
+                    break;
+                case OP_PATH: {
+                    GLPath path = (GLPath) objects[o++];
+                    o = readPaint(ints[i++], floats[f], objects, o);
+                    canvas.drawPath(path, mPaint);
+                    f += 1;
+                    break;
+                }
+                case OP_POLYLINE: {
+                    o = readPaint(ints[i++], floats[f], objects, o);
+                    int pointCount = ints[i++];
+                    canvas.drawPolyline(floats, f + 1, pointCount, mPaint);
+                    f += 1 + pointCount * 2;
+                    break;
+                }
+                case OP_TEXT: {
+                    String text = (String) objects[o++];
+                    o = readPaint(ints[i++], 0, objects, o);
+                    mPaint.setTypeface((Typeface) objects[o++]);
+                    mPaint.setTextSize(floats[f + 2]);
+                    canvas.drawText(text, floats[f], floats[f + 1], mPaint);
+                    f += 3;
+                    break;
+                }
+                case OP_BEGIN_RENDER_TARGET:
+                    canvas.beginRenderTarget((RawTexture) objects[o++]);
+                    break;
+                case OP_END_RENDER_TARGET:
+                    canvas.endRenderTarget();
+                    break;
+                case OP_INVALIDATE_CONTENT:
+                    canvas.invalidateTextureContent((Bitmap) objects[o++]);
+                    break;
+                case OP_INVALIDATE_CONTENT_RECT:
+                    if (mDirtyRect == null) {
+                        mDirtyRect = new Rect();
+                    }
+                    mDirtyRect.set(ints[i], ints[i + 1], ints[i + 2], ints[i + 3]);
+                    i += 4;
+                    canvas.invalidateTextureContent((Bitmap) objects[o++], mDirtyRect);
+                    break;
+                case OP_CLIP_RECT:
+                    canvas.clipRect(floats[f], floats[f + 1], floats[f + 2], floats[f + 3]);
+                    f += 4;
+                    break;
+                default:
+                    throw new IllegalStateException("Unknown op " + op + " at " + (i - 1));
+            }
+        }
+    }
+
+    private int readPaint(int color, float lineWidth, Object[] objects, int o) {
+        if (mPaint == null) {
+            mPaint = new GLPaint();
+        }
+        mPaint.setColor(color);
+        mPaint.setLineWidth(lineWidth);
+        mPaint.setStyle((Paint.Style) objects[o]);
+        mPaint.setStrokeJoin((Paint.Join) objects[o + 1]);
+        mPaint.setStrokeCap((Paint.Cap) objects[o + 2]);
+        return o + 3;
+    }
+
+    // ************** Recording, called by RecordingCanvasGL **********************
+
+    void save(int saveFlags) {
+        beginOp(OP_SAVE);
+        putInt(saveFlags);
+    }
+
+    void restore() {
+        // A save directly followed by its restore does nothing.
+        if (mLastOp == OP_SAVE) {
+            mIntCount = mLastIntStart;
+            mOpCount--;
+            mLastOp = NO_OP;
+            return;
+        }
+        beginOp(OP_RESTORE);
+    }
+
+    void translate(float dx, float dy) {
+        if (mLastOp == OP_TRANSLATE) {
+            mFloats[mLastFloatStart] += dx;
+            mFloats[mLastFloatStart + 1] += dy;
+            return;
+        }
+        beginOp(OP_TRANSLATE);
+        putFloat(dx);
+        putFloat(dy);
+    }
+
+    void rotate(float degrees) {
+        if (mLastOp == OP_ROTATE) {
+            mFloats[mLastFloatStart] += degrees;
+            return;
+        }
+        beginOp(OP_ROTATE);
+        putFloat(degrees);
+    }
+
+    void scale(float sx, float sy) {
+        if (mLastOp == OP_SCALE) {
+            mFloats[mLastFloatStart] *= sx;
+            mFloats[mLastFloatStart + 1] *= sy;
+            return;
+        }
+        beginOp(OP_SCALE);
+        putFloat(sx);
+        putFloat(sy);
+    }
+
+    void setAlpha(int alpha) {
+        // setAlpha replaces the alpha, so only the last of a run counts.
+        if (mLastOp == OP_SET_ALPHA) {
+            mInts[mLastIntStart + 1] = alpha;
+            return;
+        }
+        beginOp(OP_SET_ALPHA);
+        putInt(alpha);
+    }
+
+    void clipRect(float left, float top, float right, float bottom) {
+        beginOp(OP_CLIP_RECT);
+        putRect(left, top, right, bottom);
+    }
+
+    void clearBuffer() {
+        beginOp(OP_CLEAR);
+    }
+
+    void clearBuffer(int color) {
+        beginOp(OP_CLEAR_COLOR);
+        putInt(color);
+    }
+
+    void drawBitmap(Bitmap bitmap, int left, int top, int width, int height, TextureFilter filter) {
+        beginOp(OP_BITMAP);
+        putObject(bitmap);
+        putObject(filter);
+        putInt(left);
+        putInt(top);
+        putInt(width);
+        putInt(height);
+    }
+
+    void drawBitmap(Bitmap bitmap, RectF source, RectF target, TextureFilter filter) {
+        beginOp(OP_BITMAP_RECT);
+        putObject(bitmap);
+        putObject(filter);
+        putRect(source.left, source.top, source.right, source.bottom);
+        putRect(target.left, target.top, target.right, target.bottom);
+    }
+
+    void drawBitmap(Bitmap bitmap, CanvasGL.BitmapMatrix matrix, TextureFilter filter) {
+        beginOp(OP_BITMAP_MATRIX);
+        putObject(bitmap);
+        putObject(matrix);
+        putObject(filter);
+    }
+
+    void drawBitmapInstances(Bitmap bitmap, float[] instances, int count) {
+        beginOp(OP_BITMAP_INSTANCES);
+        putObject(bitmap);
+        putObject(Arrays.copyOf(instances, count * GLCanvas.INSTANCE_STRIDE));
+        putInt(count);
+    }
+
+    void drawSurfaceTexture(BasicTexture texture, SurfaceTexture surfaceTexture,
+                            int left, int top, int right, int bottom, TextureFilter filter) {
+        beginOp(OP_SURFACE_TEXTURE);
+        putObject(texture);
+        putObject(surfaceTexture);
+        putObject(filter);
+        putInt(left);
+        putInt(top);
+        putInt(right);
+        putInt(bottom);
+    }
+
+    void drawCircle(float x, float y, float radius, GLPaint paint) {
+        beginOp(OP_CIRCLE);
+        putPaint(paint);
+        putFloat(x);
+        putFloat(y);
+        putFloat(radius);
+        putFloat(paint.getLineWidth());
+    }
+
+    void drawLine(float startX, float startY, float stopX, float stopY, GLPaint paint) {
+        beginOp(OP_LINE);
+        putPaint(paint);
+        putRect(startX, startY, stopX, stopY);
+        putFloat(paint.getLineWidth());
+    }
+
+    void drawRect(float left, float top, float right, float bottom, GLPaint paint) {
+        beginOp(OP_RECT);
+        putPaint(paint);
+        putRect(left, top, right, bottom);
+        putFloat(paint.getLineWidth());
+    }
+
+    void drawRoundRect(float left, float top, float right, float bottom, float radius, GLPaint paint) {
+        beginOp(OP_ROUND_RECT);
+        putPaint(paint);
+        putRect(left, top, right, bottom);
+        putFloat(radius);
+        putFloat(paint.getLineWidth());
+    }
+
+    void drawOval(float left, float top, float right, float bottom, GLPaint paint) {
+        beginOp(OP_OVAL);
+        putPaint(paint);
+        putRect(left, top, right, bottom);
+        putFloat(paint.getLineWidth());
+    }
+
+    void drawArc(float left, float top, float right, float bottom, float startAngle, float sweepAngle,
+                 GLPaint paint) {
+        beginOp(OP_ARC);
+        putPaint(paint);
+        putRect(left, top, right, bottom);
+        putFloat(startAngle);
+        putFloat(sweepAngle);
+        putFloat(paint.getLineWidth());
+    }
+
+    void drawPath(GLPath path, GLPaint paint) {
+        beginOp(OP_PATH);
+        putObject(path);
+        putPaint(paint);
+        putFloat(paint.getLineWidth());
+    }
+
+    void drawText(String text, float x, float y, GLPaint paint) {
+        beginOp(OP_TEXT);
+        putObject(text);
+        putPaint(paint);
+        putObject(paint.getTypeface());
+        putFloat(x);
+        putFloat(y);
+        putFloat(paint.getTextSize());
+    }
+
+    void drawPolyline(float[] points, int offset, int pointCount, GLPaint paint) {
+        beginOp(OP_POLYLINE);
+        putPaint(paint);
+        putFloat(paint.getLineWidth());
+        putInt(pointCount);
+        for (int i = 0; i < pointCount * 2; i++) {
+            putFloat(points[offset + i]);
+        }
+    }
+
+    void beginRenderTarget(RawTexture texture) {
+        beginOp(OP_BEGIN_RENDER_TARGET);
+        putObject(texture);
+    }
+
+    void endRenderTarget() {
+        beginOp(OP_END_RENDER_TARGET);
+    }
+
+    void invalidateTextureContent(Bitmap bitmap) {
+        beginOp(OP_INVALIDATE_CONTENT);
+        putObject(bitmap);
+    }
+
+    void invalidateTextureContent(Bitmap bitmap, Rect rect) {
+        beginOp(OP_INVALIDATE_CONTENT_RECT);
+        putObject(bitmap);
+        putInt(rect.left);
+        putInt(rect.top);
+        putInt(rect.right);
+        putInt(rect.bottom);
+    }
+
+    private void beginOp(int op) {
+        mLastOp = op;
+        mLastIntStart = mIntCount;
+        mLastFloatStart = mFloatCount;
+        mOpCount++;
+        putInt(op);
+    }
+
+    // The color goes to the int stream, the style, join and cap to the objects.
+    private void putPaint(GLPaint paint) {
+        putInt(paint.getColor());
+        putObject(paint.getStyle());
+        putObject(paint.getStrokeJoin());
+        putObject(paint.getStrokeCap());
+    }
+
+    private void putRect(float left, float top, float right, float bottom) {
+        putFloat(left);
+        putFloat(top);
+        putFloat(right);
+        putFloat(bottom);
+    }
+
+    private void putInt(int value) {
+        if (mIntCount == mInts.length) {
+            mInts = Arrays.copyOf(mInts, mIntCount * 2);
+        }
+        mInts[mIntCount++] = value;
+    }
+
+    private void putFloat(float value) {
+        if (mFloatCount == mFloats.length) {
+            mFloats = Arrays.copyOf(mFloats, mFloatCount * 2);
+        }
+        mFloats[mFloatCount++] = value;
+    }
+
+    private void putObject(Object value) {
+        if (mObjectCount == mObjects.length) {
+            mObjects = Arrays.copyOf(mObjects, mObjectCount * 2);
+        }
+        mObjects[mObjectCount++] = value;
+    }
+}
@@ -31,10 +31,12 @@ import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
 
 import com.chillingvan.canvasgl.glcanvas.BasicTexture;
+import com.chillingvan.canvasgl.glcanvas.BitmapAtlas;
 import com.chillingvan.canvasgl.glcanvas.BitmapTexture;
 import com.chillingvan.canvasgl.glcanvas.GLCanvas;
 import com.chillingvan.canvasgl.glcanvas.GLES20Canvas;
 import com.chillingvan.canvasgl.glcanvas.GLPaint;
+import com.chillingvan.canvasgl.glcanvas.GLPath;
 import com.chillingvan.canvasgl.glcanvas.RawTexture;
 import com.chillingvan.canvasgl.textureFilter.TextureFilter;
 
@@ -76,8 +78,55 @@ public interface ICanvasGL {
 
     void drawBitmap(Bitmap bitmap, int left, int top, int width, int height, @NonNull TextureFilter textureFilter);
 
+    /**
+     * Draws count copies of the bitmap in one go, much faster than a drawBitmap per copy.
+     *
+     * @param instances {@link GLCanvas#INSTANCE_STRIDE} floats per copy, laid out as
+     *                  {@link GLCanvas#INSTANCE_X}, {@link GLCanvas#INSTANCE_Y} of the center,
+     *                  {@link GLCanvas#INSTANCE_ROTATION} in degrees, {@link GLCanvas#INSTANCE_SCALE}
+     *                  and {@link GLCanvas#INSTANCE_ALPHA} from 0 to 1
+     * @param count number of copies
+     */
+    void drawBitmapInstances(Bitmap bitmap, float[] instances, int count);
+
     void invalidateTextureContent(Bitmap bitmap);
 
+    /**
+     * Marks a part of the bitmap as changed since it was last drawn. The changed parts are
+     * merged and only they are uploaded when the bitmap is next drawn, so painting a small area
+     * of a large bitmap costs as much as the area. The bitmap must keep its size.
+     *
+     * @param rect the changed pixels, in bitmap coordinates
+     */
+    void invalidateTextureContent(Bitmap bitmap, Rect rect);
+
+    /**
+     * Packs small bitmaps into the pages of the atlas when they are drawn, so that icons and
+     * sprites drawn one after another share a texture and are batched together. Only draws with
+     * the basic texture filter and without a {@link BitmapMatrix} use the atlas; other draws of
+     * the same bitmap use a texture of its own.
+     *
+     * @param bitmapAtlas the atlas, or null to draw every bitmap from its own texture
+     */
+    void setBitmapAtlas(@Nullable BitmapAtlas bitmapAtlas);
+
+    /**
+     * Uploads bitmaps of at least {@link AsyncTextureUploader#getMinBytes()} bytes on the thread
+     * of the uploader instead of when they are first drawn. Until the upload is done drawing such
+     * a bitmap draws nothing; check {@link #isBitmapReady(Bitmap)} to draw a placeholder instead.
+     * {@link #bindBitmapToTexture(int, Bitmap)} always uploads right away.
+     *
+     * @param asyncUploader an uploader whose context is shared with this canvas, or null to
+     *                      upload every bitmap when it is first drawn
+     */
+    void setAsyncUploader(@Nullable AsyncTextureUploader asyncUploader);
+
+    /**
+     * @return true if the bitmap can be drawn now, false while the {@link AsyncTextureUploader}
+     * is still uploading it. Starts the upload if it has not started.
+     */
+    boolean isBitmapReady(Bitmap bitmap);
+
     void drawCircle(float x, float y, float radius, GLPaint paint);
 
     void drawLine(float startX, float startY, float stopX, float stopY, GLPaint paint);
@@ -89,12 +138,85 @@ public interface ICanvasGL {
 
     void drawRect(float left, float top, float right, float bottom, GLPaint paint);
 
+    /**
+     * Draws a rect with rounded corners, anti-aliased. The style of the paint decides whether it is
+     * filled, stroked or both.
+     *
+     * @param radius the radius of the corners, at most half the smaller side is used
+     */
+    void drawRoundRect(float left, float top, float right, float bottom, float radius, GLPaint paint);
+
+    void drawRoundRect(@NonNull RectF rect, float radius, @NonNull GLPaint paint);
+
+    /**
+     * Draws the oval inscribed in the rect, anti-aliased.
+     */
+    void drawOval(float left, float top, float right, float bottom, GLPaint paint);
+
+    void drawOval(@NonNull RectF oval, @NonNull GLPaint paint);
+
+    /**
+     * Draws the part of the oval from startAngle sweeping clockwise, anti-aliased. A filled arc is a
+     * wedge from the center, a stroked arc has butt ends.
+     *
+     * @param startAngle in degrees, 0 is the right of the oval
+     * @param sweepAngle in degrees, 360 or more draws the whole oval
+     */
+    void drawArc(@NonNull RectF oval, float startAngle, float sweepAngle, @NonNull GLPaint paint);
+
+    /**
+     * Draws the path filled, stroked or both as the style of the paint says. Strokes use the width,
+     * join and cap of the paint and are built from triangles, so they are as wide as asked on every
+     * GPU. Fill and stroke overlap, so a translucent paint blends twice where they meet.
+     * <p>
+     * The triangles and their buffer are kept with the path and drawn again until the path or the
+     * paint changes. Call {@link GLPath#prepare(GLPaint)} to build them off the GL thread.
+     */
+    void drawPath(@NonNull GLPath path, @NonNull GLPaint paint);
+
+    /**
+     * Strokes the lines through the points with the width, join and cap of the paint. The stroke
+     * is built again on every call, so use {@link #drawPath(GLPath, GLPaint)} for lines which stay
+     * the same from frame to frame.
+     *
+     * @param points     x, y of each point
+     * @param offset     the index in points of the x of the first point
+     * @param pointCount the number of points, not floats
+     */
+    void drawPolyline(@NonNull float[] points, int offset, int pointCount, @NonNull GLPaint paint);
+
+    /**
+     * Draws the text with its left at x and its baseline at y, in the color, text size and typeface
+     * of the paint. Each glyph is rasterized once per typeface and size into a shared atlas texture,
+     * so drawing text made of glyphs drawn before uploads nothing, and the glyphs of many strings
+     * are drawn in one draw call.
+     * <p>
+     * Glyphs are placed by their advance without kerning, ligatures or shaping, and the style of
+     * the paint is ignored.
+     */
+    void drawText(@NonNull String text, float x, float y, @NonNull GLPaint paint);
+
+    /**
+     * Draws the characters of text from start to end, see {@link #drawText(String, float, float, GLPaint)}.
+     * A reused StringBuilder draws changing text without allocating.
+     */
+    void drawText(@NonNull CharSequence text, int start, int end, float x, float y, @NonNull GLPaint paint);
+
     void save();
 
     void save(int saveFlags);
 
     void restore();
 
+    /**
+     * Intersects the clip with the rectangle transformed by the current matrix.
+     * The clip is saved and restored with {@link GLCanvas#SAVE_FLAG_CLIP}.
+     * A rotated clip needs a stencil buffer, without one it clips to the bounds of the rotated rectangle.
+     */
+    void clipRect(float left, float top, float right, float bottom);
+
+    void clipRect(@NonNull RectF rect);
+
 
     void rotate(float degrees);
 
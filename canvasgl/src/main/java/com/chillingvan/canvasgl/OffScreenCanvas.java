@@ -32,6 +32,7 @@ import android.os.Handler;
 import android.support.annotation.Nullable;
 
 import com.chillingvan.canvasgl.glcanvas.BasicTexture;
+import com.chillingvan.canvasgl.glcanvas.GLErrorChecker;
 import com.chillingvan.canvasgl.glcanvas.RawTexture;
 import com.chillingvan.canvasgl.glview.GLView;
 import com.chillingvan.canvasgl.glview.texture.GLSurfaceTextureProducerView;
@@ -66,6 +67,9 @@ public abstract class OffScreenCanvas implements GLViewRenderer {
     private boolean isStart;
     private int producedTextureTarget = GLES20.GL_TEXTURE_2D;
     private int backgroundColor = Color.TRANSPARENT;
+    private final DirtyRegion dirtyRegion = new DirtyRegion();
+    private final Rect redrawRect = new Rect();
+    private volatile boolean partialRedrawEnabled;
 
     public OffScreenCanvas() {
         this(0, 0, EglContextWrapper.EGL_NO_CONTEXT_WRAPPER);
@@ -143,6 +147,22 @@ public abstract class OffScreenCanvas implements GLViewRenderer {
 
     public void setBackgroundColor(int backgroundColor) {
         this.backgroundColor = backgroundColor;
+        dirtyRegion.invalidateAll();
+    }
+
+    /**
+     * With partial redraw, a frame only redraws the areas passed to {@link #requestRender(Rect)}
+     * since the last frame, drawing outside of them is clipped. A frame requested without an area
+     * redraws everything, and so does any frame when the buffer content cannot be kept.
+     */
+    public void setPartialRedrawEnabled(boolean enabled) {
+        partialRedrawEnabled = enabled;
+        dirtyRegion.invalidateAll();
+        mGLThread.setPreserveContent(enabled);
+    }
+
+    public boolean isPartialRedrawEnabled() {
+        return partialRedrawEnabled;
     }
 
     public void start() {
@@ -233,6 +253,7 @@ public abstract class OffScreenCanvas implements GLViewRenderer {
     public void onSurfaceChanged(int width, int height) {
         Loggers.d("OffScreenCanvas", "onSurfaceChanged: ");
         mCanvas.setSize(width, height);
+        dirtyRegion.setSize(width, height);
         if (producedRawTexture == null) {
             producedRawTexture = new RawTexture(width, height, false, producedTextureTarget);
             if (!producedRawTexture.isLoaded()) {
@@ -256,11 +277,39 @@ public abstract class OffScreenCanvas implements GLViewRenderer {
 
     @Override
     public void onDrawFrame() {
+        if (partialRedrawEnabled && dirtyRegion.nextFrame(mGLThread.getBufferAge(), redrawRect)) {
+            drawPartialFrame(redrawRect);
+        } else {
+            drawFullFrame();
+        }
+    }
+
+    private void drawFullFrame() {
         mCanvas.clearBuffer(backgroundColor);
         if (producedTextureTarget != GLES20.GL_TEXTURE_2D) {
             producedSurfaceTexture.updateTexImage();
         }
         onGLDraw(mCanvas, producedSurfaceTexture, producedRawTexture, outsideSharedSurfaceTexture, outsideSharedTexture);
+        mCanvas.getGlCanvas().flush();
+        mCanvas.getGlCanvas().endFrame();
+        GLErrorChecker.checkFrame();
+    }
+
+    // The rest of the buffer still holds the last frame.
+    private void drawPartialFrame(Rect rect) {
+        if (producedTextureTarget != GLES20.GL_TEXTURE_2D) {
+            producedSurfaceTexture.updateTexImage();
+        }
+        if (!rect.isEmpty()) {
+            mCanvas.save();
+            mCanvas.clipRect(rect.left, rect.top, rect.right, rect.bottom);
+            mCanvas.clearBuffer(backgroundColor);
+            onGLDraw(mCanvas, producedSurfaceTexture, producedRawTexture, outsideSharedSurfaceTexture, outsideSharedTexture);
+            mCanvas.restore();
+        }
+        mCanvas.getGlCanvas().flush();
+        mCanvas.getGlCanvas().endFrame();
+        GLErrorChecker.checkFrame();
     }
 
 
@@ -283,6 +332,14 @@ public abstract class OffScreenCanvas implements GLViewRenderer {
         }
     }
 
+    /**
+     * Requests a frame which redraws the dirty area, in surface coordinates.
+     */
+    public void requestRender(Rect dirty) {
+        dirtyRegion.invalidate(dirty.left, dirty.top, dirty.right, dirty.bottom);
+        requestRender();
+    }
+
     public void requestRenderAndWait() {
         if (mGLThread != null) {
             mGLThread.requestRenderAndWait();
@@ -295,8 +352,8 @@ public abstract class OffScreenCanvas implements GLViewRenderer {
         queueEvent(new Runnable() {
             @Override
             public void run() {
-                onDrawFrame();
-                onDrawFrame();
+                drawFullFrame();
+                drawFullFrame();
                 final Bitmap bitmapFromGLSurface = OpenGLUtil.createBitmapFromGLSurface(rect.left, rect.top, rect.right - rect.left, rect.bottom - rect.top, height);
                 handler.post(new Runnable() {
                     @Override
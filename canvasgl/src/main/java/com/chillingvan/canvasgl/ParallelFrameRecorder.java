@@ -0,0 +1,197 @@
+/*
+ *
+ *  *
+ *  *  * Copyright (C) 2016 ChillingVan
+ *  *  *
+ *  *  * Licensed under the Apache License, Version 2.0 (the "License");
+ *  *  * you may not use this file except in compliance with the License.
+ *  *  * You may obtain a copy of the License at
+ *  *  *
+ *  *  * http://www.apache.org/licenses/LICENSE-2.0
+ *  *  *
+ *  *  * Unless required by applicable law or agreed to in writing, software
+ *  *  * distributed under the License is distributed on an "AS IS" BASIS,
+ *  *  * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  *  * See the License for the specific language governing permissions and
+ *  *  * limitations under the License.
+ *  *
+ *
+ */
+
+package com.chillingvan.canvasgl;
+
+import com.chillingvan.canvasgl.glcanvas.GLCanvas;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Records the independent parts of a frame on worker threads, each into its own
+ * {@link DisplayList}, and replays them on the GL thread in the order of the parts.
+ * <p>
+ * Recording makes no GL calls, so the parts run without a GL context. Each part is
+ * wrapped in save() and restore(), so the transform and alpha of one part never leak
+ * into the next, and the result is the same as recording the parts one after another
+ * on a single thread.
+ * <pre>
+ * // in onGLDraw
+ * recorder.record(parts, canvas.getWidth(), canvas.getHeight());
+ * recorder.replay(canvas);
+ * </pre>
+ */
+public class ParallelFrameRecorder {
+
+    public interface Part {
+        /**
+         * Called on a worker thread, or on the thread calling record.
+         * Must only touch state which no other part changes.
+         */
+        void onRecord(ICanvasGL canvas);
+    }
+
+    private final ExecutorService executor;
+    private final List<DisplayList> displayLists = new ArrayList<>();
+    private int partCount;
+
+    /**
+     * @param threadCount number of worker threads, the thread calling record works too.
+     *                    Usually the number of cores minus one.
+     */
+    public ParallelFrameRecorder(int threadCount) {
+        executor = Executors.newFixedThreadPool(Math.max(1, threadCount), new ThreadFactory() {
+            private final AtomicInteger count = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "FrameRecorder-" + count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    /**
+     * Records all parts and returns when every one is done. The first part is recorded on the
+     * calling thread. An exception or error thrown by a part is rethrown here, a checked one
+     * wrapped in a RuntimeException.
+     */
+    public void record(List<? extends Part> parts, final int width, final int height) {
+        partCount = parts.size();
+        while (displayLists.size() < partCount) {
+            displayLists.add(new DisplayList());
+        }
+        if (partCount == 0) {
+            return;
+        }
+        final CountDownLatch latch = new CountDownLatch(partCount - 1);
+        final AtomicReference<Throwable> failure = new AtomicReference<>();
+        for (int i = 1; i < partCount; i++) {
+            final Part part = parts.get(i);
+            final DisplayList displayList = displayLists.get(i);
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        recordPart(part, displayList, width, height);
+                    } catch (Throwable e) {
+                        // Else the pool swallows an Error and a part is missing silently.
+                        failure.compareAndSet(null, e);
+                    } finally {
+                        latch.countDown();
+                    }
+                }
+            });
+        }
+        try {
+            recordPart(parts.get(0), displayLists.get(0), width, height);
+        } finally {
+            awaitUninterruptibly(latch);
+        }
+        Throwable e = failure.get();
+        if (e instanceof RuntimeException) {
+            throw (RuntimeException) e;
+        } else if (e instanceof Error) {
+            throw (Error) e;
+        } else if (e != null) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    static void recordPart(Part part, DisplayList displayList, int width, int height) {
+        ICanvasGL canvas = displayList.beginRecording(width, height);
+        try {
+            canvas.save();
+            part.onRecord(canvas);
+            canvas.restore();
+        } finally {
+            displayList.endRecording();
+        }
+    }
+
+    private static void awaitUninterruptibly(CountDownLatch latch) {
+        boolean interrupted = false;
+        while (true) {
+            try {
+                latch.await();
+                break;
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Replays the parts of the last record in their order. Must be called on the GL thread.
+     */
+    public void replay(ICanvasGL canvas) {
+        if (!(canvas instanceof CanvasGL)) {
+            replayParts(canvas);
+            return;
+        }
+        // Batch across the parts too, not only within each of them.
+        GLCanvas glCanvas = canvas.getGlCanvas();
+        boolean batchEnabled = glCanvas.isBatchEnabled();
+        glCanvas.setBatchEnabled(true);
+        try {
+            replayParts(canvas);
+        } finally {
+            glCanvas.setBatchEnabled(batchEnabled);
+        }
+    }
+
+    private void replayParts(ICanvasGL canvas) {
+        for (int i = 0; i < partCount; i++) {
+            displayLists.get(i).replay(canvas);
+        }
+    }
+
+    public int getPartCount() {
+        return partCount;
+    }
+
+    /**
+     * The display list of the part at index from the last record.
+     */
+    public DisplayList getDisplayList(int index) {
+        if (index >= partCount) {
+            throw new IndexOutOfBoundsException("index " + index + ", part count " + partCount);
+        }
+        return displayLists.get(index);
+    }
+
+    /**
+     * Stops the worker threads. The recorder cannot record afterwards.
+     */
+    public void release() {
+        executor.shutdown();
+    }
+}
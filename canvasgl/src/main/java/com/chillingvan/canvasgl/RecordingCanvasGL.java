@@ -0,0 +1,354 @@
+/*
+ *
+ *  *
+ *  *  * Copyright (C) 2016 ChillingVan
+ *  *  *
+ *  *  * Licensed under the Apache License, Version 2.0 (the "License");
+ *  *  * you may not use this file except in compliance with the License.
+ *  *  * You may obtain a copy of the License at
+ *  *  *
+ *  *  * http://www.apache.org/licenses/LICENSE-2.0
+ *  *  *
+ *  *  * Unless required by applicable law or agreed to in writing, software
+ *  *  * distributed under the License is distributed on an "AS IS" BASIS,
+ *  *  * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  *  * See the License for the specific language governing permissions and
+ *  *  * limitations under the License.
+ *  *
+ *
+ */
+
+package com.chillingvan.canvasgl;
+
+import android.graphics.Bitmap;
+import android.graphics.Rect;
+import android.graphics.RectF;
+import android.graphics.SurfaceTexture;
+import android.support.annotation.IntRange;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import com.chillingvan.canvasgl.glcanvas.BasicTexture;
+import com.chillingvan.canvasgl.glcanvas.BitmapAtlas;
+import com.chillingvan.canvasgl.glcanvas.BitmapTexture;
+import com.chillingvan.canvasgl.glcanvas.GLCanvas;
+import com.chillingvan.canvasgl.glcanvas.GLPaint;
+import com.chillingvan.canvasgl.glcanvas.GLPath;
+import com.chillingvan.canvasgl.glcanvas.RawTexture;
+import com.chillingvan.canvasgl.textureFilter.BasicTextureFilter;
+import com.chillingvan.canvasgl.textureFilter.TextureFilter;
+
+/**
+ * The canvas returned by {@link DisplayList#beginRecording(int, int)}. It makes no GL calls,
+ * so it can be used on any thread, and checks the arguments as {@link CanvasGL} would.
+ * Calls which need GL right away, {@link #bindBitmapToTexture(int, Bitmap)} and
+ * {@link #getGlCanvas()}, are not supported.
+ * <p>
+ * A display list returns the same canvas for each of its recordings, so a reference kept after
+ * {@link DisplayList#endRecording()} must not be used.
+ */
+public class RecordingCanvasGL implements ICanvasGL {
+
+    /**
+     * Shared by all recording canvases, so recording does not take a program for a new filter
+     * each time. Nothing destroys it.
+     */
+    private static final BasicTextureFilter basicTextureFilter = new BasicTextureFilter();
+
+    private DisplayList displayList;
+    private int width;
+    private int height;
+
+    RecordingCanvasGL() {
+    }
+
+    void attach(DisplayList displayList, int width, int height) {
+        this.displayList = displayList;
+        this.width = width;
+        this.height = height;
+    }
+
+    void detach() {
+        displayList = null;
+    }
+
+    private DisplayList getDisplayList() {
+        if (displayList == null) {
+            throw new IllegalStateException("Recording has ended");
+        }
+        return displayList;
+    }
+
+    @Override
+    public BitmapTexture bindBitmapToTexture(int whichTexture, Bitmap bitmap) {
+        throw new UnsupportedOperationException("Textures cannot be bound while recording");
+    }
+
+    @Override
+    public void setBitmapAtlas(@Nullable BitmapAtlas bitmapAtlas) {
+        throw new UnsupportedOperationException("The atlas cannot be set while recording");
+    }
+
+    @Override
+    public void setAsyncUploader(@Nullable AsyncTextureUploader asyncUploader) {
+        throw new UnsupportedOperationException("The uploader cannot be set while recording");
+    }
+
+    @Override
+    public boolean isBitmapReady(Bitmap bitmap) {
+        throw new UnsupportedOperationException("Textures are not uploaded while recording");
+    }
+
+    @Override
+    public void beginRenderTarget(RawTexture texture) {
+        getDisplayList().beginRenderTarget(texture);
+    }
+
+    @Override
+    public void endRenderTarget() {
+        getDisplayList().endRenderTarget();
+    }
+
+    @Override
+    public GLCanvas getGlCanvas() {
+        throw new UnsupportedOperationException("No GLCanvas while recording");
+    }
+
+    @Override
+    public void drawSurfaceTexture(BasicTexture texture, @Nullable SurfaceTexture surfaceTexture, int left, int top, int right, int bottom) {
+        drawSurfaceTexture(texture, surfaceTexture, left, top, right, bottom, basicTextureFilter);
+    }
+
+    @Override
+    public void drawSurfaceTexture(BasicTexture texture, @Nullable SurfaceTexture surfaceTexture, int left, int top, int right, int bottom, TextureFilter textureFilter) {
+        getDisplayList().drawSurfaceTexture(texture, surfaceTexture, left, top, right, bottom, textureFilter);
+    }
+
+    @Override
+    public void drawBitmap(Bitmap bitmap, @NonNull CanvasGL.BitmapMatrix matrix) {
+        drawBitmap(bitmap, matrix, basicTextureFilter);
+    }
+
+    @Override
+    public void drawBitmap(Bitmap bitmap, CanvasGL.BitmapMatrix matrix, @NonNull TextureFilter textureFilter) {
+        CanvasGL.checkBitmap(bitmap);
+        getDisplayList().drawBitmap(bitmap, matrix, textureFilter);
+    }
+
+    @Override
+    public void drawBitmap(Bitmap bitmap, Rect src, RectF dst) {
+        drawBitmap(bitmap, new RectF(src), dst, basicTextureFilter);
+    }
+
+    @Override
+    public void drawBitmap(Bitmap bitmap, int left, int top) {
+        drawBitmap(bitmap, left, top, basicTextureFilter);
+    }
+
+    @Override
+    public void drawBitmap(Bitmap bitmap, int left, int top, @NonNull TextureFilter textureFilter) {
+        drawBitmap(bitmap, left, top, bitmap.getWidth(), bitmap.getHeight(), textureFilter);
+    }
+
+    @Override
+    public void drawBitmap(Bitmap bitmap, Rect src, Rect dst) {
+        drawBitmap(bitmap, src, new RectF(dst));
+    }
+
+    @Override
+    public void drawBitmap(Bitmap bitmap, RectF src, RectF dst, @NonNull TextureFilter textureFilter) {
+        if (src == null || dst == null) {
+            throw new NullPointerException();
+        }
+        CanvasGL.checkBitmap(bitmap);
+        getDisplayList().drawBitmap(bitmap, src, dst, textureFilter);
+    }
+
+    @Override
+    public void drawBitmap(Bitmap bitmap, int left, int top, int width, int height) {
+        drawBitmap(bitmap, left, top, width, height, basicTextureFilter);
+    }
+
+    @Override
+    public void drawBitmap(Bitmap bitmap, int left, int top, int width, int height, @NonNull TextureFilter textureFilter) {
+        CanvasGL.checkBitmap(bitmap);
+        getDisplayList().drawBitmap(bitmap, left, top, width, height, textureFilter);
+    }
+
+    @Override
+    public void drawBitmapInstances(Bitmap bitmap, float[] instances, int count) {
+        if (count * GLCanvas.INSTANCE_STRIDE > instances.length) {
+            throw new IllegalArgumentException("instances too short for " + count + " instances");
+        }
+        CanvasGL.checkBitmap(bitmap);
+        getDisplayList().drawBitmapInstances(bitmap, instances, count);
+    }
+
+    @Override
+    public void invalidateTextureContent(Bitmap bitmap) {
+        getDisplayList().invalidateTextureContent(bitmap);
+    }
+
+    @Override
+    public void invalidateTextureContent(Bitmap bitmap, Rect rect) {
+        getDisplayList().invalidateTextureContent(bitmap, rect);
+    }
+
+    @Override
+    public void drawCircle(float x, float y, float radius, GLPaint paint) {
+        getDisplayList().drawCircle(x, y, radius, paint);
+    }
+
+    @Override
+    public void drawLine(float startX, float startY, float stopX, float stopY, GLPaint paint) {
+        getDisplayList().drawLine(startX, startY, stopX, stopY, paint);
+    }
+
+    @Override
+    public void drawRect(@NonNull RectF rect, @NonNull GLPaint paint) {
+        drawRect(rect.left, rect.top, rect.right, rect.bottom, paint);
+    }
+
+    @Override
+    public void drawRect(@NonNull Rect r, @NonNull GLPaint paint) {
+        drawRect(r.left, r.top, r.right, r.bottom, paint);
+    }
+
+    @Override
+    public void drawRect(float left, float top, float right, float bottom, GLPaint paint) {
+        getDisplayList().drawRect(left, top, right, bottom, paint);
+    }
+
+    @Override
+    public void drawRoundRect(float left, float top, float right, float bottom, float radius, GLPaint paint) {
+        getDisplayList().drawRoundRect(left, top, right, bottom, radius, paint);
+    }
+
+    @Override
+    public void drawRoundRect(@NonNull RectF rect, float radius, @NonNull GLPaint paint) {
+        drawRoundRect(rect.left, rect.top, rect.right, rect.bottom, radius, paint);
+    }
+
+    @Override
+    public void drawOval(float left, float top, float right, float bottom, GLPaint paint) {
+        getDisplayList().drawOval(left, top, right, bottom, paint);
+    }
+
+    @Override
+    public void drawOval(@NonNull RectF oval, @NonNull GLPaint paint) {
+        drawOval(oval.left, oval.top, oval.right, oval.bottom, paint);
+    }
+
+    @Override
+    public void drawArc(@NonNull RectF oval, float startAngle, float sweepAngle, @NonNull GLPaint paint) {
+        getDisplayList().drawArc(oval.left, oval.top, oval.right, oval.bottom, startAngle, sweepAngle, paint);
+    }
+
+    @Override
+    public void drawPath(@NonNull GLPath path, @NonNull GLPaint paint) {
+        getDisplayList().drawPath(path, paint);
+    }
+
+    @Override
+    public void drawPolyline(@NonNull float[] points, int offset, int pointCount, @NonNull GLPaint paint) {
+        getDisplayList().drawPolyline(points, offset, pointCount, paint);
+    }
+
+    @Override
+    public void drawText(@NonNull String text, float x, float y, @NonNull GLPaint paint) {
+        getDisplayList().drawText(text, x, y, paint);
+    }
+
+    @Override
+    public void drawText(@NonNull CharSequence text, int start, int end, float x, float y, @NonNull GLPaint paint) {
+        getDisplayList().drawText(text.subSequence(start, end).toString(), x, y, paint);
+    }
+
+    @Override
+    public void save() {
+        save(GLCanvas.SAVE_FLAG_ALL);
+    }
+
+    @Override
+    public void save(int saveFlags) {
+        getDisplayList().save(saveFlags);
+    }
+
+    @Override
+    public void restore() {
+        getDisplayList().restore();
+    }
+
+    @Override
+    public void clipRect(float left, float top, float right, float bottom) {
+        getDisplayList().clipRect(left, top, right, bottom);
+    }
+
+    @Override
+    public void clipRect(@NonNull RectF rect) {
+        clipRect(rect.left, rect.top, rect.right, rect.bottom);
+    }
+
+    @Override
+    public void rotate(float degrees) {
+        getDisplayList().rotate(degrees);
+    }
+
+    @Override
+    public void rotate(float degrees, float px, float py) {
+        DisplayList list = getDisplayList();
+        list.translate(px, py);
+        list.rotate(degrees);
+        list.translate(-px, -py);
+    }
+
+    @Override
+    public void scale(float sx, float sy) {
+        getDisplayList().scale(sx, sy);
+    }
+
+    @Override
+    public void scale(float sx, float sy, float px, float py) {
+        DisplayList list = getDisplayList();
+        list.translate(px, py);
+        list.scale(sx, sy);
+        list.translate(-px, -py);
+    }
+
+    @Override
+    public void translate(float dx, float dy) {
+        getDisplayList().translate(dx, dy);
+    }
+
+    @Override
+    public void clearBuffer() {
+        getDisplayList().clearBuffer();
+    }
+
+    @Override
+    public void clearBuffer(int color) {
+        getDisplayList().clearBuffer(color);
+    }
+
+    // Only changes the size reported while recording, it is not recorded.
+    @Override
+    public void setSize(int width, int height) {
+        this.width = width;
+        this.height = height;
+    }
+
+    @Override
+    public int getWidth() {
+        return width;
+    }
+
+    @Override
+    public int getHeight() {
+        return height;
+    }
+
+    @Override
+    public void setAlpha(@IntRange(from = 0, to = 255) int alpha) {
+        getDisplayList().setAlpha(alpha);
+    }
+}
@@ -0,0 +1,117 @@
+/*
+ *
+ *  *
+ *  *  * Copyright (C) 2016 ChillingVan
+ *  *  *
+ *  *  * Licensed under the Apache License, Version 2.0 (the "License");
+ *  *  * you may not use this file except in compliance with the License.
+ *  *  * You may obtain a copy of the License at
+ *  *  *
+ *  *  * http://www.apache.org/licenses/LICENSE-2.0
+ *  *  *
+ *  *  * Unless required by applicable law or agreed to in writing, software
+ *  *  * distributed under the License is distributed on an "AS IS" BASIS,
+ *  *  * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  *  * See the License for the specific language governing permissions and
+ *  *  * limitations under the License.
+ *  *
+ *
+ */
+package com.chillingvan.canvasgl.glcanvas;
+
+// Affine2D works on 4x4 column major matrices, the layout android.opengl.Matrix
+// and the shaders use, which are 2D affine: only m[0], m[1], m[4], m[5], m[12]
+// and m[13] differ from the identity. Those six entries form the 3x2 matrix
+//
+//   | m[0]  m[4]  m[12] |
+//   | m[1]  m[5]  m[13] |
+//
+// and are the only ones read and written. So a transform costs a few
+// multiplies instead of a 4x4 product, and the matrix can still be handed to
+// code which expects 4x4 matrices.
+final class Affine2D {
+
+    private Affine2D() {
+    }
+
+    // Returns true if the matrix at offset is 2D affine.
+    static boolean isAffine(float[] m, int offset) {
+        return m[offset + 2] == 0 && m[offset + 3] == 0
+                && m[offset + 6] == 0 && m[offset + 7] == 0
+                && m[offset + 8] == 0 && m[offset + 9] == 0 && m[offset + 10] == 1 && m[offset + 11] == 0
+                && m[offset + 14] == 0 && m[offset + 15] == 1;
+    }
+
+    // m = m * translate(x, y)
+    static void translate(float[] m, int offset, float x, float y) {
+        m[offset + 12] += m[offset] * x + m[offset + 4] * y;
+        m[offset + 13] += m[offset + 1] * x + m[offset + 5] * y;
+    }
+
+    // m = m * scale(sx, sy)
+    static void scale(float[] m, int offset, float sx, float sy) {
+        m[offset] *= sx;
+        m[offset + 1] *= sx;
+        m[offset + 4] *= sy;
+        m[offset + 5] *= sy;
+    }
+
+    // m = m * rotate(degrees) around the z axis. The sine and the cosine are
+    // computed as Matrix.setRotateM does.
+    static void rotate(float[] m, int offset, float degrees) {
+        float radians = degrees * (float) (Math.PI / 180.0f);
+        float sin = (float) Math.sin(radians);
+        float cos = (float) Math.cos(radians);
+        float a = m[offset];
+        float b = m[offset + 1];
+        float c = m[offset + 4];
+        float d = m[offset + 5];
+        m[offset] = a * cos + c * sin;
+        m[offset + 1] = b * cos + d * sin;
+        m[offset + 4] = c * cos - a * sin;
+        m[offset + 5] = d * cos - b * sin;
+    }
+
+    // m = m * rhs, rhs must be 2D affine.
+    static void concat(float[] m, int offset, float[] rhs, int rhsOffset) {
+        float a = m[offset];
+        float b = m[offset + 1];
+        float c = m[offset + 4];
+        float d = m[offset + 5];
+        float ra = rhs[rhsOffset];
+        float rb = rhs[rhsOffset + 1];
+        float rc = rhs[rhsOffset + 4];
+        float rd = rhs[rhsOffset + 5];
+        float rx = rhs[rhsOffset + 12];
+        float ry = rhs[rhsOffset + 13];
+        m[offset] = a * ra + c * rb;
+        m[offset + 1] = b * ra + d * rb;
+        m[offset + 4] = a * rc + c * rd;
+        m[offset + 5] = b * rc + d * rd;
+        m[offset + 12] += a * rx + c * ry;
+        m[offset + 13] += b * rx + d * ry;
+    }
+
+    // result = lhs * m, where lhs is any 4x4 matrix and m is 2D affine.
+    // result must not overlap lhs or m.
+    static void multiply(float[] result, int resultOffset, float[] lhs, int lhsOffset, float[] m, int offset) {
+        multiply(result, resultOffset, lhs, lhsOffset,
+                m[offset], m[offset + 1], m[offset + 4], m[offset + 5], m[offset + 12], m[offset + 13]);
+    }
+
+    // result = lhs * the affine matrix with the columns (a, b, 0, 0),
+    // (c, d, 0, 0), (0, 0, 1, 0) and (tx, ty, 0, 1). With (width, 0, 0,
+    // height, x, y) it places the unit square the shaders draw at x, y with
+    // the size. result must not overlap lhs.
+    static void multiply(float[] result, int r, float[] lhs, int l,
+                         float a, float b, float c, float d, float tx, float ty) {
+        for (int row = 0; row < 4; row++) {
+            float l0 = lhs[l + row];
+            float l1 = lhs[l + 4 + row];
+            result[r + row] = l0 * a + l1 * b;
+            result[r + 4 + row] = l0 * c + l1 * d;
+            result[r + 8 + row] = lhs[l + 8 + row];
+            result[r + 12 + row] = l0 * tx + l1 * ty + lhs[l + 12 + row];
+        }
+    }
+}
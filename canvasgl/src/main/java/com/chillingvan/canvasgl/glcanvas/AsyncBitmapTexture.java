@@ -0,0 +1,371 @@
+/*
+ *
+ *  *
+ *  *  * Copyright (C) 2016 ChillingVan
+ *  *  *
+ *  *  * Licensed under the Apache License, Version 2.0 (the "License");
+ *  *  * you may not use this file except in compliance with the License.
+ *  *  * You may obtain a copy of the License at
+ *  *  *
+ *  *  * http://www.apache.org/licenses/LICENSE-2.0
+ *  *  *
+ *  *  * Unless required by applicable law or agreed to in writing, software
+ *  *  * distributed under the License is distributed on an "AS IS" BASIS,
+ *  *  * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  *  * See the License for the specific language governing permissions and
+ *  *  * limitations under the License.
+ *  *
+ *
+ */
+package com.chillingvan.canvasgl.glcanvas;
+
+import android.graphics.Bitmap;
+import android.graphics.Rect;
+import android.opengl.GLES20;
+import android.opengl.GLES30;
+import android.opengl.GLUtils;
+import android.util.Log;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+
+// AsyncBitmapTexture is a texture of a fixed Bitmap which is uploaded on a
+// loader thread, whose GL context shares textures with the canvas, instead
+// of in onBind on the render thread. The upload starts when the texture is
+// first bound; until it is done onBind returns false and the texture must
+// not be drawn, so the caller draws a placeholder instead.
+//
+// The loader ends the upload with a fence, on OpenGL ES 3, or glFinish.
+// The render thread adopts the texture only once the fence has signaled, so
+// it never samples a texture which is still being written.
+//
+// Like BitmapTexture it does not own the Bitmap, which must stay valid.
+// Changed rectangles of it are uploaded again on the render thread, see
+// invalidateContent(Rect), while the texture keeps being drawn.
+//
+// A loader which rejects the upload, or cancels it because it stopped, fails
+// the texture, see isFailed(). The loader may cancel queued tasks which are
+// Futures.
+public class AsyncBitmapTexture extends BasicTexture {
+    private static final String TAG = "AsyncBitmapTexture";
+    private static final int UPLOAD_IDLE = 0;
+    private static final int UPLOAD_PENDING = 1;
+    // Uploaded and fenced, not adopted by a canvas yet.
+    private static final int UPLOAD_DONE = 2;
+    private static final int UPLOAD_ADOPTED = 3;
+    private static final int UPLOAD_FAILED = 4;
+    private static final int UPLOAD_CANCELLED = 5;
+
+    private final Bitmap mBitmap;
+    private final Executor mLoader;
+
+    // Written by the loader and read by the render thread under the lock.
+    private int mUploadState = UPLOAD_IDLE;
+    private int mUploadedId;
+    private long mFence;
+    // The canvas which started the upload. If the loader is gone, an
+    // uploaded texture which was never adopted is deleted through it, the
+    // contexts share textures.
+    private GLCanvas mUploadCanvas;
+    // The changed parts of the bitmap, used by the render thread only. They
+    // are kept while the upload is pending, as the loader may have read the
+    // bitmap before they changed, and are uploaded once it is adopted.
+    private TextureDirtyRects mDirtyRects;
+
+    // Runs on the loader, or is cancelled if the loader stops first.
+    private static class LoaderTask extends FutureTask<Void> {
+        private final Runnable mOnCancelled;
+
+        LoaderTask(Runnable task, Runnable onCancelled) {
+            super(task, null);
+            mOnCancelled = onCancelled;
+        }
+
+        @Override
+        protected void done() {
+            if (isCancelled()) {
+                mOnCancelled.run();
+            }
+        }
+    }
+
+    // The loader runs tasks one by one on a thread whose GL context shares
+    // textures with the canvases which draw this texture.
+    public AsyncBitmapTexture(Bitmap bitmap, Executor loader) {
+        if (bitmap == null || bitmap.isRecycled()) {
+            throw new IllegalArgumentException("The bitmap must not be recycled");
+        }
+        mBitmap = bitmap;
+        mLoader = loader;
+        setSize(bitmap.getWidth(), bitmap.getHeight());
+    }
+
+    public Bitmap getBitmap() {
+        return mBitmap;
+    }
+
+    // Returns true if the texture can be drawn now. Starts the upload if it
+    // has not started. Must be called on the GL thread of the canvas.
+    public boolean isReady(GLCanvas canvas) {
+        return onBind(canvas);
+    }
+
+    // Returns true if the upload failed, as when the bitmap was recycled or
+    // the loader was released.
+    public synchronized boolean isFailed() {
+        return mUploadState == UPLOAD_FAILED;
+    }
+
+    // Marks a rectangle of the bitmap as changed, which must keep its size.
+    // Only the changed rectangles are uploaded again, when the texture is
+    // next bound. Must be called on the GL thread of the canvas.
+    public void invalidateContent(Rect rect) {
+        if (!isLoaded()) {
+            synchronized (this) {
+                if (mUploadState != UPLOAD_PENDING && mUploadState != UPLOAD_DONE) {
+                    // Never uploaded, or all of it is uploaded again.
+                    return;
+                }
+            }
+        }
+        int left = Math.max(rect.left, 0);
+        int top = Math.max(rect.top, 0);
+        int right = Math.min(rect.right, getWidth());
+        int bottom = Math.min(rect.bottom, getHeight());
+        if (left >= right || top >= bottom) {
+            return;
+        }
+        if (mDirtyRects == null) {
+            mDirtyRects = new TextureDirtyRects();
+        }
+        mDirtyRects.add(left, top, right, bottom);
+    }
+
+    @Override
+    protected boolean onBind(GLCanvas canvas) {
+        if (isLoaded()) {
+            uploadDirtyRects(canvas);
+            return true;
+        }
+        long fence;
+        synchronized (this) {
+            if (mUploadState == UPLOAD_IDLE || mUploadState == UPLOAD_ADOPTED) {
+                // Never uploaded, or yielded since. The upload reads all of
+                // the bitmap.
+                if (mDirtyRects != null) {
+                    mDirtyRects.clear();
+                }
+                mUploadState = UPLOAD_PENDING;
+                mUploadCanvas = canvas;
+                execute(new LoaderTask(new Runnable() {
+                    @Override
+                    public void run() {
+                        upload();
+                    }
+                }, new Runnable() {
+                    @Override
+                    public void run() {
+                        failPending();
+                    }
+                }));
+                return false;
+            }
+            if (mUploadState != UPLOAD_DONE) {
+                return false;
+            }
+            fence = mFence;
+        }
+        if (fence != 0) {
+            int status = GLES30.glClientWaitSync(fence, 0, 0);
+            if (status == GLES30.GL_TIMEOUT_EXPIRED) {
+                return false;
+            }
+            GLES30.glDeleteSync(fence);
+        }
+        synchronized (this) {
+            mFence = 0;
+            mId = mUploadedId;
+            mUploadState = UPLOAD_ADOPTED;
+        }
+        mState = STATE_LOADED;
+        setAssociatedCanvas(canvas);
+        canvas.getTextureCache().onAllocated(this, TextureCache.getBytesPerTexel(mBitmap));
+        uploadDirtyRects(canvas);
+        return true;
+    }
+
+    private void uploadDirtyRects(GLCanvas canvas) {
+        TextureDirtyRects rects = mDirtyRects;
+        if (rects == null || rects.isEmpty()) {
+            return;
+        }
+        if (mBitmap.isRecycled()) {
+            // Keeps what was uploaded last.
+        } else if (mBitmap.getConfig() == Bitmap.Config.ARGB_8888
+                && rects.isPartialUpload(getWidth(), getHeight())) {
+            for (int i = 0; i < rects.getCount(); i++) {
+                int left = rects.getLeft(i);
+                int top = rects.getTop(i);
+                canvas.texSubImage2D(this, left, top, mBitmap, left, top,
+                        rects.getRight(i) - left, rects.getBottom(i) - top);
+            }
+        } else {
+            canvas.texSubImage2D(this, 0, 0, mBitmap,
+                    GLUtils.getInternalFormat(mBitmap), GLUtils.getType(mBitmap));
+        }
+        rects.clear();
+    }
+
+    @Override
+    protected int getTarget() {
+        return GLES20.GL_TEXTURE_2D;
+    }
+
+    @Override
+    public boolean isOpaque() {
+        return false;
+    }
+
+    @Override
+    public void recycle() {
+        synchronized (this) {
+            if (mUploadState == UPLOAD_DONE) {
+                // Uploaded but never adopted, no canvas deletes it.
+                final int id = mUploadedId;
+                final long fence = mFence;
+                final GLCanvas canvas = mUploadCanvas;
+                execute(new LoaderTask(new Runnable() {
+                    @Override
+                    public void run() {
+                        deleteUploaded(id, fence);
+                    }
+                }, new Runnable() {
+                    @Override
+                    public void run() {
+                        // The texture is shared with the canvas, which
+                        // deletes it instead of the stopped loader.
+                        if (canvas != null) {
+                            canvas.deleteTexture(id);
+                        }
+                    }
+                }));
+                mFence = 0;
+            }
+            mUploadState = UPLOAD_CANCELLED;
+            mUploadCanvas = null;
+        }
+        if (mDirtyRects != null) {
+            mDirtyRects.clear();
+        }
+        super.recycle();
+    }
+
+    private void execute(LoaderTask task) {
+        try {
+            mLoader.execute(task);
+        } catch (RejectedExecutionException e) {
+            task.cancel(false);
+        }
+    }
+
+    private synchronized void failPending() {
+        if (mUploadState == UPLOAD_PENDING) {
+            mUploadState = UPLOAD_FAILED;
+        }
+    }
+
+    // Runs on the loader thread.
+    private void upload() {
+        synchronized (this) {
+            if (mUploadState != UPLOAD_PENDING) {
+                return;
+            }
+        }
+        if (mBitmap.isRecycled()) {
+            synchronized (this) {
+                mUploadState = UPLOAD_FAILED;
+            }
+            return;
+        }
+        // The loader context shares textures with the canvases, so it is on
+        // the same driver and its support decides the size.
+        fitTextureSize(GLES20Canvas.checkNpotSupported());
+        int[] ids = new int[1];
+        GLES20.glGenTextures(1, ids, 0);
+        int id = ids[0];
+        GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, id);
+        GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_WRAP_S, GLES20.GL_CLAMP_TO_EDGE);
+        GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_WRAP_T, GLES20.GL_CLAMP_TO_EDGE);
+        GLES20.glTexParameterf(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_MIN_FILTER, GLES20.GL_LINEAR);
+        GLES20.glTexParameterf(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_MAG_FILTER, GLES20.GL_LINEAR);
+        try {
+            int width = mBitmap.getWidth();
+            int height = mBitmap.getHeight();
+            if (width == getTextureWidth() && height == getTextureHeight()) {
+                GLUtils.texImage2D(GLES20.GL_TEXTURE_2D, 0, mBitmap, 0);
+            } else {
+                uploadToLargerTexture(width, height);
+            }
+        } catch (RuntimeException e) {
+            // The bitmap may be recycled while it is uploaded. The loader
+            // would swallow the exception and leave the texture pending.
+            Log.w(TAG, "Cannot upload " + mBitmap, e);
+            deleteUploaded(id, 0);
+            synchronized (this) {
+                if (mUploadState == UPLOAD_PENDING) {
+                    mUploadState = UPLOAD_FAILED;
+                }
+            }
+            return;
+        }
+        long fence = 0;
+        if (GLES20Canvas.isGLES30()) {
+            fence = GLES30.glFenceSync(GLES30.GL_SYNC_GPU_COMMANDS_COMPLETE, 0);
+            GLES20.glFlush();
+        } else {
+            GLES20.glFinish();
+        }
+        synchronized (this) {
+            if (mUploadState == UPLOAD_PENDING) {
+                mUploadedId = id;
+                mFence = fence;
+                mUploadState = UPLOAD_DONE;
+                return;
+            }
+        }
+        // Recycled while uploading.
+        deleteUploaded(id, fence);
+    }
+
+    // The content takes the top left of a power of 2 texture. The texels
+    // right of and below it are cleared, filtering at the edge of the content
+    // reads them.
+    private void uploadToLargerTexture(int width, int height) {
+        int format = GLUtils.getInternalFormat(mBitmap);
+        int type = GLUtils.getType(mBitmap);
+        int texWidth = getTextureWidth();
+        int texHeight = getTextureHeight();
+        GLES20.glTexImage2D(GLES20.GL_TEXTURE_2D, 0, format, texWidth, texHeight, 0, format, type, null);
+        GLUtils.texSubImage2D(GLES20.GL_TEXTURE_2D, 0, 0, 0, mBitmap, format, type);
+        Bitmap.Config config = mBitmap.getConfig() != null ? mBitmap.getConfig() : Bitmap.Config.ARGB_8888;
+        if (width < texWidth) {
+            Bitmap line = Bitmap.createBitmap(1, Math.min(height + 1, texHeight), config);
+            GLUtils.texSubImage2D(GLES20.GL_TEXTURE_2D, 0, width, 0, line, format, type);
+            line.recycle();
+        }
+        if (height < texHeight) {
+            Bitmap line = Bitmap.createBitmap(Math.min(width + 1, texWidth), 1, config);
+            GLUtils.texSubImage2D(GLES20.GL_TEXTURE_2D, 0, 0, height, line, format, type);
+            line.recycle();
+        }
+    }
+
+    // Runs on the loader thread.
+    private static void deleteUploaded(int id, long fence) {
+        if (fence != 0) {
+            GLES30.glDeleteSync(fence);
+        }
+        GLES20.glDeleteTextures(1, new int[]{id}, 0);
+    }
+}
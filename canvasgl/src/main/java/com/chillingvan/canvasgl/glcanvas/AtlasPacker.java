@@ -0,0 +1,177 @@
+/*
+ *
+ *  *
+ *  *  * Copyright (C) 2016 ChillingVan
+ *  *  *
+ *  *  * Licensed under the Apache License, Version 2.0 (the "License");
+ *  *  * you may not use this file except in compliance with the License.
+ *  *  * You may obtain a copy of the License at
+ *  *  *
+ *  *  * http://www.apache.org/licenses/LICENSE-2.0
+ *  *  *
+ *  *  * Unless required by applicable law or agreed to in writing, software
+ *  *  * distributed under the License is distributed on an "AS IS" BASIS,
+ *  *  * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  *  * See the License for the specific language governing permissions and
+ *  *  * limitations under the License.
+ *  *
+ *
+ */
+package com.chillingvan.canvasgl.glcanvas;
+
+import java.util.Arrays;
+
+// AtlasPacker places rectangles in a fixed size page with the skyline
+// bottom-left heuristic: the page is filled from the top, and every
+// rectangle goes where its bottom edge ends up highest, leftmost on ties.
+// The skyline is the lowest used y of every column, kept as segments of
+// equal height.
+//
+// Rectangles cannot be freed one by one, a page is emptied with reset()
+// and filled again. It uses no GL, so it is tested on the JVM.
+final class AtlasPacker {
+    private final int mWidth;
+    private final int mHeight;
+
+    // The segments of the skyline, left to right.
+    private int[] mSegmentX = new int[16];
+    private int[] mSegmentY = new int[16];
+    private int[] mSegmentWidth = new int[16];
+    private int mSegmentCount;
+
+    private long mUsedArea;
+
+    AtlasPacker(int width, int height) {
+        mWidth = width;
+        mHeight = height;
+        reset();
+    }
+
+    int getWidth() {
+        return mWidth;
+    }
+
+    int getHeight() {
+        return mHeight;
+    }
+
+    // The area of the rectangles inserted since the last reset.
+    long getUsedArea() {
+        return mUsedArea;
+    }
+
+    float getOccupancy() {
+        return (float) mUsedArea / ((long) mWidth * mHeight);
+    }
+
+    void reset() {
+        mSegmentCount = 1;
+        mSegmentX[0] = 0;
+        mSegmentY[0] = 0;
+        mSegmentWidth[0] = mWidth;
+        mUsedArea = 0;
+    }
+
+    // Finds room for a width x height rectangle and writes its left and top
+    // to out. Returns false and leaves the page as it was if there is none.
+    boolean insert(int width, int height, int[] out) {
+        if (width <= 0 || height <= 0 || width > mWidth || height > mHeight) {
+            return false;
+        }
+        int bestIndex = -1;
+        int bestBottom = Integer.MAX_VALUE;
+        int bestY = 0;
+        for (int i = 0; i < mSegmentCount; i++) {
+            int y = fit(i, width, height);
+            if (y >= 0 && y + height < bestBottom) {
+                bestIndex = i;
+                bestBottom = y + height;
+                bestY = y;
+            }
+        }
+        if (bestIndex < 0) {
+            return false;
+        }
+        out[0] = mSegmentX[bestIndex];
+        out[1] = bestY;
+        addLevel(bestIndex, out[0], bestY + height, width);
+        mUsedArea += (long) width * height;
+        return true;
+    }
+
+    // Returns the y at which the rectangle rests with its left at segment i,
+    // or -1 if it does not fit there.
+    private int fit(int i, int width, int height) {
+        int x = mSegmentX[i];
+        if (x + width > mWidth) {
+            return -1;
+        }
+        int y = 0;
+        int remaining = width;
+        while (remaining > 0) {
+            y = Math.max(y, mSegmentY[i]);
+            if (y + height > mHeight) {
+                return -1;
+            }
+            remaining -= mSegmentWidth[i];
+            i++;
+        }
+        return y;
+    }
+
+    // Puts a segment of the given level at index and cuts the segments it
+    // covers, then merges neighbours of equal height.
+    private void addLevel(int index, int x, int y, int width) {
+        ensureCapacity(mSegmentCount + 1);
+        int tail = mSegmentCount - index;
+        System.arraycopy(mSegmentX, index, mSegmentX, index + 1, tail);
+        System.arraycopy(mSegmentY, index, mSegmentY, index + 1, tail);
+        System.arraycopy(mSegmentWidth, index, mSegmentWidth, index + 1, tail);
+        mSegmentX[index] = x;
+        mSegmentY[index] = y;
+        mSegmentWidth[index] = width;
+        mSegmentCount++;
+
+        int i = index + 1;
+        while (i < mSegmentCount) {
+            int end = mSegmentX[i - 1] + mSegmentWidth[i - 1];
+            if (mSegmentX[i] >= end) {
+                break;
+            }
+            int covered = end - mSegmentX[i];
+            if (covered < mSegmentWidth[i]) {
+                mSegmentX[i] += covered;
+                mSegmentWidth[i] -= covered;
+                break;
+            }
+            removeSegment(i);
+        }
+
+        i = 0;
+        while (i < mSegmentCount - 1) {
+            if (mSegmentY[i] == mSegmentY[i + 1]) {
+                mSegmentWidth[i] += mSegmentWidth[i + 1];
+                removeSegment(i + 1);
+            } else {
+                i++;
+            }
+        }
+    }
+
+    private void removeSegment(int i) {
+        int tail = mSegmentCount - i - 1;
+        System.arraycopy(mSegmentX, i + 1, mSegmentX, i, tail);
+        System.arraycopy(mSegmentY, i + 1, mSegmentY, i, tail);
+        System.arraycopy(mSegmentWidth, i + 1, mSegmentWidth, i, tail);
+        mSegmentCount--;
+    }
+
+    private void ensureCapacity(int count) {
+        if (count > mSegmentX.length) {
+            int capacity = Math.max(count, mSegmentX.length * 2);
+            mSegmentX = Arrays.copyOf(mSegmentX, capacity);
+            mSegmentY = Arrays.copyOf(mSegmentY, capacity);
+            mSegmentWidth = Arrays.copyOf(mSegmentWidth, capacity);
+        }
+    }
+}
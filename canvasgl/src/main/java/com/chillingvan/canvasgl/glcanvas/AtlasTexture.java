@@ -0,0 +1,70 @@
+/*
+ *
+ *  *
+ *  *  * Copyright (C) 2016 ChillingVan
+ *  *  *
+ *  *  * Licensed under the Apache License, Version 2.0 (the "License");
+ *  *  * you may not use this file except in compliance with the License.
+ *  *  * You may obtain a copy of the License at
+ *  *  *
+ *  *  * http://www.apache.org/licenses/LICENSE-2.0
+ *  *  *
+ *  *  * Unless required by applicable law or agreed to in writing, software
+ *  *  * distributed under the License is distributed on an "AS IS" BASIS,
+ *  *  * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  *  * See the License for the specific language governing permissions and
+ *  *  * limitations under the License.
+ *  *
+ *
+ */
+package com.chillingvan.canvasgl.glcanvas;
+
+import android.opengl.GLES20;
+
+// AtlasTexture is one page of an atlas: an RGBA texture whose parts are
+// uploaded one by one with texSubImage2D, at the places its packer gives.
+// The content cannot be restored after the GL context is lost, the owner
+// of the page finds it unloaded and starts over.
+final class AtlasTexture extends BasicTexture {
+    private final AtlasPacker mPacker;
+
+    AtlasTexture(int size) {
+        setSize(size, size);
+        mPacker = new AtlasPacker(size, size);
+    }
+
+    AtlasPacker getPacker() {
+        return mPacker;
+    }
+
+    // Creates the texture with undefined content. Must be called on the GL
+    // thread of the canvas.
+    void prepare(GLCanvas canvas) {
+        fitTextureSize(canvas.isNpotSupported());
+        mId = canvas.getGLId().generateTexture();
+        canvas.initializeTextureSize(this, GLES20.GL_RGBA, GLES20.GL_UNSIGNED_BYTE);
+        canvas.setTextureParameters(this);
+        mState = STATE_LOADED;
+        setAssociatedCanvas(canvas);
+    }
+
+    @Override
+    protected boolean onBind(GLCanvas canvas) {
+        return isLoaded();
+    }
+
+    @Override
+    protected int getTarget() {
+        return GLES20.GL_TEXTURE_2D;
+    }
+
+    @Override
+    public boolean isOpaque() {
+        return false;
+    }
+
+    @Override
+    public void yield() {
+        // There is no copy of the content to upload again.
+    }
+}
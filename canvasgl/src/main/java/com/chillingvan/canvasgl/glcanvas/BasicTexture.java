@@ -42,6 +42,21 @@ public abstract class BasicTexture implements Texture {
     // Log a warning if a secondBitmap is larger along a dimension
     private static final int MAX_TEXTURE_SIZE = 4096;
 
+    // How the GL texture is sized for the content. AUTO sizes it exactly when
+    // the GL context it is allocated in supports textures of any size, see
+    // GLCanvas.isNpotSupported().
+    public static final int ALLOCATION_AUTO = 0;
+    public static final int ALLOCATION_POWER_OF_2 = 1;
+    public static final int ALLOCATION_EXACT = 2;
+
+    // Bytes per texel assumed when reporting the memory saved by exact sizes.
+    private static final int BYTES_PER_TEXEL = 4;
+
+    private static volatile int sAllocationMode = ALLOCATION_AUTO;
+
+    // Stateless, so one instance serves every plain draw and they share a program.
+    private static final BasicTextureFilter BASIC_TEXTURE_FILTER = new BasicTextureFilter();
+
     protected int mId = -1;
     protected int mState;
 
@@ -53,6 +68,10 @@ public abstract class BasicTexture implements Texture {
 
     private boolean mHasBorder;
 
+    // Kept by the TextureCache of the canvas which allocated the texture.
+    TextureCache.Entry mCacheEntry;
+    boolean mEvicted;
+
     protected GLCanvas mCanvasRef = null;
     private static WeakHashMap<BasicTexture, Object> sAllTextures
             = new WeakHashMap<BasicTexture, Object>();
@@ -76,20 +95,41 @@ public abstract class BasicTexture implements Texture {
     }
 
     /**
-     * Sets the content size of this secondBitmap. In OpenGL, the actual secondBitmap
-     * size must be of power of 2, the size of the content may be smaller.
+     * Sets the content size of this secondBitmap. The GL texture is as large as the
+     * content if textures of any size are allocated, see {@link #setAllocationMode(int)};
+     * otherwise its size is rounded up to a power of 2 and the content may be smaller.
      */
     public void setSize(int width, int height) {
         mWidth = width;
         mHeight = height;
-        mTextureWidth = width > 0 ? GLCanvasUtils.nextPowerOf2(width) : 0;
-        mTextureHeight = height > 0 ? GLCanvasUtils.nextPowerOf2(height) : 0;
+        // Until the texture is allocated the context is not known for sure,
+        // fitTextureSize corrects the size then.
+        GLCanvas canvas = mCanvasRef;
+        sizeTexture(isExactAllocation(canvas == null || canvas.isNpotSupported()));
         if (mTextureWidth > MAX_TEXTURE_SIZE || mTextureHeight > MAX_TEXTURE_SIZE) {
             Log.w(TAG, String.format("secondBitmap is too large: %d x %d",
                     mTextureWidth, mTextureHeight), new Exception());
         }
     }
 
+    // Sizes the GL texture for the context it is about to be allocated in.
+    // Must be called before the texture is allocated.
+    void fitTextureSize(boolean npotSupported) {
+        if (!isLoaded()) {
+            sizeTexture(isExactAllocation(npotSupported));
+        }
+    }
+
+    private void sizeTexture(boolean exact) {
+        if (exact) {
+            mTextureWidth = Math.max(mWidth, 0);
+            mTextureHeight = Math.max(mHeight, 0);
+        } else {
+            mTextureWidth = mWidth > 0 ? GLCanvasUtils.nextPowerOf2(mWidth) : 0;
+            mTextureHeight = mHeight > 0 ? GLCanvasUtils.nextPowerOf2(mHeight) : 0;
+        }
+    }
+
     public boolean isFlippedVertically() {
       return false;
     }
@@ -108,16 +148,23 @@ public abstract class BasicTexture implements Texture {
         return mHeight;
     }
 
-    // Returns the width rounded to the next power of 2.
+    // Returns the width of the GL texture, the width rounded to the next power
+    // of 2 unless textures are allocated exactly.
     public int getTextureWidth() {
         return mTextureWidth;
     }
 
-    // Returns the height rounded to the next power of 2.
+    // Returns the height of the GL texture, see getTextureWidth().
     public int getTextureHeight() {
         return mTextureHeight;
     }
 
+    // Returns true if the GL texture is as large as the content, so no texture
+    // coordinate needs clipping to the content.
+    public boolean isExactSize() {
+        return mTextureWidth == mWidth && mTextureHeight == mHeight;
+    }
+
     // Returns true if the secondBitmap has one pixel transparent border around the
     // actual content. This is used to avoid jigged edges.
     //
@@ -139,12 +186,12 @@ public abstract class BasicTexture implements Texture {
 
     @Override
     public void draw(GLCanvas canvas, int x, int y) {
-        canvas.drawTexture(this, x, y, getWidth(), getHeight(), new BasicTextureFilter(), null);
+        canvas.drawTexture(this, x, y, getWidth(), getHeight(), BASIC_TEXTURE_FILTER, null);
     }
 
     @Override
     public void draw(GLCanvas canvas, int x, int y, int w, int h) {
-        canvas.drawTexture(this, x, y, w, h, new BasicTextureFilter(), null);
+        canvas.drawTexture(this, x, y, w, h, BASIC_TEXTURE_FILTER, null);
     }
 
     // onBind is called before GLCanvas binds this secondBitmap.
@@ -205,6 +252,46 @@ public abstract class BasicTexture implements Texture {
         }
     }
 
+    // Chooses how textures sized after this call are allocated, one of the
+    // ALLOCATION_ constants. Textures which have a size keep it.
+    public static void setAllocationMode(int mode) {
+        if (mode != ALLOCATION_AUTO && mode != ALLOCATION_POWER_OF_2 && mode != ALLOCATION_EXACT) {
+            throw new IllegalArgumentException("Unknown allocation mode " + mode);
+        }
+        sAllocationMode = mode;
+    }
+
+    public static int getAllocationMode() {
+        return sAllocationMode;
+    }
+
+    // Returns true if textures allocated on the canvas are as large as their
+    // content.
+    public static boolean isExactAllocation(GLCanvas canvas) {
+        return isExactAllocation(canvas.isNpotSupported());
+    }
+
+    private static boolean isExactAllocation(boolean npotSupported) {
+        int mode = sAllocationMode;
+        return mode == ALLOCATION_EXACT || (mode == ALLOCATION_AUTO && npotSupported);
+    }
+
+    // Returns how many bytes the loaded textures would take more if their
+    // sizes were rounded up to powers of 2, counting 4 bytes per texel.
+    public static long getNpotSavedBytes() {
+        long saved = 0;
+        synchronized (sAllTextures) {
+            for (BasicTexture t : sAllTextures.keySet()) {
+                if (t.isLoaded() && t.mTextureWidth > 0 && t.mTextureHeight > 0) {
+                    long potArea = (long) GLCanvasUtils.nextPowerOf2(t.mTextureWidth)
+                            * GLCanvasUtils.nextPowerOf2(t.mTextureHeight);
+                    saved += (potArea - (long) t.mTextureWidth * t.mTextureHeight) * BYTES_PER_TEXEL;
+                }
+            }
+        }
+        return saved;
+    }
+
     public static void invalidateAllTextures() {
         synchronized (sAllTextures) {
             for (BasicTexture t : sAllTextures.keySet()) {
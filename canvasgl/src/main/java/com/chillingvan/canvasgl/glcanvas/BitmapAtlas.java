@@ -0,0 +1,320 @@
+/*
+ *
+ *  *
+ *  *  * Copyright (C) 2016 ChillingVan
+ *  *  *
+ *  *  * Licensed under the Apache License, Version 2.0 (the "License");
+ *  *  * you may not use this file except in compliance with the License.
+ *  *  * You may obtain a copy of the License at
+ *  *  *
+ *  *  * http://www.apache.org/licenses/LICENSE-2.0
+ *  *  *
+ *  *  * Unless required by applicable law or agreed to in writing, software
+ *  *  * distributed under the License is distributed on an "AS IS" BASIS,
+ *  *  * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  *  * See the License for the specific language governing permissions and
+ *  *  * limitations under the License.
+ *  *
+ *
+ */
+package com.chillingvan.canvasgl.glcanvas;
+
+import android.graphics.Bitmap;
+import android.graphics.RectF;
+import android.opengl.GLES20;
+
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.WeakHashMap;
+
+// BitmapAtlas packs small bitmaps into shared atlas pages, so that drawing
+// many different icons binds one texture and the sprite batch draws them
+// with one call. Bitmaps are packed when they are first drawn and uploaded
+// with texSubImage2D; their place is given by AtlasPacker.
+//
+// The atlas keeps no bitmap alive. The place of a bitmap which was garbage
+// collected or removed is dead space until its page is empty, or until the
+// page is compacted because a new bitmap found no room anywhere: then the
+// live bitmaps of the page with the most dead space are packed again and
+// uploaded again when they are next drawn.
+//
+// Only ARGB_8888 bitmaps are packed, the pages are RGBA. Must be used on
+// the GL thread.
+public class BitmapAtlas {
+    public static final int DEFAULT_PAGE_SIZE = 1024;
+    public static final int DEFAULT_MAX_BITMAP_SIZE = 128;
+    public static final int DEFAULT_MAX_PAGES = 4;
+
+    // Transparent pixels around every bitmap, so that filtering at its edges
+    // fades out instead of picking up its neighbours.
+    private static final int BORDER = 1;
+
+    private static final Comparator<Entry> TALLEST_FIRST = new Comparator<Entry>() {
+        @Override
+        public int compare(Entry a, Entry b) {
+            return b.mHeight - a.mHeight;
+        }
+    };
+
+    private static final class Entry extends WeakReference<Bitmap> {
+        final int mWidth;
+        final int mHeight;
+        Page mPage;
+        int mX;
+        int mY;
+        boolean mContentValid;
+
+        Entry(Bitmap bitmap, ReferenceQueue<Bitmap> queue) {
+            super(bitmap, queue);
+            mWidth = bitmap.getWidth();
+            mHeight = bitmap.getHeight();
+        }
+
+        long getArea() {
+            return (long) (mWidth + 2 * BORDER) * (mHeight + 2 * BORDER);
+        }
+    }
+
+    private static final class Page {
+        final AtlasTexture mTexture;
+        final ArrayList<Entry> mEntries = new ArrayList<>();
+        long mLiveArea;
+
+        Page(int size) {
+            mTexture = new AtlasTexture(size);
+        }
+
+        long getDeadArea() {
+            return mTexture.getPacker().getUsedArea() - mLiveArea;
+        }
+    }
+
+    private final int mPageSize;
+    private final int mMaxBitmapSize;
+    private final int mMaxPages;
+
+    private final WeakHashMap<Bitmap, Entry> mEntries = new WeakHashMap<>();
+    private final ReferenceQueue<Bitmap> mReleased = new ReferenceQueue<>();
+    private final ArrayList<Page> mPages = new ArrayList<>();
+    private final int[] mPosition = new int[2];
+
+    public BitmapAtlas() {
+        this(DEFAULT_PAGE_SIZE, DEFAULT_MAX_BITMAP_SIZE, DEFAULT_MAX_PAGES);
+    }
+
+    // Bitmaps up to maxBitmapSize wide and high are packed into at most
+    // maxPages pages of pageSize x pageSize.
+    public BitmapAtlas(int pageSize, int maxBitmapSize, int maxPages) {
+        if (maxBitmapSize + 2 * BORDER > pageSize) {
+            throw new IllegalArgumentException("Bitmaps of " + maxBitmapSize + " do not fit pages of " + pageSize);
+        }
+        mPageSize = pageSize;
+        mMaxBitmapSize = maxBitmapSize;
+        mMaxPages = maxPages;
+    }
+
+    public boolean accepts(Bitmap bitmap) {
+        return bitmap.getConfig() == Bitmap.Config.ARGB_8888
+                && bitmap.getWidth() <= mMaxBitmapSize && bitmap.getHeight() <= mMaxBitmapSize
+                && bitmap.getWidth() > 0 && bitmap.getHeight() > 0;
+    }
+
+    // Returns the page holding the bitmap and writes the place of the bitmap
+    // on it, in pixels, to outSource. The bitmap is packed and uploaded if it
+    // is new or was invalidated. Returns null if the bitmap is not accepted
+    // or there is no room for it; it must then be drawn from its own texture.
+    public BasicTexture get(GLCanvas canvas, Bitmap bitmap, RectF outSource) {
+        if (!accepts(bitmap)) {
+            return null;
+        }
+        validate();
+        pollReleased();
+        Entry entry = mEntries.get(bitmap);
+        if (entry != null && (entry.mWidth != bitmap.getWidth() || entry.mHeight != bitmap.getHeight())) {
+            remove(bitmap);
+            entry = null;
+        }
+        if (entry == null) {
+            entry = add(canvas, bitmap);
+            if (entry == null) {
+                return null;
+            }
+        }
+        if (!entry.mContentValid) {
+            upload(canvas, entry, bitmap);
+        }
+        float left = entry.mX + BORDER;
+        float top = entry.mY + BORDER;
+        outSource.set(left, top, left + entry.mWidth, top + entry.mHeight);
+        return entry.mPage.mTexture;
+    }
+
+    // Uploads the bitmap again when it is next drawn.
+    public void invalidate(Bitmap bitmap) {
+        Entry entry = mEntries.get(bitmap);
+        if (entry != null) {
+            entry.mContentValid = false;
+        }
+    }
+
+    public void remove(Bitmap bitmap) {
+        Entry entry = mEntries.remove(bitmap);
+        if (entry != null) {
+            release(entry);
+        }
+    }
+
+    public int getPageCount() {
+        return mPages.size();
+    }
+
+    public int getBitmapCount() {
+        return mEntries.size();
+    }
+
+    // Frees the pages. The atlas can be used again, it starts empty.
+    public void recycle() {
+        for (int i = 0; i < mPages.size(); i++) {
+            mPages.get(i).mTexture.recycle();
+        }
+        clear();
+    }
+
+    private Entry add(GLCanvas canvas, Bitmap bitmap) {
+        int width = bitmap.getWidth() + 2 * BORDER;
+        int height = bitmap.getHeight() + 2 * BORDER;
+        Page page = insert(width, height);
+        if (page == null && mPages.size() < mMaxPages) {
+            page = new Page(mPageSize);
+            page.mTexture.prepare(canvas);
+            mPages.add(page);
+            page = page.mTexture.getPacker().insert(width, height, mPosition) ? page : null;
+        }
+        if (page == null) {
+            page = compact(canvas, width, height);
+            if (page == null) {
+                return null;
+            }
+        }
+        Entry entry = new Entry(bitmap, mReleased);
+        entry.mPage = page;
+        entry.mX = mPosition[0];
+        entry.mY = mPosition[1];
+        page.mEntries.add(entry);
+        page.mLiveArea += entry.getArea();
+        mEntries.put(bitmap, entry);
+        return entry;
+    }
+
+    private Page insert(int width, int height) {
+        for (int i = 0; i < mPages.size(); i++) {
+            Page page = mPages.get(i);
+            if (page.mTexture.getPacker().insert(width, height, mPosition)) {
+                return page;
+            }
+        }
+        return null;
+    }
+
+    // Packs the live bitmaps of the page with the most dead space again and
+    // then the new one. Returns the page if the new one fits on it.
+    private Page compact(GLCanvas canvas, int width, int height) {
+        Page page = null;
+        for (int i = 0; i < mPages.size(); i++) {
+            Page candidate = mPages.get(i);
+            if (candidate.getDeadArea() > 0 && (page == null || candidate.getDeadArea() > page.getDeadArea())) {
+                page = candidate;
+            }
+        }
+        if (page == null) {
+            return null;
+        }
+        // The queued draws still use the old places.
+        canvas.flush();
+        AtlasPacker packer = page.mTexture.getPacker();
+        packer.reset();
+        ArrayList<Entry> entries = new ArrayList<>(page.mEntries);
+        Collections.sort(entries, TALLEST_FIRST);
+        page.mEntries.clear();
+        page.mLiveArea = 0;
+        for (int i = 0; i < entries.size(); i++) {
+            Entry entry = entries.get(i);
+            Bitmap bitmap = entry.get();
+            if (bitmap == null || bitmap.isRecycled()
+                    || !packer.insert(entry.mWidth + 2 * BORDER, entry.mHeight + 2 * BORDER, mPosition)) {
+                entry.mPage = null;
+                if (bitmap != null) {
+                    mEntries.remove(bitmap);
+                }
+                continue;
+            }
+            entry.mX = mPosition[0];
+            entry.mY = mPosition[1];
+            entry.mContentValid = false;
+            page.mEntries.add(entry);
+            page.mLiveArea += entry.getArea();
+        }
+        return packer.insert(width, height, mPosition) ? page : null;
+    }
+
+    private void upload(GLCanvas canvas, Entry entry, Bitmap bitmap) {
+        AtlasTexture texture = entry.mPage.mTexture;
+        int x = entry.mX;
+        int y = entry.mY;
+        int format = GLES20.GL_RGBA;
+        int type = GLES20.GL_UNSIGNED_BYTE;
+        canvas.texSubImage2D(texture, x + BORDER, y + BORDER, bitmap, format, type);
+        Bitmap line = UploadedTexture.getBorderLine(true, Bitmap.Config.ARGB_8888, entry.mHeight + 2 * BORDER);
+        canvas.texSubImage2D(texture, x, y, line, format, type);
+        canvas.texSubImage2D(texture, x + BORDER + entry.mWidth, y, line, format, type);
+        line = UploadedTexture.getBorderLine(false, Bitmap.Config.ARGB_8888, entry.mWidth + 2 * BORDER);
+        canvas.texSubImage2D(texture, x, y, line, format, type);
+        canvas.texSubImage2D(texture, x, y + BORDER + entry.mHeight, line, format, type);
+        entry.mContentValid = true;
+    }
+
+    private void pollReleased() {
+        Reference<? extends Bitmap> reference;
+        while ((reference = mReleased.poll()) != null) {
+            release((Entry) reference);
+        }
+    }
+
+    private void release(Entry entry) {
+        Page page = entry.mPage;
+        if (page == null) {
+            return;
+        }
+        entry.mPage = null;
+        page.mEntries.remove(entry);
+        page.mLiveArea -= entry.getArea();
+        if (page.mEntries.isEmpty()) {
+            page.mTexture.getPacker().reset();
+        }
+    }
+
+    // Starts over if a page lost its texture with the GL context.
+    private void validate() {
+        for (int i = 0; i < mPages.size(); i++) {
+            if (!mPages.get(i).mTexture.isLoaded()) {
+                clear();
+                return;
+            }
+        }
+    }
+
+    private void clear() {
+        for (int i = 0; i < mPages.size(); i++) {
+            ArrayList<Entry> entries = mPages.get(i).mEntries;
+            for (int j = 0; j < entries.size(); j++) {
+                entries.get(j).mPage = null;
+            }
+        }
+        mPages.clear();
+        mEntries.clear();
+    }
+}
@@ -0,0 +1,276 @@
+/*
+ *
+ *  *
+ *  *  * Copyright (C) 2016 ChillingVan
+ *  *  *
+ *  *  * Licensed under the Apache License, Version 2.0 (the "License");
+ *  *  * you may not use this file except in compliance with the License.
+ *  *  * You may obtain a copy of the License at
+ *  *  *
+ *  *  * http://www.apache.org/licenses/LICENSE-2.0
+ *  *  *
+ *  *  * Unless required by applicable law or agreed to in writing, software
+ *  *  * distributed under the License is distributed on an "AS IS" BASIS,
+ *  *  * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  *  * See the License for the specific language governing permissions and
+ *  *  * limitations under the License.
+ *  *
+ *
+ */
+package com.chillingvan.canvasgl.glcanvas;
+
+import android.graphics.RectF;
+
+import java.util.Arrays;
+
+// DrawReorderer collects the batchable quads of a frame and groups them into
+// batches of the same state (sprite or shape, texture and blending), so that
+// interleaved draws of different textures do not break every batch.
+//
+// A new quad walks back over the batches built so far and joins the latest
+// one with its state, but it never moves ahead of a batch it overlaps. So
+// overlapping quads keep the order they were drawn in and the result looks
+// the same as drawing in order. Overlap is tested on the screen aligned
+// bounds of the transformed vertices.
+class DrawReorderer {
+    private static final int KIND_SPRITE = 0;
+    private static final int KIND_SHAPE = 1;
+
+    // The pending quads are submitted by the canvas once this many are queued.
+    static final int MAX_PENDING_QUADS = 8192;
+    private static final int MAX_BATCH_QUADS = Math.min(SpriteBatch.MAX_QUADS, ShapeBatch.MAX_QUADS);
+    // Bounds the work of placing one quad. Past it the quad starts a new batch,
+    // which is always correct.
+    private static final int MAX_OVERLAP_TESTS = 256;
+    private static final int INITIAL_CAPACITY = 256;
+
+    // Per quad
+    private int[] mKinds = new int[INITIAL_CAPACITY];
+    private BasicTexture[] mTextures = new BasicTexture[INITIAL_CAPACITY];
+    private boolean[] mBlending = new boolean[INITIAL_CAPACITY];
+    private int[] mVertexOffsets = new int[INITIAL_CAPACITY];
+    private int[] mNextInBatch = new int[INITIAL_CAPACITY];
+    // left, top, right, bottom
+    private float[] mBounds = new float[INITIAL_CAPACITY * 4];
+    private float[] mVertices = new float[INITIAL_CAPACITY * SpriteBatch.FLOATS_PER_QUAD];
+    private int mQuadCount;
+    private int mVertexCount;
+
+    // Per batch, the quads of a batch are linked by mNextInBatch.
+    private int[] mBatchFirst = new int[INITIAL_CAPACITY];
+    private int[] mBatchLast = new int[INITIAL_CAPACITY];
+    private int[] mBatchSize = new int[INITIAL_CAPACITY];
+    private float[] mBatchBounds = new float[INITIAL_CAPACITY * 4];
+    private int mBatchCount;
+
+    // The batches the quads would need in the order they were drawn.
+    private int mRunCount;
+    private int mRunLength;
+
+    boolean isEmpty() {
+        return mQuadCount == 0;
+    }
+
+    boolean isFull() {
+        return mQuadCount >= MAX_PENDING_QUADS;
+    }
+
+    boolean contains(BasicTexture texture) {
+        for (int i = 0; i < mQuadCount; i++) {
+            if (mTextures[i] == texture) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // The add methods take the same arguments as the matching methods of
+    // SpriteBatch and ShapeBatch. isFull() must have returned false.
+    void addSprite(BasicTexture texture, boolean blending, float[] matrix, int offset,
+                   RectF source, RectF target, float alpha, boolean flipped) {
+        int i = beginQuad(SpriteBatch.FLOATS_PER_QUAD);
+        SpriteBatch.putQuad(mVertices, i, matrix, offset, source, target, alpha, flipped);
+        endQuad(KIND_SPRITE, texture, blending, SpriteBatch.FLOATS_PER_QUAD, SpriteBatch.FLOATS_PER_VERTEX);
+    }
+
+    void addRotatedSprite(BasicTexture texture, boolean blending, float[] matrix, int offset, RectF source,
+                          float centerX, float centerY, float width, float height,
+                          float degrees, float scale, float alpha, boolean flipped) {
+        int i = beginQuad(SpriteBatch.FLOATS_PER_QUAD);
+        SpriteBatch.putRotatedQuad(mVertices, i, matrix, offset, source, centerX, centerY, width, height,
+                degrees, scale, alpha, flipped);
+        endQuad(KIND_SPRITE, texture, blending, SpriteBatch.FLOATS_PER_QUAD, SpriteBatch.FLOATS_PER_VERTEX);
+    }
+
+    void addRect(float[] matrix, int offset, float x, float y, float width, float height, float[] color) {
+        int i = beginQuad(ShapeBatch.FLOATS_PER_QUAD);
+        ShapeBatch.putRect(mVertices, i, matrix, offset, x, y, width, height, color);
+        endQuad(KIND_SHAPE, null, true, ShapeBatch.FLOATS_PER_QUAD, ShapeBatch.FLOATS_PER_VERTEX);
+    }
+
+    void addCircle(float[] matrix, int offset, float x, float y, float width, float height,
+                   float[] color, float ringWidth) {
+        int i = beginQuad(ShapeBatch.FLOATS_PER_QUAD);
+        if (ShapeBatch.putCircle(mVertices, i, matrix, offset, x, y, width, height, color, ringWidth)) {
+            endQuad(KIND_SHAPE, null, true, ShapeBatch.FLOATS_PER_QUAD, ShapeBatch.FLOATS_PER_VERTEX);
+        }
+    }
+
+    void addShape(float[] matrix, int offset, float x, float y, float width, float height, float[] color,
+                  float radius, float strokeWidth, float startAngle, float sweepAngle) {
+        int i = beginQuad(ShapeBatch.FLOATS_PER_QUAD);
+        if (ShapeBatch.putShape(mVertices, i, matrix, offset, x, y, width, height, color,
+                radius, strokeWidth, startAngle, sweepAngle)) {
+            endQuad(KIND_SHAPE, null, true, ShapeBatch.FLOATS_PER_QUAD, ShapeBatch.FLOATS_PER_VERTEX);
+        }
+    }
+
+    void addLine(float[] matrix, int offset, float x1, float y1, float x2, float y2,
+                 float[] color, float lineWidth, boolean capped) {
+        int i = beginQuad(ShapeBatch.FLOATS_PER_QUAD);
+        if (ShapeBatch.putLine(mVertices, i, matrix, offset, x1, y1, x2, y2, color, lineWidth, capped)) {
+            endQuad(KIND_SHAPE, null, true, ShapeBatch.FLOATS_PER_QUAD, ShapeBatch.FLOATS_PER_VERTEX);
+        }
+    }
+
+    // Makes room for the next quad and returns where its vertices go.
+    private int beginQuad(int floatCount) {
+        if (mQuadCount == mKinds.length) {
+            int capacity = mQuadCount * 2;
+            mKinds = Arrays.copyOf(mKinds, capacity);
+            mTextures = Arrays.copyOf(mTextures, capacity);
+            mBlending = Arrays.copyOf(mBlending, capacity);
+            mVertexOffsets = Arrays.copyOf(mVertexOffsets, capacity);
+            mNextInBatch = Arrays.copyOf(mNextInBatch, capacity);
+            mBounds = Arrays.copyOf(mBounds, capacity * 4);
+            mBatchFirst = Arrays.copyOf(mBatchFirst, capacity);
+            mBatchLast = Arrays.copyOf(mBatchLast, capacity);
+            mBatchSize = Arrays.copyOf(mBatchSize, capacity);
+            mBatchBounds = Arrays.copyOf(mBatchBounds, capacity * 4);
+        }
+        if (mVertexCount + floatCount > mVertices.length) {
+            mVertices = Arrays.copyOf(mVertices, Math.max(mVertices.length * 2, mVertexCount + floatCount));
+        }
+        return mVertexCount;
+    }
+
+    private void endQuad(int kind, BasicTexture texture, boolean blending, int floatCount, int stride) {
+        int quad = mQuadCount;
+        mKinds[quad] = kind;
+        mTextures[quad] = texture;
+        mBlending[quad] = blending;
+        mVertexOffsets[quad] = mVertexCount;
+        mNextInBatch[quad] = -1;
+
+        float[] v = mVertices;
+        float left = Float.POSITIVE_INFINITY;
+        float top = Float.POSITIVE_INFINITY;
+        float right = Float.NEGATIVE_INFINITY;
+        float bottom = Float.NEGATIVE_INFINITY;
+        for (int i = mVertexCount, end = mVertexCount + floatCount; i < end; i += stride) {
+            left = Math.min(left, v[i]);
+            right = Math.max(right, v[i]);
+            top = Math.min(top, v[i + 1]);
+            bottom = Math.max(bottom, v[i + 1]);
+        }
+        int b = quad * 4;
+        mBounds[b] = left;
+        mBounds[b + 1] = top;
+        mBounds[b + 2] = right;
+        mBounds[b + 3] = bottom;
+
+        if (quad == 0 || !sameState(quad - 1, quad) || mRunLength == MAX_BATCH_QUADS) {
+            mRunCount++;
+            mRunLength = 0;
+        }
+        mRunLength++;
+
+        mVertexCount += floatCount;
+        mQuadCount++;
+        place(quad);
+    }
+
+    private void place(int quad) {
+        int tests = 0;
+        for (int batch = mBatchCount - 1; batch >= 0; batch--) {
+            if (mBatchSize[batch] < MAX_BATCH_QUADS && sameState(mBatchFirst[batch], quad)) {
+                appendToBatch(batch, quad);
+                return;
+            }
+            if (intersects(mBatchBounds, batch * 4, mBounds, quad * 4)) {
+                tests += mBatchSize[batch];
+                if (tests > MAX_OVERLAP_TESTS || overlapsBatch(batch, quad)) {
+                    break;
+                }
+            }
+        }
+        int batch = mBatchCount++;
+        mBatchFirst[batch] = quad;
+        mBatchLast[batch] = quad;
+        mBatchSize[batch] = 1;
+        System.arraycopy(mBounds, quad * 4, mBatchBounds, batch * 4, 4);
+    }
+
+    private void appendToBatch(int batch, int quad) {
+        mNextInBatch[mBatchLast[batch]] = quad;
+        mBatchLast[batch] = quad;
+        mBatchSize[batch]++;
+        int b = batch * 4;
+        int q = quad * 4;
+        mBatchBounds[b] = Math.min(mBatchBounds[b], mBounds[q]);
+        mBatchBounds[b + 1] = Math.min(mBatchBounds[b + 1], mBounds[q + 1]);
+        mBatchBounds[b + 2] = Math.max(mBatchBounds[b + 2], mBounds[q + 2]);
+        mBatchBounds[b + 3] = Math.max(mBatchBounds[b + 3], mBounds[q + 3]);
+    }
+
+    private boolean overlapsBatch(int batch, int quad) {
+        for (int i = mBatchFirst[batch]; i != -1; i = mNextInBatch[i]) {
+            if (intersects(mBounds, i * 4, mBounds, quad * 4)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // Rectangles which only share an edge do not overlap, GL never draws a
+    // pixel on the shared edge twice.
+    private static boolean intersects(float[] a, int i, float[] b, int j) {
+        return a[i] < b[j + 2] && b[j] < a[i + 2] && a[i + 1] < b[j + 3] && b[j + 1] < a[i + 3];
+    }
+
+    private boolean sameState(int quad1, int quad2) {
+        return mKinds[quad1] == mKinds[quad2]
+                && mTextures[quad1] == mTextures[quad2]
+                && mBlending[quad1] == mBlending[quad2];
+    }
+
+    // Number of batches the pending quads need in the order they were drawn.
+    int getBatchCountBeforeReorder() {
+        return mRunCount;
+    }
+
+    int getBatchCount() {
+        return mBatchCount;
+    }
+
+    // Appends the quads of the batch to the sprite or the shape batch, both
+    // must be empty.
+    void writeBatch(int batch, SpriteBatch spriteBatch, ShapeBatch shapeBatch) {
+        for (int i = mBatchFirst[batch]; i != -1; i = mNextInBatch[i]) {
+            if (mKinds[i] == KIND_SPRITE) {
+                spriteBatch.addVertices(mTextures[i], mBlending[i], mVertices, mVertexOffsets[i]);
+            } else {
+                shapeBatch.addVertices(mVertices, mVertexOffsets[i]);
+            }
+        }
+    }
+
+    void clear() {
+        Arrays.fill(mTextures, 0, mQuadCount, null);
+        mQuadCount = 0;
+        mVertexCount = 0;
+        mBatchCount = 0;
+        mRunCount = 0;
+        mRunLength = 0;
+    }
+}
@@ -36,6 +36,16 @@ import com.chillingvan.canvasgl.textureFilter.TextureFilter;
 //
 public interface GLCanvas {
 
+    // Layout of one record in the instances array of drawTextureInstances:
+    // center x and y, clockwise rotation in degrees around the center, scale
+    // and alpha.
+    int INSTANCE_X = 0;
+    int INSTANCE_Y = 1;
+    int INSTANCE_ROTATION = 2;
+    int INSTANCE_SCALE = 3;
+    int INSTANCE_ALPHA = 4;
+    int INSTANCE_STRIDE = 5;
+
     public GLId getGLId();
 
     // Tells GLCanvas the size of the underlying GL surface. This should be
@@ -79,6 +89,7 @@ public interface GLCanvas {
     public static final int SAVE_FLAG_ALL = 0xFFFFFFFF;
     public static final int SAVE_FLAG_ALPHA = 0x01;
     public static final int SAVE_FLAG_MATRIX = 0x02;
+    public static final int SAVE_FLAG_CLIP = 0x04;
 
     // Pops from the top of the stack as current configuration state (matrix,
     // alpha, and clip). This call balances a previous call to save(), and is
@@ -86,8 +97,38 @@ public interface GLCanvas {
     // last save call.
     public abstract void restore();
 
+    // Intersects the clip with the rectangle transformed by the current matrix.
+    // Nothing is drawn outside the clip. While the matrix keeps the rectangle
+    // axis aligned the clip is the scissor box. Other clips are written to the
+    // stencil buffer. Without one they only clip to the bounds of the
+    // transformed rectangle.
+    void clipRect(float left, float top, float right, float bottom);
+
+    // Returns true if the rectangle transformed by the current matrix lies
+    // fully outside the clip, so drawing it can be skipped. Draws of the
+    // canvas are skipped this way already.
+    boolean quickReject(float left, float top, float right, float bottom);
+
+    // Draws the circle whose bounding box starts at (x, y). With an
+    // SdfShapeFilter the circle is anti-aliased and filled, stroked or both
+    // as the style of the paint says.
     void drawCircle(float x, float y, float radius, GLPaint paint, DrawShapeFilter drawShapeFilter);
 
+    // The shapes below are drawn in the rectangle (x, y, width, height) with
+    // the style of the paint. They need an SdfShapeFilter, other filters are
+    // given the bounding rectangle to draw.
+
+    void drawRoundRect(float x, float y, float width, float height, float radius, GLPaint paint,
+                       DrawShapeFilter drawShapeFilter);
+
+    void drawOval(float x, float y, float width, float height, GLPaint paint, DrawShapeFilter drawShapeFilter);
+
+    // Draws the part of the oval from startAngle sweeping sweepAngle degrees
+    // clockwise, 0 degrees being the right of the oval. Filled arcs are
+    // wedges, stroked arcs have butt ends.
+    void drawArc(float x, float y, float width, float height, float startAngle, float sweepAngle,
+                 GLPaint paint, DrawShapeFilter drawShapeFilter);
+
     // Draws a line using the specified paint from (x1, y1) to (x2, y2).
     // (Both end points are included).
     public abstract void drawLine(float x1, float y1, float x2, float y2, GLPaint paint, DrawShapeFilter drawShapeFilter);
@@ -96,6 +137,21 @@ public interface GLCanvas {
     // (Both end points are included).
     public abstract void drawRect(float x1, float y1, float x2, float y2, GLPaint paint, DrawShapeFilter drawShapeFilter);
 
+    // Draws the path with the style, width, join and cap of the paint. The
+    // triangles and their buffer are kept with the path until it changes.
+    void drawPath(GLPath path, GLPaint paint, DrawShapeFilter drawShapeFilter);
+
+    // Strokes the lines through pointCount points, x, y each, from offset.
+    // They are tessellated and uploaded on every call, for lines which
+    // change every frame; a GLPath keeps them otherwise.
+    void drawPolyline(float[] points, int offset, int pointCount, GLPaint paint, DrawShapeFilter drawShapeFilter);
+
+    // Draws the characters from start to end of text with the left of the
+    // first one at x and the baseline at y, in the color, text size and
+    // typeface of the paint. The glyphs come from a cache of atlas textures,
+    // so text drawn before is not uploaded again.
+    void drawText(CharSequence text, int start, int end, float x, float y, GLPaint paint);
+
     // Fills the specified rectangle with the specified color.
     public abstract void fillRect(float x, float y, float width, float height, int color, DrawShapeFilter drawShapeFilter);
 
@@ -103,6 +159,13 @@ public interface GLCanvas {
     public abstract void drawTexture(
             BasicTexture texture, int x, int y, int width, int height, TextureFilter textureFilter, @Nullable ICustomMVPMatrix customMVPMatrix);
 
+    // Draws count copies of the whole texture, each width x height in size and
+    // placed by one INSTANCE_STRIDE record of instances starting at offset.
+    // Uses one instanced draw call on OpenGL ES 3, otherwise the copies are
+    // expanded into the sprite batch.
+    void drawTextureInstances(BasicTexture texture, int width, int height,
+                              float[] instances, int offset, int count);
+
     public abstract void drawMesh(BasicTexture tex, int x, int y, int xyBuffer,
                                   int uvBuffer, int indexBuffer, int indexCount, int mode);
 
@@ -135,6 +198,11 @@ public interface GLCanvas {
     // Delete the specified buffer object, similar to unloadTexture.
     public abstract void deleteBuffer(int bufferId);
 
+    // Delete a texture id which no BasicTexture of this canvas owns, such as
+    // one created in a context sharing textures with it. May be called on any
+    // thread, the texture is deleted in deleteRecycledResources().
+    void deleteTexture(int textureId);
+
     // Delete the textures and buffers in GL side. This function should only be
     // called in the GL thread.
     public abstract void deleteRecycledResources();
@@ -142,6 +210,44 @@ public interface GLCanvas {
     // Dump statistics information and clear the counters. For debug only.
     public abstract void dumpStatisticsAndClear();
 
+    // Returns the number of GL draw calls made since the counters were last
+    // cleared by dumpStatisticsAndClear(). For debug only.
+    int getDrawCallCount();
+
+    // The number of batches the batched draws would have needed in the order
+    // they were drawn, and the number they were submitted in after reordering,
+    // since the counters were last cleared. Only counted while reordering is
+    // enabled. For debug only.
+    int getBatchCountBeforeReorder();
+
+    int getBatchCountAfterReorder();
+
+    // The GL state remembered by this canvas to skip redundant GL calls. If you
+    // change GL state directly, call getState().invalidate() before drawing
+    // with the canvas again.
+    GLState getState();
+
+    // Returns the location and uniform value cache of the program. Filters
+    // should look up their uniforms and set their values through it.
+    GLProgram getProgram(int program);
+
+    // Programs are shared by filters with the same shaders. Past this count
+    // the least recently used programs are deleted. The default is
+    // ProgramCache.DEFAULT_MAX_PROGRAMS.
+    void setMaxProgramCount(int maxPrograms);
+
+    // Accounts the memory of the textures this canvas allocated, and yields
+    // the least recently drawn ones when a budget is set.
+    TextureCache getTextureCache();
+
+    // Whether the GL context of the canvas allocates textures of any size,
+    // see BasicTexture.setAllocationMode().
+    boolean isNpotSupported();
+
+    // Spreads the first uploads of throttled textures over frames within a
+    // time and byte budget per frame.
+    UploadScheduler getUploadScheduler();
+
     public abstract void beginRenderTarget(RawTexture texture);
 
     public abstract void endRenderTarget();
@@ -188,6 +294,19 @@ public interface GLCanvas {
                                        Bitmap bitmap,
                                        int format, int type);
 
+    /**
+     * Uploads a rectangle of an ARGB_8888 bitmap to the secondBitmap. Only the
+     * rectangle is read from the bitmap, through a buffer the canvas reuses.
+     *
+     * @param texture The target secondBitmap to write to.
+     * @param xOffset The texel offset of the rectangle in the x direction.
+     * @param yOffset The texel offset of the rectangle in the y direction.
+     * @param x The left of the rectangle in the bitmap.
+     * @param y The top of the rectangle in the bitmap.
+     */
+    public abstract void texSubImage2D(BasicTexture texture, int xOffset, int yOffset,
+                                       Bitmap bitmap, int x, int y, int width, int height);
+
     /**
      * Generates buffers and uploads the buffer data.
      *
@@ -223,6 +342,33 @@ public interface GLCanvas {
      */
     public abstract void getBounds(Rect bounds, int x, int y, int width, int height);
 
+    // Enables batching of consecutive draws. Texture draws which use the basic
+    // texture filter and share the same texture and blend state are collected
+    // and submitted with one draw call. So are runs of rectangles, lines and
+    // circles drawn with the built-in shape filters. Disabled by default.
+    void setBatchEnabled(boolean enabled);
+
+    boolean isBatchEnabled();
+
+    // Lets batched draws which do not overlap be reordered, so that draws with
+    // the same texture join one batch even when other draws come in between.
+    // Draws which overlap keep their order. Only has an effect while batching
+    // is enabled. Disabled by default.
+    void setReorderEnabled(boolean enabled);
+
+    boolean isReorderEnabled();
+
+    // Submits the batched draws to GL. The canvas flushes by itself before any
+    // draw that cannot join the batch and when the render target changes, but
+    // the owner of the canvas must call this at the end of every frame and
+    // before making GL calls outside of GLCanvas.
+    void flush();
+
+    // Spends what is left of the upload budget of the frame on the queued
+    // uploads. The owner of the canvas calls this after the last flush of
+    // every frame.
+    void endFrame();
+
     void setOnPreDrawTextureListener(GLES20Canvas.OnPreDrawTextureListener l);
 
     void setOnPreDrawShapeListener(OnPreDrawShapeListener l);
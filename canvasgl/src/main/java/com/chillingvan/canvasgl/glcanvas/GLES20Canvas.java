@@ -20,17 +20,21 @@
 package com.chillingvan.canvasgl.glcanvas;
 
 import android.graphics.Bitmap;
+import android.graphics.Paint;
 import android.graphics.Rect;
 import android.graphics.RectF;
 import android.opengl.GLES11Ext;
 import android.opengl.GLES20;
 import android.opengl.GLUtils;
 import android.opengl.Matrix;
+import android.os.Build;
 import android.util.Log;
 
 import com.chillingvan.canvasgl.Loggers;
 import com.chillingvan.canvasgl.shapeFilter.BasicDrawShapeFilter;
+import com.chillingvan.canvasgl.shapeFilter.DrawCircleFilter;
 import com.chillingvan.canvasgl.shapeFilter.DrawShapeFilter;
+import com.chillingvan.canvasgl.shapeFilter.SdfShapeFilter;
 import com.chillingvan.canvasgl.textureFilter.BasicTextureFilter;
 import com.chillingvan.canvasgl.textureFilter.TextureFilter;
 
@@ -38,10 +42,9 @@ import java.nio.Buffer;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.HashMap;
-import java.util.Map;
 
 public class GLES20Canvas implements GLCanvas {
     // ************** Constants **********************
@@ -77,6 +80,13 @@ public class GLES20Canvas implements GLCanvas {
             1, 1, 0, 1,
     };
 
+    private static final float[] IDENTITY_MATRIX = {
+            1, 0, 0, 0,
+            0, 1, 0, 0,
+            0, 0, 1, 0,
+            0, 0, 0, 1,
+    };
+
     public static final String POSITION_ATTRIBUTE = "aPosition";
     public static final String COLOR_UNIFORM = "uColor";
     public static final String MATRIX_UNIFORM = "uMatrix";
@@ -98,18 +108,47 @@ public class GLES20Canvas implements GLCanvas {
 
     public static final int INITIAL_RESTORE_STATE_SIZE = 8;
     private static final int MATRIX_SIZE = 16;
-
-    private Map<DrawShapeFilter, Integer> mDrawShapeFilterMapProgramId = new HashMap<>();
-    private Map<TextureFilter, Integer> mTextureFilterMapProgramId = new HashMap<>();
-    private Map<TextureFilter, Integer> mOESTextureFilterMapProgramId = new HashMap<>();
+    private static final int CLIP_SIZE = 4;
+    // The canvas matrix and the rectangle of a rotated clip.
+    private static final int STENCIL_CLIP_SIZE = MATRIX_SIZE + 4;
+    private static final int UNKNOWN_STENCIL_BITS = -1;
 
     // Keep track of restore state
     private float[] mMatrices = new float[INITIAL_RESTORE_STATE_SIZE * MATRIX_SIZE];
+    // Whether the matrix of each save level is 2D affine, see Affine2D. Such a
+    // matrix is transformed through Affine2D until a 3D transform promotes it.
+    private boolean[] mAffineMatrices = new boolean[INITIAL_RESTORE_STATE_SIZE];
+    // The projection matrix times the matrix of each save level, computed on
+    // the first draw after either changes. The entry of a level is valid while
+    // its version equals mProjectionVersion, so changing the projection
+    // invalidates every level at once.
+    private float[] mMVPMatrices = new float[INITIAL_RESTORE_STATE_SIZE * MATRIX_SIZE];
+    private int[] mMVPVersions = new int[INITIAL_RESTORE_STATE_SIZE];
+    private int mProjectionVersion = 1;
     private float[] mAlphas = new float[INITIAL_RESTORE_STATE_SIZE];
     private IntArray mSaveFlags = new IntArray();
+    // Clip of each save level in framebuffer coordinates as min x, min y,
+    // max x, max y. A level without clip has infinite bounds.
+    private float[] mClips = new float[INITIAL_RESTORE_STATE_SIZE * CLIP_SIZE];
+    // Number of stencil clips in effect at each save level.
+    private int[] mClipStencilCounts = new int[INITIAL_RESTORE_STATE_SIZE];
 
     private int mCurrentAlphaIndex = 0;
     private int mCurrentMatrixIndex = 0;
+    private int mCurrentClipLevel = 0;
+
+    // Clips which are not axis aligned on screen. They are written to the
+    // stencil buffer, each one increments the stencil value inside it.
+    private float[] mStencilClips = new float[STENCIL_CLIP_SIZE];
+    private int mStencilClipCount;
+    // The stencil clip count when each render target was begun. Every target
+    // has its own stencil buffer, its stencil values count from there.
+    private final IntArray mStencilBases = new IntArray();
+    private boolean mWarnedNoStencil;
+    // The stencil bits of the current framebuffer, or UNKNOWN_STENCIL_BITS
+    // until they are queried. Forgotten when the target or surface changes.
+    private int mStencilBits = UNKNOWN_STENCIL_BITS;
+    private final BasicDrawShapeFilter mClipShapeFilter = new BasicDrawShapeFilter();
 
     // Viewport size
     private int mWidth;
@@ -123,10 +162,10 @@ public class GLES20Canvas implements GLCanvas {
     private int mScreenHeight;
 
     // GL programs
-    private int mDrawProgram;
-    private int mTextureProgram;
-    private int mOesTextureProgram;
-    private int mMeshProgram;
+    private GLProgram mDrawProgram;
+    private GLProgram mTextureProgram;
+    private GLProgram mOesTextureProgram;
+    private GLProgram mMeshProgram;
 
     // GL buffer containing BOX_COORDINATES
     private int mBoxCoordinates;
@@ -150,10 +189,42 @@ public class GLES20Canvas implements GLCanvas {
     private TextureFilter mTextureFilter;
     private DrawShapeFilter mDrawShapeFilter;
 
+    // Skips GL state changes which would not change anything.
+    private final GLState mState = new GLState();
+    // Programs of the filters, shared by shader source.
+    private final ProgramCache mProgramCache = new ProgramCache(mState);
+    private final TextureCache mTextureCache = new TextureCache(this);
+    // Whether the context of the canvas allocates textures of any size.
+    private final boolean mNpotSupported;
+    private final UploadScheduler mUploadScheduler = new UploadScheduler(this);
+    private final PixelBuffer mPixelBuffer = new PixelBuffer();
+    private GLProgram mCurrentProgram;
+    // Used by the canvas' own texture draws, so that no new filter is bound for every call.
+    private final BasicTextureFilter mBasicTextureFilter = new BasicTextureFilter();
+    // Batches consecutive texture draws sharing texture and blend state.
+    private final SpriteBatch mSpriteBatch = new SpriteBatch();
+    // Draws texture instances when instancing is supported.
+    private final SpriteInstancer mSpriteInstancer = new SpriteInstancer();
+    // Batches consecutive rectangles, lines and circles.
+    private final ShapeBatch mShapeBatch = new ShapeBatch();
+    private final TextBatch mTextBatch = new TextBatch();
+    // Created with the first text.
+    private GlyphCache mGlyphCache;
+    // Tessellates paths drawn without a prepared mesh and polylines.
+    private final PathTessellator mPathTessellator = new PathTessellator();
+    // Polylines are streamed through this buffer, 0 until the first one.
+    private int mPolylineBufferId;
+    private FloatBuffer mPolylineVertices;
+    private final float[] mTempLine = new float[8];
+    private boolean mBatchEnabled;
+    // Not null while reordering is enabled, then it takes the batched quads
+    // instead of the sprite and shape batches.
+    private DrawReorderer mDrawReorderer;
+
     private OnPreDrawTextureListener onPreDrawTextureListener;
     private OnPreDrawShapeListener onPreDrawShapeListener;
 
-    private abstract static class ShaderParameter {
+    abstract static class ShaderParameter {
         public int handle;
         protected final String mName;
 
@@ -161,30 +232,28 @@ public class GLES20Canvas implements GLCanvas {
             mName = name;
         }
 
-        public abstract void loadHandle(int program);
+        public abstract void loadHandle(GLProgram program);
     }
 
-    private static class UniformShaderParameter extends ShaderParameter {
+    static class UniformShaderParameter extends ShaderParameter {
         public UniformShaderParameter(String name) {
             super(name);
         }
 
         @Override
-        public void loadHandle(int program) {
-            handle = GLES20.glGetUniformLocation(program, mName);
-            checkError();
+        public void loadHandle(GLProgram program) {
+            handle = program.getUniformLocation(mName);
         }
     }
 
-    private static class AttributeShaderParameter extends ShaderParameter {
+    static class AttributeShaderParameter extends ShaderParameter {
         public AttributeShaderParameter(String name) {
             super(name);
         }
 
         @Override
-        public void loadHandle(int program) {
-            handle = GLES20.glGetAttribLocation(program, mName);
-            checkError();
+        public void loadHandle(GLProgram program) {
+            handle = program.getAttribLocation(mName);
         }
     }
 
@@ -223,6 +292,9 @@ public class GLES20Canvas implements GLCanvas {
     private int mCountTextureRect = 0;
     private int mCountFillRect = 0;
     private int mCountDrawLine = 0;
+    private int mCountDrawCall = 0;
+    private int mCountBatchBeforeReorder = 0;
+    private int mCountBatchAfterReorder = 0;
 
     // Buffer for framebuffer IDs -- we keep track so we can switch the attached
     // secondBitmap.
@@ -234,6 +306,7 @@ public class GLES20Canvas implements GLCanvas {
     // Temporary variables used within calculations
     private final float[] mTempMatrix = new float[32];
     private final float[] mTempColor = new float[4];
+    private final float[] mTempBounds = new float[4];
     private final RectF mTempSourceRect = new RectF();
     private final RectF mTempTargetRect = new RectF();
     private final float[] mTempTextureMatrix = new float[MATRIX_SIZE];
@@ -244,25 +317,20 @@ public class GLES20Canvas implements GLCanvas {
     public GLES20Canvas() {
         Matrix.setIdentityM(mTempTextureMatrix, 0);
         Matrix.setIdentityM(mMatrices, mCurrentMatrixIndex);
+        setMatrixAffine(true);
         mAlphas[mCurrentAlphaIndex] = 1f;
+        setNoClip(mCurrentClipLevel);
         mTargetTextures.add(null);
+        mStencilBases.add(0);
 
         FloatBuffer boxBuffer = createBuffer(BOX_COORDINATES);
         mBoxCoordinates = uploadBuffer(boxBuffer);
 
+        mMeshProgram = mProgramCache.getPinned(MESH_VERTEX_SHADER, BasicTextureFilter.TEXTURE_FRAGMENT_SHADER);
+        loadHandles(mMeshParameters, mMeshProgram);
 
-        mDrawProgram = assembleProgram(loadShader(GLES20.GL_VERTEX_SHADER, BasicDrawShapeFilter.DRAW_VERTEX_SHADER), loadShader(GLES20.GL_FRAGMENT_SHADER, BasicDrawShapeFilter.DRAW_FRAGMENT_SHADER), mDrawParameters, mTempIntArray);
-
-        int textureFragmentShader = loadShader(GLES20.GL_FRAGMENT_SHADER, BasicTextureFilter.TEXTURE_FRAGMENT_SHADER);
-        int meshVertexShader = loadShader(GLES20.GL_VERTEX_SHADER, MESH_VERTEX_SHADER);
-        setupMeshProgram(meshVertexShader, textureFragmentShader);
-
-        GLES20.glBlendFunc(GLES20.GL_ONE, GLES20.GL_ONE_MINUS_SRC_ALPHA);
-        checkError();
-    }
-
-    private void setupMeshProgram(int meshVertexShader, int textureFragmentShader) {
-        mMeshProgram = assembleProgram(meshVertexShader, textureFragmentShader, mMeshParameters, mTempIntArray);
+        mState.blendFunc(GLES20.GL_ONE, GLES20.GL_ONE_MINUS_SRC_ALPHA);
+        mNpotSupported = checkNpotSupported();
     }
 
     private static FloatBuffer createBuffer(float[] values) {
@@ -275,7 +343,7 @@ public class GLES20Canvas implements GLCanvas {
     }
 
 
-    private static int assembleProgram(int vertexShader, int fragmentShader, ShaderParameter[] params, int[] linkStatus) {
+    static int linkProgram(int vertexShader, int fragmentShader, int[] linkStatus) {
         int program = GLES20.glCreateProgram();
         checkError();
         if (program == 0) {
@@ -294,17 +362,41 @@ public class GLES20Canvas implements GLCanvas {
             GLES20.glDeleteProgram(program);
             program = 0;
         }
-        loadHandles(params, program);
         return program;
     }
 
-    private static void loadHandles(ShaderParameter[] params, int program) {
+    static void loadHandles(ShaderParameter[] params, GLProgram program) {
         for (int i = 0; i < params.length; i++) {
             params[i].loadHandle(program);
         }
     }
 
-    private static int loadShader(int type, String shaderCode) {
+    // Returns true if the current context is OpenGL ES 3 and the Java bindings
+    // for it exist. Must be called on the GL thread.
+    static boolean isGLES30() {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.JELLY_BEAN_MR2) {
+            return false;
+        }
+        String version = GLES20.glGetString(GLES20.GL_VERSION);
+        return version != null && version.startsWith("OpenGL ES 3");
+    }
+
+    // Returns true if textures of any size can be allocated in the current
+    // context. OpenGL ES 3 has them in core. OpenGL ES 2.0 only allows them
+    // with restrictions which some drivers get wrong, so there the extension
+    // is needed. Must be called on the GL thread.
+    static boolean checkNpotSupported() {
+        String version = GLES20.glGetString(GLES20.GL_VERSION);
+        if (version != null && version.startsWith("OpenGL ES ")
+                && version.length() > 10 && version.charAt(10) >= '3' && version.charAt(10) <= '9') {
+            return true;
+        }
+        String extensions = GLES20.glGetString(GLES20.GL_EXTENSIONS);
+        return extensions != null && (extensions.contains("GL_OES_texture_npot")
+                || extensions.contains("GL_ARB_texture_non_power_of_two"));
+    }
+
+    static int loadShader(int type, String shaderCode) {
         // create a vertex shader type (GLES20.GL_VERTEX_SHADER)
         // or a fragment shader type (GLES20.GL_FRAGMENT_SHADER)
         int shader = GLES20.glCreateShader(type);
@@ -320,21 +412,26 @@ public class GLES20Canvas implements GLCanvas {
 
     @Override
     public void setSize(int width, int height) {
+        flush();
         mWidth = width;
         mHeight = height;
+        mStencilBits = UNKNOWN_STENCIL_BITS;
         checkError();
         Matrix.setIdentityM(mMatrices, mCurrentMatrixIndex);
+        setMatrixAffine(true);
         Matrix.orthoM(mProjectionMatrix, 0, 0, width, 0, height, -1, 1);
+        mProjectionVersion++;
         if (getTargetTexture() == null) {
             mScreenWidth = width;
             mScreenHeight = height;
-            Matrix.translateM(mMatrices, mCurrentMatrixIndex, 0, height, 0);
-            Matrix.scaleM(mMatrices, mCurrentMatrixIndex, 1, -1, 1);
+            Affine2D.translate(mMatrices, mCurrentMatrixIndex, 0, height);
+            Affine2D.scale(mMatrices, mCurrentMatrixIndex, 1, -1);
         }
     }
 
     @Override
     public void clearBuffer() {
+        flush();
         GLES20.glClearColor(0f, 0f, 0f, 0f);
         checkError();
         GLES20.glClear(GLES20.GL_COLOR_BUFFER_BIT);
@@ -343,6 +440,7 @@ public class GLES20Canvas implements GLCanvas {
 
     @Override
     public void clearBuffer(float[] argb) {
+        flush();
         GLES20.glClearColor(argb[1], argb[2], argb[3], argb[0]);
         checkError();
         GLES20.glClear(GLES20.GL_COLOR_BUFFER_BIT);
@@ -366,7 +464,13 @@ public class GLES20Canvas implements GLCanvas {
 
     @Override
     public void translate(float x, float y, float z) {
+        if (z == 0) {
+            translate(x, y);
+            return;
+        }
         Matrix.translateM(mMatrices, mCurrentMatrixIndex, x, y, z);
+        setMatrixAffine(false);
+        invalidateMVPMatrix();
     }
 
 
@@ -377,6 +481,11 @@ public class GLES20Canvas implements GLCanvas {
     public void translate(float x, float y) {
         int index = mCurrentMatrixIndex;
         float[] m = mMatrices;
+        invalidateMVPMatrix();
+        if (isMatrixAffine()) {
+            Affine2D.translate(m, index, x, y);
+            return;
+        }
         m[index + 12] += m[index + 0] * x + m[index + 4] * y;
         m[index + 13] += m[index + 1] * x + m[index + 5] * y;
         m[index + 14] += m[index + 2] * x + m[index + 6] * y;
@@ -385,7 +494,13 @@ public class GLES20Canvas implements GLCanvas {
 
     @Override
     public void scale(float sx, float sy, float sz) {
+        invalidateMVPMatrix();
+        if (sz == 1 && isMatrixAffine()) {
+            Affine2D.scale(mMatrices, mCurrentMatrixIndex, sx, sy);
+            return;
+        }
         Matrix.scaleM(mMatrices, mCurrentMatrixIndex, sx, sy, sz);
+        setMatrixAffine(isMatrixAffine() && sz == 1);
     }
 
     @Override
@@ -393,22 +508,63 @@ public class GLES20Canvas implements GLCanvas {
         if (angle == 0f) {
             return;
         }
+        invalidateMVPMatrix();
+        if (x == 0 && y == 0 && z != 0 && isMatrixAffine()) {
+            Affine2D.rotate(mMatrices, mCurrentMatrixIndex, z > 0 ? angle : -angle);
+            return;
+        }
         float[] temp = mTempMatrix;
         Matrix.setRotateM(temp, 0, angle, x, y, z);
         float[] matrix = mMatrices;
         int index = mCurrentMatrixIndex;
         Matrix.multiplyMM(temp, MATRIX_SIZE, matrix, index, temp, 0);
         System.arraycopy(temp, MATRIX_SIZE, matrix, index, MATRIX_SIZE);
+        setMatrixAffine(false);
     }
 
 
     @Override
     public void multiplyMatrix(float[] matrix, int offset) {
-        float[] temp = mTempMatrix;
         float[] currentMatrix = mMatrices;
         int index = mCurrentMatrixIndex;
+        boolean affine = isMatrixAffine();
+        invalidateMVPMatrix();
+        if (affine && Affine2D.isAffine(matrix, offset)) {
+            Affine2D.concat(currentMatrix, index, matrix, offset);
+            return;
+        }
+        float[] temp = mTempMatrix;
         Matrix.multiplyMM(temp, 0, currentMatrix, index, matrix, offset);
         System.arraycopy(temp, 0, currentMatrix, index, 16);
+        setMatrixAffine(affine && Affine2D.isAffine(currentMatrix, index));
+    }
+
+    private boolean isMatrixAffine() {
+        return mAffineMatrices[mCurrentMatrixIndex / MATRIX_SIZE];
+    }
+
+    private void setMatrixAffine(boolean affine) {
+        mAffineMatrices[mCurrentMatrixIndex / MATRIX_SIZE] = affine;
+    }
+
+    private void invalidateMVPMatrix() {
+        mMVPVersions[mCurrentMatrixIndex / MATRIX_SIZE] = 0;
+    }
+
+    // Returns the projection matrix times the current matrix. It is at
+    // mCurrentMatrixIndex of the returned array.
+    private float[] getMVPMatrix() {
+        int index = mCurrentMatrixIndex;
+        int level = index / MATRIX_SIZE;
+        if (mMVPVersions[level] != mProjectionVersion) {
+            if (mAffineMatrices[level]) {
+                Affine2D.multiply(mMVPMatrices, index, mProjectionMatrix, 0, mMatrices, index);
+            } else {
+                Matrix.multiplyMM(mMVPMatrices, index, mProjectionMatrix, 0, mMatrices, index);
+            }
+            mMVPVersions[level] = mProjectionVersion;
+        }
+        return mMVPMatrices;
     }
 
     @Override
@@ -435,6 +591,29 @@ public class GLES20Canvas implements GLCanvas {
                 mMatrices = Arrays.copyOf(mMatrices, mMatrices.length * 2);
             }
             System.arraycopy(mMatrices, currentIndex, mMatrices, mCurrentMatrixIndex, MATRIX_SIZE);
+            int level = mCurrentMatrixIndex / MATRIX_SIZE;
+            if (mAffineMatrices.length <= level) {
+                mAffineMatrices = Arrays.copyOf(mAffineMatrices, mAffineMatrices.length * 2);
+                mMVPVersions = Arrays.copyOf(mMVPVersions, mMVPVersions.length * 2);
+                mMVPMatrices = Arrays.copyOf(mMVPMatrices, mMVPMatrices.length * 2);
+            }
+            mAffineMatrices[level] = mAffineMatrices[level - 1];
+            // The level starts with the matrix of the one below, so its product too.
+            mMVPVersions[level] = mMVPVersions[level - 1];
+            if (mMVPVersions[level] == mProjectionVersion) {
+                System.arraycopy(mMVPMatrices, currentIndex, mMVPMatrices, mCurrentMatrixIndex, MATRIX_SIZE);
+            }
+        }
+        boolean saveClip = (saveFlags & SAVE_FLAG_CLIP) == SAVE_FLAG_CLIP;
+        if (saveClip) {
+            int currentLevel = mCurrentClipLevel;
+            mCurrentClipLevel++;
+            if (mClipStencilCounts.length <= mCurrentClipLevel) {
+                mClipStencilCounts = Arrays.copyOf(mClipStencilCounts, mClipStencilCounts.length * 2);
+                mClips = Arrays.copyOf(mClips, mClips.length * 2);
+            }
+            System.arraycopy(mClips, currentLevel * CLIP_SIZE, mClips, mCurrentClipLevel * CLIP_SIZE, CLIP_SIZE);
+            mClipStencilCounts[mCurrentClipLevel] = mClipStencilCounts[currentLevel];
         }
         mSaveFlags.add(saveFlags);
     }
@@ -450,60 +629,623 @@ public class GLES20Canvas implements GLCanvas {
         if (restoreMatrix) {
             mCurrentMatrixIndex -= MATRIX_SIZE;
         }
+        boolean restoreClip = (restoreFlags & SAVE_FLAG_CLIP) == SAVE_FLAG_CLIP;
+        if (restoreClip) {
+            restoreClip();
+        }
+    }
+
+    private void restoreClip() {
+        int savedLevel = mCurrentClipLevel;
+        mCurrentClipLevel--;
+        if (isSameClip(savedLevel, mCurrentClipLevel)) {
+            return;
+        }
+        // The batched draws were issued with the clip which is going away.
+        flush();
+        int stencilClipCount = mClipStencilCounts[mCurrentClipLevel];
+        while (mStencilClipCount > stencilClipCount) {
+            mStencilClipCount--;
+            // Takes the pixels inside the clip back to the stencil value before it.
+            writeStencilClip(mStencilClipCount, mStencilClipCount - getStencilBase() + 1, GLES20.GL_DECR);
+        }
+        applyClip();
+    }
+
+    private boolean isSameClip(int level1, int level2) {
+        if (mClipStencilCounts[level1] != mClipStencilCounts[level2]) {
+            return false;
+        }
+        float[] clips = mClips;
+        int i = level1 * CLIP_SIZE;
+        int j = level2 * CLIP_SIZE;
+        return clips[i] == clips[j] && clips[i + 1] == clips[j + 1]
+                && clips[i + 2] == clips[j + 2] && clips[i + 3] == clips[j + 3];
+    }
+
+    private void setNoClip(int level) {
+        int i = level * CLIP_SIZE;
+        mClips[i] = Float.NEGATIVE_INFINITY;
+        mClips[i + 1] = Float.NEGATIVE_INFINITY;
+        mClips[i + 2] = Float.POSITIVE_INFINITY;
+        mClips[i + 3] = Float.POSITIVE_INFINITY;
+    }
+
+    private boolean hasClip() {
+        return mClips[mCurrentClipLevel * CLIP_SIZE] != Float.NEGATIVE_INFINITY;
+    }
+
+    @Override
+    public void clipRect(float left, float top, float right, float bottom) {
+        flush();
+        float[] bounds = mTempBounds;
+        mapRect(left, top, right, bottom, bounds);
+        float[] clips = mClips;
+        int i = mCurrentClipLevel * CLIP_SIZE;
+        clips[i] = Math.max(clips[i], bounds[0]);
+        clips[i + 1] = Math.max(clips[i + 1], bounds[1]);
+        clips[i + 2] = Math.min(clips[i + 2], bounds[2]);
+        clips[i + 3] = Math.min(clips[i + 3], bounds[3]);
+        // The scissor box is the bounds of the clip, a rotated clip also needs
+        // the stencil buffer to cut off the corners.
+        applyClip();
+        if (!isCurrentMatrixAxisAligned() && hasStencilBuffer()) {
+            pushStencilClip(left, top, right, bottom);
+        }
+    }
+
+    private void pushStencilClip(float left, float top, float right, float bottom) {
+        int entry = mStencilClipCount;
+        int offset = entry * STENCIL_CLIP_SIZE;
+        if (mStencilClips.length < offset + STENCIL_CLIP_SIZE) {
+            mStencilClips = Arrays.copyOf(mStencilClips, mStencilClips.length * 2);
+        }
+        System.arraycopy(mMatrices, mCurrentMatrixIndex, mStencilClips, offset, MATRIX_SIZE);
+        mStencilClips[offset + MATRIX_SIZE] = left;
+        mStencilClips[offset + MATRIX_SIZE + 1] = top;
+        mStencilClips[offset + MATRIX_SIZE + 2] = right;
+        mStencilClips[offset + MATRIX_SIZE + 3] = bottom;
+        int depth = entry - getStencilBase();
+        if (depth == 0) {
+            GLES20.glClearStencil(0);
+            GLES20.glClear(GLES20.GL_STENCIL_BUFFER_BIT);
+            checkError();
+        }
+        writeStencilClip(entry, depth, GLES20.GL_INCR);
+        mStencilClipCount++;
+        mClipStencilCounts[mCurrentClipLevel] = mStencilClipCount;
+        applyClip();
+    }
+
+    // Draws the rectangle of the stencil clip into the stencil buffer only,
+    // applying op to the pixels whose stencil value is ref.
+    private void writeStencilClip(int entry, int ref, int op) {
+        int offset = entry * STENCIL_CLIP_SIZE;
+        float[] stencilClips = mStencilClips;
+        float left = stencilClips[offset + MATRIX_SIZE];
+        float top = stencilClips[offset + MATRIX_SIZE + 1];
+        float right = stencilClips[offset + MATRIX_SIZE + 2];
+        float bottom = stencilClips[offset + MATRIX_SIZE + 3];
+
+        mState.setStencilTestEnabled(true);
+        mState.stencilFunc(GLES20.GL_EQUAL, ref, 0xFF);
+        mState.stencilOp(GLES20.GL_KEEP, GLES20.GL_KEEP, op);
+        mState.colorMask(false, false, false, false);
+        save(SAVE_FLAG_MATRIX);
+        System.arraycopy(stencilClips, offset, mMatrices, mCurrentMatrixIndex, MATRIX_SIZE);
+        setMatrixAffine(Affine2D.isAffine(mMatrices, mCurrentMatrixIndex));
+        invalidateMVPMatrix();
+        setupDrawShapeFilter(mClipShapeFilter);
+        prepareDraw(OFFSET_FILL_RECT, 0xFFFFFFFF, 0f);
+        draw("clipRect", mDrawParameters, GLES20.GL_TRIANGLE_STRIP, COUNT_FILL_VERTEX, left, top,
+                right - left, bottom - top, null);
+        restore();
+        mState.colorMask(true, true, true, true);
+        mState.stencilOp(GLES20.GL_KEEP, GLES20.GL_KEEP, GLES20.GL_KEEP);
+    }
+
+    private int getStencilBase() {
+        return mStencilBases.getInternalArray()[mStencilBases.size() - 1];
+    }
+
+    // Without a stencil buffer a rotated clip only clips to its bounds.
+    private boolean hasStencilBuffer() {
+        if (mStencilBits == UNKNOWN_STENCIL_BITS) {
+            // A glGet stalls the pipeline, so it is not done for every clip.
+            GLES20.glGetIntegerv(GLES20.GL_STENCIL_BITS, mTempIntArray, 0);
+            mStencilBits = mTempIntArray[0];
+        }
+        if (mStencilBits > 0) {
+            return true;
+        }
+        if (!mWarnedNoStencil) {
+            Log.w(TAG, "No stencil buffer, rotated clips are clipped to their bounds.");
+            mWarnedNoStencil = true;
+        }
+        return false;
+    }
+
+    // Sets the scissor box and the stencil test of the current clip.
+    private void applyClip() {
+        if (hasClip()) {
+            float[] clips = mClips;
+            int i = mCurrentClipLevel * CLIP_SIZE;
+            int left = Math.round(clips[i]);
+            int bottom = Math.round(clips[i + 1]);
+            int right = Math.round(clips[i + 2]);
+            int top = Math.round(clips[i + 3]);
+            mState.setScissorEnabled(true);
+            mState.scissor(left, bottom, Math.max(0, right - left), Math.max(0, top - bottom));
+        } else {
+            mState.setScissorEnabled(false);
+        }
+        int depth = mStencilClipCount - getStencilBase();
+        if (depth > 0) {
+            mState.setStencilTestEnabled(true);
+            mState.stencilFunc(GLES20.GL_EQUAL, depth, 0xFF);
+        } else {
+            mState.setStencilTestEnabled(false);
+        }
+    }
+
+    @Override
+    public boolean quickReject(float left, float top, float right, float bottom) {
+        return isClippedOut(left, top, right, bottom, 0);
+    }
+
+    // Returns true if the rectangle, grown by outset pixels on screen, lies
+    // fully outside the bounds of the clip.
+    private boolean isClippedOut(float left, float top, float right, float bottom, float outset) {
+        if (!hasClip()) {
+            return false;
+        }
+        float[] clips = mClips;
+        int i = mCurrentClipLevel * CLIP_SIZE;
+        if (clips[i] >= clips[i + 2] || clips[i + 1] >= clips[i + 3]) {
+            return true;
+        }
+        float[] bounds = mTempBounds;
+        mapRect(left, top, right, bottom, bounds);
+        return bounds[0] - outset >= clips[i + 2] || bounds[2] + outset <= clips[i]
+                || bounds[1] - outset >= clips[i + 3] || bounds[3] + outset <= clips[i + 1];
+    }
+
+    // Writes the bounds of the rectangle transformed by the current matrix to
+    // out as min x, min y, max x, max y in framebuffer coordinates. Corners
+    // behind the viewer give infinite bounds.
+    private void mapRect(float left, float top, float right, float bottom, float[] out) {
+        float[] m = mMatrices;
+        int index = mCurrentMatrixIndex;
+        out[0] = Float.POSITIVE_INFINITY;
+        out[1] = Float.POSITIVE_INFINITY;
+        out[2] = Float.NEGATIVE_INFINITY;
+        out[3] = Float.NEGATIVE_INFINITY;
+        for (int corner = 0; corner < 4; corner++) {
+            float x = (corner & 1) == 0 ? left : right;
+            float y = (corner & 2) == 0 ? top : bottom;
+            float w = m[index + 3] * x + m[index + 7] * y + m[index + 15];
+            if (w <= 0) {
+                out[0] = Float.NEGATIVE_INFINITY;
+                out[1] = Float.NEGATIVE_INFINITY;
+                out[2] = Float.POSITIVE_INFINITY;
+                out[3] = Float.POSITIVE_INFINITY;
+                return;
+            }
+            float mappedX = (m[index] * x + m[index + 4] * y + m[index + 12]) / w;
+            float mappedY = (m[index + 1] * x + m[index + 5] * y + m[index + 13]) / w;
+            out[0] = Math.min(out[0], mappedX);
+            out[1] = Math.min(out[1], mappedY);
+            out[2] = Math.max(out[2], mappedX);
+            out[3] = Math.max(out[3], mappedY);
+        }
     }
 
     @Override
     public void drawCircle(float x, float y, float radius, GLPaint paint, DrawShapeFilter drawShapeFilter) {
+        if (drawShapeFilter instanceof SdfShapeFilter) {
+            drawSdfShape("drawCircle", x, y, 2 * radius, 2 * radius, SdfShapeFilter.RADIUS_OVAL, 0, 360,
+                    paint, drawShapeFilter);
+            return;
+        }
+        if (isClippedOut(x - radius, y - radius, x + radius, y + radius, 0)) {
+            return;
+        }
+        if (canBatchShape(drawShapeFilter, DrawCircleFilter.class)) {
+            float[] color = getColor(paint.getColor());
+            float ringWidth = ((DrawCircleFilter) drawShapeFilter).getLineWidth();
+            if (mDrawReorderer != null) {
+                prepareReorderer();
+                mDrawReorderer.addCircle(mMatrices, mCurrentMatrixIndex, x, y, 2 * radius, 2 * radius,
+                        color, ringWidth);
+                return;
+            }
+            prepareShapeBatch(1);
+            mShapeBatch.addCircle(mMatrices, mCurrentMatrixIndex, x, y, 2 * radius, 2 * radius,
+                    color, ringWidth);
+            return;
+        }
         setupDrawShapeFilter(drawShapeFilter);
-        draw(GLES20.GL_TRIANGLE_STRIP, OFFSET_FILL_RECT, COUNT_FILL_VERTEX, x, y, 2*radius, 2*radius, paint.getColor(), 0f);
+        draw("drawCircle", GLES20.GL_TRIANGLE_STRIP, OFFSET_FILL_RECT, COUNT_FILL_VERTEX, x, y, 2*radius, 2*radius, paint.getColor(), 0f);
+    }
+
+    @Override
+    public void drawRoundRect(float x, float y, float width, float height, float radius, GLPaint paint,
+                              DrawShapeFilter drawShapeFilter) {
+        drawSdfShape("drawRoundRect", x, y, width, height, radius, 0, 360, paint, drawShapeFilter);
+    }
+
+    @Override
+    public void drawOval(float x, float y, float width, float height, GLPaint paint, DrawShapeFilter drawShapeFilter) {
+        drawSdfShape("drawOval", x, y, width, height, SdfShapeFilter.RADIUS_OVAL, 0, 360, paint, drawShapeFilter);
+    }
+
+    @Override
+    public void drawArc(float x, float y, float width, float height, float startAngle, float sweepAngle,
+                        GLPaint paint, DrawShapeFilter drawShapeFilter) {
+        drawSdfShape("drawArc", x, y, width, height, SdfShapeFilter.RADIUS_OVAL, startAngle, sweepAngle,
+                paint, drawShapeFilter);
+    }
+
+    // The SDF shapes always go through the shape batch, its vertices carry
+    // the shape. Without batching they are flushed right away.
+    private void drawSdfShape(String operation, float x, float y, float width, float height, float radius,
+                              float startAngle, float sweepAngle, GLPaint paint, DrawShapeFilter drawShapeFilter) {
+        float strokeWidth = getSdfStrokeWidth(paint);
+        if (isClippedOut(x, y, x + width, y + height, Math.abs(strokeWidth) / 2)) {
+            return;
+        }
+        if (!(drawShapeFilter instanceof SdfShapeFilter)) {
+            setupDrawShapeFilter(drawShapeFilter);
+            draw(operation, GLES20.GL_TRIANGLE_STRIP, OFFSET_FILL_RECT, COUNT_FILL_VERTEX, x, y, width, height,
+                    paint.getColor(), 0f);
+            return;
+        }
+        float[] color = getColor(paint.getColor());
+        if (!isCurrentMatrix2D()) {
+            // The vertices stay in canvas coordinates and the whole matrix
+            // is applied by the vertex shader.
+            flush();
+            prepareShapeBatch(1);
+            mShapeBatch.addShape(IDENTITY_MATRIX, 0, x, y, width, height, color, radius, strokeWidth,
+                    startAngle, sweepAngle);
+            if (!mShapeBatch.isEmpty()) {
+                mShapeBatch.flush(mState, getMVPMatrix(), mCurrentMatrixIndex, mScreenWidth, mScreenHeight);
+                onDrawCall(operation);
+            }
+            return;
+        }
+        if (mBatchEnabled && mDrawReorderer != null) {
+            prepareReorderer();
+            mDrawReorderer.addShape(mMatrices, mCurrentMatrixIndex, x, y, width, height, color, radius,
+                    strokeWidth, startAngle, sweepAngle);
+            return;
+        }
+        prepareShapeBatch(1);
+        mShapeBatch.addShape(mMatrices, mCurrentMatrixIndex, x, y, width, height, color, radius, strokeWidth,
+                startAngle, sweepAngle);
+        if (!mBatchEnabled) {
+            flush();
+        }
+    }
+
+    // The stroke width as ShapeBatch.putShape takes it.
+    private static float getSdfStrokeWidth(GLPaint paint) {
+        if (paint.getStyle() == Paint.Style.STROKE) {
+            return getBatchLineWidth(paint);
+        }
+        if (paint.getStyle() == Paint.Style.FILL_AND_STROKE) {
+            return -getBatchLineWidth(paint);
+        }
+        return 0;
     }
 
     @Override
     public void drawLine(float x1, float y1, float x2, float y2, GLPaint paint, DrawShapeFilter drawShapeFilter) {
+        if (isClippedOut(Math.min(x1, x2), Math.min(y1, y2), Math.max(x1, x2), Math.max(y1, y2),
+                getBatchLineWidth(paint) / 2)) {
+            return;
+        }
+        if (canBatchShape(drawShapeFilter, BasicDrawShapeFilter.class)) {
+            batchLine(x1, y1, x2, y2, getColor(paint.getColor()), getBatchLineWidth(paint), false);
+            mCountDrawLine++;
+            return;
+        }
+        if (drawShapeFilter != null && drawShapeFilter.getClass() == BasicDrawShapeFilter.class) {
+            // Wide GL lines are clamped to 1 pixel on many GPUs, so the line
+            // is drawn as triangles.
+            float[] points = mTempLine;
+            points[0] = x1;
+            points[1] = y1;
+            points[2] = x2;
+            points[3] = y2;
+            drawStroke("drawLine", points, 0, 2, false, getBatchLineWidth(paint), PathTessellator.JOIN_MITER,
+                    PathTessellator.CAP_BUTT, paint.getColor(), drawShapeFilter);
+            mCountDrawLine++;
+            return;
+        }
         setupDrawShapeFilter(drawShapeFilter);
-        draw(GLES20.GL_LINE_STRIP, OFFSET_DRAW_LINE, COUNT_LINE_VERTEX, x1, y1, x2 - x1, y2 - y1,
+        draw("drawLine", GLES20.GL_LINE_STRIP, OFFSET_DRAW_LINE, COUNT_LINE_VERTEX, x1, y1, x2 - x1, y2 - y1,
                 paint);
         mCountDrawLine++;
     }
 
     @Override
     public void drawRect(float x, float y, float width, float height, GLPaint paint, DrawShapeFilter drawShapeFilter) {
+        if (isClippedOut(x, y, x + width, y + height, getBatchLineWidth(paint) / 2)) {
+            return;
+        }
+        if (canBatchShape(drawShapeFilter, BasicDrawShapeFilter.class)) {
+            float[] color = getColor(paint.getColor());
+            float lineWidth = getBatchLineWidth(paint);
+            float right = x + width;
+            float bottom = y + height;
+            batchLine(x, y, x, bottom, color, lineWidth, true);
+            batchLine(x, bottom, right, bottom, color, lineWidth, true);
+            batchLine(right, bottom, right, y, color, lineWidth, true);
+            batchLine(right, y, x, y, color, lineWidth, true);
+            mCountDrawLine++;
+            return;
+        }
+        if (drawShapeFilter != null && drawShapeFilter.getClass() == BasicDrawShapeFilter.class) {
+            float[] points = mTempLine;
+            points[0] = x;
+            points[1] = y;
+            points[2] = x + width;
+            points[3] = y;
+            points[4] = x + width;
+            points[5] = y + height;
+            points[6] = x;
+            points[7] = y + height;
+            drawStroke("drawRect", points, 0, 4, true, getBatchLineWidth(paint), PathTessellator.JOIN_MITER,
+                    PathTessellator.CAP_BUTT, paint.getColor(), drawShapeFilter);
+            mCountDrawLine++;
+            return;
+        }
         setupDrawShapeFilter(drawShapeFilter);
-        draw(GLES20.GL_LINE_LOOP, OFFSET_DRAW_RECT, COUNT_RECT_VERTEX, x, y, width, height, paint);
+        draw("drawRect", GLES20.GL_LINE_LOOP, OFFSET_DRAW_RECT, COUNT_RECT_VERTEX, x, y, width, height, paint);
         mCountDrawLine++;
     }
 
-    private void draw(int type, int offset, int count, float x, float y, float width, float height,
+    @Override
+    public void drawPath(GLPath path, GLPaint paint, DrawShapeFilter drawShapeFilter) {
+        if (path.isEmpty()) {
+            return;
+        }
+        int style = GLPath.getStyle(paint);
+        float strokeWidth = GLPath.getStrokeWidth(paint);
+        int join = GLPath.getJoin(paint);
+        float outset = style == GLPath.STYLE_FILL ? 0 : getStrokeOutset(strokeWidth, join);
+        if (isClippedOut(path.getLeft() - outset, path.getTop() - outset,
+                path.getRight() + outset, path.getBottom() + outset, 0)) {
+            return;
+        }
+        float[] mesh = path.getMesh(style, strokeWidth, join, GLPath.getCap(paint), mPathTessellator);
+        if (mesh.length == 0) {
+            return;
+        }
+        flush();
+        drawTriangles("drawPath", path.getBuffer(this, mesh), mesh.length / COORDS_PER_VERTEX,
+                paint.getColor(), drawShapeFilter);
+    }
+
+    @Override
+    public void drawPolyline(float[] points, int offset, int pointCount, GLPaint paint,
+                             DrawShapeFilter drawShapeFilter) {
+        if (pointCount == 0) {
+            return;
+        }
+        float left = points[offset];
+        float top = points[offset + 1];
+        float right = left;
+        float bottom = top;
+        for (int i = 1; i < pointCount; i++) {
+            float x = points[offset + i * 2];
+            float y = points[offset + i * 2 + 1];
+            left = Math.min(left, x);
+            top = Math.min(top, y);
+            right = Math.max(right, x);
+            bottom = Math.max(bottom, y);
+        }
+        float strokeWidth = GLPath.getStrokeWidth(paint);
+        int join = GLPath.getJoin(paint);
+        float outset = getStrokeOutset(strokeWidth, join);
+        if (isClippedOut(left - outset, top - outset, right + outset, bottom + outset, 0)) {
+            return;
+        }
+        drawStroke("drawPolyline", points, offset, pointCount, false, strokeWidth, join,
+                GLPath.getCap(paint), paint.getColor(), drawShapeFilter);
+    }
+
+    @Override
+    public void drawText(CharSequence text, int start, int end, float x, float y, GLPaint paint) {
+        if (start >= end) {
+            return;
+        }
+        if (!mTextBatch.isPrepared()) {
+            mTextBatch.prepare(mGLId, mState, mProgramCache);
+        }
+        if (mGlyphCache == null) {
+            mGlyphCache = new GlyphCache();
+        }
+        GlyphCache cache = mGlyphCache;
+        cache.validate();
+        GlyphCache.Font font = cache.getFont(paint.getTypeface(), paint.getTextSize());
+        boolean matrix2D = isCurrentMatrix2D();
+        if (!matrix2D || !mSpriteBatch.isEmpty() || !mShapeBatch.isEmpty()
+                || (mDrawReorderer != null && !mDrawReorderer.isEmpty())) {
+            flush();
+        }
+        // Without a 2D matrix the glyphs stay in canvas coordinates and the
+        // whole matrix is applied by the vertex shader.
+        float[] matrix = matrix2D ? mMatrices : IDENTITY_MATRIX;
+        int offset = matrix2D ? mCurrentMatrixIndex : 0;
+        float[] color = getColor(paint.getColor());
+        // Glyphs are put on whole pixels, so they are sampled 1:1 unless the
+        // matrix scales them.
+        float baseline = Math.round(y);
+        float penX = x;
+        int i = start;
+        while (i < end) {
+            int codePoint = Character.codePointAt(text, i);
+            i += Character.charCount(codePoint);
+            GlyphCache.Glyph glyph = cache.getGlyph(this, font, codePoint);
+            if (glyph == null) {
+                flushText(matrix2D);
+                cache.clear();
+                glyph = cache.getGlyph(this, font, codePoint);
+            }
+            if (glyph.page != null) {
+                if (!mTextBatch.canAppend(glyph.page)) {
+                    flushText(matrix2D);
+                }
+                float left = Math.round(penX);
+                mTextBatch.add(glyph.page, matrix, offset, left + glyph.left, baseline + glyph.top,
+                        left + glyph.right, baseline + glyph.bottom, glyph.u0, glyph.v0, glyph.u1, glyph.v1, color);
+            }
+            penX += glyph.advance;
+        }
+        if (!matrix2D || !mBatchEnabled) {
+            flushText(matrix2D);
+        }
+    }
+
+    private void flushText(boolean matrix2D) {
+        if (mTextBatch.isEmpty()) {
+            return;
+        }
+        if (matrix2D) {
+            mTextBatch.flush(mState, mProjectionMatrix, 0, mScreenWidth, mScreenHeight);
+        } else {
+            mTextBatch.flush(mState, getMVPMatrix(), mCurrentMatrixIndex, mScreenWidth, mScreenHeight);
+        }
+        onDrawCall("drawText");
+    }
+
+    // How far a stroke may reach past the points, a miter as far as the limit.
+    private static float getStrokeOutset(float strokeWidth, int join) {
+        return join == PathTessellator.JOIN_MITER ? strokeWidth / 2 * PathTessellator.MITER_LIMIT : strokeWidth;
+    }
+
+    // Tessellates the stroke and draws it from the stream buffer.
+    private void drawStroke(String operation, float[] points, int offset, int pointCount, boolean closed, float strokeWidth,
+                            int join, int cap, int color, DrawShapeFilter drawShapeFilter) {
+        PathTessellator tessellator = mPathTessellator;
+        tessellator.reset();
+        tessellator.stroke(points, offset, pointCount, closed, strokeWidth, join, cap);
+        int floatCount = tessellator.getVertexCount() * COORDS_PER_VERTEX;
+        if (floatCount == 0) {
+            return;
+        }
+        flush();
+        if (mPolylineVertices == null || mPolylineVertices.capacity() < floatCount) {
+            int capacity = Math.max(floatCount, mPolylineVertices == null ? 1024 : mPolylineVertices.capacity() * 2);
+            mPolylineVertices = ByteBuffer.allocateDirect(capacity * FLOAT_SIZE).order(ByteOrder.nativeOrder())
+                    .asFloatBuffer();
+        }
+        FloatBuffer vertices = mPolylineVertices;
+        vertices.clear();
+        vertices.put(tessellator.getVertices(), 0, floatCount).position(0);
+        if (mPolylineBufferId == 0) {
+            mGLId.glGenBuffers(1, mTempIntArray, 0);
+            checkError();
+            mPolylineBufferId = mTempIntArray[0];
+        }
+        mState.bindBuffer(GLES20.GL_ARRAY_BUFFER, mPolylineBufferId);
+        // Orphans the storage of the last polyline, which may still be drawn.
+        GLES20.glBufferData(GLES20.GL_ARRAY_BUFFER, floatCount * FLOAT_SIZE, vertices, GLES20.GL_STREAM_DRAW);
+        checkError();
+        drawTriangles(operation, mPolylineBufferId, floatCount / COORDS_PER_VERTEX, color, drawShapeFilter);
+    }
+
+    // Draws triangles whose vertices are in canvas coordinates, so the matrix
+    // is the plain MVP instead of one placing the unit square.
+    private void drawTriangles(String operation, int bufferId, int vertexCount, int color,
+                               DrawShapeFilter drawShapeFilter) {
+        setupDrawShapeFilter(drawShapeFilter);
+        GLProgram program = useProgram(mDrawProgram);
+        float[] colorArray = getColor(color);
+        mState.setBlendEnabled(true);
+        mState.blendColor(colorArray[0], colorArray[1], colorArray[2], colorArray[3]);
+        program.setFloat4(mDrawParameters[INDEX_COLOR].handle, colorArray, 0);
+        mState.bindBuffer(GLES20.GL_ARRAY_BUFFER, bufferId);
+        GLES20.glVertexAttribPointer(mDrawParameters[INDEX_POSITION].handle, COORDS_PER_VERTEX,
+                GLES20.GL_FLOAT, false, VERTEX_STRIDE, 0);
+        checkError();
+        if (onPreDrawShapeListener != null) {
+            onPreDrawShapeListener.onPreDraw(mDrawProgram.getId(), mDrawShapeFilter);
+        }
+        draw(operation, mDrawParameters, GLES20.GL_TRIANGLES, vertexCount, 0, 0, 1, 1, null);
+    }
+
+    private void draw(String operation, int type, int offset, int count, float x, float y, float width, float height,
                       GLPaint paint) {
-        draw(type, offset, count, x, y, width, height, paint.getColor(), paint.getLineWidth());
+        draw(operation, type, offset, count, x, y, width, height, paint.getColor(), paint.getLineWidth());
     }
 
-    private void draw(int type, int offset, int count, float x, float y, float width, float height,
+    private void draw(String operation, int type, int offset, int count, float x, float y, float width, float height,
                       int color, float lineWidth) {
+        flush();
         prepareDraw(offset, color, lineWidth);
         if (onPreDrawShapeListener != null) {
-            onPreDrawShapeListener.onPreDraw(mDrawProgram, mDrawShapeFilter);
+            onPreDrawShapeListener.onPreDraw(mDrawProgram.getId(), mDrawShapeFilter);
         }
-        draw(mDrawParameters, type, count, x, y, width, height, null);
+        draw(operation, mDrawParameters, type, count, x, y, width, height, null);
     }
 
     private void prepareDraw(int offset, int color, float lineWidth) {
-        GLES20.glUseProgram(mDrawProgram);
-        checkError();
+        GLProgram program = useProgram(mDrawProgram);
         if (lineWidth > 0) {
-            GLES20.glLineWidth(lineWidth);
-            checkError();
+            mState.lineWidth(lineWidth);
         }
         float[] colorArray = getColor(color);
-        enableBlending(true);
-        GLES20.glBlendColor(colorArray[0], colorArray[1], colorArray[2], colorArray[3]);
-        checkError();
+        mState.setBlendEnabled(true);
+        mState.blendColor(colorArray[0], colorArray[1], colorArray[2], colorArray[3]);
 
-        GLES20.glUniform4fv(mDrawParameters[INDEX_COLOR].handle, 1, colorArray, 0);
+        program.setFloat4(mDrawParameters[INDEX_COLOR].handle, colorArray, 0);
         setPosition(mDrawParameters, offset);
         checkError();
     }
 
+    private GLProgram useProgram(GLProgram program) {
+        mState.useProgram(program.getId());
+        mCurrentProgram = program;
+        return program;
+    }
+
+    @Override
+    public GLProgram getProgram(int program) {
+        // Filters ask for the program which is about to draw.
+        if (mCurrentProgram != null && mCurrentProgram.getId() == program) {
+            return mCurrentProgram;
+        }
+        GLProgram glProgram = mProgramCache.findProgram(program);
+        if (glProgram == null) {
+            // Not linked by this canvas, nothing can be cached for it.
+            glProgram = new GLProgram(program);
+        }
+        return glProgram;
+    }
+
+    @Override
+    public void setMaxProgramCount(int maxPrograms) {
+        mProgramCache.setMaxPrograms(maxPrograms);
+    }
+
+    @Override
+    public TextureCache getTextureCache() {
+        return mTextureCache;
+    }
+
+    @Override
+    public boolean isNpotSupported() {
+        return mNpotSupported;
+    }
+
+    @Override
+    public UploadScheduler getUploadScheduler() {
+        return mUploadScheduler;
+    }
+
     private float[] getColor(int color) {
         float alpha = ((color >>> 24) & 0xFF) / 255f * getAlpha();
         float red = ((color >>> 16) & 0xFF) / 255f * alpha;
@@ -516,57 +1258,59 @@ public class GLES20Canvas implements GLCanvas {
         return mTempColor;
     }
 
-    private static void enableBlending(boolean enableBlending) {
-        if (enableBlending) {
-            GLES20.glEnable(GLES20.GL_BLEND);
-            checkError();
-        } else {
-            GLES20.glDisable(GLES20.GL_BLEND);
-            checkError();
-        }
-    }
-
     private void setPosition(ShaderParameter[] params, int offset) {
-        GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, mBoxCoordinates);
-        checkError();
+        mState.bindBuffer(GLES20.GL_ARRAY_BUFFER, mBoxCoordinates);
         GLES20.glVertexAttribPointer(params[INDEX_POSITION].handle, COORDS_PER_VERTEX,
                 GLES20.GL_FLOAT, false, VERTEX_STRIDE, offset * VERTEX_STRIDE);
         checkError();
-        GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, 0);
-        checkError();
     }
 
-    private void draw(ShaderParameter[] params, int type, int count, float x, float y, float width,
+    private void draw(String operation, ShaderParameter[] params, int type, int count, float x, float y, float width,
                       float height, ICustomMVPMatrix customMVPMatrix) {
         setMatrix(params, x, y, width, height, customMVPMatrix);
-        int positionHandle = params[INDEX_POSITION].handle;
-        GLES20.glEnableVertexAttribArray(positionHandle);
-        checkError();
+        mState.setVertexAttribArrays(GLState.attribBit(params[INDEX_POSITION].handle));
         GLES20.glDrawArrays(type, 0, count);
         checkError();
-        GLES20.glDisableVertexAttribArray(positionHandle);
-        checkError();
+        onDrawCall(operation);
+    }
+
+    private void onDrawCall(String operation) {
+        mCountDrawCall++;
+        GLErrorChecker.checkDraw(operation);
     }
 
     private void setMatrix(ShaderParameter[] params, float x, float y, float width, float height, ICustomMVPMatrix customMVPMatrix) {
         if (customMVPMatrix != null) {
-            GLES20.glUniformMatrix4fv(params[INDEX_MATRIX].handle, 1, false, customMVPMatrix.getMVPMatrix(mScreenWidth, mScreenHeight, x, y, width, height), 0);
-            checkError();
+            mCurrentProgram.setMatrix4(params[INDEX_MATRIX].handle, customMVPMatrix.getMVPMatrix(mScreenWidth, mScreenHeight, x, y, width, height), 0);
+            // The custom matrix may set its own viewport.
+            mState.invalidateViewport();
             return;
         }
-        GLES20.glViewport(0, 0, mScreenWidth, mScreenHeight);
-        Matrix.translateM(mTempMatrix, 0, mMatrices, mCurrentMatrixIndex, x, y, 0f);
-        Matrix.scaleM(mTempMatrix, 0, width, height, 1f);
-//        printMatrix("translate matrix:", mTempMatrix, 0);
-        Matrix.multiplyMM(mTempMatrix, MATRIX_SIZE, mProjectionMatrix, 0, mTempMatrix, 0);
-        GLES20.glUniformMatrix4fv(params[INDEX_MATRIX].handle, 1, false, mTempMatrix, MATRIX_SIZE);
-        checkError();
+        mState.viewport(0, 0, mScreenWidth, mScreenHeight);
+        // Only the placement of the unit square changes from draw to draw.
+        Affine2D.multiply(mTempMatrix, MATRIX_SIZE, getMVPMatrix(), mCurrentMatrixIndex,
+                width, 0, 0, height, x, y);
+        mCurrentProgram.setMatrix4(params[INDEX_MATRIX].handle, mTempMatrix, MATRIX_SIZE);
     }
 
     @Override
     public void fillRect(float x, float y, float width, float height, int color, DrawShapeFilter drawShapeFilter) {
+        if (isClippedOut(x, y, x + width, y + height, 0)) {
+            return;
+        }
+        if (canBatchShape(drawShapeFilter, BasicDrawShapeFilter.class)) {
+            if (mDrawReorderer != null) {
+                prepareReorderer();
+                mDrawReorderer.addRect(mMatrices, mCurrentMatrixIndex, x, y, width, height, getColor(color));
+            } else {
+                prepareShapeBatch(1);
+                mShapeBatch.addRect(mMatrices, mCurrentMatrixIndex, x, y, width, height, getColor(color));
+            }
+            mCountFillRect++;
+            return;
+        }
         setupDrawShapeFilter(drawShapeFilter);
-        draw(GLES20.GL_TRIANGLE_STRIP, OFFSET_FILL_RECT, COUNT_FILL_VERTEX, x, y, width, height,
+        draw("fillRect", GLES20.GL_TRIANGLE_STRIP, OFFSET_FILL_RECT, COUNT_FILL_VERTEX, x, y, width, height,
                 color, 0f);
         mCountFillRect++;
     }
@@ -576,12 +1320,23 @@ public class GLES20Canvas implements GLCanvas {
         if (width <= 0 || height <= 0) {
             return;
         }
-        setupTextureFilter(texture.getTarget(), textureFilter);
+        // A custom matrix does not use the canvas matrix, so its bounds are unknown.
+        if (customMVPMatrix == null && isClippedOut(x, y, x + width, y + height, 0)) {
+            return;
+        }
+        boolean batch = canBatch(texture, textureFilter, customMVPMatrix);
+        if (!batch) {
+            setupTextureFilter(texture.getTarget(), textureFilter);
+        }
         TextureMatrixTransformer.copyTextureCoordinates(texture, mTempSourceRect);
         mTempTargetRect.set(x, y, x + width, y + height);
         TextureMatrixTransformer.convertCoordinate(mTempSourceRect, texture);
         changeTargetIfNeeded(mTempSourceRect, mTempTargetRect, texture);
-        drawTextureRect(texture, mTempSourceRect, mTempTargetRect, customMVPMatrix);
+        if (batch) {
+            batchTextureRect(texture, mTempSourceRect, mTempTargetRect);
+        } else {
+            drawTextureRect(texture, mTempSourceRect, mTempTargetRect, customMVPMatrix);
+        }
     }
 
     @Override
@@ -589,13 +1344,23 @@ public class GLES20Canvas implements GLCanvas {
         if (target.width() <= 0 || target.height() <= 0) {
             return;
         }
-        setupTextureFilter(texture.getTarget(), textureFilter);
+        if (customMVPMatrix == null && isClippedOut(target.left, target.top, target.right, target.bottom, 0)) {
+            return;
+        }
+        boolean batch = canBatch(texture, textureFilter, customMVPMatrix);
+        if (!batch) {
+            setupTextureFilter(texture.getTarget(), textureFilter);
+        }
         mTempSourceRect.set(source);
         mTempTargetRect.set(target);
 
         TextureMatrixTransformer.convertCoordinate(mTempSourceRect, texture);
         changeTargetIfNeeded(mTempSourceRect, mTempTargetRect, texture);
-        drawTextureRect(texture, mTempSourceRect, mTempTargetRect, customMVPMatrix);
+        if (batch) {
+            batchTextureRect(texture, mTempSourceRect, mTempTargetRect);
+        } else {
+            drawTextureRect(texture, mTempSourceRect, mTempTargetRect, customMVPMatrix);
+        }
     }
 
     @Override
@@ -604,11 +1369,217 @@ public class GLES20Canvas implements GLCanvas {
         if (w <= 0 || h <= 0) {
             return;
         }
+        if (customMVPMatrix == null && isClippedOut(x, y, x + w, y + h, 0)) {
+            return;
+        }
         setupTextureFilter(texture.getTarget(), textureFilter);
         mTempTargetRect.set(x, y, x + w, y + h);
         drawTextureRect(texture, textureTransform, mTempTargetRect, customMVPMatrix);
     }
 
+    @Override
+    public void drawTextureInstances(BasicTexture texture, int width, int height,
+                                     float[] instances, int offset, int count) {
+        if (width <= 0 || height <= 0 || count <= 0) {
+            return;
+        }
+        if (offset < 0 || offset + count * INSTANCE_STRIDE > instances.length) {
+            throw new IllegalArgumentException("instances too short for " + count + " instances at " + offset);
+        }
+        if (texture.getTarget() != GLES20.GL_TEXTURE_2D) {
+            throw new IllegalArgumentException("Only GL_TEXTURE_2D textures can be instanced");
+        }
+        TextureMatrixTransformer.copyTextureCoordinates(texture, mTempSourceRect);
+        TextureMatrixTransformer.convertCoordinate(mTempSourceRect, texture);
+        if (SpriteInstancer.isSupported()) {
+            drawInstanced(texture, width, height, instances, offset, count);
+        } else if (isCurrentMatrix2D()) {
+            batchInstances(texture, width, height, instances, offset, count);
+        } else {
+            drawInstancesOneByOne(texture, width, height, instances, offset, count);
+        }
+    }
+
+    private void drawInstanced(BasicTexture texture, int width, int height,
+                               float[] instances, int offset, int count) {
+        flush();
+        if (!mSpriteInstancer.isPrepared()) {
+            mSpriteInstancer.prepare(mGLId, mProgramCache);
+        }
+        if (!texture.onBind(this)) {
+            return;
+        }
+        mTextureCache.touch(texture);
+        mSpriteInstancer.draw(mState, getMVPMatrix(), mCurrentMatrixIndex, mBoxCoordinates, mScreenWidth, mScreenHeight,
+                texture, mTempSourceRect, width, height, getAlpha(), instances, offset, count);
+        onDrawCall("drawTextureInstances");
+        mCountTextureRect += count;
+    }
+
+    // The copies become quads of the sprite batch, which takes up to
+    // SpriteBatch.MAX_QUADS of them per draw call.
+    private void batchInstances(BasicTexture texture, int width, int height,
+                                float[] instances, int offset, int count) {
+        if (!mSpriteBatch.isPrepared()) {
+            mSpriteBatch.prepare(mGLId, mState, mProgramCache);
+        }
+        if (!texture.onBind(this)) {
+            return;
+        }
+        mTextureCache.touch(texture);
+        float canvasAlpha = getAlpha();
+        boolean flipped = texture.isFlippedVertically();
+        for (int i = 0; i < count; i++) {
+            int index = offset + i * INSTANCE_STRIDE;
+            if (mDrawReorderer != null) {
+                prepareReorderer();
+                mDrawReorderer.addRotatedSprite(texture, true, mMatrices, mCurrentMatrixIndex, mTempSourceRect,
+                        instances[index + INSTANCE_X], instances[index + INSTANCE_Y], width, height,
+                        instances[index + INSTANCE_ROTATION], instances[index + INSTANCE_SCALE],
+                        instances[index + INSTANCE_ALPHA] * canvasAlpha, flipped);
+                continue;
+            }
+            if (!mShapeBatch.isEmpty() || !mTextBatch.isEmpty() || !mSpriteBatch.canAppend(texture, true)) {
+                flush();
+            }
+            mSpriteBatch.addRotated(texture, true, mMatrices, mCurrentMatrixIndex, mTempSourceRect,
+                    instances[index + INSTANCE_X], instances[index + INSTANCE_Y], width, height,
+                    instances[index + INSTANCE_ROTATION], instances[index + INSTANCE_SCALE],
+                    instances[index + INSTANCE_ALPHA] * canvasAlpha, flipped);
+        }
+        mCountTextureRect += count;
+        if (!mBatchEnabled) {
+            flush();
+        }
+    }
+
+    // A 3D canvas matrix cannot be applied on the CPU, so each copy is a draw.
+    private void drawInstancesOneByOne(BasicTexture texture, int width, int height,
+                                       float[] instances, int offset, int count) {
+        for (int i = 0; i < count; i++) {
+            int index = offset + i * INSTANCE_STRIDE;
+            float x = instances[index + INSTANCE_X];
+            float y = instances[index + INSTANCE_Y];
+            float scale = instances[index + INSTANCE_SCALE];
+            save(SAVE_FLAG_ALL);
+            multiplyAlpha(instances[index + INSTANCE_ALPHA]);
+            translate(x, y);
+            rotate(instances[index + INSTANCE_ROTATION], 0, 0, 1);
+            scale(scale, scale, 1);
+            translate(-width / 2f, -height / 2f);
+            drawTexture(texture, 0, 0, width, height, mBasicTextureFilter, null);
+            restore();
+        }
+    }
+
+    // Only the plain texture program can be batched: other filters may have custom
+    // shaders or set uniforms in onPreDraw, which needs one draw call per quad.
+    private boolean canBatch(BasicTexture texture, TextureFilter textureFilter, ICustomMVPMatrix customMVPMatrix) {
+        return mBatchEnabled
+                && customMVPMatrix == null
+                && textureFilter != null
+                && textureFilter.getClass() == BasicTextureFilter.class
+                && texture.getTarget() == GLES20.GL_TEXTURE_2D
+                && isCurrentMatrix2D();
+    }
+
+    // Returns true if the current matrix keeps z = 0 and w = 1, so transforming
+    // x and y on the CPU gives the same result as the vertex shader.
+    private boolean isCurrentMatrix2D() {
+        if (isMatrixAffine()) {
+            return true;
+        }
+        float[] m = mMatrices;
+        int index = mCurrentMatrixIndex;
+        return m[index + 2] == 0 && m[index + 6] == 0 && m[index + 14] == 0
+                && m[index + 3] == 0 && m[index + 7] == 0 && m[index + 15] == 1;
+    }
+
+    // Returns true if the current matrix maps rectangles to rectangles with
+    // edges parallel to the axes, so that the scissor box alone can clip.
+    private boolean isCurrentMatrixAxisAligned() {
+        float[] m = mMatrices;
+        int index = mCurrentMatrixIndex;
+        return isCurrentMatrix2D()
+                && ((m[index + 1] == 0 && m[index + 4] == 0) || (m[index] == 0 && m[index + 5] == 0));
+    }
+
+    // Only the built-in shape filters can be batched, their parameters are
+    // written to the vertices instead of uniforms.
+    private boolean canBatchShape(DrawShapeFilter drawShapeFilter, Class<? extends DrawShapeFilter> batchableClass) {
+        return mBatchEnabled
+                && drawShapeFilter != null
+                && drawShapeFilter.getClass() == batchableClass
+                && isCurrentMatrix2D();
+    }
+
+    private void prepareShapeBatch(int quadCount) {
+        if (!mShapeBatch.isPrepared()) {
+            mShapeBatch.prepare(mGLId, mState, mProgramCache);
+        }
+        if (!mSpriteBatch.isEmpty() || !mTextBatch.isEmpty() || !mShapeBatch.hasRoomFor(quadCount)) {
+            flush();
+        }
+    }
+
+    private void batchLine(float x1, float y1, float x2, float y2, float[] color, float lineWidth,
+                           boolean capped) {
+        if (mDrawReorderer != null) {
+            prepareReorderer();
+            mDrawReorderer.addLine(mMatrices, mCurrentMatrixIndex, x1, y1, x2, y2, color, lineWidth, capped);
+            return;
+        }
+        prepareShapeBatch(1);
+        mShapeBatch.addLine(mMatrices, mCurrentMatrixIndex, x1, y1, x2, y2, color, lineWidth, capped);
+    }
+
+    // The batches are prepared here already, so that submitting the reordered
+    // quads only copies them.
+    private void prepareReorderer() {
+        if (!mSpriteBatch.isPrepared()) {
+            mSpriteBatch.prepare(mGLId, mState, mProgramCache);
+        }
+        if (!mShapeBatch.isPrepared()) {
+            mShapeBatch.prepare(mGLId, mState, mProgramCache);
+        }
+        if (mDrawReorderer.isFull() || !mTextBatch.isEmpty()) {
+            flush();
+        }
+    }
+
+    private static float getBatchLineWidth(GLPaint paint) {
+        float lineWidth = paint.getLineWidth();
+        return lineWidth > 0 ? lineWidth : 1f;
+    }
+
+    private void batchTextureRect(BasicTexture texture, RectF source, RectF target) {
+        if (!mSpriteBatch.isPrepared()) {
+            mSpriteBatch.prepare(mGLId, mState, mProgramCache);
+        }
+        // onBind may upload the content, so do it before the quad is queued.
+        // A texture which is not ready, such as a throttled one waiting for
+        // its upload, is not drawn in this frame.
+        if (!texture.onBind(this)) {
+            return;
+        }
+        mTextureCache.touch(texture);
+        float alpha = getAlpha();
+        boolean blending = !texture.isOpaque() || alpha < OPAQUE_ALPHA;
+        if (mDrawReorderer != null) {
+            prepareReorderer();
+            mDrawReorderer.addSprite(texture, blending, mMatrices, mCurrentMatrixIndex, source, target,
+                    alpha, texture.isFlippedVertically());
+            mCountTextureRect++;
+            return;
+        }
+        if (!mShapeBatch.isEmpty() || !mTextBatch.isEmpty() || !mSpriteBatch.canAppend(texture, blending)) {
+            flush();
+        }
+        mSpriteBatch.add(texture, blending, mMatrices, mCurrentMatrixIndex, source, target,
+                alpha, texture.isFlippedVertically());
+        mCountTextureRect++;
+    }
+
     private void drawTextureRect(BasicTexture texture, RectF source, RectF target, ICustomMVPMatrix customMVPMatrix) {
         TextureMatrixTransformer.setTextureMatrix(source, mTempTextureMatrix);
         drawTextureRect(texture, mTempTextureMatrix, target, customMVPMatrix);
@@ -626,12 +1597,16 @@ public class GLES20Canvas implements GLCanvas {
     }
 
     private void drawTextureRect(BasicTexture texture, float[] textureMatrix, RectF target, ICustomMVPMatrix customMVPMatrix) {
+        flush();
         ShaderParameter[] params = prepareTexture(texture);
+        if (params == null) {
+            return;
+        }
         setPosition(params, OFFSET_FILL_RECT);
 //        printMatrix("texture matrix", textureMatrix, 0);
-        GLES20.glUniformMatrix4fv(params[INDEX_TEXTURE_MATRIX].handle, 1, false, textureMatrix, 0);
+        mCurrentProgram.setMatrix4(params[INDEX_TEXTURE_MATRIX].handle, textureMatrix, 0);
         if (onPreDrawTextureListener != null) {
-            onPreDrawTextureListener.onPreDraw(texture.getTarget() == GLES20.GL_TEXTURE_2D ? mTextureProgram : mOesTextureProgram, texture, mTextureFilter);
+            onPreDrawTextureListener.onPreDraw(mCurrentProgram.getId(), texture, mTextureFilter);
         }
         checkError();
         if (texture.isFlippedVertically()) {
@@ -640,7 +1615,7 @@ public class GLES20Canvas implements GLCanvas {
             scale(1, -1, 1);
             translate(0, -target.centerY());
         }
-        draw(params, GLES20.GL_TRIANGLE_STRIP, COUNT_FILL_VERTEX, target.left, target.top,
+        draw("drawTexture", params, GLES20.GL_TRIANGLE_STRIP, COUNT_FILL_VERTEX, target.left, target.top,
                 target.width(), target.height(), customMVPMatrix);
         if (texture.isFlippedVertically()) {
             restore();
@@ -650,7 +1625,7 @@ public class GLES20Canvas implements GLCanvas {
 
     private ShaderParameter[] prepareTexture(BasicTexture texture) {
         ShaderParameter[] params;
-        int program;
+        GLProgram program;
         if (texture.getTarget() == GLES20.GL_TEXTURE_2D) {
             params = mTextureParameters;
             program = mTextureProgram;
@@ -658,64 +1633,52 @@ public class GLES20Canvas implements GLCanvas {
             params = mOesTextureParameters;
             program = mOesTextureProgram;
         }
-        prepareTexture(texture, program, params);
-        return params;
+        return prepareTexture(texture, program, params) ? params : null;
     }
 
-    private void prepareTexture(BasicTexture texture, int program, ShaderParameter[] params) {
-        GLES20.glUseProgram(program);
-        checkError();
-        enableBlending(!texture.isOpaque() || getAlpha() < OPAQUE_ALPHA);
-        GLES20.glActiveTexture(GLES20.GL_TEXTURE0);
-        checkError();
-        texture.onBind(this);
-        GLES20.glBindTexture(texture.getTarget(), texture.getId());
-        checkError();
-        GLES20.glUniform1i(params[INDEX_TEXTURE_SAMPLER].handle, 0);
-        checkError();
-        GLES20.glUniform1f(params[INDEX_ALPHA].handle, getAlpha());
-        checkError();
+    // Returns false if the texture is not ready to be drawn.
+    private boolean prepareTexture(BasicTexture texture, GLProgram program, ShaderParameter[] params) {
+        GLProgram glProgram = useProgram(program);
+        mState.setBlendEnabled(!texture.isOpaque() || getAlpha() < OPAQUE_ALPHA);
+        mState.activeTexture(GLES20.GL_TEXTURE0);
+        if (!texture.onBind(this)) {
+            return false;
+        }
+        mTextureCache.touch(texture);
+        mState.bindTexture(texture.getTarget(), texture.getId());
+        glProgram.setInt(params[INDEX_TEXTURE_SAMPLER].handle, 0);
+        glProgram.setFloat(params[INDEX_ALPHA].handle, getAlpha());
+        return true;
     }
 
     @Override
     public void drawMesh(BasicTexture texture, int x, int y, int xyBuffer, int uvBuffer,
                          int indexBuffer, int indexCount, int mode) {
-        prepareTexture(texture, mMeshProgram, mMeshParameters);
+        flush();
+        if (!prepareTexture(texture, mMeshProgram, mMeshParameters)) {
+            return;
+        }
 
-        GLES20.glBindBuffer(GLES20.GL_ELEMENT_ARRAY_BUFFER, indexBuffer);
-        checkError();
+        mState.bindBuffer(GLES20.GL_ELEMENT_ARRAY_BUFFER, indexBuffer);
 
-        GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, xyBuffer);
-        checkError();
+        mState.bindBuffer(GLES20.GL_ARRAY_BUFFER, xyBuffer);
         int positionHandle = mMeshParameters[INDEX_POSITION].handle;
         GLES20.glVertexAttribPointer(positionHandle, COORDS_PER_VERTEX, GLES20.GL_FLOAT, false,
                 VERTEX_STRIDE, 0);
         checkError();
 
-        GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, uvBuffer);
-        checkError();
+        mState.bindBuffer(GLES20.GL_ARRAY_BUFFER, uvBuffer);
         int texCoordHandle = mMeshParameters[INDEX_TEXTURE_COORD].handle;
         GLES20.glVertexAttribPointer(texCoordHandle, COORDS_PER_VERTEX, GLES20.GL_FLOAT,
                 false, VERTEX_STRIDE, 0);
         checkError();
-        GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, 0);
-        checkError();
 
-        GLES20.glEnableVertexAttribArray(positionHandle);
-        checkError();
-        GLES20.glEnableVertexAttribArray(texCoordHandle);
-        checkError();
+        mState.setVertexAttribArrays(GLState.attribBit(positionHandle) | GLState.attribBit(texCoordHandle));
 
         setMatrix(mMeshParameters, x, y, 1, 1, null);
         GLES20.glDrawElements(mode, indexCount, GLES20.GL_UNSIGNED_BYTE, 0);
         checkError();
-
-        GLES20.glDisableVertexAttribArray(positionHandle);
-        checkError();
-        GLES20.glDisableVertexAttribArray(texCoordHandle);
-        checkError();
-        GLES20.glBindBuffer(GLES20.GL_ELEMENT_ARRAY_BUFFER, 0);
-        checkError();
+        onDrawCall("drawMesh");
         mCountDrawMesh++;
     }
 
@@ -738,7 +1701,7 @@ public class GLES20Canvas implements GLCanvas {
 
         float textureAlpha = (1f - cappedRatio) * currentAlpha;
         setAlpha(textureAlpha);
-        drawTexture(texture, source, target, new BasicTextureFilter(), null);
+        drawTexture(texture, source, target, mBasicTextureFilter, null);
 
         float colorAlpha = cappedRatio * currentAlpha;
         setAlpha(colorAlpha);
@@ -750,6 +1713,7 @@ public class GLES20Canvas implements GLCanvas {
     @Override
     public boolean unloadTexture(BasicTexture texture) {
         boolean unload = texture.isLoaded();
+        mTextureCache.remove(texture);
         if (unload) {
             synchronized (mUnboundTextures) {
                 mUnboundTextures.add(texture.getId());
@@ -758,6 +1722,13 @@ public class GLES20Canvas implements GLCanvas {
         return unload;
     }
 
+    @Override
+    public void deleteTexture(int textureId) {
+        synchronized (mUnboundTextures) {
+            mUnboundTextures.add(textureId);
+        }
+    }
+
     @Override
     public void deleteBuffer(int bufferId) {
         synchronized (mUnboundTextures) {
@@ -767,16 +1738,20 @@ public class GLES20Canvas implements GLCanvas {
 
     @Override
     public void deleteRecycledResources() {
+        flush();
+        mProgramCache.deleteReleasedPrograms();
         synchronized (mUnboundTextures) {
             IntArray ids = mUnboundTextures;
             if (mUnboundTextures.size() > 0) {
                 mGLId.glDeleteTextures(ids.size(), ids.getInternalArray(), 0);
+                mState.onTexturesDeleted(ids.getInternalArray(), 0, ids.size());
                 ids.clear();
             }
 
             ids = mDeleteBuffers;
             if (ids.size() > 0) {
                 mGLId.glDeleteBuffers(ids.size(), ids.getInternalArray(), 0);
+                mState.onBuffersDeleted(ids.getInternalArray(), 0, ids.size());
                 ids.clear();
             }
         }
@@ -784,29 +1759,67 @@ public class GLES20Canvas implements GLCanvas {
 
     @Override
     public void dumpStatisticsAndClear() {
-        String line = String.format("MESH:%d, TEX_RECT:%d, FILL_RECT:%d, LINE:%d", mCountDrawMesh,
-                mCountTextureRect, mCountFillRect, mCountDrawLine);
+        String line = String.format("MESH:%d, TEX_RECT:%d, FILL_RECT:%d, LINE:%d, DRAW_CALL:%d, SKIPPED_STATE:%d"
+                        + ", BATCH_BEFORE_REORDER:%d, BATCH_AFTER_REORDER:%d",
+                mCountDrawMesh, mCountTextureRect, mCountFillRect, mCountDrawLine, mCountDrawCall,
+                mState.getAndClearSkippedCount(), mCountBatchBeforeReorder, mCountBatchAfterReorder);
         mCountDrawMesh = 0;
         mCountTextureRect = 0;
         mCountFillRect = 0;
         mCountDrawLine = 0;
+        mCountDrawCall = 0;
+        mCountBatchBeforeReorder = 0;
+        mCountBatchAfterReorder = 0;
         Log.d(TAG, line);
+        Log.d(TAG, mTextureCache.toString());
+        Log.d(TAG, mUploadScheduler.toString());
+    }
+
+    @Override
+    public int getDrawCallCount() {
+        return mCountDrawCall;
+    }
+
+    @Override
+    public int getBatchCountBeforeReorder() {
+        return mCountBatchBeforeReorder;
+    }
+
+    @Override
+    public int getBatchCountAfterReorder() {
+        return mCountBatchAfterReorder;
+    }
+
+    @Override
+    public GLState getState() {
+        return mState;
     }
 
     @Override
     public void endRenderTarget() {
+        flush();
         RawTexture oldTexture = mTargetTextures.remove(mTargetTextures.size() - 1);
+        mStencilBases.removeLast();
         RawTexture texture = getTargetTexture();
         setRenderTarget(oldTexture, texture);
+        mStencilBits = UNKNOWN_STENCIL_BITS;
         restore(); // restore matrix and alpha
+        // The stencil test depends on the target even when the clip is the same.
+        applyClip();
     }
 
     @Override
     public void beginRenderTarget(RawTexture texture) {
+        flush();
         save(); // save matrix and alpha and blending
         RawTexture oldTexture = getTargetTexture();
         mTargetTextures.add(texture);
+        // The target starts without clip.
+        mStencilBases.add(mStencilClipCount);
+        setNoClip(mCurrentClipLevel);
+        applyClip();
         setRenderTarget(oldTexture, texture);
+        mStencilBits = UNKNOWN_STENCIL_BITS;
     }
 
     private RawTexture getTargetTexture() {
@@ -913,8 +1926,7 @@ public class GLES20Canvas implements GLCanvas {
     @Override
     public void setTextureParameters(BasicTexture texture) {
         int target = texture.getTarget();
-        GLES20.glBindTexture(target, texture.getId());
-        checkError();
+        mState.bindTexture(target, texture.getId());
         GLES20.glTexParameteri(target, GLES20.GL_TEXTURE_WRAP_S, GLES20.GL_CLAMP_TO_EDGE);
         GLES20.glTexParameteri(target, GLES20.GL_TEXTURE_WRAP_T, GLES20.GL_CLAMP_TO_EDGE);
         GLES20.glTexParameterf(target, GLES20.GL_TEXTURE_MIN_FILTER, GLES20.GL_LINEAR);
@@ -923,31 +1935,44 @@ public class GLES20Canvas implements GLCanvas {
 
     @Override
     public void initializeTextureSize(BasicTexture texture, int format, int type) {
+        flushIfBatched(texture);
         int target = texture.getTarget();
-        GLES20.glBindTexture(target, texture.getId());
-        checkError();
+        mState.bindTexture(target, texture.getId());
         int width = texture.getTextureWidth();
         int height = texture.getTextureHeight();
         GLES20.glTexImage2D(target, 0, format, width, height, 0, format, type, null);
+        mTextureCache.onAllocated(texture, TextureCache.getBytesPerTexel(format, type));
     }
 
     @Override
     public void initializeTexture(BasicTexture texture, Bitmap bitmap) {
+        flushIfBatched(texture);
         int target = texture.getTarget();
-        GLES20.glBindTexture(target, texture.getId());
-        checkError();
+        mState.bindTexture(target, texture.getId());
         GLUtils.texImage2D(target, 0, bitmap, 0);
+        mTextureCache.onAllocated(texture, TextureCache.getBytesPerTexel(bitmap));
     }
 
     @Override
     public void texSubImage2D(BasicTexture texture, int xOffset, int yOffset, Bitmap bitmap,
                               int format, int type) {
+        flushIfBatched(texture);
         int target = texture.getTarget();
-        GLES20.glBindTexture(target, texture.getId());
-        checkError();
+        mState.bindTexture(target, texture.getId());
         GLUtils.texSubImage2D(target, 0, xOffset, yOffset, bitmap, format, type);
     }
 
+    @Override
+    public void texSubImage2D(BasicTexture texture, int xOffset, int yOffset, Bitmap bitmap,
+                              int x, int y, int width, int height) {
+        flushIfBatched(texture);
+        IntBuffer pixels = mPixelBuffer.read(bitmap, x, y, width, height);
+        int target = texture.getTarget();
+        mState.bindTexture(target, texture.getId());
+        GLES20.glTexSubImage2D(target, 0, xOffset, yOffset, width, height,
+                GLES20.GL_RGBA, GLES20.GL_UNSIGNED_BYTE, pixels);
+    }
+
     @Override
     public int uploadBuffer(FloatBuffer buf) {
         return uploadBuffer(buf, FLOAT_SIZE);
@@ -962,20 +1987,16 @@ public class GLES20Canvas implements GLCanvas {
         mGLId.glGenBuffers(1, mTempIntArray, 0);
         checkError();
         int bufferId = mTempIntArray[0];
-        GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, bufferId);
-        checkError();
+        mState.bindBuffer(GLES20.GL_ARRAY_BUFFER, bufferId);
         GLES20.glBufferData(GLES20.GL_ARRAY_BUFFER, buffer.capacity() * elementSize, buffer,
                 GLES20.GL_STATIC_DRAW);
         checkError();
         return bufferId;
     }
 
+    // Checks glGetError only in GLErrorChecker.MODE_STRICT.
     public static void checkError() {
-        int error = GLES20.glGetError();
-        if (error != 0) {
-            Throwable t = new Throwable();
-            Log.e(TAG, "GL error: " + error, t);
-        }
+        GLErrorChecker.checkCall();
     }
 
     @SuppressWarnings("unused")
@@ -996,11 +2017,16 @@ public class GLES20Canvas implements GLCanvas {
 
     @Override
     public void recoverFromLightCycle() {
+        flush();
+        // Someone else has used the context, nothing we remember is reliable.
+        mState.invalidate();
+        mStencilBits = UNKNOWN_STENCIL_BITS;
+        applyClip();
         // FIXME: 2017/8/20 
 //        GLES20.glViewport(0, 0, mWidth, mHeight);
         GLES20.glDisable(GLES20.GL_DEPTH_TEST);
-        GLES20.glBlendFunc(GLES20.GL_ONE, GLES20.GL_ONE_MINUS_SRC_ALPHA);
         checkError();
+        mState.blendFunc(GLES20.GL_ONE, GLES20.GL_ONE_MINUS_SRC_ALPHA);
     }
 
     @Override
@@ -1026,13 +2052,8 @@ public class GLES20Canvas implements GLCanvas {
             throw new NullPointerException("draw shape filter is null.");
         }
         mDrawShapeFilter = drawShapeFilter;
-        if (mDrawShapeFilterMapProgramId.containsKey(drawShapeFilter)) {
-            mDrawProgram = mDrawShapeFilterMapProgramId.get(drawShapeFilter);
-            loadHandles(mDrawParameters, mDrawProgram);
-            return;
-        }
-        mDrawProgram = loadAndAssemble(mDrawParameters, drawShapeFilter.getVertexShader(), drawShapeFilter.getFragmentShader());
-        mDrawShapeFilterMapProgramId.put(drawShapeFilter, mDrawProgram);
+        mDrawProgram = mProgramCache.getShapeProgram(drawShapeFilter);
+        loadHandles(mDrawParameters, mDrawProgram);
     }
 
     private void setupTextureFilter(int target, TextureFilter textureFilter) {
@@ -1042,31 +2063,89 @@ public class GLES20Canvas implements GLCanvas {
 
         this.mTextureFilter = textureFilter;
         if (target == GLES20.GL_TEXTURE_2D) {
-            if (mTextureFilterMapProgramId.containsKey(textureFilter)) {
-                mTextureProgram = mTextureFilterMapProgramId.get(textureFilter);
-                loadHandles(mTextureParameters, mTextureProgram);
-                return;
-            }
-            mTextureProgram = loadAndAssemble(mTextureParameters, textureFilter.getVertexShader(), textureFilter.getFragmentShader());
-            mTextureFilterMapProgramId.put(textureFilter, mTextureProgram);
+            mTextureProgram = mProgramCache.getTextureProgram(textureFilter, false);
+            loadHandles(mTextureParameters, mTextureProgram);
         } else {
-            if (mOESTextureFilterMapProgramId.containsKey(textureFilter)) {
-                mOesTextureProgram = mOESTextureFilterMapProgramId.get(textureFilter);
-                loadHandles(mOesTextureParameters, mOesTextureProgram);
-                return;
-            }
-            mOesTextureProgram = loadAndAssemble(mOesTextureParameters, textureFilter.getVertexShader(), textureFilter.getOesFragmentProgram());
-            mOESTextureFilterMapProgramId.put(textureFilter, mOesTextureProgram);
+            mOesTextureProgram = mProgramCache.getTextureProgram(textureFilter, true);
+            loadHandles(mOesTextureParameters, mOesTextureProgram);
         }
+    }
+
 
+    @Override
+    public void setBatchEnabled(boolean enabled) {
+        if (!enabled) {
+            flush();
+        }
+        mBatchEnabled = enabled;
     }
 
-    private int loadAndAssemble(ShaderParameter[] shaderParameters, String vertexProgram, String fragmentProgram) {
-        int vertexShaderHandle = loadShader(GLES20.GL_VERTEX_SHADER, vertexProgram);
-        int fragmentShaderHandle = loadShader(GLES20.GL_FRAGMENT_SHADER, fragmentProgram);
-        return assembleProgram(vertexShaderHandle, fragmentShaderHandle, shaderParameters, mTempIntArray);
+    @Override
+    public boolean isBatchEnabled() {
+        return mBatchEnabled;
     }
 
+    @Override
+    public void setReorderEnabled(boolean enabled) {
+        if (enabled == (mDrawReorderer != null)) {
+            return;
+        }
+        flush();
+        mDrawReorderer = enabled ? new DrawReorderer() : null;
+    }
+
+    @Override
+    public boolean isReorderEnabled() {
+        return mDrawReorderer != null;
+    }
+
+    @Override
+    public void flush() {
+        if (mDrawReorderer != null && !mDrawReorderer.isEmpty()) {
+            submitReordered();
+        }
+        flushBatches();
+    }
+
+    @Override
+    public void endFrame() {
+        mUploadScheduler.endFrame();
+    }
+
+    private void submitReordered() {
+        DrawReorderer reorderer = mDrawReorderer;
+        int batchCount = reorderer.getBatchCount();
+        for (int i = 0; i < batchCount; i++) {
+            reorderer.writeBatch(i, mSpriteBatch, mShapeBatch);
+            flushBatches();
+        }
+        mCountBatchBeforeReorder += reorderer.getBatchCountBeforeReorder();
+        mCountBatchAfterReorder += batchCount;
+        reorderer.clear();
+    }
+
+    private void flushBatches() {
+        if (!mSpriteBatch.isEmpty()) {
+            mSpriteBatch.flush(mState, mProjectionMatrix, mScreenWidth, mScreenHeight);
+            onDrawCall("flushSprites");
+        }
+        if (!mShapeBatch.isEmpty()) {
+            mShapeBatch.flush(mState, mProjectionMatrix, 0, mScreenWidth, mScreenHeight);
+            onDrawCall("flushShapes");
+        }
+        if (!mTextBatch.isEmpty()) {
+            mTextBatch.flush(mState, mProjectionMatrix, 0, mScreenWidth, mScreenHeight);
+            onDrawCall("flushText");
+        }
+    }
+
+    // The pending quads must be drawn before the content of their texture changes.
+    void flushIfBatched(BasicTexture texture) {
+        if (mSpriteBatch.contains(texture)
+                || (mDrawReorderer != null && mDrawReorderer.contains(texture))) {
+            flush();
+        }
+    }
 
     @Override
     public void setOnPreDrawTextureListener(OnPreDrawTextureListener l) {
@@ -0,0 +1,132 @@
+/*
+ *
+ *  *
+ *  *  * Copyright (C) 2016 ChillingVan
+ *  *  *
+ *  *  * Licensed under the Apache License, Version 2.0 (the "License");
+ *  *  * you may not use this file except in compliance with the License.
+ *  *  * You may obtain a copy of the License at
+ *  *  *
+ *  *  * http://www.apache.org/licenses/LICENSE-2.0
+ *  *  *
+ *  *  * Unless required by applicable law or agreed to in writing, software
+ *  *  * distributed under the License is distributed on an "AS IS" BASIS,
+ *  *  * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  *  * See the License for the specific language governing permissions and
+ *  *  * limitations under the License.
+ *  *
+ *
+ */
+package com.chillingvan.canvasgl.glcanvas;
+
+import android.opengl.GLES20;
+import android.util.Log;
+
+// GLErrorChecker decides how often glGetError is called. glGetError is a JNI
+// call and may stall the pipeline on some drivers, so checking after every
+// GL call is only worth it while debugging.
+//
+// The mode is global for all canvases. Set it before creating the canvas,
+// e.g. MODE_OFF for release builds.
+public class GLErrorChecker {
+    private static final String TAG = "GLErrorChecker";
+
+    // Check after almost every GL call. This is the default.
+    public static final int MODE_STRICT = 0;
+    // Check once after every GL draw call.
+    public static final int MODE_PER_DRAW = 1;
+    // Check once at the end of every frame.
+    public static final int MODE_PER_FRAME = 2;
+    // Never call glGetError.
+    public static final int MODE_OFF = 3;
+
+    public static final String OPERATION_FRAME = "frame";
+
+    // glGetError may have to be called several times to clear all the flags.
+    private static final int MAX_ERRORS_PER_CHECK = 8;
+
+    private static volatile int sMode = MODE_STRICT;
+    private static volatile OnGLErrorListener sListener;
+
+    public interface OnGLErrorListener {
+        // Called on the GL thread. operation is the canvas operation or the
+        // method which made the failing call, or OPERATION_FRAME.
+        void onGLError(int error, String operation);
+    }
+
+    private GLErrorChecker() {
+    }
+
+    public static void setMode(int mode) {
+        if (mode < MODE_STRICT || mode > MODE_OFF) {
+            throw new IllegalArgumentException("Unknown error check mode: " + mode);
+        }
+        sMode = mode;
+    }
+
+    public static int getMode() {
+        return sMode;
+    }
+
+    // Without a listener errors are logged.
+    public static void setOnGLErrorListener(OnGLErrorListener listener) {
+        sListener = listener;
+    }
+
+    // Called after single GL calls.
+    static void checkCall() {
+        if (sMode != MODE_STRICT) {
+            return;
+        }
+        int error = GLES20.glGetError();
+        if (error != GLES20.GL_NO_ERROR) {
+            Throwable t = new Throwable();
+            report(error, getCaller(t), t);
+        }
+    }
+
+    // Called after a GL draw call made for the given canvas operation.
+    static void checkDraw(String operation) {
+        if (sMode != MODE_PER_DRAW) {
+            return;
+        }
+        checkAll(operation);
+    }
+
+    // Called by the owner of the canvas once the frame has been drawn.
+    public static void checkFrame() {
+        if (sMode != MODE_PER_FRAME) {
+            return;
+        }
+        checkAll(OPERATION_FRAME);
+    }
+
+    private static void checkAll(String operation) {
+        for (int i = 0; i < MAX_ERRORS_PER_CHECK; i++) {
+            int error = GLES20.glGetError();
+            if (error == GLES20.GL_NO_ERROR) {
+                return;
+            }
+            report(error, operation, null);
+        }
+    }
+
+    private static String getCaller(Throwable t) {
+        for (StackTraceElement element : t.getStackTrace()) {
+            if (!element.getClassName().equals(GLErrorChecker.class.getName())
+                    && !element.getMethodName().equals("checkError")) {
+                return element.getMethodName();
+            }
+        }
+        return "unknown";
+    }
+
+    private static void report(int error, String operation, Throwable t) {
+        OnGLErrorListener listener = sListener;
+        if (listener != null) {
+            listener.onGLError(error, operation);
+        } else {
+            Log.e(TAG, "GL error: " + error + " in " + operation, t);
+        }
+    }
+}
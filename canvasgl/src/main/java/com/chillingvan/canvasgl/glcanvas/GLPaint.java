@@ -22,6 +22,7 @@ package com.chillingvan.canvasgl.glcanvas;
 
 import android.graphics.Color;
 import android.graphics.Paint;
+import android.graphics.Typeface;
 
 import junit.framework.Assert;
 
@@ -29,6 +30,10 @@ public class GLPaint {
     private float mLineWidth = 1f;
     private int mColor = Color.WHITE;
     private Paint.Style style = Paint.Style.FILL;
+    private Paint.Join mStrokeJoin = Paint.Join.MITER;
+    private Paint.Cap mStrokeCap = Paint.Cap.BUTT;
+    private float mTextSize = 12f;
+    private Typeface mTypeface;
 
     public void setColor(int color) {
         mColor = color;
@@ -54,4 +59,40 @@ public class GLPaint {
     public Paint.Style getStyle() {
         return style;
     }
+
+    // The join and the cap are used by paths and polylines.
+    public void setStrokeJoin(Paint.Join join) {
+        mStrokeJoin = join;
+    }
+
+    public Paint.Join getStrokeJoin() {
+        return mStrokeJoin;
+    }
+
+    public void setStrokeCap(Paint.Cap cap) {
+        mStrokeCap = cap;
+    }
+
+    public Paint.Cap getStrokeCap() {
+        return mStrokeCap;
+    }
+
+    // The text size in pixels and the typeface are used by drawText. A null
+    // typeface is the default one.
+    public void setTextSize(float textSize) {
+        Assert.assertTrue(textSize > 0);
+        mTextSize = textSize;
+    }
+
+    public float getTextSize() {
+        return mTextSize;
+    }
+
+    public void setTypeface(Typeface typeface) {
+        mTypeface = typeface;
+    }
+
+    public Typeface getTypeface() {
+        return mTypeface;
+    }
 }
@@ -0,0 +1,346 @@
+/*
+ *
+ *  *
+ *  *  * Copyright (C) 2016 ChillingVan
+ *  *  *
+ *  *  * Licensed under the Apache License, Version 2.0 (the "License");
+ *  *  * you may not use this file except in compliance with the License.
+ *  *  * You may obtain a copy of the License at
+ *  *  *
+ *  *  * http://www.apache.org/licenses/LICENSE-2.0
+ *  *  *
+ *  *  * Unless required by applicable law or agreed to in writing, software
+ *  *  * distributed under the License is distributed on an "AS IS" BASIS,
+ *  *  * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  *  * See the License for the specific language governing permissions and
+ *  *  * limitations under the License.
+ *  *
+ *
+ */
+package com.chillingvan.canvasgl.glcanvas;
+
+import android.graphics.Paint;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.util.Arrays;
+
+// GLPath is a path of straight and curved contours which the canvas draws
+// as triangles. Curves are flattened to lines when they are added.
+//
+// The triangles are kept with the path, and so is the buffer they were
+// uploaded to, until the path or the paint it is drawn with changes. So a
+// path which stays the same costs one draw call and no upload per frame.
+// prepare() builds the triangles on the calling thread, so large paths can
+// be tessellated off the GL thread before they are drawn.
+//
+// A path must not be changed while it is drawn or prepared. Call recycle()
+// when it is not drawn any more, the finalizer does it as a last resort.
+public class GLPath {
+    static final int STYLE_FILL = 0;
+    static final int STYLE_STROKE = 1;
+    static final int STYLE_FILL_AND_STROKE = 2;
+
+    // How far the lines of a flattened curve may be from the curve.
+    private static final float CURVE_TOLERANCE = 0.25f;
+    private static final int MAX_CURVE_STEPS = 256;
+
+    private float[] mPoints = new float[32];
+    private int mPointCount;
+    // The point after the last of each contour, and whether it is closed.
+    private int[] mContourEnds = new int[4];
+    private boolean[] mContourClosed = new boolean[4];
+    private int mContourCount;
+    // Whether the last contour may still be extended.
+    private boolean mContourOpen;
+
+    private float mLeft;
+    private float mTop;
+    private float mRight;
+    private float mBottom;
+
+    private int mVersion;
+
+    // The triangles made for the last style asked for.
+    private float[] mMesh;
+    private int mMeshVersion = -1;
+    private int mMeshStyle;
+    private float mMeshWidth;
+    private int mMeshJoin;
+    private int mMeshCap;
+
+    // The buffer holding mBufferMesh on mCanvasRef.
+    private GLCanvas mCanvasRef;
+    private int mBufferId;
+    private float[] mBufferMesh;
+
+    public void moveTo(float x, float y) {
+        endContour(false);
+        mContourOpen = true;
+        addPoint(x, y);
+        changed();
+    }
+
+    public void lineTo(float x, float y) {
+        ensureContour();
+        addPoint(x, y);
+        changed();
+    }
+
+    public void quadTo(float x1, float y1, float x2, float y2) {
+        ensureContour();
+        float x0 = mPoints[mPointCount * 2 - 2];
+        float y0 = mPoints[mPointCount * 2 - 1];
+        float ddx = x0 - 2 * x1 + x2;
+        float ddy = y0 - 2 * y1 + y2;
+        int steps = getCurveSteps((float) Math.sqrt(ddx * ddx + ddy * ddy) / 4);
+        for (int i = 1; i <= steps; i++) {
+            float t = (float) i / steps;
+            float u = 1 - t;
+            addPoint(u * u * x0 + 2 * u * t * x1 + t * t * x2,
+                    u * u * y0 + 2 * u * t * y1 + t * t * y2);
+        }
+        changed();
+    }
+
+    public void cubicTo(float x1, float y1, float x2, float y2, float x3, float y3) {
+        ensureContour();
+        float x0 = mPoints[mPointCount * 2 - 2];
+        float y0 = mPoints[mPointCount * 2 - 1];
+        float ddx = Math.max(Math.abs(x0 - 2 * x1 + x2), Math.abs(x1 - 2 * x2 + x3));
+        float ddy = Math.max(Math.abs(y0 - 2 * y1 + y2), Math.abs(y1 - 2 * y2 + y3));
+        int steps = getCurveSteps((float) Math.sqrt(ddx * ddx + ddy * ddy) * 3 / 4);
+        for (int i = 1; i <= steps; i++) {
+            float t = (float) i / steps;
+            float u = 1 - t;
+            float a = u * u * u;
+            float b = 3 * u * u * t;
+            float c = 3 * u * t * t;
+            float d = t * t * t;
+            addPoint(a * x0 + b * x1 + c * x2 + d * x3, a * y0 + b * y1 + c * y2 + d * y3);
+        }
+        changed();
+    }
+
+    // Closes the current contour with a line back to its start.
+    public void close() {
+        if (mContourOpen) {
+            endContour(true);
+            changed();
+        }
+    }
+
+    // Adds the points, x, y each, as a new contour of lines.
+    public void addPolyline(float[] points, int offset, int pointCount, boolean closed) {
+        if (pointCount == 0) {
+            return;
+        }
+        moveTo(points[offset], points[offset + 1]);
+        for (int i = 1; i < pointCount; i++) {
+            addPoint(points[offset + i * 2], points[offset + i * 2 + 1]);
+        }
+        if (closed) {
+            close();
+        }
+        changed();
+    }
+
+    public void reset() {
+        mPointCount = 0;
+        mContourCount = 0;
+        mContourOpen = false;
+        changed();
+    }
+
+    public boolean isEmpty() {
+        return mPointCount == 0;
+    }
+
+    public float getLeft() {
+        return mLeft;
+    }
+
+    public float getTop() {
+        return mTop;
+    }
+
+    public float getRight() {
+        return mRight;
+    }
+
+    public float getBottom() {
+        return mBottom;
+    }
+
+    // Changes with every change of the path.
+    public int getVersion() {
+        return mVersion;
+    }
+
+    // Builds the triangles for drawing the path with the paint now, on the
+    // calling thread, instead of when it is drawn.
+    public void prepare(GLPaint paint) {
+        getMesh(getStyle(paint), getStrokeWidth(paint), getJoin(paint), getCap(paint), new PathTessellator());
+    }
+
+    // Frees the buffer of the path. It is uploaded again if the path is
+    // drawn later.
+    public void recycle() {
+        GLCanvas canvas = mCanvasRef;
+        if (canvas != null) {
+            canvas.deleteBuffer(mBufferId);
+        }
+        mCanvasRef = null;
+        mBufferMesh = null;
+    }
+
+    @Override
+    protected void finalize() throws Throwable {
+        try {
+            recycle();
+        } finally {
+            super.finalize();
+        }
+    }
+
+    // Returns the triangles, x, y per vertex, for the style, tessellating the
+    // path if the ones kept were made for another style or version.
+    synchronized float[] getMesh(int style, float strokeWidth, int join, int cap, PathTessellator tessellator) {
+        if (mMesh != null && mMeshVersion == mVersion && mMeshStyle == style
+                && (style == STYLE_FILL || (mMeshWidth == strokeWidth && mMeshJoin == join && mMeshCap == cap))) {
+            return mMesh;
+        }
+        tessellator.reset();
+        int start = 0;
+        int contourCount = mContourOpen ? mContourCount + 1 : mContourCount;
+        for (int i = 0; i < contourCount; i++) {
+            boolean ended = i < mContourCount;
+            int end = ended ? mContourEnds[i] : mPointCount;
+            if (style != STYLE_STROKE) {
+                tessellator.fill(mPoints, start * 2, end - start);
+            }
+            if (style != STYLE_FILL) {
+                tessellator.stroke(mPoints, start * 2, end - start, ended && mContourClosed[i], strokeWidth, join, cap);
+            }
+            start = end;
+        }
+        mMesh = tessellator.copyVertices();
+        mMeshVersion = mVersion;
+        mMeshStyle = style;
+        mMeshWidth = strokeWidth;
+        mMeshJoin = join;
+        mMeshCap = cap;
+        return mMesh;
+    }
+
+    // Returns the buffer holding the mesh on the canvas, uploading it if the
+    // path has none for it. Must be called on the GL thread of the canvas.
+    int getBuffer(GLCanvas canvas, float[] mesh) {
+        if (mCanvasRef != canvas || mBufferMesh != mesh) {
+            recycle();
+            FloatBuffer buffer = ByteBuffer.allocateDirect(mesh.length * (Float.SIZE / Byte.SIZE))
+                    .order(ByteOrder.nativeOrder()).asFloatBuffer();
+            buffer.put(mesh, 0, mesh.length).position(0);
+            mBufferId = canvas.uploadBuffer(buffer);
+            mCanvasRef = canvas;
+            mBufferMesh = mesh;
+        }
+        return mBufferId;
+    }
+
+    static int getStyle(GLPaint paint) {
+        if (paint.getStyle() == Paint.Style.STROKE) {
+            return STYLE_STROKE;
+        }
+        if (paint.getStyle() == Paint.Style.FILL_AND_STROKE) {
+            return STYLE_FILL_AND_STROKE;
+        }
+        return STYLE_FILL;
+    }
+
+    // A width of 0 is a hairline as in android.graphics.Paint.
+    static float getStrokeWidth(GLPaint paint) {
+        return paint.getLineWidth() > 0 ? paint.getLineWidth() : 1;
+    }
+
+    static int getJoin(GLPaint paint) {
+        if (paint.getStrokeJoin() == Paint.Join.ROUND) {
+            return PathTessellator.JOIN_ROUND;
+        }
+        if (paint.getStrokeJoin() == Paint.Join.BEVEL) {
+            return PathTessellator.JOIN_BEVEL;
+        }
+        return PathTessellator.JOIN_MITER;
+    }
+
+    static int getCap(GLPaint paint) {
+        if (paint.getStrokeCap() == Paint.Cap.ROUND) {
+            return PathTessellator.CAP_ROUND;
+        }
+        if (paint.getStrokeCap() == Paint.Cap.SQUARE) {
+            return PathTessellator.CAP_SQUARE;
+        }
+        return PathTessellator.CAP_BUTT;
+    }
+
+    private static int getCurveSteps(float maxError) {
+        int steps = (int) Math.ceil(Math.sqrt(maxError / CURVE_TOLERANCE));
+        return Math.max(1, Math.min(MAX_CURVE_STEPS, steps));
+    }
+
+    // A contour started with lineTo or a curve starts at the end of the last
+    // one, or at the origin, as in android.graphics.Path.
+    private void ensureContour() {
+        if (mContourOpen) {
+            return;
+        }
+        float x = 0;
+        float y = 0;
+        if (mPointCount > 0) {
+            int start = mContourCount > 1 ? mContourEnds[mContourCount - 2] : 0;
+            boolean closed = mContourClosed[mContourCount - 1];
+            int last = closed ? start : mPointCount - 1;
+            x = mPoints[last * 2];
+            y = mPoints[last * 2 + 1];
+        }
+        mContourOpen = true;
+        addPoint(x, y);
+    }
+
+    private void endContour(boolean closed) {
+        if (!mContourOpen) {
+            return;
+        }
+        if (mContourCount == mContourEnds.length) {
+            mContourEnds = Arrays.copyOf(mContourEnds, mContourCount * 2);
+            mContourClosed = Arrays.copyOf(mContourClosed, mContourCount * 2);
+        }
+        mContourEnds[mContourCount] = mPointCount;
+        mContourClosed[mContourCount] = closed;
+        mContourCount++;
+        mContourOpen = false;
+    }
+
+    private void addPoint(float x, float y) {
+        if (mPointCount * 2 == mPoints.length) {
+            mPoints = Arrays.copyOf(mPoints, mPoints.length * 2);
+        }
+        mPoints[mPointCount * 2] = x;
+        mPoints[mPointCount * 2 + 1] = y;
+        if (mPointCount == 0) {
+            mLeft = mRight = x;
+            mTop = mBottom = y;
+        } else {
+            mLeft = Math.min(mLeft, x);
+            mTop = Math.min(mTop, y);
+            mRight = Math.max(mRight, x);
+            mBottom = Math.max(mBottom, y);
+        }
+        mPointCount++;
+    }
+
+    private void changed() {
+        mVersion++;
+    }
+}
@@ -0,0 +1,164 @@
+/*
+ *
+ *  *
+ *  *  * Copyright (C) 2016 ChillingVan
+ *  *  *
+ *  *  * Licensed under the Apache License, Version 2.0 (the "License");
+ *  *  * you may not use this file except in compliance with the License.
+ *  *  * You may obtain a copy of the License at
+ *  *  *
+ *  *  * http://www.apache.org/licenses/LICENSE-2.0
+ *  *  *
+ *  *  * Unless required by applicable law or agreed to in writing, software
+ *  *  * distributed under the License is distributed on an "AS IS" BASIS,
+ *  *  * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  *  * See the License for the specific language governing permissions and
+ *  *  * limitations under the License.
+ *  *
+ *
+ */
+package com.chillingvan.canvasgl.glcanvas;
+
+import android.opengl.GLES20;
+
+import java.util.HashMap;
+
+// GLProgram caches the locations of one linked program, so each name is
+// queried from the driver only once, and the last value uploaded to each
+// uniform location, so uploading the same value again is skipped.
+//
+// Uniform values belong to the program object and survive switching to other
+// programs. The setters must be called while this program is in use, and a
+// value set directly with GLES20 on the same location is not seen here.
+public class GLProgram {
+    private static final int MATRIX_SIZE = 16;
+
+    private final int mId;
+    private final HashMap<String, Integer> mUniformLocations = new HashMap<>();
+    private final HashMap<String, Integer> mAttribLocations = new HashMap<>();
+    private final HashMap<Integer, float[]> mFloatValues = new HashMap<>();
+    private final HashMap<Integer, Integer> mIntValues = new HashMap<>();
+    private final float[] mTempValue = new float[2];
+
+    public GLProgram(int id) {
+        mId = id;
+    }
+
+    public int getId() {
+        return mId;
+    }
+
+    public int getUniformLocation(String name) {
+        Integer location = mUniformLocations.get(name);
+        if (location == null) {
+            location = GLES20.glGetUniformLocation(mId, name);
+            GLES20Canvas.checkError();
+            mUniformLocations.put(name, location);
+        }
+        return location;
+    }
+
+    public int getAttribLocation(String name) {
+        Integer location = mAttribLocations.get(name);
+        if (location == null) {
+            location = GLES20.glGetAttribLocation(mId, name);
+            GLES20Canvas.checkError();
+            mAttribLocations.put(name, location);
+        }
+        return location;
+    }
+
+    public void setInt(int location, int value) {
+        if (location < 0) {
+            return;
+        }
+        Integer old = mIntValues.get(location);
+        if (old != null && old == value) {
+            return;
+        }
+        GLES20.glUniform1i(location, value);
+        GLES20Canvas.checkError();
+        mIntValues.put(location, value);
+    }
+
+    public void setFloat(int location, float value) {
+        if (location < 0) {
+            return;
+        }
+        mTempValue[0] = value;
+        if (!update(location, mTempValue, 0, 1)) {
+            return;
+        }
+        GLES20.glUniform1f(location, value);
+        GLES20Canvas.checkError();
+    }
+
+    public void setFloat2(int location, float x, float y) {
+        if (location < 0) {
+            return;
+        }
+        mTempValue[0] = x;
+        mTempValue[1] = y;
+        if (!update(location, mTempValue, 0, 2)) {
+            return;
+        }
+        GLES20.glUniform2f(location, x, y);
+        GLES20Canvas.checkError();
+    }
+
+    public void setFloat4(int location, float[] value, int offset) {
+        if (location < 0 || !update(location, value, offset, 4)) {
+            return;
+        }
+        GLES20.glUniform4fv(location, 1, value, offset);
+        GLES20Canvas.checkError();
+    }
+
+    public void setMatrix4(int location, float[] matrix, int offset) {
+        if (location < 0 || !update(location, matrix, offset, MATRIX_SIZE)) {
+            return;
+        }
+        GLES20.glUniformMatrix4fv(location, 1, false, matrix, offset);
+        GLES20Canvas.checkError();
+    }
+
+    // Forgets the uploaded values, e.g. after the uniforms were set directly.
+    public void invalidateValues() {
+        mFloatValues.clear();
+        mIntValues.clear();
+    }
+
+    // Returns true and remembers the value if it differs from the last upload.
+    private boolean update(int location, float[] value, int offset, int count) {
+        float[] values = getFloatValues(location, count);
+        if (!isUnset(values)) {
+            boolean same = true;
+            for (int i = 0; i < count; i++) {
+                if (values[i] != value[offset + i]) {
+                    same = false;
+                    break;
+                }
+            }
+            if (same) {
+                return false;
+            }
+        }
+        System.arraycopy(value, offset, values, 0, count);
+        values[count] = 1;
+        return true;
+    }
+
+    // The extra last element marks whether a value has been uploaded.
+    private float[] getFloatValues(int location, int count) {
+        float[] values = mFloatValues.get(location);
+        if (values == null || values.length != count + 1) {
+            values = new float[count + 1];
+            mFloatValues.put(location, values);
+        }
+        return values;
+    }
+
+    private static boolean isUnset(float[] values) {
+        return values[values.length - 1] == 0;
+    }
+}
@@ -0,0 +1,424 @@
+/*
+ *
+ *  *
+ *  *  * Copyright (C) 2016 ChillingVan
+ *  *  *
+ *  *  * Licensed under the Apache License, Version 2.0 (the "License");
+ *  *  * you may not use this file except in compliance with the License.
+ *  *  * You may obtain a copy of the License at
+ *  *  *
+ *  *  * http://www.apache.org/licenses/LICENSE-2.0
+ *  *  *
+ *  *  * Unless required by applicable law or agreed to in writing, software
+ *  *  * distributed under the License is distributed on an "AS IS" BASIS,
+ *  *  * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  *  * See the License for the specific language governing permissions and
+ *  *  * limitations under the License.
+ *  *
+ *
+ */
+package com.chillingvan.canvasgl.glcanvas;
+
+import android.opengl.GLES11Ext;
+import android.opengl.GLES20;
+
+// GLState shadows the GL state that the canvas changes on every draw and
+// skips the GL call when the requested value is already set.
+//
+// The shadow is only correct as long as every change goes through it. Code
+// which calls GLES20 directly on the canvas thread must call invalidate()
+// afterwards, so that the next draw sets every state again.
+public class GLState {
+    private static final int UNKNOWN = -1;
+    private static final int MAX_TEXTURE_UNITS = 32;
+    // Enabled attribute arrays are kept as a bit mask.
+    private static final int MAX_VERTEX_ATTRIBS = 32;
+
+    private static int sMaxVertexAttribs;
+
+    private int mProgram;
+
+    private int mBlend;
+    private int mBlendSrc;
+    private int mBlendDst;
+    private final float[] mBlendColor = new float[4];
+
+    private int mActiveTexture;
+    private final int[] mTexture2D = new int[MAX_TEXTURE_UNITS];
+    private final int[] mTextureOES = new int[MAX_TEXTURE_UNITS];
+
+    private int mViewportX;
+    private int mViewportY;
+    private int mViewportWidth;
+    private int mViewportHeight;
+
+    private int mScissorTest;
+    private int mScissorX;
+    private int mScissorY;
+    private int mScissorWidth;
+    private int mScissorHeight;
+
+    private int mStencilTest;
+    private int mStencilFunc;
+    private int mStencilRef;
+    private int mStencilMask;
+    private int mStencilFail;
+    private int mStencilDepthFail;
+    private int mStencilPass;
+    // Red, green, blue and alpha as the bits 0 to 3.
+    private int mColorMask;
+
+    private int mArrayBuffer;
+    private int mElementArrayBuffer;
+
+    private int mEnabledAttribs;
+    private boolean mAttribsKnown;
+
+    private float mLineWidth;
+
+    private int mSkippedCount;
+
+    public GLState() {
+        invalidate();
+    }
+
+    // Forgets everything, the next request of each state reaches GL.
+    public void invalidate() {
+        mProgram = UNKNOWN;
+        mBlend = UNKNOWN;
+        mBlendSrc = UNKNOWN;
+        mBlendDst = UNKNOWN;
+        for (int i = 0; i < mBlendColor.length; i++) {
+            mBlendColor[i] = Float.NaN;
+        }
+        mActiveTexture = UNKNOWN;
+        invalidateTextures();
+        invalidateViewport();
+        mScissorTest = UNKNOWN;
+        mScissorX = UNKNOWN;
+        mScissorY = UNKNOWN;
+        mScissorWidth = UNKNOWN;
+        mScissorHeight = UNKNOWN;
+        mStencilTest = UNKNOWN;
+        mStencilFunc = UNKNOWN;
+        mStencilRef = UNKNOWN;
+        mStencilMask = UNKNOWN;
+        mStencilFail = UNKNOWN;
+        mStencilDepthFail = UNKNOWN;
+        mStencilPass = UNKNOWN;
+        mColorMask = UNKNOWN;
+        mArrayBuffer = UNKNOWN;
+        mElementArrayBuffer = UNKNOWN;
+        mEnabledAttribs = 0;
+        mAttribsKnown = false;
+        mLineWidth = Float.NaN;
+    }
+
+    public void invalidateTextures() {
+        for (int i = 0; i < MAX_TEXTURE_UNITS; i++) {
+            mTexture2D[i] = UNKNOWN;
+            mTextureOES[i] = UNKNOWN;
+        }
+    }
+
+    public void invalidateViewport() {
+        mViewportX = UNKNOWN;
+        mViewportY = UNKNOWN;
+        mViewportWidth = UNKNOWN;
+        mViewportHeight = UNKNOWN;
+    }
+
+    public void useProgram(int program) {
+        if (mProgram == program) {
+            mSkippedCount++;
+            return;
+        }
+        GLES20.glUseProgram(program);
+        GLES20Canvas.checkError();
+        mProgram = program;
+    }
+
+    // A deleted program lives on while it is current, but once another program
+    // is used its name may come back for a new program.
+    public void onProgramDeleted(int program) {
+        if (mProgram == program) {
+            mProgram = UNKNOWN;
+        }
+    }
+
+    public void setBlendEnabled(boolean enabled) {
+        int blend = enabled ? 1 : 0;
+        if (mBlend == blend) {
+            mSkippedCount++;
+            return;
+        }
+        if (enabled) {
+            GLES20.glEnable(GLES20.GL_BLEND);
+        } else {
+            GLES20.glDisable(GLES20.GL_BLEND);
+        }
+        GLES20Canvas.checkError();
+        mBlend = blend;
+    }
+
+    public void blendFunc(int src, int dst) {
+        if (mBlendSrc == src && mBlendDst == dst) {
+            mSkippedCount++;
+            return;
+        }
+        GLES20.glBlendFunc(src, dst);
+        GLES20Canvas.checkError();
+        mBlendSrc = src;
+        mBlendDst = dst;
+    }
+
+    public void blendColor(float red, float green, float blue, float alpha) {
+        float[] color = mBlendColor;
+        if (color[0] == red && color[1] == green && color[2] == blue && color[3] == alpha) {
+            mSkippedCount++;
+            return;
+        }
+        GLES20.glBlendColor(red, green, blue, alpha);
+        GLES20Canvas.checkError();
+        color[0] = red;
+        color[1] = green;
+        color[2] = blue;
+        color[3] = alpha;
+    }
+
+    // textureUnit is one of GLES20.GL_TEXTURE0, GL_TEXTURE1...
+    public void activeTexture(int textureUnit) {
+        if (mActiveTexture == textureUnit) {
+            mSkippedCount++;
+            return;
+        }
+        GLES20.glActiveTexture(textureUnit);
+        GLES20Canvas.checkError();
+        mActiveTexture = textureUnit;
+    }
+
+    // Binds the texture to the active texture unit.
+    public void bindTexture(int target, int texture) {
+        int[] bindings = getTextureBindings(target);
+        int unit = mActiveTexture - GLES20.GL_TEXTURE0;
+        boolean tracked = bindings != null && mActiveTexture != UNKNOWN
+                && unit >= 0 && unit < MAX_TEXTURE_UNITS;
+        if (tracked && bindings[unit] == texture) {
+            mSkippedCount++;
+            return;
+        }
+        GLES20.glBindTexture(target, texture);
+        GLES20Canvas.checkError();
+        if (tracked) {
+            bindings[unit] = texture;
+        } else if (bindings != null) {
+            // The active unit is unknown, so any unit may hold the texture now.
+            invalidateTextures();
+        }
+    }
+
+    private int[] getTextureBindings(int target) {
+        if (target == GLES20.GL_TEXTURE_2D) {
+            return mTexture2D;
+        } else if (target == GLES11Ext.GL_TEXTURE_EXTERNAL_OES) {
+            return mTextureOES;
+        }
+        return null;
+    }
+
+    // Deleting a bound texture reverts the binding to 0, so the shadow must
+    // follow, otherwise a new texture which reuses the name is never bound.
+    public void onTexturesDeleted(int[] textures, int offset, int count) {
+        for (int i = offset; i < offset + count; i++) {
+            int texture = textures[i];
+            for (int unit = 0; unit < MAX_TEXTURE_UNITS; unit++) {
+                if (mTexture2D[unit] == texture) {
+                    mTexture2D[unit] = 0;
+                }
+                if (mTextureOES[unit] == texture) {
+                    mTextureOES[unit] = 0;
+                }
+            }
+        }
+    }
+
+    public void viewport(int x, int y, int width, int height) {
+        if (mViewportX == x && mViewportY == y && mViewportWidth == width && mViewportHeight == height) {
+            mSkippedCount++;
+            return;
+        }
+        GLES20.glViewport(x, y, width, height);
+        GLES20Canvas.checkError();
+        mViewportX = x;
+        mViewportY = y;
+        mViewportWidth = width;
+        mViewportHeight = height;
+    }
+
+    public void setScissorEnabled(boolean enabled) {
+        int scissorTest = enabled ? 1 : 0;
+        if (mScissorTest == scissorTest) {
+            mSkippedCount++;
+            return;
+        }
+        if (enabled) {
+            GLES20.glEnable(GLES20.GL_SCISSOR_TEST);
+        } else {
+            GLES20.glDisable(GLES20.GL_SCISSOR_TEST);
+        }
+        GLES20Canvas.checkError();
+        mScissorTest = scissorTest;
+    }
+
+    public void scissor(int x, int y, int width, int height) {
+        if (mScissorX == x && mScissorY == y && mScissorWidth == width && mScissorHeight == height) {
+            mSkippedCount++;
+            return;
+        }
+        GLES20.glScissor(x, y, width, height);
+        GLES20Canvas.checkError();
+        mScissorX = x;
+        mScissorY = y;
+        mScissorWidth = width;
+        mScissorHeight = height;
+    }
+
+    public void setStencilTestEnabled(boolean enabled) {
+        int stencilTest = enabled ? 1 : 0;
+        if (mStencilTest == stencilTest) {
+            mSkippedCount++;
+            return;
+        }
+        if (enabled) {
+            GLES20.glEnable(GLES20.GL_STENCIL_TEST);
+        } else {
+            GLES20.glDisable(GLES20.GL_STENCIL_TEST);
+        }
+        GLES20Canvas.checkError();
+        mStencilTest = stencilTest;
+    }
+
+    public void stencilFunc(int func, int ref, int mask) {
+        if (mStencilFunc == func && mStencilRef == ref && mStencilMask == mask) {
+            mSkippedCount++;
+            return;
+        }
+        GLES20.glStencilFunc(func, ref, mask);
+        GLES20Canvas.checkError();
+        mStencilFunc = func;
+        mStencilRef = ref;
+        mStencilMask = mask;
+    }
+
+    public void stencilOp(int fail, int depthFail, int pass) {
+        if (mStencilFail == fail && mStencilDepthFail == depthFail && mStencilPass == pass) {
+            mSkippedCount++;
+            return;
+        }
+        GLES20.glStencilOp(fail, depthFail, pass);
+        GLES20Canvas.checkError();
+        mStencilFail = fail;
+        mStencilDepthFail = depthFail;
+        mStencilPass = pass;
+    }
+
+    public void colorMask(boolean red, boolean green, boolean blue, boolean alpha) {
+        int colorMask = (red ? 1 : 0) | (green ? 2 : 0) | (blue ? 4 : 0) | (alpha ? 8 : 0);
+        if (mColorMask == colorMask) {
+            mSkippedCount++;
+            return;
+        }
+        GLES20.glColorMask(red, green, blue, alpha);
+        GLES20Canvas.checkError();
+        mColorMask = colorMask;
+    }
+
+    public void bindBuffer(int target, int buffer) {
+        if (target == GLES20.GL_ARRAY_BUFFER) {
+            if (mArrayBuffer == buffer) {
+                mSkippedCount++;
+                return;
+            }
+            mArrayBuffer = buffer;
+        } else if (target == GLES20.GL_ELEMENT_ARRAY_BUFFER) {
+            if (mElementArrayBuffer == buffer) {
+                mSkippedCount++;
+                return;
+            }
+            mElementArrayBuffer = buffer;
+        }
+        GLES20.glBindBuffer(target, buffer);
+        GLES20Canvas.checkError();
+    }
+
+    public void onBuffersDeleted(int[] buffers, int offset, int count) {
+        for (int i = offset; i < offset + count; i++) {
+            if (mArrayBuffer == buffers[i]) {
+                mArrayBuffer = 0;
+            }
+            if (mElementArrayBuffer == buffers[i]) {
+                mElementArrayBuffer = 0;
+            }
+        }
+    }
+
+    // Returns the bit of the attribute location for setVertexAttribArrays.
+    // Locations which are not found in the program give no bit.
+    public static int attribBit(int location) {
+        if (location < 0 || location >= MAX_VERTEX_ATTRIBS) {
+            return 0;
+        }
+        return 1 << location;
+    }
+
+    // Enables exactly the attribute arrays in the mask and disables the others
+    // that were enabled before. Arrays stay enabled after the draw, so drawing
+    // again with the same program costs no call at all.
+    public void setVertexAttribArrays(int mask) {
+        if (mAttribsKnown && mEnabledAttribs == mask) {
+            mSkippedCount++;
+            return;
+        }
+        int count = getMaxVertexAttribs();
+        for (int i = 0; i < count; i++) {
+            int bit = 1 << i;
+            boolean enable = (mask & bit) != 0;
+            // When the state is unknown every array is set explicitly.
+            boolean enabled = mAttribsKnown ? (mEnabledAttribs & bit) != 0 : !enable;
+            if (enable && !enabled) {
+                GLES20.glEnableVertexAttribArray(i);
+            } else if (!enable && enabled) {
+                GLES20.glDisableVertexAttribArray(i);
+            }
+        }
+        GLES20Canvas.checkError();
+        mEnabledAttribs = mask;
+        mAttribsKnown = true;
+    }
+
+    private static int getMaxVertexAttribs() {
+        if (sMaxVertexAttribs == 0) {
+            int[] value = new int[1];
+            GLES20.glGetIntegerv(GLES20.GL_MAX_VERTEX_ATTRIBS, value, 0);
+            sMaxVertexAttribs = Math.max(1, Math.min(value[0], MAX_VERTEX_ATTRIBS));
+        }
+        return sMaxVertexAttribs;
+    }
+
+    public void lineWidth(float width) {
+        if (mLineWidth == width) {
+            mSkippedCount++;
+            return;
+        }
+        GLES20.glLineWidth(width);
+        GLES20Canvas.checkError();
+        mLineWidth = width;
+    }
+
+    // Number of GL calls skipped since the last call. For debug only.
+    public int getAndClearSkippedCount() {
+        int count = mSkippedCount;
+        mSkippedCount = 0;
+        return count;
+    }
+}
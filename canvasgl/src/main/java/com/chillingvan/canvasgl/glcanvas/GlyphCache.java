@@ -0,0 +1,245 @@
+/*
+ *
+ *  *
+ *  *  * Copyright (C) 2016 ChillingVan
+ *  *  *
+ *  *  * Licensed under the Apache License, Version 2.0 (the "License");
+ *  *  * you may not use this file except in compliance with the License.
+ *  *  * You may obtain a copy of the License at
+ *  *  *
+ *  *  * http://www.apache.org/licenses/LICENSE-2.0
+ *  *  *
+ *  *  * Unless required by applicable law or agreed to in writing, software
+ *  *  * distributed under the License is distributed on an "AS IS" BASIS,
+ *  *  * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  *  * See the License for the specific language governing permissions and
+ *  *  * limitations under the License.
+ *  *
+ *
+ */
+package com.chillingvan.canvasgl.glcanvas;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.graphics.Rect;
+import android.graphics.Typeface;
+import android.opengl.GLES20;
+import android.util.Log;
+import android.util.SparseArray;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+// GlyphCache rasterizes every glyph once per typeface and text size with
+// android.graphics and keeps it in atlas pages which all fonts share. A new
+// glyph is written into the free space of a page with texSubImage2D, so text
+// made of glyphs drawn before costs no upload at all.
+//
+// Glyphs are placed one after the other by their advance, without kerning,
+// ligatures or shaping. That suits labels and numbers in simple scripts.
+//
+// When every page is full the cache starts over, which the canvas must do
+// after drawing what it queued, see getGlyph().
+//
+// At most MAX_FONTS fonts are kept, the least recently used one is dropped
+// for a new one. Its glyphs stay in the pages until the cache starts over,
+// which it also does once such glyphs take half of the pages, so text with
+// animated sizes does not grow the cache.
+final class GlyphCache {
+    private static final String TAG = "GlyphCache";
+
+    static final int PAGE_SIZE = 512;
+    static final int MAX_PAGES = 4;
+    static final int MAX_FONTS = 16;
+    // Transparent pixels around every glyph, so that linear filtering does
+    // not pick up its neighbours.
+    private static final int PADDING = 1;
+
+    // Where a glyph is in the atlas and how it is placed relative to the
+    // pen position on the baseline. page is null for glyphs without pixels.
+    static final class Glyph {
+        AtlasTexture page;
+        float u0;
+        float v0;
+        float u1;
+        float v1;
+        int left;
+        int top;
+        int right;
+        int bottom;
+        float advance;
+    }
+
+    static final class Font {
+        final Typeface mTypeface;
+        final float mTextSize;
+        final Paint mPaint;
+        final SparseArray<Glyph> mGlyphs = new SparseArray<>();
+        // The page area taken by the glyphs.
+        long mArea;
+
+        Font(Typeface typeface, float textSize) {
+            mTypeface = typeface;
+            mTextSize = textSize;
+            mPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+            mPaint.setTypeface(typeface);
+            mPaint.setTextSize(textSize);
+            mPaint.setColor(Color.WHITE);
+        }
+    }
+
+    private static final class FontKey {
+        Typeface mTypeface;
+        float mTextSize;
+
+        FontKey(Typeface typeface, float textSize) {
+            mTypeface = typeface;
+            mTextSize = textSize;
+        }
+
+        @Override
+        public int hashCode() {
+            int hash = Float.floatToIntBits(mTextSize);
+            return mTypeface == null ? hash : 31 * hash + mTypeface.hashCode();
+        }
+
+        @Override
+        public boolean equals(Object object) {
+            if (!(object instanceof FontKey)) return false;
+            FontKey o = (FontKey) object;
+            return mTextSize == o.mTextSize
+                    && (mTypeface == null ? o.mTypeface == null : mTypeface.equals(o.mTypeface));
+        }
+    }
+
+    // Least recently used first.
+    private final LinkedHashMap<FontKey, Font> mFonts = new LinkedHashMap<>(MAX_FONTS, 0.75f, true);
+    private final FontKey mLookupKey = new FontKey(null, 0);
+    private final ArrayList<AtlasTexture> mPages = new ArrayList<>();
+    private Font mLastFont;
+    // The page area of the glyphs of dropped fonts.
+    private long mDeadArea;
+
+    private final char[] mChars = new char[2];
+    private final Rect mBounds = new Rect();
+    private final int[] mPosition = new int[2];
+
+    // Starts over if a page lost its texture with the GL context.
+    void validate() {
+        for (int i = 0; i < mPages.size(); i++) {
+            if (!mPages.get(i).isLoaded()) {
+                mPages.clear();
+                clear();
+                return;
+            }
+        }
+    }
+
+    Font getFont(Typeface typeface, float textSize) {
+        Font font = mLastFont;
+        if (font != null && font.mTypeface == typeface && font.mTextSize == textSize) {
+            return font;
+        }
+        mLookupKey.mTypeface = typeface;
+        mLookupKey.mTextSize = textSize;
+        font = mFonts.get(mLookupKey);
+        if (font == null) {
+            if (mFonts.size() == MAX_FONTS) {
+                Iterator<Font> eldest = mFonts.values().iterator();
+                Font dropped = eldest.next();
+                mDeadArea += dropped.mArea;
+                eldest.remove();
+                if (dropped == mLastFont) {
+                    mLastFont = null;
+                }
+            }
+            font = new Font(typeface, textSize);
+            mFonts.put(new FontKey(typeface, textSize), font);
+        }
+        mLastFont = font;
+        return font;
+    }
+
+    // Returns the glyph of the code point, rasterizing and uploading it if it
+    // is new. Returns null if the pages are full; the caller must then draw
+    // the glyphs it queued, call clear() and ask again.
+    Glyph getGlyph(GLCanvas canvas, Font font, int codePoint) {
+        Glyph glyph = font.mGlyphs.get(codePoint);
+        if (glyph != null) {
+            return glyph;
+        }
+        int count = Character.toChars(codePoint, mChars, 0);
+        Paint paint = font.mPaint;
+        Rect bounds = mBounds;
+        paint.getTextBounds(mChars, 0, count, bounds);
+        glyph = new Glyph();
+        glyph.advance = paint.measureText(mChars, 0, count);
+        int width = bounds.width() + 2 * PADDING;
+        int height = bounds.height() + 2 * PADDING;
+        if (bounds.isEmpty() || width > PAGE_SIZE || height > PAGE_SIZE) {
+            if (!bounds.isEmpty()) {
+                Log.w(TAG, "Glyph too large for the atlas: " + width + " x " + height);
+            }
+            font.mGlyphs.put(codePoint, glyph);
+            return glyph;
+        }
+        if (mDeadArea * 2 > (long) MAX_PAGES * PAGE_SIZE * PAGE_SIZE) {
+            return null;
+        }
+        AtlasTexture page = allocate(canvas, width, height);
+        if (page == null) {
+            return null;
+        }
+        int x = mPosition[0];
+        int y = mPosition[1];
+        Bitmap bitmap = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+        new Canvas(bitmap).drawText(mChars, 0, count, PADDING - bounds.left, PADDING - bounds.top, paint);
+        canvas.texSubImage2D(page, x, y, bitmap, GLES20.GL_RGBA, GLES20.GL_UNSIGNED_BYTE);
+        bitmap.recycle();
+
+        glyph.page = page;
+        glyph.left = bounds.left - PADDING;
+        glyph.top = bounds.top - PADDING;
+        glyph.right = glyph.left + width;
+        glyph.bottom = glyph.top + height;
+        glyph.u0 = (float) x / PAGE_SIZE;
+        glyph.v0 = (float) y / PAGE_SIZE;
+        glyph.u1 = (float) (x + width) / PAGE_SIZE;
+        glyph.v1 = (float) (y + height) / PAGE_SIZE;
+        font.mGlyphs.put(codePoint, glyph);
+        font.mArea += width * height;
+        return glyph;
+    }
+
+    // Forgets every glyph and empties the pages, keeping their textures.
+    void clear() {
+        for (Font font : mFonts.values()) {
+            font.mGlyphs.clear();
+            font.mArea = 0;
+        }
+        for (int i = 0; i < mPages.size(); i++) {
+            mPages.get(i).getPacker().reset();
+        }
+        mDeadArea = 0;
+    }
+
+    private AtlasTexture allocate(GLCanvas canvas, int width, int height) {
+        for (int i = 0; i < mPages.size(); i++) {
+            AtlasTexture page = mPages.get(i);
+            if (page.getPacker().insert(width, height, mPosition)) {
+                return page;
+            }
+        }
+        if (mPages.size() == MAX_PAGES) {
+            return null;
+        }
+        AtlasTexture page = new AtlasTexture(PAGE_SIZE);
+        page.prepare(canvas);
+        mPages.add(page);
+        page.getPacker().insert(width, height, mPosition);
+        return page;
+    }
+}
@@ -0,0 +1,450 @@
+/*
+ *
+ *  *
+ *  *  * Copyright (C) 2016 ChillingVan
+ *  *  *
+ *  *  * Licensed under the Apache License, Version 2.0 (the "License");
+ *  *  * you may not use this file except in compliance with the License.
+ *  *  * You may obtain a copy of the License at
+ *  *  *
+ *  *  * http://www.apache.org/licenses/LICENSE-2.0
+ *  *  *
+ *  *  * Unless required by applicable law or agreed to in writing, software
+ *  *  * distributed under the License is distributed on an "AS IS" BASIS,
+ *  *  * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  *  * See the License for the specific language governing permissions and
+ *  *  * limitations under the License.
+ *  *
+ *
+ */
+package com.chillingvan.canvasgl.glcanvas;
+
+import java.util.Arrays;
+
+// PathTessellator turns the contours of a path into a list of triangles,
+// x, y per vertex, which GL_TRIANGLES draws with one call.
+//
+// Strokes are built so that their triangles do not overlap where the
+// stroke itself does not: neighbouring segments share the inner corner of
+// their joint and the join fills only the outer wedge. So translucent
+// strokes blend once, except where the path crosses itself.
+//
+// Fills clip ears off every contour, which is filled as a simple polygon
+// of its own. Holes and self intersecting contours are not handled.
+//
+// It uses no GL, so it can run on any thread. An instance is not thread
+// safe, it reuses its arrays from path to path.
+final class PathTessellator {
+    static final int JOIN_MITER = 0;
+    static final int JOIN_ROUND = 1;
+    static final int JOIN_BEVEL = 2;
+
+    static final int CAP_BUTT = 0;
+    static final int CAP_ROUND = 1;
+    static final int CAP_SQUARE = 2;
+
+    // The default of android.graphics.Paint.
+    static final float MITER_LIMIT = 4;
+
+    // How far the chords of round joins and caps may be from the arc.
+    private static final float ROUND_TOLERANCE = 0.25f;
+    private static final int MAX_ROUND_STEPS = 64;
+
+    private float[] mVertices = new float[256];
+    private int mFloatCount;
+
+    // The contour being tessellated, without repeated points.
+    private float[] mPoints = new float[64];
+    private int mPointCount;
+
+    // Per segment: the unit direction x, y and the length.
+    private float[] mSegments = new float[48];
+    // Per segment: start left, start right, end left, end right, x, y each.
+    private float[] mCorners = new float[128];
+
+    // The polygon ear clipping works on.
+    private int[] mPrev = new int[16];
+    private int[] mNext = new int[16];
+    private boolean[] mReflex = new boolean[16];
+
+    void reset() {
+        mFloatCount = 0;
+    }
+
+    float[] getVertices() {
+        return mVertices;
+    }
+
+    int getVertexCount() {
+        return mFloatCount / 2;
+    }
+
+    // Returns a copy of the triangles written since the last reset.
+    float[] copyVertices() {
+        return Arrays.copyOf(mVertices, mFloatCount);
+    }
+
+    // Strokes count points of the x, y array, starting at the float offset.
+    void stroke(float[] points, int offset, int count, boolean closed, float width, int join, int cap) {
+        loadContour(points, offset, count, closed);
+        int n = mPointCount;
+        float halfWidth = width / 2;
+        if (n == 0 || halfWidth <= 0) {
+            return;
+        }
+        if (n == 1) {
+            strokeDot(mPoints[0], mPoints[1], halfWidth, cap);
+            return;
+        }
+        int segmentCount = closed ? n : n - 1;
+        loadSegments(segmentCount, halfWidth);
+
+        int firstJoint = closed ? 0 : 1;
+        int lastJoint = closed ? n : n - 1;
+        for (int k = firstJoint; k < lastJoint; k++) {
+            int a = (k - 1 + segmentCount) % segmentCount;
+            joinSegments(k, a, k, halfWidth, join);
+        }
+        if (!closed) {
+            addCap(0, segmentCount - 1, halfWidth, cap);
+        }
+
+        float[] c = mCorners;
+        for (int s = 0; s < segmentCount; s++) {
+            int i = s * 8;
+            addTriangle(c[i], c[i + 1], c[i + 2], c[i + 3], c[i + 4], c[i + 5]);
+            addTriangle(c[i + 4], c[i + 5], c[i + 2], c[i + 3], c[i + 6], c[i + 7]);
+        }
+    }
+
+    // Fills count points of the x, y array, starting at the float offset, as
+    // a closed polygon.
+    void fill(float[] points, int offset, int count) {
+        loadContour(points, offset, count, true);
+        int n = mPointCount;
+        if (n < 3) {
+            return;
+        }
+        if (mPrev.length < n) {
+            mPrev = new int[n];
+            mNext = new int[n];
+            mReflex = new boolean[n];
+        }
+        float[] p = mPoints;
+        float area = 0;
+        for (int i = 0, j = n - 1; i < n; j = i++) {
+            area += p[j * 2] * p[i * 2 + 1] - p[i * 2] * p[j * 2 + 1];
+        }
+        if (area == 0) {
+            return;
+        }
+        float orientation = area > 0 ? 1 : -1;
+        for (int i = 0; i < n; i++) {
+            mPrev[i] = (i - 1 + n) % n;
+            mNext[i] = (i + 1) % n;
+        }
+        for (int i = 0; i < n; i++) {
+            mReflex[i] = turn(mPrev[i], i, mNext[i]) * orientation < 0;
+        }
+
+        int remaining = n;
+        int i = 0;
+        int misses = 0;
+        while (remaining > 3) {
+            int a = mPrev[i];
+            int c = mNext[i];
+            float turn = turn(a, i, c);
+            // A polygon which is not simple may have no ear left, then a
+            // vertex is clipped anyway so that the loop ends.
+            boolean clip = turn * orientation > 0 && isEar(a, i, c, remaining);
+            if (clip || turn == 0 || misses > remaining) {
+                // Points in a straight line are dropped without a triangle.
+                if (turn != 0) {
+                    addTriangle(p[a * 2], p[a * 2 + 1], p[i * 2], p[i * 2 + 1], p[c * 2], p[c * 2 + 1]);
+                }
+                mNext[a] = c;
+                mPrev[c] = a;
+                remaining--;
+                mReflex[a] = turn(mPrev[a], a, c) * orientation < 0;
+                mReflex[c] = turn(a, c, mNext[c]) * orientation < 0;
+                i = c;
+                misses = 0;
+            } else {
+                i = c;
+                misses++;
+            }
+        }
+        int a = mPrev[i];
+        int c = mNext[i];
+        if (turn(a, i, c) != 0) {
+            addTriangle(p[a * 2], p[a * 2 + 1], p[i * 2], p[i * 2 + 1], p[c * 2], p[c * 2 + 1]);
+        }
+    }
+
+    // The cross product of a -> b and b -> c, positive for a left turn.
+    private float turn(int a, int b, int c) {
+        float[] p = mPoints;
+        return (p[b * 2] - p[a * 2]) * (p[c * 2 + 1] - p[b * 2 + 1])
+                - (p[b * 2 + 1] - p[a * 2 + 1]) * (p[c * 2] - p[b * 2]);
+    }
+
+    // Only reflex vertices can lie inside an ear of a simple polygon.
+    private boolean isEar(int a, int b, int c, int remaining) {
+        float[] p = mPoints;
+        float ax = p[a * 2];
+        float ay = p[a * 2 + 1];
+        float bx = p[b * 2];
+        float by = p[b * 2 + 1];
+        float cx = p[c * 2];
+        float cy = p[c * 2 + 1];
+        int v = mNext[c];
+        for (int count = remaining - 3; count > 0; count--, v = mNext[v]) {
+            if (mReflex[v] && isInTriangle(p[v * 2], p[v * 2 + 1], ax, ay, bx, by, cx, cy)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean isInTriangle(float px, float py, float ax, float ay, float bx, float by,
+                                        float cx, float cy) {
+        float d1 = (px - bx) * (ay - by) - (ax - bx) * (py - by);
+        float d2 = (px - cx) * (by - cy) - (bx - cx) * (py - cy);
+        float d3 = (px - ax) * (cy - ay) - (cx - ax) * (py - ay);
+        boolean negative = d1 < 0 || d2 < 0 || d3 < 0;
+        boolean positive = d1 > 0 || d2 > 0 || d3 > 0;
+        return !(negative && positive);
+    }
+
+    // Copies the contour to mPoints, dropping points equal to the one
+    // before and, when closed, the last point if it equals the first.
+    private void loadContour(float[] points, int offset, int count, boolean closed) {
+        if (mPoints.length < count * 2) {
+            mPoints = new float[count * 2];
+        }
+        float[] p = mPoints;
+        int n = 0;
+        for (int i = 0; i < count; i++) {
+            float x = points[offset + i * 2];
+            float y = points[offset + i * 2 + 1];
+            if (n > 0 && p[n * 2 - 2] == x && p[n * 2 - 1] == y) {
+                continue;
+            }
+            p[n * 2] = x;
+            p[n * 2 + 1] = y;
+            n++;
+        }
+        if (closed && n > 1 && p[0] == p[n * 2 - 2] && p[1] == p[n * 2 - 1]) {
+            n--;
+        }
+        mPointCount = n;
+    }
+
+    // Writes the direction of every segment and its corners offset by half
+    // the width to both sides, left being the side of the direction turned
+    // by +90 degrees.
+    private void loadSegments(int segmentCount, float halfWidth) {
+        if (mSegments.length < segmentCount * 3) {
+            mSegments = new float[segmentCount * 3];
+            mCorners = new float[segmentCount * 8];
+        }
+        float[] p = mPoints;
+        int n = mPointCount;
+        for (int s = 0; s < segmentCount; s++) {
+            int e = (s + 1) % n;
+            float x0 = p[s * 2];
+            float y0 = p[s * 2 + 1];
+            float x1 = p[e * 2];
+            float y1 = p[e * 2 + 1];
+            float dx = x1 - x0;
+            float dy = y1 - y0;
+            float length = (float) Math.sqrt(dx * dx + dy * dy);
+            dx /= length;
+            dy /= length;
+            mSegments[s * 3] = dx;
+            mSegments[s * 3 + 1] = dy;
+            mSegments[s * 3 + 2] = length;
+            float nx = -dy * halfWidth;
+            float ny = dx * halfWidth;
+            int i = s * 8;
+            mCorners[i] = x0 + nx;
+            mCorners[i + 1] = y0 + ny;
+            mCorners[i + 2] = x0 - nx;
+            mCorners[i + 3] = y0 - ny;
+            mCorners[i + 4] = x1 + nx;
+            mCorners[i + 5] = y1 + ny;
+            mCorners[i + 6] = x1 - nx;
+            mCorners[i + 7] = y1 - ny;
+        }
+    }
+
+    // Joins segment a, which ends at point k, to segment b, which starts
+    // there.
+    private void joinSegments(int k, int a, int b, float halfWidth, int join) {
+        float px = mPoints[k * 2];
+        float py = mPoints[k * 2 + 1];
+        float adx = mSegments[a * 3];
+        float ady = mSegments[a * 3 + 1];
+        float bdx = mSegments[b * 3];
+        float bdy = mSegments[b * 3 + 1];
+        float cross = adx * bdy - ady * bdx;
+        float dot = adx * bdx + ady * bdy;
+        if (cross == 0 && dot > 0) {
+            return;
+        }
+        // +1 if the path turns to the left, which is then the inner side.
+        float side = cross > 0 ? 1 : -1;
+
+        // The miter, from the point to where the offset edges meet on the
+        // left side. It does not exist for a turn back.
+        float denominator = 1 + dot;
+        float mx = 0;
+        float my = 0;
+        float miterSquared = Float.POSITIVE_INFINITY;
+        if (denominator > 1e-6f) {
+            mx = (-ady - bdy) * halfWidth / denominator;
+            my = (adx + bdx) * halfWidth / denominator;
+            miterSquared = mx * mx + my * my;
+        }
+
+        float apexX = px;
+        float apexY = py;
+        float shortest = Math.min(mSegments[a * 3 + 2], mSegments[b * 3 + 2]);
+        if (miterSquared <= shortest * shortest + halfWidth * halfWidth) {
+            // Both segments end at the inner corner, so they do not overlap.
+            apexX = px + side * mx;
+            apexY = py + side * my;
+            int innerA = a * 8 + (side > 0 ? 4 : 6);
+            int innerB = b * 8 + (side > 0 ? 0 : 2);
+            mCorners[innerA] = apexX;
+            mCorners[innerA + 1] = apexY;
+            mCorners[innerB] = apexX;
+            mCorners[innerB + 1] = apexY;
+        }
+
+        float outerAX = px + side * ady * halfWidth;
+        float outerAY = py - side * adx * halfWidth;
+        float outerBX = px + side * bdy * halfWidth;
+        float outerBY = py - side * bdx * halfWidth;
+        if (join == JOIN_MITER && miterSquared <= MITER_LIMIT * MITER_LIMIT * halfWidth * halfWidth) {
+            float miterX = px - side * mx;
+            float miterY = py - side * my;
+            addTriangle(apexX, apexY, outerAX, outerAY, miterX, miterY);
+            addTriangle(apexX, apexY, miterX, miterY, outerBX, outerBY);
+        } else if (join == JOIN_ROUND) {
+            addArc(apexX, apexY, px, py, halfWidth, outerAX, outerAY, outerBX, outerBY);
+        } else {
+            addTriangle(apexX, apexY, outerAX, outerAY, outerBX, outerBY);
+        }
+    }
+
+    // Caps the start of the first and the end of the last segment.
+    private void addCap(int first, int last, float halfWidth, int cap) {
+        if (cap == CAP_BUTT) {
+            return;
+        }
+        float[] c = mCorners;
+        float[] d = mSegments;
+        int i = first * 8;
+        int j = last * 8;
+        if (cap == CAP_SQUARE) {
+            float sx = d[first * 3] * halfWidth;
+            float sy = d[first * 3 + 1] * halfWidth;
+            c[i] -= sx;
+            c[i + 1] -= sy;
+            c[i + 2] -= sx;
+            c[i + 3] -= sy;
+            float ex = d[last * 3] * halfWidth;
+            float ey = d[last * 3 + 1] * halfWidth;
+            c[j + 4] += ex;
+            c[j + 5] += ey;
+            c[j + 6] += ex;
+            c[j + 7] += ey;
+            return;
+        }
+        float startX = mPoints[0];
+        float startY = mPoints[1];
+        float endX = mPoints[(mPointCount - 1) * 2];
+        float endY = mPoints[(mPointCount - 1) * 2 + 1];
+        addHalfCircle(startX, startY, halfWidth, c[i + 2], c[i + 3], -d[first * 3], -d[first * 3 + 1]);
+        addHalfCircle(endX, endY, halfWidth, c[j + 4], c[j + 5], d[last * 3], d[last * 3 + 1]);
+    }
+
+    private void strokeDot(float x, float y, float halfWidth, int cap) {
+        if (cap == CAP_ROUND) {
+            addHalfCircle(x, y, halfWidth, x, y - halfWidth, 1, 0);
+            addHalfCircle(x, y, halfWidth, x, y + halfWidth, -1, 0);
+        } else if (cap == CAP_SQUARE) {
+            float x0 = x - halfWidth;
+            float y0 = y - halfWidth;
+            float x1 = x + halfWidth;
+            float y1 = y + halfWidth;
+            addTriangle(x0, y0, x1, y0, x0, y1);
+            addTriangle(x0, y1, x1, y0, x1, y1);
+        }
+    }
+
+    // The half circle around (x, y) from (fromX, fromY) through the point
+    // in the direction (dx, dy).
+    private void addHalfCircle(float x, float y, float radius, float fromX, float fromY, float dx, float dy) {
+        float from = (float) Math.atan2(fromY - y, fromX - x);
+        float cross = (fromX - x) * dy - (fromY - y) * dx;
+        float sweep = (float) (cross > 0 ? Math.PI : -Math.PI);
+        addFan(x, y, x, y, radius, from, sweep, fromX, fromY, 2 * x - fromX, 2 * y - fromY);
+    }
+
+    // A fan from the apex over the short arc around (x, y) from (fromX,
+    // fromY) to (toX, toY).
+    private void addArc(float apexX, float apexY, float x, float y, float radius,
+                        float fromX, float fromY, float toX, float toY) {
+        float from = (float) Math.atan2(fromY - y, fromX - x);
+        float sweep = (float) Math.atan2(toY - y, toX - x) - from;
+        if (sweep > Math.PI) {
+            sweep -= 2 * Math.PI;
+        } else if (sweep < -Math.PI) {
+            sweep += 2 * Math.PI;
+        }
+        addFan(apexX, apexY, x, y, radius, from, sweep, fromX, fromY, toX, toY);
+    }
+
+    private void addFan(float apexX, float apexY, float x, float y, float radius, float from, float sweep,
+                        float fromX, float fromY, float toX, float toY) {
+        int steps = getRoundSteps(radius, Math.abs(sweep));
+        float lastX = fromX;
+        float lastY = fromY;
+        for (int step = 1; step < steps; step++) {
+            double angle = from + sweep * step / steps;
+            float nextX = x + radius * (float) Math.cos(angle);
+            float nextY = y + radius * (float) Math.sin(angle);
+            addTriangle(apexX, apexY, lastX, lastY, nextX, nextY);
+            lastX = nextX;
+            lastY = nextY;
+        }
+        addTriangle(apexX, apexY, lastX, lastY, toX, toY);
+    }
+
+    // The number of chords for an arc, so that none is further from the arc
+    // than ROUND_TOLERANCE.
+    static int getRoundSteps(float radius, float sweep) {
+        if (radius <= ROUND_TOLERANCE) {
+            return 1;
+        }
+        double step = 2 * Math.acos(1 - ROUND_TOLERANCE / radius);
+        return Math.max(1, Math.min(MAX_ROUND_STEPS, (int) Math.ceil(sweep / step)));
+    }
+
+    private void addTriangle(float x0, float y0, float x1, float y1, float x2, float y2) {
+        if (mFloatCount + 6 > mVertices.length) {
+            mVertices = Arrays.copyOf(mVertices, Math.max(mVertices.length * 2, mFloatCount + 6));
+        }
+        float[] v = mVertices;
+        int i = mFloatCount;
+        v[i] = x0;
+        v[i + 1] = y0;
+        v[i + 2] = x1;
+        v[i + 3] = y1;
+        v[i + 4] = x2;
+        v[i + 5] = y2;
+        mFloatCount = i + 6;
+    }
+}
@@ -0,0 +1,75 @@
+/*
+ *
+ *  *
+ *  *  * Copyright (C) 2016 ChillingVan
+ *  *  *
+ *  *  * Licensed under the Apache License, Version 2.0 (the "License");
+ *  *  * you may not use this file except in compliance with the License.
+ *  *  * You may obtain a copy of the License at
+ *  *  *
+ *  *  * http://www.apache.org/licenses/LICENSE-2.0
+ *  *  *
+ *  *  * Unless required by applicable law or agreed to in writing, software
+ *  *  * distributed under the License is distributed on an "AS IS" BASIS,
+ *  *  * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  *  * See the License for the specific language governing permissions and
+ *  *  * limitations under the License.
+ *  *
+ *
+ */
+package com.chillingvan.canvasgl.glcanvas;
+
+import android.graphics.Bitmap;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+
+// PixelBuffer copies a rectangle of an ARGB_8888 bitmap into a direct
+// buffer of RGBA bytes for glTexSubImage2D, premultiplied as GLUtils
+// uploads it. The buffer grows to the largest rectangle copied and is
+// reused, so uploading a small part of a large bitmap neither reads nor
+// allocates more than the part.
+final class PixelBuffer {
+    private int[] mPixels;
+    private IntBuffer mBuffer;
+
+    IntBuffer read(Bitmap bitmap, int x, int y, int width, int height) {
+        int count = width * height;
+        if (mPixels == null || mPixels.length < count) {
+            mPixels = new int[count];
+            mBuffer = ByteBuffer.allocateDirect(count * 4).order(ByteOrder.LITTLE_ENDIAN).asIntBuffer();
+        }
+        // getPixels returns colors which are not premultiplied.
+        bitmap.getPixels(mPixels, 0, width, x, y, width, height);
+        toRgba(mPixels, count, bitmap.isPremultiplied());
+        mBuffer.clear();
+        mBuffer.put(mPixels, 0, count);
+        mBuffer.position(0);
+        return mBuffer;
+    }
+
+    // Turns ARGB colors into ints which are R, G, B, A bytes in little
+    // endian order, multiplying the color by alpha if asked to.
+    static void toRgba(int[] pixels, int count, boolean premultiply) {
+        for (int i = 0; i < count; i++) {
+            int color = pixels[i];
+            int a = color >>> 24;
+            int r = (color >> 16) & 0xFF;
+            int g = (color >> 8) & 0xFF;
+            int b = color & 0xFF;
+            if (premultiply && a != 0xFF) {
+                r = multiply(r, a);
+                g = multiply(g, a);
+                b = multiply(b, a);
+            }
+            pixels[i] = (a << 24) | (b << 16) | (g << 8) | r;
+        }
+    }
+
+    // c * a / 255, rounded.
+    private static int multiply(int c, int a) {
+        int product = c * a + 128;
+        return (product + (product >> 8)) >> 8;
+    }
+}
@@ -0,0 +1,281 @@
+/*
+ *
+ *  *
+ *  *  * Copyright (C) 2016 ChillingVan
+ *  *  *
+ *  *  * Licensed under the Apache License, Version 2.0 (the "License");
+ *  *  * you may not use this file except in compliance with the License.
+ *  *  * You may obtain a copy of the License at
+ *  *  *
+ *  *  * http://www.apache.org/licenses/LICENSE-2.0
+ *  *  *
+ *  *  * Unless required by applicable law or agreed to in writing, software
+ *  *  * distributed under the License is distributed on an "AS IS" BASIS,
+ *  *  * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  *  * See the License for the specific language governing permissions and
+ *  *  * limitations under the License.
+ *  *
+ *
+ */
+package com.chillingvan.canvasgl.glcanvas;
+
+import android.annotation.TargetApi;
+import android.opengl.GLES20;
+import android.opengl.GLES30;
+import android.os.Build;
+import android.util.Log;
+
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// ProgramBinaryCache stores linked programs in a directory, so the shaders of
+// a program are compiled only the first time the app ever uses it. It is off
+// until a directory is set, e.g. in Application.onCreate:
+//
+//     ProgramBinaryCache.setDirectory(new File(getCacheDir(), "canvasgl_programs"));
+//
+// A file is keyed by the shader sources and the GL renderer and version, so a
+// driver update simply misses. Program binaries need an OpenGL ES 3 context,
+// on other contexts or when anything fails the program is compiled as usual.
+public class ProgramBinaryCache {
+    private static final String TAG = "ProgramBinaryCache";
+    private static final int FILE_MAGIC = 0x43474c50;
+    // The magic, the binary format and the binary length.
+    private static final int HEADER_SIZE = 12;
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static volatile File sDirectory;
+    // Null until checked on the GL thread, then "" if binaries are not supported.
+    private static volatile String sDriverKey;
+
+    private static final AtomicInteger sHitCount = new AtomicInteger();
+    private static final AtomicInteger sMissCount = new AtomicInteger();
+
+    private ProgramBinaryCache() {
+    }
+
+    // null turns the cache off.
+    public static void setDirectory(File directory) {
+        sDirectory = directory;
+    }
+
+    public static File getDirectory() {
+        return sDirectory;
+    }
+
+    // Programs loaded from a binary.
+    public static int getHitCount() {
+        return sHitCount.get();
+    }
+
+    // Programs compiled while the cache was on and supported.
+    public static int getMissCount() {
+        return sMissCount.get();
+    }
+
+    public static void resetCounts() {
+        sHitCount.set(0);
+        sMissCount.set(0);
+    }
+
+    // Deletes every stored binary.
+    public static void clear() {
+        File directory = sDirectory;
+        if (directory == null) {
+            return;
+        }
+        File[] files = directory.listFiles();
+        if (files == null) {
+            return;
+        }
+        for (File file : files) {
+            if (!file.delete()) {
+                Log.w(TAG, "Cannot delete " + file);
+            }
+        }
+    }
+
+    // Returns a program created from the stored binary, or 0 if there is none
+    // and the program must be compiled. Must be called on the GL thread.
+    static int load(String vertexSource, String fragmentSource) {
+        File file = getFile(vertexSource, fragmentSource);
+        if (file == null) {
+            return 0;
+        }
+        int program = file.exists() ? loadProgram(file) : 0;
+        if (program == 0) {
+            sMissCount.incrementAndGet();
+        } else {
+            sHitCount.incrementAndGet();
+        }
+        return program;
+    }
+
+    // Stores the binary of a program which was just linked from the sources.
+    static void save(int program, String vertexSource, String fragmentSource) {
+        if (program == 0) {
+            return;
+        }
+        File file = getFile(vertexSource, fragmentSource);
+        if (file != null) {
+            saveProgram(program, file);
+        }
+    }
+
+    private static File getFile(String vertexSource, String fragmentSource) {
+        File directory = sDirectory;
+        if (directory == null) {
+            return null;
+        }
+        String driverKey = getDriverKey();
+        if (driverKey.isEmpty()) {
+            return null;
+        }
+        String name = hash(driverKey + '\0' + vertexSource + '\0' + fragmentSource);
+        return name == null ? null : new File(directory, name);
+    }
+
+    private static String getDriverKey() {
+        String driverKey = sDriverKey;
+        if (driverKey == null) {
+            driverKey = "";
+            if (GLES20Canvas.isGLES30() && hasBinaryFormats()) {
+                driverKey = GLES20.glGetString(GLES20.GL_RENDERER) + '\0' + GLES20.glGetString(GLES20.GL_VERSION);
+            }
+            sDriverKey = driverKey;
+        }
+        return driverKey;
+    }
+
+    private static boolean hasBinaryFormats() {
+        int[] count = new int[1];
+        GLES20.glGetIntegerv(GLES30.GL_NUM_PROGRAM_BINARY_FORMATS, count, 0);
+        return count[0] > 0;
+    }
+
+    private static String hash(String key) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-1").digest(key.getBytes(UTF_8));
+            StringBuilder builder = new StringBuilder(digest.length * 2);
+            for (byte b : digest) {
+                builder.append(Character.forDigit((b >> 4) & 0xF, 16));
+                builder.append(Character.forDigit(b & 0xF, 16));
+            }
+            return builder.toString();
+        } catch (NoSuchAlgorithmException e) {
+            return null;
+        }
+    }
+
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN_MR2)
+    private static int loadProgram(File file) {
+        int format;
+        byte[] binary;
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new FileInputStream(file));
+            if (in.readInt() != FILE_MAGIC) {
+                throw new IOException("Not a program binary");
+            }
+            format = in.readInt();
+            int length = in.readInt();
+            // A corrupt length must not allocate, it is a miss like any bad file.
+            if (length <= 0 || length > file.length() - HEADER_SIZE) {
+                throw new IOException("Bad binary length " + length);
+            }
+            binary = new byte[length];
+            in.readFully(binary);
+        } catch (IOException e) {
+            Log.w(TAG, "Cannot read " + file, e);
+            deleteFile(file);
+            return 0;
+        } finally {
+            close(in);
+        }
+
+        ByteBuffer buffer = ByteBuffer.allocateDirect(binary.length).order(ByteOrder.nativeOrder());
+        buffer.put(binary).position(0);
+        int program = GLES20.glCreateProgram();
+        GLES30.glProgramBinary(program, format, buffer, binary.length);
+        // Drivers reject binaries of another build, the program is then not
+        // linked. That sets no GL error, so the link status alone decides.
+        int[] linkStatus = new int[1];
+        GLES20.glGetProgramiv(program, GLES20.GL_LINK_STATUS, linkStatus, 0);
+        if (linkStatus[0] != GLES20.GL_TRUE) {
+            GLES20.glDeleteProgram(program);
+            deleteFile(file);
+            return 0;
+        }
+        return program;
+    }
+
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN_MR2)
+    private static void saveProgram(int program, File file) {
+        int[] length = new int[1];
+        GLES20.glGetProgramiv(program, GLES30.GL_PROGRAM_BINARY_LENGTH, length, 0);
+        if (length[0] <= 0) {
+            return;
+        }
+        ByteBuffer buffer = ByteBuffer.allocateDirect(length[0]).order(ByteOrder.nativeOrder());
+        IntBuffer writtenLength = IntBuffer.allocate(1);
+        IntBuffer format = IntBuffer.allocate(1);
+        GLES30.glGetProgramBinary(program, length[0], writtenLength, format, buffer);
+        GLES20Canvas.checkError();
+        byte[] binary = new byte[writtenLength.get(0)];
+        buffer.get(binary);
+
+        File directory = file.getParentFile();
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            Log.w(TAG, "Cannot create " + directory);
+            return;
+        }
+        // Written aside first, so a crash never leaves a truncated binary.
+        File tempFile = new File(directory, file.getName() + ".tmp");
+        DataOutputStream out = null;
+        try {
+            out = new DataOutputStream(new FileOutputStream(tempFile));
+            out.writeInt(FILE_MAGIC);
+            out.writeInt(format.get(0));
+            out.writeInt(binary.length);
+            out.write(binary);
+            out.close();
+            out = null;
+            if (!tempFile.renameTo(file)) {
+                throw new IOException("Cannot rename to " + file);
+            }
+        } catch (IOException e) {
+            Log.w(TAG, "Cannot write " + file, e);
+            deleteFile(tempFile);
+        } finally {
+            close(out);
+        }
+    }
+
+    private static void deleteFile(File file) {
+        if (file.exists() && !file.delete()) {
+            Log.w(TAG, "Cannot delete " + file);
+        }
+    }
+
+    private static void close(Closeable closeable) {
+        if (closeable == null) {
+            return;
+        }
+        try {
+            closeable.close();
+        } catch (IOException ignored) {
+        }
+    }
+}
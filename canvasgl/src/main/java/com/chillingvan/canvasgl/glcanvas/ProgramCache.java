@@ -0,0 +1,311 @@
+/*
+ *
+ *  *
+ *  *  * Copyright (C) 2016 ChillingVan
+ *  *  *
+ *  *  * Licensed under the Apache License, Version 2.0 (the "License");
+ *  *  * you may not use this file except in compliance with the License.
+ *  *  * You may obtain a copy of the License at
+ *  *  *
+ *  *  * http://www.apache.org/licenses/LICENSE-2.0
+ *  *  *
+ *  *  * Unless required by applicable law or agreed to in writing, software
+ *  *  * distributed under the License is distributed on an "AS IS" BASIS,
+ *  *  * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  *  * See the License for the specific language governing permissions and
+ *  *  * limitations under the License.
+ *  *
+ *
+ */
+package com.chillingvan.canvasgl.glcanvas;
+
+import android.opengl.GLES20;
+
+import com.chillingvan.canvasgl.shapeFilter.DrawShapeFilter;
+import com.chillingvan.canvasgl.textureFilter.TextureFilter;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+// ProgramCache keeps the programs of one canvas keyed by their shader
+// sources, so filters with the same shaders share one program, and shader
+// objects are compiled once and shared between programs.
+//
+// A program is referenced by every filter that used it. It is deleted when
+// the last of those filters is destroyed, or when it is the least recently
+// used one and the cache holds more than the maximum number of programs.
+// A filter whose program was evicted simply gets it linked again.
+//
+// New programs are looked up in the ProgramBinaryCache before compiling.
+public class ProgramCache {
+    public static final int DEFAULT_MAX_PROGRAMS = 32;
+
+    // Filters are bound separately per use, an OES texture needs another program.
+    private static final int USE_TEXTURE_2D = 0;
+    private static final int USE_TEXTURE_OES = 1;
+    private static final int USE_SHAPE = 2;
+    private static final int USE_COUNT = 3;
+
+    // Every cache is told when a filter is destroyed. The filter does not know
+    // which canvases used it, and may be destroyed off the GL thread.
+    private static final List<WeakReference<ProgramCache>> sCaches = new ArrayList<>();
+
+    private final GLState mState;
+    private final int[] mTempIntArray = new int[1];
+
+    private final Map<String, Shader> mVertexShaders = new HashMap<>();
+    private final Map<String, Shader> mFragmentShaders = new HashMap<>();
+    // Access ordered, the eldest entry is the least recently used one.
+    private final LinkedHashMap<Key, Entry> mEntries = new LinkedHashMap<>(16, 0.75f, true);
+    private final Map<Integer, GLProgram> mProgramsById = new HashMap<>();
+    private final List<Map<Object, Entry>> mBindings = new ArrayList<>(USE_COUNT);
+
+    private final List<Object> mDestroyedFilters = new ArrayList<>();
+    private volatile boolean mHasDestroyedFilters;
+
+    private int mMaxPrograms = DEFAULT_MAX_PROGRAMS;
+
+    private static class Shader {
+        final int id;
+        int refCount;
+
+        Shader(int id) {
+            this.id = id;
+        }
+    }
+
+    private static class Key {
+        final String vertexSource;
+        final String fragmentSource;
+        private final int mHashCode;
+
+        Key(String vertexSource, String fragmentSource) {
+            this.vertexSource = vertexSource;
+            this.fragmentSource = fragmentSource;
+            mHashCode = 31 * vertexSource.hashCode() + fragmentSource.hashCode();
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key key = (Key) o;
+            return mHashCode == key.mHashCode
+                    && vertexSource.equals(key.vertexSource)
+                    && fragmentSource.equals(key.fragmentSource);
+        }
+
+        @Override
+        public int hashCode() {
+            return mHashCode;
+        }
+    }
+
+    private static class Entry {
+        final Key key;
+        GLProgram program;
+        Shader vertexShader;
+        Shader fragmentShader;
+        int refCount;
+        // Pinned programs are never deleted, the canvas uses them itself.
+        boolean pinned;
+
+        Entry(Key key) {
+            this.key = key;
+        }
+    }
+
+    ProgramCache(GLState state) {
+        mState = state;
+        for (int i = 0; i < USE_COUNT; i++) {
+            mBindings.add(new WeakHashMap<Object, Entry>());
+        }
+        synchronized (sCaches) {
+            sCaches.add(new WeakReference<>(this));
+        }
+    }
+
+    // Called by the filters when they are destroyed. Can be called on any thread,
+    // the programs are released the next time the cache is used on the GL thread.
+    public static void release(Object filter) {
+        synchronized (sCaches) {
+            Iterator<WeakReference<ProgramCache>> iterator = sCaches.iterator();
+            while (iterator.hasNext()) {
+                ProgramCache cache = iterator.next().get();
+                if (cache == null) {
+                    iterator.remove();
+                } else {
+                    cache.onFilterDestroyed(filter);
+                }
+            }
+        }
+    }
+
+    private void onFilterDestroyed(Object filter) {
+        synchronized (mDestroyedFilters) {
+            mDestroyedFilters.add(filter);
+            mHasDestroyedFilters = true;
+        }
+    }
+
+    void setMaxPrograms(int maxPrograms) {
+        if (maxPrograms < 1) {
+            throw new IllegalArgumentException("maxPrograms must be positive: " + maxPrograms);
+        }
+        mMaxPrograms = maxPrograms;
+        evict(null);
+    }
+
+    int getProgramCount() {
+        return mEntries.size();
+    }
+
+    GLProgram getTextureProgram(TextureFilter filter, boolean oes) {
+        return get(filter, oes ? USE_TEXTURE_OES : USE_TEXTURE_2D);
+    }
+
+    GLProgram getShapeProgram(DrawShapeFilter filter) {
+        return get(filter, USE_SHAPE);
+    }
+
+    // Returns the program of the filter for the use, linking it if needed.
+    private GLProgram get(Object filter, int use) {
+        deleteReleasedPrograms();
+        Map<Object, Entry> bindings = mBindings.get(use);
+        Entry entry = bindings.get(filter);
+        if (entry != null && entry.program != null) {
+            // Touch it for the LRU order.
+            mEntries.get(entry.key);
+            return entry.program;
+        }
+        // The sources are only asked for here, building them may allocate.
+        if (use == USE_SHAPE) {
+            DrawShapeFilter shapeFilter = (DrawShapeFilter) filter;
+            entry = obtain(shapeFilter.getVertexShader(), shapeFilter.getFragmentShader());
+        } else {
+            TextureFilter textureFilter = (TextureFilter) filter;
+            entry = obtain(textureFilter.getVertexShader(), use == USE_TEXTURE_OES
+                    ? textureFilter.getOesFragmentProgram() : textureFilter.getFragmentShader());
+        }
+        entry.refCount++;
+        bindings.put(filter, entry);
+        evict(entry);
+        return entry.program;
+    }
+
+    // Returns a program which stays alive as long as the cache.
+    GLProgram getPinned(String vertexSource, String fragmentSource) {
+        Entry entry = obtain(vertexSource, fragmentSource);
+        entry.pinned = true;
+        return entry.program;
+    }
+
+    // Returns the live program with the id, or null if it is not from this cache.
+    GLProgram findProgram(int id) {
+        return mProgramsById.get(id);
+    }
+
+    private Entry obtain(String vertexSource, String fragmentSource) {
+        Key key = new Key(vertexSource, fragmentSource);
+        Entry entry = mEntries.get(key);
+        if (entry != null) {
+            return entry;
+        }
+        entry = new Entry(key);
+        // A program loaded from a binary has no shader objects at all.
+        int id = ProgramBinaryCache.load(vertexSource, fragmentSource);
+        if (id == 0) {
+            entry.vertexShader = obtainShader(mVertexShaders, GLES20.GL_VERTEX_SHADER, vertexSource);
+            entry.fragmentShader = obtainShader(mFragmentShaders, GLES20.GL_FRAGMENT_SHADER, fragmentSource);
+            id = GLES20Canvas.linkProgram(entry.vertexShader.id, entry.fragmentShader.id, mTempIntArray);
+            ProgramBinaryCache.save(id, vertexSource, fragmentSource);
+        }
+        entry.program = new GLProgram(id);
+        mEntries.put(key, entry);
+        mProgramsById.put(id, entry.program);
+        return entry;
+    }
+
+    private static Shader obtainShader(Map<String, Shader> shaders, int type, String source) {
+        Shader shader = shaders.get(source);
+        if (shader == null) {
+            shader = new Shader(GLES20Canvas.loadShader(type, source));
+            shaders.put(source, shader);
+        }
+        shader.refCount++;
+        return shader;
+    }
+
+    private static void releaseShader(Map<String, Shader> shaders, Shader shader, String source) {
+        if (shader == null) {
+            return;
+        }
+        shader.refCount--;
+        if (shader.refCount <= 0) {
+            shaders.remove(source);
+            GLES20.glDeleteShader(shader.id);
+            GLES20Canvas.checkError();
+        }
+    }
+
+    private void evict(Entry keep) {
+        if (mEntries.size() <= mMaxPrograms) {
+            return;
+        }
+        Iterator<Entry> iterator = mEntries.values().iterator();
+        while (mEntries.size() > mMaxPrograms && iterator.hasNext()) {
+            Entry entry = iterator.next();
+            if (entry == keep || entry.pinned) {
+                continue;
+            }
+            iterator.remove();
+            delete(entry);
+        }
+    }
+
+    // Deletes the programs of destroyed filters. Must be called on the GL thread.
+    void deleteReleasedPrograms() {
+        if (!mHasDestroyedFilters) {
+            return;
+        }
+        synchronized (mDestroyedFilters) {
+            for (Object filter : mDestroyedFilters) {
+                for (Map<Object, Entry> bindings : mBindings) {
+                    Entry entry = bindings.remove(filter);
+                    if (entry == null || entry.program == null) {
+                        continue;
+                    }
+                    entry.refCount--;
+                    if (entry.refCount <= 0 && !entry.pinned) {
+                        mEntries.remove(entry.key);
+                        delete(entry);
+                    }
+                }
+            }
+            mDestroyedFilters.clear();
+            mHasDestroyedFilters = false;
+        }
+    }
+
+    private void delete(Entry entry) {
+        int id = entry.program.getId();
+        mProgramsById.remove(id);
+        mState.onProgramDeleted(id);
+        GLES20.glDeleteProgram(id);
+        GLES20Canvas.checkError();
+        releaseShader(mVertexShaders, entry.vertexShader, entry.key.vertexSource);
+        releaseShader(mFragmentShaders, entry.fragmentShader, entry.key.fragmentSource);
+        // Bindings still holding the entry see it is gone and link it again.
+        entry.program = null;
+    }
+}
@@ -57,6 +57,7 @@ public class RawTexture extends BasicTexture {
     }
 
     public void prepare(GLCanvas canvas) {
+        fitTextureSize(canvas.isNpotSupported());
         GLId glId = canvas.getGLId();
         mId = glId.generateTexture();
 
@@ -0,0 +1,355 @@
+/*
+ *
+ *  *
+ *  *  * Copyright (C) 2016 ChillingVan
+ *  *  *
+ *  *  * Licensed under the Apache License, Version 2.0 (the "License");
+ *  *  * you may not use this file except in compliance with the License.
+ *  *  * You may obtain a copy of the License at
+ *  *  *
+ *  *  * http://www.apache.org/licenses/LICENSE-2.0
+ *  *  *
+ *  *  * Unless required by applicable law or agreed to in writing, software
+ *  *  * distributed under the License is distributed on an "AS IS" BASIS,
+ *  *  * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  *  * See the License for the specific language governing permissions and
+ *  *  * limitations under the License.
+ *  *
+ *
+ */
+package com.chillingvan.canvasgl.glcanvas;
+
+import android.opengl.GLES20;
+
+import com.chillingvan.canvasgl.shapeFilter.SdfShapeFilter;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+
+// ShapeBatch collects filled rectangles, lines, rectangle outlines, circles,
+// ovals, rounded rects and arcs and draws them with one glDrawElements call.
+//
+// Every shape is written as a quad whose vertices carry the premultiplied
+// color and the shape parameters of SdfShapeFilter, so shapes of different
+// colors and kinds share one draw call. Lines are expanded to quads on the
+// CPU instead of relying on glLineWidth.
+class ShapeBatch {
+    private static final int FLOAT_SIZE = Float.SIZE / Byte.SIZE;
+
+    // x, y, r, g, b, a, shape x, shape y, half width, half height,
+    // corner radius, stroke, arc start, arc sweep
+    static final int FLOATS_PER_VERTEX = 14;
+    private static final int VERTEX_STRIDE = FLOATS_PER_VERTEX * FLOAT_SIZE;
+    static final int FLOATS_PER_QUAD = FLOATS_PER_VERTEX * SpriteBatch.VERTICES_PER_QUAD;
+
+    static final int MAX_QUADS = 2048;
+
+    // Shapes are drawn one pixel larger than their edge, which is where the
+    // anti-aliased edge fades out.
+    private static final float EDGE_PIXELS = 1f;
+
+    // Handle indices
+    private static final int INDEX_POSITION = 0;
+    private static final int INDEX_MATRIX = 1;
+    private static final int INDEX_COLOR = 2;
+    private static final int INDEX_SHAPE = 3;
+    private static final int INDEX_PARAMS = 4;
+
+    private final GLES20Canvas.ShaderParameter[] mParameters = {
+            new GLES20Canvas.AttributeShaderParameter(GLES20Canvas.POSITION_ATTRIBUTE), // INDEX_POSITION
+            new GLES20Canvas.UniformShaderParameter(GLES20Canvas.MATRIX_UNIFORM), // INDEX_MATRIX
+            new GLES20Canvas.AttributeShaderParameter(SdfShapeFilter.COLOR_ATTRIBUTE), // INDEX_COLOR
+            new GLES20Canvas.AttributeShaderParameter(SdfShapeFilter.SHAPE_ATTRIBUTE), // INDEX_SHAPE
+            new GLES20Canvas.AttributeShaderParameter(SdfShapeFilter.PARAMS_ATTRIBUTE), // INDEX_PARAMS
+    };
+
+    private final float[] mVertices = new float[MAX_QUADS * FLOATS_PER_QUAD];
+    private final FloatBuffer mVertexBuffer;
+    private final int[] mTempIntArray = new int[1];
+
+    private GLProgram mProgram;
+    private int mVertexBufferId;
+    private int mIndexBufferId;
+
+    private int mQuadCount;
+
+    ShapeBatch() {
+        mVertexBuffer = ByteBuffer.allocateDirect(mVertices.length * FLOAT_SIZE)
+                .order(ByteOrder.nativeOrder()).asFloatBuffer();
+    }
+
+    // Creates the program and buffers. Must be called on the GL thread.
+    void prepare(GLId glId, GLState state, ProgramCache programCache) {
+        if (mProgram != null) {
+            return;
+        }
+        mProgram = programCache.getPinned(SdfShapeFilter.SDF_VERTEX_SHADER, SdfShapeFilter.SDF_FRAGMENT_SHADER);
+        GLES20Canvas.loadHandles(mParameters, mProgram);
+        glId.glGenBuffers(1, mTempIntArray, 0);
+        mVertexBufferId = mTempIntArray[0];
+        mIndexBufferId = SpriteBatch.uploadQuadIndices(glId, state, MAX_QUADS, mTempIntArray);
+    }
+
+    boolean isPrepared() {
+        return mProgram != null;
+    }
+
+    boolean isEmpty() {
+        return mQuadCount == 0;
+    }
+
+    boolean hasRoomFor(int quadCount) {
+        return mQuadCount + quadCount <= MAX_QUADS;
+    }
+
+    // Adds the rectangle (x, y, width, height) transformed by the 2D part of
+    // the 4x4 matrix at matrix[offset].
+    void addRect(float[] matrix, int offset, float x, float y, float width, float height,
+                 float[] color) {
+        putRect(mVertices, mQuadCount * FLOATS_PER_QUAD, matrix, offset, x, y, width, height, color);
+        mQuadCount++;
+    }
+
+    // Adds the circle inscribed in the rectangle (x, y, width, height). The
+    // ring width is relative to the diameter, 0.5 fills the circle.
+    void addCircle(float[] matrix, int offset, float x, float y, float width, float height,
+                   float[] color, float ringWidth) {
+        if (putCircle(mVertices, mQuadCount * FLOATS_PER_QUAD, matrix, offset, x, y, width, height,
+                color, ringWidth)) {
+            mQuadCount++;
+        }
+    }
+
+    // Adds the segment (x1, y1) - (x2, y2) as a quad lineWidth pixels wide.
+    // The end points are transformed first so the width is not scaled.
+    // When capped, the quad is extended by half the width at both ends so
+    // connected segments leave no gap at the corners.
+    void addLine(float[] matrix, int offset, float x1, float y1, float x2, float y2,
+                 float[] color, float lineWidth, boolean capped) {
+        if (putLine(mVertices, mQuadCount * FLOATS_PER_QUAD, matrix, offset, x1, y1, x2, y2,
+                color, lineWidth, capped)) {
+            mQuadCount++;
+        }
+    }
+
+    // Adds the shape in the rectangle (x, y, width, height), see putShape.
+    void addShape(float[] matrix, int offset, float x, float y, float width, float height,
+                  float[] color, float radius, float strokeWidth, float startAngle, float sweepAngle) {
+        if (putShape(mVertices, mQuadCount * FLOATS_PER_QUAD, matrix, offset, x, y, width, height,
+                color, radius, strokeWidth, startAngle, sweepAngle)) {
+            mQuadCount++;
+        }
+    }
+
+    // Appends a quad written by one of the put methods at vertices[offset].
+    void addVertices(float[] vertices, int offset) {
+        System.arraycopy(vertices, offset, mVertices, mQuadCount * FLOATS_PER_QUAD, FLOATS_PER_QUAD);
+        mQuadCount++;
+    }
+
+    // The put methods write the vertices of the quad the matching add method
+    // appends to v, starting at index i. The ones returning a boolean write
+    // nothing and return false for shapes which cover no pixel.
+    static void putRect(float[] v, int i, float[] matrix, int offset, float x, float y,
+                        float width, float height, float[] color) {
+        float m0 = matrix[offset];
+        float m1 = matrix[offset + 1];
+        float m4 = matrix[offset + 4];
+        float m5 = matrix[offset + 5];
+        float m12 = matrix[offset + 12];
+        float m13 = matrix[offset + 13];
+        float x1 = x + width;
+        float y1 = y + height;
+
+        i = putSolidVertex(v, i, m0 * x + m4 * y + m12, m1 * x + m5 * y + m13, color);
+        i = putSolidVertex(v, i, m0 * x1 + m4 * y + m12, m1 * x1 + m5 * y + m13, color);
+        i = putSolidVertex(v, i, m0 * x + m4 * y1 + m12, m1 * x + m5 * y1 + m13, color);
+        putSolidVertex(v, i, m0 * x1 + m4 * y1 + m12, m1 * x1 + m5 * y1 + m13, color);
+    }
+
+    // The ring of DrawCircleFilter lies inside the circle, so it is the
+    // stroke of a circle smaller by half the ring.
+    static boolean putCircle(float[] v, int i, float[] matrix, int offset, float x, float y,
+                             float width, float height, float[] color, float ringWidth) {
+        if (ringWidth >= 0.5f) {
+            return putShape(v, i, matrix, offset, x, y, width, height, color,
+                    SdfShapeFilter.RADIUS_OVAL, 0, 0, 360);
+        }
+        if (ringWidth <= 0) {
+            return false;
+        }
+        float ringX = ringWidth * width;
+        float ringY = ringWidth * height;
+        return putShape(v, i, matrix, offset, x + ringX / 2, y + ringY / 2, width - ringX, height - ringY,
+                color, SdfShapeFilter.RADIUS_OVAL, Math.min(ringX, ringY), 0, 360);
+    }
+
+    // Writes the rounded rect, or the oval if radius is
+    // SdfShapeFilter.RADIUS_OVAL, in the rectangle (x, y, width, height).
+    // strokeWidth > 0 strokes the shape, < 0 strokes and fills it and 0
+    // fills it. Unless the sweep is 360 degrees or more only the part from
+    // startAngle sweeping clockwise is drawn; filled arcs are wedges, stroked
+    // arcs have butt ends.
+    //
+    // The shape parameters are in pixels, the size of a unit under the matrix,
+    // so the edge is one pixel wide however the canvas is scaled.
+    static boolean putShape(float[] v, int i, float[] matrix, int offset, float x, float y,
+                            float width, float height, float[] color, float radius, float strokeWidth,
+                            float startAngle, float sweepAngle) {
+        float m0 = matrix[offset];
+        float m1 = matrix[offset + 1];
+        float m4 = matrix[offset + 4];
+        float m5 = matrix[offset + 5];
+        float m12 = matrix[offset + 12];
+        float m13 = matrix[offset + 13];
+        float pixel = (float) Math.sqrt(Math.abs(m0 * m5 - m1 * m4));
+        if (width <= 0 || height <= 0 || pixel == 0 || sweepAngle == 0) {
+            return false;
+        }
+        float halfWidth = width / 2;
+        float halfHeight = height / 2;
+        if (radius == SdfShapeFilter.RADIUS_OVAL) {
+            // The exact distance of the rounded rect is cheaper to get right.
+            if (width == height) {
+                radius = halfWidth * pixel;
+            }
+        } else {
+            radius = Math.max(0, Math.min(radius, Math.min(halfWidth, halfHeight))) * pixel;
+        }
+        float sweep = SdfShapeFilter.SWEEP_FULL;
+        float start = 0;
+        if (Math.abs(sweepAngle) < 360) {
+            // A negative sweep is the same wedge swept clockwise from its end.
+            start = (float) Math.toRadians(sweepAngle < 0 ? startAngle + sweepAngle : startAngle);
+            sweep = (float) Math.toRadians(Math.abs(sweepAngle));
+        }
+        float stroke = strokeWidth / 2 * pixel;
+        float outset = Math.abs(strokeWidth) / 2 + EDGE_PIXELS / pixel;
+
+        float x0 = x - outset;
+        float y0 = y - outset;
+        float x1 = x + width + outset;
+        float y1 = y + height + outset;
+        float shapeX = (halfWidth + outset) * pixel;
+        float shapeY = (halfHeight + outset) * pixel;
+        float sizeX = halfWidth * pixel;
+        float sizeY = halfHeight * pixel;
+
+        i = putVertex(v, i, m0 * x0 + m4 * y0 + m12, m1 * x0 + m5 * y0 + m13, color,
+                -shapeX, -shapeY, sizeX, sizeY, radius, stroke, start, sweep);
+        i = putVertex(v, i, m0 * x1 + m4 * y0 + m12, m1 * x1 + m5 * y0 + m13, color,
+                shapeX, -shapeY, sizeX, sizeY, radius, stroke, start, sweep);
+        i = putVertex(v, i, m0 * x0 + m4 * y1 + m12, m1 * x0 + m5 * y1 + m13, color,
+                -shapeX, shapeY, sizeX, sizeY, radius, stroke, start, sweep);
+        putVertex(v, i, m0 * x1 + m4 * y1 + m12, m1 * x1 + m5 * y1 + m13, color,
+                shapeX, shapeY, sizeX, sizeY, radius, stroke, start, sweep);
+        return true;
+    }
+
+    static boolean putLine(float[] v, int i, float[] matrix, int offset, float x1, float y1,
+                           float x2, float y2, float[] color, float lineWidth, boolean capped) {
+        float m0 = matrix[offset];
+        float m1 = matrix[offset + 1];
+        float m4 = matrix[offset + 4];
+        float m5 = matrix[offset + 5];
+        float m12 = matrix[offset + 12];
+        float m13 = matrix[offset + 13];
+        float px1 = m0 * x1 + m4 * y1 + m12;
+        float py1 = m1 * x1 + m5 * y1 + m13;
+        float px2 = m0 * x2 + m4 * y2 + m12;
+        float py2 = m1 * x2 + m5 * y2 + m13;
+
+        float dx = px2 - px1;
+        float dy = py2 - py1;
+        float length = (float) Math.sqrt(dx * dx + dy * dy);
+        if (length == 0) {
+            return false;
+        }
+        float halfWidth = lineWidth / 2;
+        dx = dx / length * halfWidth;
+        dy = dy / length * halfWidth;
+        if (capped) {
+            px1 -= dx;
+            py1 -= dy;
+            px2 += dx;
+            py2 += dy;
+        }
+        // (nx, ny) is the direction scaled to half width, rotated by 90 degrees.
+        float nx = -dy;
+        float ny = dx;
+
+        i = putSolidVertex(v, i, px1 + nx, py1 + ny, color);
+        i = putSolidVertex(v, i, px2 + nx, py2 + ny, color);
+        i = putSolidVertex(v, i, px1 - nx, py1 - ny, color);
+        putSolidVertex(v, i, px2 - nx, py2 - ny, color);
+        return true;
+    }
+
+    // Solid quads are the center of a filled square two pixels wide, which
+    // every pixel covers fully.
+    private static int putSolidVertex(float[] v, int i, float x, float y, float[] color) {
+        return putVertex(v, i, x, y, color, 0, 0, 1, 1, 0, 0, 0, SdfShapeFilter.SWEEP_FULL);
+    }
+
+    private static int putVertex(float[] v, int i, float x, float y, float[] color,
+                                 float shapeX, float shapeY, float sizeX, float sizeY,
+                                 float radius, float stroke, float start, float sweep) {
+        v[i] = x;
+        v[i + 1] = y;
+        v[i + 2] = color[0];
+        v[i + 3] = color[1];
+        v[i + 4] = color[2];
+        v[i + 5] = color[3];
+        v[i + 6] = shapeX;
+        v[i + 7] = shapeY;
+        v[i + 8] = sizeX;
+        v[i + 9] = sizeY;
+        v[i + 10] = radius;
+        v[i + 11] = stroke;
+        v[i + 12] = start;
+        v[i + 13] = sweep;
+        return i + FLOATS_PER_VERTEX;
+    }
+
+    // Draws all pending shapes with the matrix at matrix[offset], usually the
+    // projection matrix as the vertices are transformed already.
+    void flush(GLState state, float[] matrix, int offset, int viewportWidth, int viewportHeight) {
+        if (mQuadCount == 0) {
+            return;
+        }
+        state.useProgram(mProgram.getId());
+        state.setBlendEnabled(true);
+        state.viewport(0, 0, viewportWidth, viewportHeight);
+        mProgram.setMatrix4(mParameters[INDEX_MATRIX].handle, matrix, offset);
+        GLES20Canvas.checkError();
+
+        int floatCount = mQuadCount * FLOATS_PER_QUAD;
+        mVertexBuffer.clear();
+        mVertexBuffer.put(mVertices, 0, floatCount).position(0);
+        state.bindBuffer(GLES20.GL_ARRAY_BUFFER, mVertexBufferId);
+        GLES20.glBufferData(GLES20.GL_ARRAY_BUFFER, floatCount * FLOAT_SIZE, mVertexBuffer,
+                GLES20.GL_STREAM_DRAW);
+        GLES20Canvas.checkError();
+
+        int positionHandle = mParameters[INDEX_POSITION].handle;
+        int colorHandle = mParameters[INDEX_COLOR].handle;
+        int shapeHandle = mParameters[INDEX_SHAPE].handle;
+        int paramsHandle = mParameters[INDEX_PARAMS].handle;
+        GLES20.glVertexAttribPointer(positionHandle, 2, GLES20.GL_FLOAT, false, VERTEX_STRIDE, 0);
+        GLES20.glVertexAttribPointer(colorHandle, 4, GLES20.GL_FLOAT, false, VERTEX_STRIDE, 2 * FLOAT_SIZE);
+        GLES20.glVertexAttribPointer(shapeHandle, 4, GLES20.GL_FLOAT, false, VERTEX_STRIDE, 6 * FLOAT_SIZE);
+        GLES20.glVertexAttribPointer(paramsHandle, 4, GLES20.GL_FLOAT, false, VERTEX_STRIDE, 10 * FLOAT_SIZE);
+        GLES20Canvas.checkError();
+
+        state.setVertexAttribArrays(GLState.attribBit(positionHandle) | GLState.attribBit(colorHandle)
+                | GLState.attribBit(shapeHandle) | GLState.attribBit(paramsHandle));
+
+        state.bindBuffer(GLES20.GL_ELEMENT_ARRAY_BUFFER, mIndexBufferId);
+        GLES20.glDrawElements(GLES20.GL_TRIANGLES, mQuadCount * SpriteBatch.INDICES_PER_QUAD,
+                GLES20.GL_UNSIGNED_SHORT, 0);
+        GLES20Canvas.checkError();
+
+        mQuadCount = 0;
+    }
+}
@@ -0,0 +1,321 @@
+/*
+ *
+ *  *
+ *  *  * Copyright (C) 2016 ChillingVan
+ *  *  *
+ *  *  * Licensed under the Apache License, Version 2.0 (the "License");
+ *  *  * you may not use this file except in compliance with the License.
+ *  *  * You may obtain a copy of the License at
+ *  *  *
+ *  *  * http://www.apache.org/licenses/LICENSE-2.0
+ *  *  *
+ *  *  * Unless required by applicable law or agreed to in writing, software
+ *  *  * distributed under the License is distributed on an "AS IS" BASIS,
+ *  *  * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  *  * See the License for the specific language governing permissions and
+ *  *  * limitations under the License.
+ *  *
+ *
+ */
+package com.chillingvan.canvasgl.glcanvas;
+
+import android.graphics.RectF;
+import android.opengl.GLES20;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.ShortBuffer;
+
+// SpriteBatch accumulates textured quads which share the same texture and
+// blend state, and draws them with a single glDrawElements call.
+//
+// The quad corners are transformed by the current canvas matrix on the CPU,
+// so quads drawn under different transforms still end up in the same batch.
+// Only the projection matrix is left to the vertex shader.
+class SpriteBatch {
+    private static final int FLOAT_SIZE = Float.SIZE / Byte.SIZE;
+    private static final int SHORT_SIZE = Short.SIZE / Byte.SIZE;
+
+    // x, y, u, v, alpha
+    static final int FLOATS_PER_VERTEX = 5;
+    private static final int VERTEX_STRIDE = FLOATS_PER_VERTEX * FLOAT_SIZE;
+    static final int VERTICES_PER_QUAD = 4;
+    static final int INDICES_PER_QUAD = 6;
+    static final int FLOATS_PER_QUAD = FLOATS_PER_VERTEX * VERTICES_PER_QUAD;
+
+    // Keep the vertex count addressable by unsigned short indices.
+    static final int MAX_QUADS = 2048;
+
+    static final String ALPHA_ATTRIBUTE = "aAlpha";
+    private static final String VARYING_ALPHA = "vAlpha";
+
+    static final String BATCH_VERTEX_SHADER = ""
+            + "uniform mat4 " + GLES20Canvas.MATRIX_UNIFORM + ";\n"
+            + "attribute vec2 " + GLES20Canvas.POSITION_ATTRIBUTE + ";\n"
+            + "attribute vec2 " + GLES20Canvas.TEXTURE_COORD_ATTRIBUTE + ";\n"
+            + "attribute float " + ALPHA_ATTRIBUTE + ";\n"
+            + "varying vec2 vTextureCoord;\n"
+            + "varying float " + VARYING_ALPHA + ";\n"
+            + "void main() {\n"
+            + "  gl_Position = " + GLES20Canvas.MATRIX_UNIFORM + " * vec4(" + GLES20Canvas.POSITION_ATTRIBUTE + ", 0.0, 1.0);\n"
+            + "  vTextureCoord = " + GLES20Canvas.TEXTURE_COORD_ATTRIBUTE + ";\n"
+            + "  " + VARYING_ALPHA + " = " + ALPHA_ATTRIBUTE + ";\n"
+            + "}\n";
+
+    static final String BATCH_FRAGMENT_SHADER = ""
+            + "precision mediump float;\n"
+            + "varying vec2 vTextureCoord;\n"
+            + "varying float " + VARYING_ALPHA + ";\n"
+            + "uniform sampler2D " + GLES20Canvas.TEXTURE_SAMPLER_UNIFORM + ";\n"
+            + "void main() {\n"
+            + "  gl_FragColor = texture2D(" + GLES20Canvas.TEXTURE_SAMPLER_UNIFORM + ", vTextureCoord);\n"
+            + "  gl_FragColor *= " + VARYING_ALPHA + ";\n"
+            + "}\n";
+
+    // Handle indices
+    private static final int INDEX_POSITION = 0;
+    private static final int INDEX_MATRIX = 1;
+    private static final int INDEX_TEXTURE_COORD = 2;
+    private static final int INDEX_TEXTURE_SAMPLER = 3;
+    private static final int INDEX_ALPHA = 4;
+
+    private final GLES20Canvas.ShaderParameter[] mParameters = {
+            new GLES20Canvas.AttributeShaderParameter(GLES20Canvas.POSITION_ATTRIBUTE), // INDEX_POSITION
+            new GLES20Canvas.UniformShaderParameter(GLES20Canvas.MATRIX_UNIFORM), // INDEX_MATRIX
+            new GLES20Canvas.AttributeShaderParameter(GLES20Canvas.TEXTURE_COORD_ATTRIBUTE), // INDEX_TEXTURE_COORD
+            new GLES20Canvas.UniformShaderParameter(GLES20Canvas.TEXTURE_SAMPLER_UNIFORM), // INDEX_TEXTURE_SAMPLER
+            new GLES20Canvas.AttributeShaderParameter(ALPHA_ATTRIBUTE), // INDEX_ALPHA
+    };
+
+    private final float[] mVertices = new float[MAX_QUADS * FLOATS_PER_QUAD];
+    private final FloatBuffer mVertexBuffer;
+    private final int[] mTempIntArray = new int[1];
+
+    private GLProgram mProgram;
+    private int mVertexBufferId;
+    private int mIndexBufferId;
+
+    private int mQuadCount;
+    private BasicTexture mTexture;
+    private boolean mBlending;
+
+    SpriteBatch() {
+        mVertexBuffer = ByteBuffer.allocateDirect(mVertices.length * FLOAT_SIZE)
+                .order(ByteOrder.nativeOrder()).asFloatBuffer();
+    }
+
+    // Creates the program and buffers. Must be called on the GL thread.
+    void prepare(GLId glId, GLState state, ProgramCache programCache) {
+        if (mProgram != null) {
+            return;
+        }
+        mProgram = programCache.getPinned(BATCH_VERTEX_SHADER, BATCH_FRAGMENT_SHADER);
+        GLES20Canvas.loadHandles(mParameters, mProgram);
+
+        glId.glGenBuffers(1, mTempIntArray, 0);
+        mVertexBufferId = mTempIntArray[0];
+
+        mIndexBufferId = uploadQuadIndices(glId, state, MAX_QUADS, mTempIntArray);
+    }
+
+    // Uploads an element array buffer which draws maxQuads quads as triangles,
+    // each quad being 4 vertices in the order of the BOX_COORDINATES strip.
+    static int uploadQuadIndices(GLId glId, GLState state, int maxQuads, int[] tempIntArray) {
+        ShortBuffer indices = ByteBuffer.allocateDirect(maxQuads * INDICES_PER_QUAD * SHORT_SIZE)
+                .order(ByteOrder.nativeOrder()).asShortBuffer();
+        for (int i = 0; i < maxQuads; i++) {
+            short first = (short) (i * VERTICES_PER_QUAD);
+            indices.put(first).put((short) (first + 1)).put((short) (first + 2));
+            indices.put((short) (first + 2)).put((short) (first + 1)).put((short) (first + 3));
+        }
+        indices.position(0);
+        glId.glGenBuffers(1, tempIntArray, 0);
+        int bufferId = tempIntArray[0];
+        state.bindBuffer(GLES20.GL_ELEMENT_ARRAY_BUFFER, bufferId);
+        GLES20.glBufferData(GLES20.GL_ELEMENT_ARRAY_BUFFER, indices.capacity() * SHORT_SIZE,
+                indices, GLES20.GL_STATIC_DRAW);
+        GLES20Canvas.checkError();
+        return bufferId;
+    }
+
+    boolean isPrepared() {
+        return mProgram != null;
+    }
+
+    boolean isEmpty() {
+        return mQuadCount == 0;
+    }
+
+    // Returns true if a quad with the given state can be appended without a flush.
+    boolean canAppend(BasicTexture texture, boolean blending) {
+        return mQuadCount == 0
+                || (mQuadCount < MAX_QUADS && mTexture == texture && mBlending == blending);
+    }
+
+    boolean contains(BasicTexture texture) {
+        return mQuadCount > 0 && mTexture == texture;
+    }
+
+    // Appends a quad. The target rectangle is transformed by the 4x4 column
+    // major matrix at matrix[offset], the source rectangle is in texture
+    // coordinates. canAppend() must have returned true.
+    void add(BasicTexture texture, boolean blending, float[] matrix, int offset,
+             RectF source, RectF target, float alpha, boolean flipped) {
+        mTexture = texture;
+        mBlending = blending;
+        putQuad(mVertices, mQuadCount * FLOATS_PER_QUAD, matrix, offset, source, target, alpha, flipped);
+        mQuadCount++;
+    }
+
+    // Writes the vertices of the quad add() appends to v, starting at index i.
+    static void putQuad(float[] v, int i, float[] matrix, int offset,
+                        RectF source, RectF target, float alpha, boolean flipped) {
+        putQuad(v, i, matrix, offset, target.left, target.top, target.right, target.bottom,
+                source.left, flipped ? source.bottom : source.top,
+                source.right, flipped ? source.top : source.bottom, alpha);
+    }
+
+    // Writes the 4 vertices of the rectangle (x0, y0) - (x1, y1) transformed by
+    // the 2D matrix at matrix[offset] to v, starting at index i. (u0, v0) is
+    // the texture coordinate of (x0, y0), (u1, v1) the one of (x1, y1). Only
+    // writes to v, so it can fill any float array.
+    static void putQuad(float[] v, int i, float[] matrix, int offset,
+                        float x0, float y0, float x1, float y1,
+                        float u0, float v0, float u1, float v1, float alpha) {
+        float m0 = matrix[offset];
+        float m1 = matrix[offset + 1];
+        float m4 = matrix[offset + 4];
+        float m5 = matrix[offset + 5];
+        float m12 = matrix[offset + 12];
+        float m13 = matrix[offset + 13];
+
+        i = putVertex(v, i, m0 * x0 + m4 * y0 + m12, m1 * x0 + m5 * y0 + m13, u0, v0, alpha);
+        i = putVertex(v, i, m0 * x1 + m4 * y0 + m12, m1 * x1 + m5 * y0 + m13, u1, v0, alpha);
+        i = putVertex(v, i, m0 * x0 + m4 * y1 + m12, m1 * x0 + m5 * y1 + m13, u0, v1, alpha);
+        putVertex(v, i, m0 * x1 + m4 * y1 + m12, m1 * x1 + m5 * y1 + m13, u1, v1, alpha);
+    }
+
+    // Appends a quad of the given size centered at (centerX, centerY), scaled
+    // and rotated clockwise by degrees around its center before the matrix is
+    // applied. canAppend() must have returned true.
+    void addRotated(BasicTexture texture, boolean blending, float[] matrix, int offset, RectF source,
+                    float centerX, float centerY, float width, float height,
+                    float degrees, float scale, float alpha, boolean flipped) {
+        mTexture = texture;
+        mBlending = blending;
+        putRotatedQuad(mVertices, mQuadCount * FLOATS_PER_QUAD, matrix, offset, source,
+                centerX, centerY, width, height, degrees, scale, alpha, flipped);
+        mQuadCount++;
+    }
+
+    // Writes the vertices of the quad addRotated() appends to v, starting at index i.
+    static void putRotatedQuad(float[] v, int i, float[] matrix, int offset, RectF source,
+                               float centerX, float centerY, float width, float height,
+                               float degrees, float scale, float alpha, boolean flipped) {
+        putRotatedQuad(v, i, matrix, offset, centerX, centerY, width, height, degrees, scale,
+                source.left, flipped ? source.bottom : source.top,
+                source.right, flipped ? source.top : source.bottom, alpha);
+    }
+
+    // Like putQuad(), for a quad of the given size centered at (centerX, centerY),
+    // scaled and rotated clockwise by degrees around its center before the
+    // matrix is applied.
+    static void putRotatedQuad(float[] v, int i, float[] matrix, int offset,
+                               float centerX, float centerY, float width, float height,
+                               float degrees, float scale,
+                               float u0, float v0, float u1, float v1, float alpha) {
+        double radians = Math.toRadians(degrees);
+        float cos = (float) Math.cos(radians);
+        float sin = (float) Math.sin(radians);
+        // Half the diagonals of the rotated quad, the corners are center +/- them.
+        float halfWidth = width * scale / 2;
+        float halfHeight = height * scale / 2;
+        float ax = halfWidth * cos - halfHeight * sin;
+        float ay = halfWidth * sin + halfHeight * cos;
+        float bx = halfWidth * cos + halfHeight * sin;
+        float by = halfWidth * sin - halfHeight * cos;
+
+        float m0 = matrix[offset];
+        float m1 = matrix[offset + 1];
+        float m4 = matrix[offset + 4];
+        float m5 = matrix[offset + 5];
+        float m12 = matrix[offset + 12];
+        float m13 = matrix[offset + 13];
+
+        // Top left, top right, bottom left, bottom right before the rotation.
+        float x = centerX - ax;
+        float y = centerY - ay;
+        i = putVertex(v, i, m0 * x + m4 * y + m12, m1 * x + m5 * y + m13, u0, v0, alpha);
+        x = centerX + bx;
+        y = centerY + by;
+        i = putVertex(v, i, m0 * x + m4 * y + m12, m1 * x + m5 * y + m13, u1, v0, alpha);
+        x = centerX - bx;
+        y = centerY - by;
+        i = putVertex(v, i, m0 * x + m4 * y + m12, m1 * x + m5 * y + m13, u0, v1, alpha);
+        x = centerX + ax;
+        y = centerY + ay;
+        putVertex(v, i, m0 * x + m4 * y + m12, m1 * x + m5 * y + m13, u1, v1, alpha);
+    }
+
+    // Appends a quad written by putQuad() or putRotatedQuad() at vertices[offset].
+    // canAppend() must have returned true.
+    void addVertices(BasicTexture texture, boolean blending, float[] vertices, int offset) {
+        mTexture = texture;
+        mBlending = blending;
+        System.arraycopy(vertices, offset, mVertices, mQuadCount * FLOATS_PER_QUAD, FLOATS_PER_QUAD);
+        mQuadCount++;
+    }
+
+    private static int putVertex(float[] v, int i, float x, float y, float u, float t, float alpha) {
+        v[i] = x;
+        v[i + 1] = y;
+        v[i + 2] = u;
+        v[i + 3] = t;
+        v[i + 4] = alpha;
+        return i + FLOATS_PER_VERTEX;
+    }
+
+    // Draws all pending quads with the given projection matrix.
+    void flush(GLState state, float[] projectionMatrix, int viewportWidth, int viewportHeight) {
+        if (mQuadCount == 0) {
+            return;
+        }
+        state.useProgram(mProgram.getId());
+        state.setBlendEnabled(mBlending);
+        state.activeTexture(GLES20.GL_TEXTURE0);
+        state.bindTexture(mTexture.getTarget(), mTexture.getId());
+        mProgram.setInt(mParameters[INDEX_TEXTURE_SAMPLER].handle, 0);
+        state.viewport(0, 0, viewportWidth, viewportHeight);
+        mProgram.setMatrix4(mParameters[INDEX_MATRIX].handle, projectionMatrix, 0);
+        GLES20Canvas.checkError();
+
+        int floatCount = mQuadCount * FLOATS_PER_QUAD;
+        mVertexBuffer.clear();
+        mVertexBuffer.put(mVertices, 0, floatCount).position(0);
+        state.bindBuffer(GLES20.GL_ARRAY_BUFFER, mVertexBufferId);
+        // Orphan the previous storage so the driver does not have to wait for it.
+        GLES20.glBufferData(GLES20.GL_ARRAY_BUFFER, floatCount * FLOAT_SIZE, mVertexBuffer,
+                GLES20.GL_STREAM_DRAW);
+        GLES20Canvas.checkError();
+
+        int positionHandle = mParameters[INDEX_POSITION].handle;
+        int texCoordHandle = mParameters[INDEX_TEXTURE_COORD].handle;
+        int alphaHandle = mParameters[INDEX_ALPHA].handle;
+        GLES20.glVertexAttribPointer(positionHandle, 2, GLES20.GL_FLOAT, false, VERTEX_STRIDE, 0);
+        GLES20.glVertexAttribPointer(texCoordHandle, 2, GLES20.GL_FLOAT, false, VERTEX_STRIDE, 2 * FLOAT_SIZE);
+        GLES20.glVertexAttribPointer(alphaHandle, 1, GLES20.GL_FLOAT, false, VERTEX_STRIDE, 4 * FLOAT_SIZE);
+        GLES20Canvas.checkError();
+
+        state.setVertexAttribArrays(GLState.attribBit(positionHandle) | GLState.attribBit(texCoordHandle)
+                | GLState.attribBit(alphaHandle));
+
+        state.bindBuffer(GLES20.GL_ELEMENT_ARRAY_BUFFER, mIndexBufferId);
+        GLES20.glDrawElements(GLES20.GL_TRIANGLES, mQuadCount * INDICES_PER_QUAD,
+                GLES20.GL_UNSIGNED_SHORT, 0);
+        GLES20Canvas.checkError();
+
+        mQuadCount = 0;
+        mTexture = null;
+    }
+}
@@ -0,0 +1,193 @@
+/*
+ *
+ *  *
+ *  *  * Copyright (C) 2016 ChillingVan
+ *  *  *
+ *  *  * Licensed under the Apache License, Version 2.0 (the "License");
+ *  *  * you may not use this file except in compliance with the License.
+ *  *  * You may obtain a copy of the License at
+ *  *  *
+ *  *  * http://www.apache.org/licenses/LICENSE-2.0
+ *  *  *
+ *  *  * Unless required by applicable law or agreed to in writing, software
+ *  *  * distributed under the License is distributed on an "AS IS" BASIS,
+ *  *  * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  *  * See the License for the specific language governing permissions and
+ *  *  * limitations under the License.
+ *  *
+ *
+ */
+package com.chillingvan.canvasgl.glcanvas;
+
+import android.annotation.TargetApi;
+import android.graphics.RectF;
+import android.opengl.GLES20;
+import android.opengl.GLES30;
+import android.os.Build;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+
+// SpriteInstancer draws many copies of one texture with a single instanced
+// draw call. The unit quad comes from the canvas box buffer, and the
+// instance array of GLCanvas.drawTextureInstances is uploaded as it is, one
+// record per instance, so nothing is expanded on the CPU.
+//
+// Instancing needs OpenGL ES 3, see isSupported().
+@TargetApi(Build.VERSION_CODES.JELLY_BEAN_MR2)
+class SpriteInstancer {
+    private static final int FLOAT_SIZE = Float.SIZE / Byte.SIZE;
+    private static final int INSTANCE_STRIDE = GLCanvas.INSTANCE_STRIDE * FLOAT_SIZE;
+    private static final int QUAD_VERTEX_COUNT = 4;
+
+    private static final String INSTANCE_ATTRIBUTE = "aInstance";
+    private static final String SIZE_UNIFORM = "uSize";
+    private static final String TEXTURE_RECT_UNIFORM = "uTextureRect";
+    private static final String ALPHA_UNIFORM = "uAlpha";
+
+    // aInstance is x, y, rotation, scale. The fragment shader is the batch one.
+    static final String INSTANCE_VERTEX_SHADER = ""
+            + "uniform mat4 " + GLES20Canvas.MATRIX_UNIFORM + ";\n"
+            + "uniform vec2 " + SIZE_UNIFORM + ";\n"
+            + "uniform vec4 " + TEXTURE_RECT_UNIFORM + ";\n"
+            + "uniform float " + ALPHA_UNIFORM + ";\n"
+            + "attribute vec2 " + GLES20Canvas.POSITION_ATTRIBUTE + ";\n"
+            + "attribute vec4 " + INSTANCE_ATTRIBUTE + ";\n"
+            + "attribute float " + SpriteBatch.ALPHA_ATTRIBUTE + ";\n"
+            + "varying vec2 vTextureCoord;\n"
+            + "varying float vAlpha;\n"
+            + "void main() {\n"
+            + "  vec2 corner = (" + GLES20Canvas.POSITION_ATTRIBUTE + " - 0.5) * " + SIZE_UNIFORM
+            + " * " + INSTANCE_ATTRIBUTE + ".w;\n"
+            + "  float angle = radians(" + INSTANCE_ATTRIBUTE + ".z);\n"
+            + "  float c = cos(angle);\n"
+            + "  float s = sin(angle);\n"
+            + "  vec2 pos = vec2(corner.x * c - corner.y * s, corner.x * s + corner.y * c) + "
+            + INSTANCE_ATTRIBUTE + ".xy;\n"
+            + "  gl_Position = " + GLES20Canvas.MATRIX_UNIFORM + " * vec4(pos, 0.0, 1.0);\n"
+            + "  vTextureCoord = mix(" + TEXTURE_RECT_UNIFORM + ".xy, " + TEXTURE_RECT_UNIFORM + ".zw, "
+            + GLES20Canvas.POSITION_ATTRIBUTE + ");\n"
+            + "  vAlpha = " + SpriteBatch.ALPHA_ATTRIBUTE + " * " + ALPHA_UNIFORM + ";\n"
+            + "}\n";
+
+    // Handle indices
+    private static final int INDEX_POSITION = 0;
+    private static final int INDEX_MATRIX = 1;
+    private static final int INDEX_INSTANCE = 2;
+    private static final int INDEX_ALPHA = 3;
+    private static final int INDEX_TEXTURE_SAMPLER = 4;
+    private static final int INDEX_SIZE = 5;
+    private static final int INDEX_TEXTURE_RECT = 6;
+    private static final int INDEX_ALPHA_UNIFORM = 7;
+
+    private static final int UNKNOWN = -1;
+    private static int sSupported = UNKNOWN;
+
+    private final GLES20Canvas.ShaderParameter[] mParameters = {
+            new GLES20Canvas.AttributeShaderParameter(GLES20Canvas.POSITION_ATTRIBUTE), // INDEX_POSITION
+            new GLES20Canvas.UniformShaderParameter(GLES20Canvas.MATRIX_UNIFORM), // INDEX_MATRIX
+            new GLES20Canvas.AttributeShaderParameter(INSTANCE_ATTRIBUTE), // INDEX_INSTANCE
+            new GLES20Canvas.AttributeShaderParameter(SpriteBatch.ALPHA_ATTRIBUTE), // INDEX_ALPHA
+            new GLES20Canvas.UniformShaderParameter(GLES20Canvas.TEXTURE_SAMPLER_UNIFORM), // INDEX_TEXTURE_SAMPLER
+            new GLES20Canvas.UniformShaderParameter(SIZE_UNIFORM), // INDEX_SIZE
+            new GLES20Canvas.UniformShaderParameter(TEXTURE_RECT_UNIFORM), // INDEX_TEXTURE_RECT
+            new GLES20Canvas.UniformShaderParameter(ALPHA_UNIFORM), // INDEX_ALPHA_UNIFORM
+    };
+
+    private final int[] mTempIntArray = new int[1];
+    private final float[] mTempValues = new float[4];
+    private FloatBuffer mInstanceBuffer;
+
+    private GLProgram mProgram;
+    private int mInstanceBufferId;
+
+    // Returns true if the current context can draw instanced. Must be called
+    // on the GL thread.
+    static boolean isSupported() {
+        if (sSupported == UNKNOWN) {
+            sSupported = GLES20Canvas.isGLES30() ? 1 : 0;
+        }
+        return sSupported == 1;
+    }
+
+    // Creates the program and the instance buffer. Must be called on the GL thread.
+    void prepare(GLId glId, ProgramCache programCache) {
+        if (mProgram != null) {
+            return;
+        }
+        mProgram = programCache.getPinned(INSTANCE_VERTEX_SHADER, SpriteBatch.BATCH_FRAGMENT_SHADER);
+        GLES20Canvas.loadHandles(mParameters, mProgram);
+        glId.glGenBuffers(1, mTempIntArray, 0);
+        mInstanceBufferId = mTempIntArray[0];
+    }
+
+    boolean isPrepared() {
+        return mProgram != null;
+    }
+
+    // Draws count instances of the texture. mvpMatrix is the projection times
+    // the canvas matrix, boxBuffer holds the unit quad as a triangle strip.
+    void draw(GLState state, float[] mvpMatrix, int mvpOffset, int boxBuffer, int viewportWidth, int viewportHeight,
+              BasicTexture texture, RectF source, float width, float height, float alpha,
+              float[] instances, int offset, int count) {
+        state.useProgram(mProgram.getId());
+        state.setBlendEnabled(true);
+        state.activeTexture(GLES20.GL_TEXTURE0);
+        state.bindTexture(texture.getTarget(), texture.getId());
+        state.viewport(0, 0, viewportWidth, viewportHeight);
+        GLProgram program = mProgram;
+        program.setInt(mParameters[INDEX_TEXTURE_SAMPLER].handle, 0);
+        program.setMatrix4(mParameters[INDEX_MATRIX].handle, mvpMatrix, mvpOffset);
+        float[] values = mTempValues;
+        boolean flipped = texture.isFlippedVertically();
+        values[0] = source.left;
+        values[1] = flipped ? source.bottom : source.top;
+        values[2] = source.right;
+        values[3] = flipped ? source.top : source.bottom;
+        program.setFloat4(mParameters[INDEX_TEXTURE_RECT].handle, values, 0);
+        program.setFloat(mParameters[INDEX_ALPHA_UNIFORM].handle, alpha);
+        program.setFloat2(mParameters[INDEX_SIZE].handle, width, height);
+
+        uploadInstances(state, instances, offset, count);
+        int instanceHandle = mParameters[INDEX_INSTANCE].handle;
+        int alphaHandle = mParameters[INDEX_ALPHA].handle;
+        GLES20.glVertexAttribPointer(instanceHandle, 4, GLES20.GL_FLOAT, false, INSTANCE_STRIDE,
+                GLCanvas.INSTANCE_X * FLOAT_SIZE);
+        GLES20.glVertexAttribPointer(alphaHandle, 1, GLES20.GL_FLOAT, false, INSTANCE_STRIDE,
+                GLCanvas.INSTANCE_ALPHA * FLOAT_SIZE);
+        GLES30.glVertexAttribDivisor(instanceHandle, 1);
+        GLES30.glVertexAttribDivisor(alphaHandle, 1);
+        GLES20Canvas.checkError();
+
+        int positionHandle = mParameters[INDEX_POSITION].handle;
+        state.bindBuffer(GLES20.GL_ARRAY_BUFFER, boxBuffer);
+        GLES20.glVertexAttribPointer(positionHandle, 2, GLES20.GL_FLOAT, false, 2 * FLOAT_SIZE, 0);
+        GLES20Canvas.checkError();
+
+        state.setVertexAttribArrays(GLState.attribBit(positionHandle) | GLState.attribBit(instanceHandle)
+                | GLState.attribBit(alphaHandle));
+        GLES30.glDrawArraysInstanced(GLES20.GL_TRIANGLE_STRIP, 0, QUAD_VERTEX_COUNT, count);
+        GLES20Canvas.checkError();
+
+        // Divisors belong to the attribute index, the other programs expect 0.
+        GLES30.glVertexAttribDivisor(instanceHandle, 0);
+        GLES30.glVertexAttribDivisor(alphaHandle, 0);
+        GLES20Canvas.checkError();
+    }
+
+    private void uploadInstances(GLState state, float[] instances, int offset, int count) {
+        int floatCount = count * GLCanvas.INSTANCE_STRIDE;
+        if (mInstanceBuffer == null || mInstanceBuffer.capacity() < floatCount) {
+            int capacity = mInstanceBuffer == null ? floatCount : Math.max(floatCount, mInstanceBuffer.capacity() * 2);
+            mInstanceBuffer = ByteBuffer.allocateDirect(capacity * FLOAT_SIZE)
+                    .order(ByteOrder.nativeOrder()).asFloatBuffer();
+        }
+        mInstanceBuffer.clear();
+        mInstanceBuffer.put(instances, offset, floatCount).position(0);
+        state.bindBuffer(GLES20.GL_ARRAY_BUFFER, mInstanceBufferId);
+        GLES20.glBufferData(GLES20.GL_ARRAY_BUFFER, floatCount * FLOAT_SIZE, mInstanceBuffer,
+                GLES20.GL_STREAM_DRAW);
+        GLES20Canvas.checkError();
+    }
+}
@@ -0,0 +1,203 @@
+/*
+ *
+ *  *
+ *  *  * Copyright (C) 2016 ChillingVan
+ *  *  *
+ *  *  * Licensed under the Apache License, Version 2.0 (the "License");
+ *  *  * you may not use this file except in compliance with the License.
+ *  *  * You may obtain a copy of the License at
+ *  *  *
+ *  *  * http://www.apache.org/licenses/LICENSE-2.0
+ *  *  *
+ *  *  * Unless required by applicable law or agreed to in writing, software
+ *  *  * distributed under the License is distributed on an "AS IS" BASIS,
+ *  *  * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  *  * See the License for the specific language governing permissions and
+ *  *  * limitations under the License.
+ *  *
+ *
+ */
+package com.chillingvan.canvasgl.glcanvas;
+
+import android.opengl.GLES20;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+
+// TextBatch collects the glyph quads of drawText and draws them with one
+// glDrawElements call per atlas page.
+//
+// The atlas holds the coverage of the glyphs, white on transparent, so the
+// vertices carry the premultiplied color of the text and strings of any
+// color share the draw call.
+class TextBatch {
+    private static final int FLOAT_SIZE = Float.SIZE / Byte.SIZE;
+
+    // x, y, u, v, r, g, b, a
+    static final int FLOATS_PER_VERTEX = 8;
+    private static final int VERTEX_STRIDE = FLOATS_PER_VERTEX * FLOAT_SIZE;
+    static final int FLOATS_PER_QUAD = FLOATS_PER_VERTEX * SpriteBatch.VERTICES_PER_QUAD;
+
+    static final int MAX_QUADS = 2048;
+
+    private static final String COLOR_ATTRIBUTE = "aColor";
+
+    static final String TEXT_VERTEX_SHADER = ""
+            + "uniform mat4 " + GLES20Canvas.MATRIX_UNIFORM + ";\n"
+            + "attribute vec2 " + GLES20Canvas.POSITION_ATTRIBUTE + ";\n"
+            + "attribute vec2 " + GLES20Canvas.TEXTURE_COORD_ATTRIBUTE + ";\n"
+            + "attribute vec4 " + COLOR_ATTRIBUTE + ";\n"
+            + "varying vec2 vTextureCoord;\n"
+            + "varying vec4 vColor;\n"
+            + "void main() {\n"
+            + "  gl_Position = " + GLES20Canvas.MATRIX_UNIFORM + " * vec4(" + GLES20Canvas.POSITION_ATTRIBUTE + ", 0.0, 1.0);\n"
+            + "  vTextureCoord = " + GLES20Canvas.TEXTURE_COORD_ATTRIBUTE + ";\n"
+            + "  vColor = " + COLOR_ATTRIBUTE + ";\n"
+            + "}\n";
+
+    static final String TEXT_FRAGMENT_SHADER = ""
+            + "precision mediump float;\n"
+            + "varying vec2 vTextureCoord;\n"
+            + "varying vec4 vColor;\n"
+            + "uniform sampler2D " + GLES20Canvas.TEXTURE_SAMPLER_UNIFORM + ";\n"
+            + "void main() {\n"
+            + "  gl_FragColor = vColor * texture2D(" + GLES20Canvas.TEXTURE_SAMPLER_UNIFORM + ", vTextureCoord).a;\n"
+            + "}\n";
+
+    // Handle indices
+    private static final int INDEX_POSITION = 0;
+    private static final int INDEX_MATRIX = 1;
+    private static final int INDEX_TEXTURE_COORD = 2;
+    private static final int INDEX_TEXTURE_SAMPLER = 3;
+    private static final int INDEX_COLOR = 4;
+
+    private final GLES20Canvas.ShaderParameter[] mParameters = {
+            new GLES20Canvas.AttributeShaderParameter(GLES20Canvas.POSITION_ATTRIBUTE), // INDEX_POSITION
+            new GLES20Canvas.UniformShaderParameter(GLES20Canvas.MATRIX_UNIFORM), // INDEX_MATRIX
+            new GLES20Canvas.AttributeShaderParameter(GLES20Canvas.TEXTURE_COORD_ATTRIBUTE), // INDEX_TEXTURE_COORD
+            new GLES20Canvas.UniformShaderParameter(GLES20Canvas.TEXTURE_SAMPLER_UNIFORM), // INDEX_TEXTURE_SAMPLER
+            new GLES20Canvas.AttributeShaderParameter(COLOR_ATTRIBUTE), // INDEX_COLOR
+    };
+
+    private final float[] mVertices = new float[MAX_QUADS * FLOATS_PER_QUAD];
+    private final FloatBuffer mVertexBuffer;
+    private final int[] mTempIntArray = new int[1];
+
+    private GLProgram mProgram;
+    private int mVertexBufferId;
+    private int mIndexBufferId;
+
+    private int mQuadCount;
+    private BasicTexture mTexture;
+
+    TextBatch() {
+        mVertexBuffer = ByteBuffer.allocateDirect(mVertices.length * FLOAT_SIZE)
+                .order(ByteOrder.nativeOrder()).asFloatBuffer();
+    }
+
+    // Creates the program and buffers. Must be called on the GL thread.
+    void prepare(GLId glId, GLState state, ProgramCache programCache) {
+        if (mProgram != null) {
+            return;
+        }
+        mProgram = programCache.getPinned(TEXT_VERTEX_SHADER, TEXT_FRAGMENT_SHADER);
+        GLES20Canvas.loadHandles(mParameters, mProgram);
+        glId.glGenBuffers(1, mTempIntArray, 0);
+        mVertexBufferId = mTempIntArray[0];
+        mIndexBufferId = SpriteBatch.uploadQuadIndices(glId, state, MAX_QUADS, mTempIntArray);
+    }
+
+    boolean isPrepared() {
+        return mProgram != null;
+    }
+
+    boolean isEmpty() {
+        return mQuadCount == 0;
+    }
+
+    // Returns true if a glyph of the page can be appended without a flush.
+    boolean canAppend(BasicTexture page) {
+        return mQuadCount == 0 || (mQuadCount < MAX_QUADS && mTexture == page);
+    }
+
+    // Appends the glyph quad (x0, y0) - (x1, y1), transformed by the 2D part
+    // of the 4x4 matrix at matrix[offset]. canAppend() must have returned true.
+    void add(BasicTexture page, float[] matrix, int offset, float x0, float y0, float x1, float y1,
+             float u0, float v0, float u1, float v1, float[] color) {
+        mTexture = page;
+        putQuad(mVertices, mQuadCount * FLOATS_PER_QUAD, matrix, offset, x0, y0, x1, y1, u0, v0, u1, v1,
+                color);
+        mQuadCount++;
+    }
+
+    // Writes the 4 vertices of the quad in the corner order of SpriteBatch.
+    static void putQuad(float[] v, int i, float[] matrix, int offset, float x0, float y0, float x1, float y1,
+                        float u0, float v0, float u1, float v1, float[] color) {
+        float m0 = matrix[offset];
+        float m1 = matrix[offset + 1];
+        float m4 = matrix[offset + 4];
+        float m5 = matrix[offset + 5];
+        float m12 = matrix[offset + 12];
+        float m13 = matrix[offset + 13];
+
+        i = putVertex(v, i, m0 * x0 + m4 * y0 + m12, m1 * x0 + m5 * y0 + m13, u0, v0, color);
+        i = putVertex(v, i, m0 * x1 + m4 * y0 + m12, m1 * x1 + m5 * y0 + m13, u1, v0, color);
+        i = putVertex(v, i, m0 * x0 + m4 * y1 + m12, m1 * x0 + m5 * y1 + m13, u0, v1, color);
+        putVertex(v, i, m0 * x1 + m4 * y1 + m12, m1 * x1 + m5 * y1 + m13, u1, v1, color);
+    }
+
+    private static int putVertex(float[] v, int i, float x, float y, float u, float t, float[] color) {
+        v[i] = x;
+        v[i + 1] = y;
+        v[i + 2] = u;
+        v[i + 3] = t;
+        v[i + 4] = color[0];
+        v[i + 5] = color[1];
+        v[i + 6] = color[2];
+        v[i + 7] = color[3];
+        return i + FLOATS_PER_VERTEX;
+    }
+
+    // Draws all pending glyphs with the 4x4 matrix at matrix[offset].
+    void flush(GLState state, float[] matrix, int offset, int viewportWidth, int viewportHeight) {
+        if (mQuadCount == 0) {
+            return;
+        }
+        state.useProgram(mProgram.getId());
+        state.setBlendEnabled(true);
+        state.activeTexture(GLES20.GL_TEXTURE0);
+        state.bindTexture(mTexture.getTarget(), mTexture.getId());
+        mProgram.setInt(mParameters[INDEX_TEXTURE_SAMPLER].handle, 0);
+        state.viewport(0, 0, viewportWidth, viewportHeight);
+        mProgram.setMatrix4(mParameters[INDEX_MATRIX].handle, matrix, offset);
+        GLES20Canvas.checkError();
+
+        int floatCount = mQuadCount * FLOATS_PER_QUAD;
+        mVertexBuffer.clear();
+        mVertexBuffer.put(mVertices, 0, floatCount).position(0);
+        state.bindBuffer(GLES20.GL_ARRAY_BUFFER, mVertexBufferId);
+        GLES20.glBufferData(GLES20.GL_ARRAY_BUFFER, floatCount * FLOAT_SIZE, mVertexBuffer,
+                GLES20.GL_STREAM_DRAW);
+        GLES20Canvas.checkError();
+
+        int positionHandle = mParameters[INDEX_POSITION].handle;
+        int texCoordHandle = mParameters[INDEX_TEXTURE_COORD].handle;
+        int colorHandle = mParameters[INDEX_COLOR].handle;
+        GLES20.glVertexAttribPointer(positionHandle, 2, GLES20.GL_FLOAT, false, VERTEX_STRIDE, 0);
+        GLES20.glVertexAttribPointer(texCoordHandle, 2, GLES20.GL_FLOAT, false, VERTEX_STRIDE, 2 * FLOAT_SIZE);
+        GLES20.glVertexAttribPointer(colorHandle, 4, GLES20.GL_FLOAT, false, VERTEX_STRIDE, 4 * FLOAT_SIZE);
+        GLES20Canvas.checkError();
+
+        state.setVertexAttribArrays(GLState.attribBit(positionHandle) | GLState.attribBit(texCoordHandle)
+                | GLState.attribBit(colorHandle));
+
+        state.bindBuffer(GLES20.GL_ELEMENT_ARRAY_BUFFER, mIndexBufferId);
+        GLES20.glDrawElements(GLES20.GL_TRIANGLES, mQuadCount * SpriteBatch.INDICES_PER_QUAD,
+                GLES20.GL_UNSIGNED_SHORT, 0);
+        GLES20Canvas.checkError();
+
+        mQuadCount = 0;
+        mTexture = null;
+    }
+}
@@ -0,0 +1,278 @@
+/*
+ *
+ *  *
+ *  *  * Copyright (C) 2016 ChillingVan
+ *  *  *
+ *  *  * Licensed under the Apache License, Version 2.0 (the "License");
+ *  *  * you may not use this file except in compliance with the License.
+ *  *  * You may obtain a copy of the License at
+ *  *  *
+ *  *  * http://www.apache.org/licenses/LICENSE-2.0
+ *  *  *
+ *  *  * Unless required by applicable law or agreed to in writing, software
+ *  *  * distributed under the License is distributed on an "AS IS" BASIS,
+ *  *  * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  *  * See the License for the specific language governing permissions and
+ *  *  * limitations under the License.
+ *  *
+ *
+ */
+package com.chillingvan.canvasgl.glcanvas;
+
+import android.graphics.Bitmap;
+import android.opengl.GLES20;
+
+import java.lang.ref.WeakReference;
+
+// TextureCache accounts the GL memory of the textures one canvas allocated
+// and keeps them in the order they were last drawn. When the memory is over
+// the budget, the least recently drawn textures which can be uploaded again,
+// the UploadedTextures, are yielded; they are uploaded again from their
+// bitmaps when they are next drawn. Other textures are counted but kept.
+//
+// The cache holds textures weakly, so a texture nobody uses is still
+// recycled by its finalizer, which takes it out of the cache. Textures may be
+// recycled on any thread, so the cache is synchronized.
+public class TextureCache {
+    public static final long UNLIMITED = Long.MAX_VALUE;
+
+    public static final int TYPE_UPLOADED = 0;
+    public static final int TYPE_RAW = 1;
+    public static final int TYPE_OTHER = 2;
+    private static final int TYPE_COUNT = 3;
+
+    // An entry of the list of textures, least recently drawn first.
+    static final class Entry extends WeakReference<BasicTexture> {
+        final TextureCache mCache;
+        final int mType;
+        long mBytes;
+        Entry mPrevious;
+        Entry mNext;
+
+        Entry(BasicTexture texture, TextureCache cache) {
+            super(texture);
+            mCache = cache;
+            mType = getType(texture);
+        }
+    }
+
+    private final GLES20Canvas mCanvas;
+    private Entry mHead;
+    private Entry mTail;
+
+    private long mBudget = UNLIMITED;
+    private long mBytes;
+    private final long[] mBytesByType = new long[TYPE_COUNT];
+    private final int[] mCountByType = new int[TYPE_COUNT];
+    private int mEvictionCount;
+    private int mReuploadCount;
+
+    TextureCache(GLES20Canvas canvas) {
+        mCanvas = canvas;
+    }
+
+    // The most bytes of texture memory to keep before yielding textures,
+    // UNLIMITED by default. Must be called on the GL thread.
+    public void setBudget(long bytes) {
+        if (bytes < 0) {
+            throw new IllegalArgumentException("The budget must not be negative: " + bytes);
+        }
+        synchronized (this) {
+            mBudget = bytes;
+        }
+        evict(null);
+    }
+
+    public synchronized long getBudget() {
+        return mBudget;
+    }
+
+    public synchronized long getBytes() {
+        return mBytes;
+    }
+
+    // The bytes held by textures of the type, one of the TYPE_ constants.
+    public synchronized long getBytes(int type) {
+        return mBytesByType[type];
+    }
+
+    public synchronized int getTextureCount(int type) {
+        return mCountByType[type];
+    }
+
+    // The textures yielded to stay in the budget since the canvas was created.
+    public synchronized int getEvictionCount() {
+        return mEvictionCount;
+    }
+
+    // How many of the yielded textures were uploaded again.
+    public synchronized int getReuploadCount() {
+        return mReuploadCount;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format("TEXTURE_BYTES:%d/%d, UPLOADED:%d(%d), RAW:%d(%d), OTHER:%d(%d), EVICTED:%d, REUPLOADED:%d",
+                mBytes, mBudget, mBytesByType[TYPE_UPLOADED], mCountByType[TYPE_UPLOADED],
+                mBytesByType[TYPE_RAW], mCountByType[TYPE_RAW], mBytesByType[TYPE_OTHER], mCountByType[TYPE_OTHER],
+                mEvictionCount, mReuploadCount);
+    }
+
+    // Called when the storage of the texture is allocated at its texture size.
+    void onAllocated(BasicTexture texture, int bytesPerTexel) {
+        long bytes = (long) texture.getTextureWidth() * texture.getTextureHeight() * bytesPerTexel;
+        synchronized (this) {
+            Entry entry = texture.mCacheEntry;
+            if (entry != null && entry.mCache != this) {
+                entry.mCache.remove(texture);
+                entry = null;
+            }
+            if (entry == null) {
+                entry = new Entry(texture, this);
+                texture.mCacheEntry = entry;
+                mCountByType[entry.mType]++;
+                if (texture.mEvicted) {
+                    texture.mEvicted = false;
+                    mReuploadCount++;
+                }
+            } else {
+                unlink(entry);
+                subtract(entry);
+            }
+            entry.mBytes = bytes;
+            mBytes += bytes;
+            mBytesByType[entry.mType] += bytes;
+            link(entry);
+        }
+        evict(texture);
+    }
+
+    // Marks the texture as drawn now.
+    void touch(BasicTexture texture) {
+        Entry entry = texture.mCacheEntry;
+        if (entry == null || entry == mTail || entry.mCache != this) {
+            return;
+        }
+        synchronized (this) {
+            if (texture.mCacheEntry == entry) {
+                unlink(entry);
+                link(entry);
+            }
+        }
+    }
+
+    // Called when the texture is unloaded, on any thread.
+    synchronized void remove(BasicTexture texture) {
+        Entry entry = texture.mCacheEntry;
+        if (entry == null || entry.mCache != this) {
+            return;
+        }
+        texture.mCacheEntry = null;
+        unlink(entry);
+        subtract(entry);
+        mCountByType[entry.mType]--;
+    }
+
+    // Yields the least recently drawn textures until the memory is within the
+    // budget, except the texture to keep. Must be called on the GL thread.
+    private void evict(BasicTexture keep) {
+        Entry entry;
+        synchronized (this) {
+            if (mBytes <= mBudget) {
+                return;
+            }
+            entry = mHead;
+        }
+        while (entry != null) {
+            Entry next;
+            BasicTexture texture = entry.get();
+            synchronized (this) {
+                if (mBytes <= mBudget) {
+                    return;
+                }
+                next = entry.mNext;
+            }
+            if (texture != null && texture != keep && entry.mType == TYPE_UPLOADED) {
+                // A queued draw would use the texture after it is deleted.
+                mCanvas.flushIfBatched(texture);
+                texture.yield();
+                if (!texture.isLoaded()) {
+                    texture.mEvicted = true;
+                    synchronized (this) {
+                        mEvictionCount++;
+                    }
+                }
+            }
+            entry = next;
+        }
+    }
+
+    private void link(Entry entry) {
+        entry.mPrevious = mTail;
+        entry.mNext = null;
+        if (mTail != null) {
+            mTail.mNext = entry;
+        } else {
+            mHead = entry;
+        }
+        mTail = entry;
+    }
+
+    private void unlink(Entry entry) {
+        if (entry.mPrevious != null) {
+            entry.mPrevious.mNext = entry.mNext;
+        } else {
+            mHead = entry.mNext;
+        }
+        if (entry.mNext != null) {
+            entry.mNext.mPrevious = entry.mPrevious;
+        } else {
+            mTail = entry.mPrevious;
+        }
+        entry.mPrevious = null;
+        entry.mNext = null;
+    }
+
+    private void subtract(Entry entry) {
+        mBytes -= entry.mBytes;
+        mBytesByType[entry.mType] -= entry.mBytes;
+    }
+
+    private static int getType(BasicTexture texture) {
+        if (texture instanceof UploadedTexture) {
+            return TYPE_UPLOADED;
+        }
+        if (texture instanceof RawTexture) {
+            return TYPE_RAW;
+        }
+        return TYPE_OTHER;
+    }
+
+    static int getBytesPerTexel(int format, int type) {
+        if (type == GLES20.GL_UNSIGNED_SHORT_5_6_5 || type == GLES20.GL_UNSIGNED_SHORT_4_4_4_4
+                || type == GLES20.GL_UNSIGNED_SHORT_5_5_5_1) {
+            return 2;
+        }
+        if (format == GLES20.GL_ALPHA || format == GLES20.GL_LUMINANCE) {
+            return 1;
+        }
+        if (format == GLES20.GL_LUMINANCE_ALPHA) {
+            return 2;
+        }
+        if (format == GLES20.GL_RGB) {
+            return 3;
+        }
+        return 4;
+    }
+
+    static int getBytesPerTexel(Bitmap bitmap) {
+        Bitmap.Config config = bitmap.getConfig();
+        if (config == Bitmap.Config.ALPHA_8) {
+            return 1;
+        }
+        if (config == Bitmap.Config.RGB_565 || config == Bitmap.Config.ARGB_4444) {
+            return 2;
+        }
+        return 4;
+    }
+}
@@ -0,0 +1,162 @@
+/*
+ *
+ *  *
+ *  *  * Copyright (C) 2016 ChillingVan
+ *  *  *
+ *  *  * Licensed under the Apache License, Version 2.0 (the "License");
+ *  *  * you may not use this file except in compliance with the License.
+ *  *  * You may obtain a copy of the License at
+ *  *  *
+ *  *  * http://www.apache.org/licenses/LICENSE-2.0
+ *  *  *
+ *  *  * Unless required by applicable law or agreed to in writing, software
+ *  *  * distributed under the License is distributed on an "AS IS" BASIS,
+ *  *  * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  *  * See the License for the specific language governing permissions and
+ *  *  * limitations under the License.
+ *  *
+ *
+ */
+package com.chillingvan.canvasgl.glcanvas;
+
+// TextureDirtyRects collects the changed rectangles of a texture until it is
+// uploaded again. A rectangle is merged with another when their bounds are
+// no larger than the two together, so overlapping and touching strokes
+// become one rectangle. Past MAX_RECTS the two whose bounds grow the least
+// are merged, which keeps an upload to a few sub images.
+//
+// Rectangles are left, top, right, bottom with right and bottom exclusive.
+// It uses no GL, so it is tested on the JVM.
+final class TextureDirtyRects {
+    static final int MAX_RECTS = 8;
+
+    // left, top, right, bottom of each rectangle, with room for one more
+    // before the merge.
+    private final int[] mRects = new int[(MAX_RECTS + 1) * 4];
+    private int mCount;
+
+    void add(int left, int top, int right, int bottom) {
+        if (left >= right || top >= bottom) {
+            return;
+        }
+        for (int i = 0; i < mCount; i++) {
+            if (contains(i, left, top, right, bottom)) {
+                return;
+            }
+        }
+        int index = mCount++;
+        set(index, left, top, right, bottom);
+        // A merged rectangle may now cover others, so merge until none fit.
+        boolean merged = true;
+        while (merged) {
+            merged = false;
+            for (int i = 0; i < mCount; i++) {
+                if (i != index && getUnionArea(i, index) <= getArea(i) + getArea(index)) {
+                    index = merge(i, index);
+                    merged = true;
+                    break;
+                }
+            }
+        }
+        if (mCount > MAX_RECTS) {
+            mergeCheapestPair();
+        }
+    }
+
+    void clear() {
+        mCount = 0;
+    }
+
+    boolean isEmpty() {
+        return mCount == 0;
+    }
+
+    int getCount() {
+        return mCount;
+    }
+
+    int getLeft(int i) {
+        return mRects[i * 4];
+    }
+
+    int getTop(int i) {
+        return mRects[i * 4 + 1];
+    }
+
+    int getRight(int i) {
+        return mRects[i * 4 + 2];
+    }
+
+    int getBottom(int i) {
+        return mRects[i * 4 + 3];
+    }
+
+    // The area of all rectangles. They may overlap a little, so it can be
+    // more than the area they cover.
+    long getArea() {
+        long area = 0;
+        for (int i = 0; i < mCount; i++) {
+            area += getArea(i);
+        }
+        return area;
+    }
+
+    // Whether uploading the rectangles of a width x height image is worth it.
+    // They are copied in Java, which costs more per pixel than GLUtils, so
+    // past half of the image all of it is uploaded instead.
+    boolean isPartialUpload(int width, int height) {
+        return mCount > 0 && getArea() * 2 < (long) width * height;
+    }
+
+    private void mergeCheapestPair() {
+        int first = 0;
+        int second = 1;
+        long leastGrowth = Long.MAX_VALUE;
+        for (int i = 0; i < mCount; i++) {
+            for (int j = i + 1; j < mCount; j++) {
+                long growth = getUnionArea(i, j) - getArea(i) - getArea(j);
+                if (growth < leastGrowth) {
+                    leastGrowth = growth;
+                    first = i;
+                    second = j;
+                }
+            }
+        }
+        merge(first, second);
+    }
+
+    // Puts the bounds of both into the lower index, removes the other and
+    // returns where the merged rectangle is.
+    private int merge(int i, int j) {
+        int keep = Math.min(i, j);
+        int drop = Math.max(i, j);
+        set(keep, Math.min(getLeft(i), getLeft(j)), Math.min(getTop(i), getTop(j)),
+                Math.max(getRight(i), getRight(j)), Math.max(getBottom(i), getBottom(j)));
+        mCount--;
+        if (drop != mCount) {
+            System.arraycopy(mRects, mCount * 4, mRects, drop * 4, 4);
+        }
+        return keep;
+    }
+
+    private boolean contains(int i, int left, int top, int right, int bottom) {
+        return getLeft(i) <= left && getTop(i) <= top && getRight(i) >= right && getBottom(i) >= bottom;
+    }
+
+    private long getArea(int i) {
+        return (long) (getRight(i) - getLeft(i)) * (getBottom(i) - getTop(i));
+    }
+
+    private long getUnionArea(int i, int j) {
+        long width = Math.max(getRight(i), getRight(j)) - Math.min(getLeft(i), getLeft(j));
+        long height = Math.max(getBottom(i), getBottom(j)) - Math.min(getTop(i), getTop(j));
+        return width * height;
+    }
+
+    private void set(int i, int left, int top, int right, int bottom) {
+        mRects[i * 4] = left;
+        mRects[i * 4 + 1] = top;
+        mRects[i * 4 + 2] = right;
+        mRects[i * 4 + 3] = bottom;
+    }
+}
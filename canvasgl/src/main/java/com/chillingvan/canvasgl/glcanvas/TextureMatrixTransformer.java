@@ -42,6 +42,8 @@ public class TextureMatrixTransformer {
         source.bottom /= texHeight;
 
         // Clip if the rendering range is beyond the bound of the secondBitmap.
+        // An exactly sized secondBitmap has its bound at 1, only a source beyond
+        // the content is clipped then.
         float xBound = (float) width / texWidth;
         if (source.right > xBound) {
             source.right = xBound;
@@ -0,0 +1,211 @@
+/*
+ *
+ *  *
+ *  *  * Copyright (C) 2016 ChillingVan
+ *  *  *
+ *  *  * Licensed under the Apache License, Version 2.0 (the "License");
+ *  *  * you may not use this file except in compliance with the License.
+ *  *  * You may obtain a copy of the License at
+ *  *  *
+ *  *  * http://www.apache.org/licenses/LICENSE-2.0
+ *  *  *
+ *  *  * Unless required by applicable law or agreed to in writing, software
+ *  *  * distributed under the License is distributed on an "AS IS" BASIS,
+ *  *  * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  *  * See the License for the specific language governing permissions and
+ *  *  * limitations under the License.
+ *  *
+ *
+ */
+package com.chillingvan.canvasgl.glcanvas;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+
+// UploadScheduler spreads the first uploads of throttled UploadedTextures
+// over frames. Each frame may spend up to a time and a byte budget on
+// uploads. A throttled texture drawn when the budget is spent is not
+// uploaded, it is queued and not valid for this frame, see
+// UploadedTexture.isContentValid(). endFrame() spends what is left of the
+// budget on the queue, textures drawn in the frame first, and the rest of
+// the queue waits for the next frames.
+//
+// The first upload of a frame always goes ahead, so a texture larger than
+// the budget is still uploaded. Used on the GL thread of the canvas only.
+public class UploadScheduler {
+    public static final long DEFAULT_FRAME_BUDGET_NANOS = 4000000;
+    public static final long UNLIMITED = Long.MAX_VALUE;
+
+    static final class Entry {
+        final UploadedTexture mTexture;
+        final long mQueuedNanos;
+        long mDrawnFrame;
+        volatile boolean mCancelled;
+
+        Entry(UploadedTexture texture, long queuedNanos) {
+            mTexture = texture;
+            mQueuedNanos = queuedNanos;
+        }
+    }
+
+    // Drawn most recently first, then queued longest first.
+    private static final Comparator<Entry> PRIORITY = new Comparator<Entry>() {
+        @Override
+        public int compare(Entry a, Entry b) {
+            if (a.mDrawnFrame != b.mDrawnFrame) {
+                return a.mDrawnFrame > b.mDrawnFrame ? -1 : 1;
+            }
+            return a.mQueuedNanos < b.mQueuedNanos ? -1 : (a.mQueuedNanos == b.mQueuedNanos ? 0 : 1);
+        }
+    };
+
+    private final GLCanvas mCanvas;
+    private final ArrayList<Entry> mQueue = new ArrayList<>();
+    private final ArrayList<Entry> mOrdered = new ArrayList<>();
+
+    private long mBudgetNanos = DEFAULT_FRAME_BUDGET_NANOS;
+    private long mBudgetBytes = UNLIMITED;
+
+    private long mFrame;
+    private long mFrameNanos;
+    private long mFrameBytes;
+    private int mFrameUploads;
+    // The queued texture endFrame() is uploading, it is within the budget.
+    private UploadedTexture mUploading;
+
+    private long mLastFrameNanos;
+    private long mLastFrameBytes;
+    private int mUploadCount;
+    private int mQueuedUploadCount;
+    private long mTotalLatencyNanos;
+    private long mMaxLatencyNanos;
+
+    UploadScheduler(GLCanvas canvas) {
+        mCanvas = canvas;
+    }
+
+    // The most time and bytes the uploads of one frame may take. UNLIMITED
+    // turns a limit off. The default is DEFAULT_FRAME_BUDGET_NANOS and no
+    // byte limit.
+    public void setFrameBudget(long nanos, long bytes) {
+        if (nanos < 0 || bytes < 0) {
+            throw new IllegalArgumentException("The budget must not be negative: " + nanos + ", " + bytes);
+        }
+        mBudgetNanos = nanos;
+        mBudgetBytes = bytes;
+    }
+
+    // The textures waiting for their first upload.
+    public int getQueueDepth() {
+        return mQueue.size();
+    }
+
+    public int getUploadCount() {
+        return mUploadCount;
+    }
+
+    // How many of the uploads had to wait in the queue.
+    public int getQueuedUploadCount() {
+        return mQueuedUploadCount;
+    }
+
+    // The time from the first draw of a queued texture to its upload.
+    public float getAverageLatencyMillis() {
+        return mQueuedUploadCount == 0 ? 0 : mTotalLatencyNanos / (mQueuedUploadCount * 1e6f);
+    }
+
+    public float getMaxLatencyMillis() {
+        return mMaxLatencyNanos / 1e6f;
+    }
+
+    public float getLastFrameUploadMillis() {
+        return mLastFrameNanos / 1e6f;
+    }
+
+    public long getLastFrameUploadBytes() {
+        return mLastFrameBytes;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("UPLOAD_QUEUE:%d, UPLOADS:%d, QUEUED_UPLOADS:%d, LATENCY_AVG:%.1fms, LATENCY_MAX:%.1fms"
+                        + ", LAST_FRAME:%.1fms/%dB",
+                mQueue.size(), mUploadCount, mQueuedUploadCount, getAverageLatencyMillis(), getMaxLatencyMillis(),
+                getLastFrameUploadMillis(), mLastFrameBytes);
+    }
+
+    // Returns true if the texture, which is being drawn, may be uploaded now.
+    // Otherwise queues it.
+    boolean canUpload(UploadedTexture texture, long bytes) {
+        if (texture == mUploading || fitsBudget(bytes)) {
+            return true;
+        }
+        Entry entry = texture.mUploadEntry;
+        if (entry == null || entry.mCancelled) {
+            entry = new Entry(texture, System.nanoTime());
+            texture.mUploadEntry = entry;
+            mQueue.add(entry);
+        }
+        entry.mDrawnFrame = mFrame;
+        return false;
+    }
+
+    // Called after every upload, throttled or not, with the time it took.
+    void onUploaded(UploadedTexture texture, long bytes, long nanos) {
+        mFrameNanos += nanos;
+        mFrameBytes += bytes;
+        mFrameUploads++;
+        mUploadCount++;
+        Entry entry = texture.mUploadEntry;
+        if (entry != null) {
+            texture.mUploadEntry = null;
+            mQueue.remove(entry);
+            long latency = System.nanoTime() - entry.mQueuedNanos;
+            mQueuedUploadCount++;
+            mTotalLatencyNanos += latency;
+            mMaxLatencyNanos = Math.max(mMaxLatencyNanos, latency);
+        }
+    }
+
+    // Uploads queued textures with the rest of the budget and starts the
+    // budget of the next frame.
+    void endFrame() {
+        if (!mQueue.isEmpty()) {
+            mOrdered.addAll(mQueue);
+            Collections.sort(mOrdered, PRIORITY);
+            for (int i = 0; i < mOrdered.size(); i++) {
+                Entry entry = mOrdered.get(i);
+                UploadedTexture texture = entry.mTexture;
+                if (entry.mCancelled || texture.isLoaded()) {
+                    // A recycled texture drawn again has been queued anew.
+                    if (texture.mUploadEntry == entry) {
+                        texture.mUploadEntry = null;
+                    }
+                    mQueue.remove(entry);
+                    continue;
+                }
+                if (!fitsBudget(texture.getUploadBytes(mCanvas))) {
+                    break;
+                }
+                mUploading = texture;
+                try {
+                    texture.updateContent(mCanvas);
+                } finally {
+                    mUploading = null;
+                }
+            }
+            mOrdered.clear();
+        }
+        mLastFrameNanos = mFrameNanos;
+        mLastFrameBytes = mFrameBytes;
+        mFrameNanos = 0;
+        mFrameBytes = 0;
+        mFrameUploads = 0;
+        mFrame++;
+    }
+
+    private boolean fitsBudget(long bytes) {
+        return mFrameUploads == 0 || (mFrameNanos < mBudgetNanos && mFrameBytes + bytes <= mBudgetBytes);
+    }
+}
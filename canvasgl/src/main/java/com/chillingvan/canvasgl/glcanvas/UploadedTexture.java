@@ -22,6 +22,7 @@ package com.chillingvan.canvasgl.glcanvas;
 
 import android.graphics.Bitmap;
 import android.graphics.Bitmap.Config;
+import android.graphics.Rect;
 import android.opengl.GLUtils;
 
 import junit.framework.Assert;
@@ -60,8 +61,11 @@ public abstract class UploadedTexture extends BasicTexture {
     private boolean mIsUploading = false;
     private boolean mOpaque = false;
     private boolean mThrottled = false;
-    private static int sUploadedCount;
-    private static final int UPLOAD_LIMIT = 100;
+    // Set while the first upload waits in the UploadScheduler of a canvas.
+    UploadScheduler.Entry mUploadEntry;
+    // The changed parts of the bitmap. Empty while the content is valid, or
+    // when all of it is uploaded again.
+    private TextureDirtyRects mDirtyRects;
 
     protected Bitmap mBitmap;
     private int mBorder;
@@ -115,11 +119,13 @@ public abstract class UploadedTexture extends BasicTexture {
         }
     }
 
+    // A throttled texture is first uploaded when the UploadScheduler of the
+    // canvas has budget left in the frame, until then it is not valid.
     protected void setThrottled(boolean throttled) {
         mThrottled = throttled;
     }
 
-    private static Bitmap getBorderLine(
+    static Bitmap getBorderLine(
             boolean vertical, Config config, int length) {
         BorderKey key = sBorderKey;
         key.vertical = vertical;
@@ -171,11 +177,37 @@ public abstract class UploadedTexture extends BasicTexture {
 
     public void invalidateContent() {
         if (mBitmap != null) freeBitmap();
+        if (mDirtyRects != null) mDirtyRects.clear();
         mContentValid = false;
         mWidth = UNSPECIFIED;
         mHeight = UNSPECIFIED;
     }
 
+    /**
+     * Marks a rectangle of the bitmap as changed. Only the changed rectangles are uploaded again,
+     * so the bitmap must keep its size; call {@link #invalidateContent()} if it does not.
+     *
+     * @param rect the changed pixels of the bitmap
+     */
+    public void invalidateContent(Rect rect) {
+        if (!isLoaded() || (!mContentValid && (mDirtyRects == null || mDirtyRects.isEmpty()))) {
+            // All of it is uploaded anyway.
+            return;
+        }
+        int left = Math.max(rect.left, 0);
+        int top = Math.max(rect.top, 0);
+        int right = Math.min(rect.right, mWidth - mBorder * 2);
+        int bottom = Math.min(rect.bottom, mHeight - mBorder * 2);
+        if (left >= right || top >= bottom) {
+            return;
+        }
+        if (mDirtyRects == null) {
+            mDirtyRects = new TextureDirtyRects();
+        }
+        mDirtyRects.add(left, top, right, bottom);
+        mContentValid = false;
+    }
+
     /**
      * Whether the content on GPU is valid.
      */
@@ -189,32 +221,70 @@ public abstract class UploadedTexture extends BasicTexture {
      */
     public void updateContent(GLCanvas canvas) {
         if (!isLoaded()) {
-            if (mThrottled && ++sUploadedCount > UPLOAD_LIMIT) {
+            UploadScheduler scheduler = canvas.getUploadScheduler();
+            if (mThrottled && !scheduler.canUpload(this, getUploadBytes(canvas))) {
                 return;
             }
+            long start = System.nanoTime();
             uploadToCanvas(canvas);
+            // The canvas accounted what it allocated, that needs no bitmap.
+            TextureCache.Entry entry = mCacheEntry;
+            scheduler.onUploaded(this, entry != null ? entry.mBytes : 0, System.nanoTime() - start);
         } else if (!mContentValid) {
             Bitmap bitmap = getBitmap();
-            int format = GLUtils.getInternalFormat(bitmap);
-            int type = GLUtils.getType(bitmap);
-            canvas.texSubImage2D(this, mBorder, mBorder, bitmap, format, type);
+            if (isPartialUpload(bitmap)) {
+                TextureDirtyRects rects = mDirtyRects;
+                for (int i = 0; i < rects.getCount(); i++) {
+                    int left = rects.getLeft(i);
+                    int top = rects.getTop(i);
+                    canvas.texSubImage2D(this, mBorder + left, mBorder + top, bitmap, left, top,
+                            rects.getRight(i) - left, rects.getBottom(i) - top);
+                }
+            } else {
+                int format = GLUtils.getInternalFormat(bitmap);
+                int type = GLUtils.getType(bitmap);
+                canvas.texSubImage2D(this, mBorder, mBorder, bitmap, format, type);
+            }
+            if (mDirtyRects != null) mDirtyRects.clear();
             freeBitmap();
             mContentValid = true;
         }
     }
 
+    /**
+     * @deprecated Uploads are budgeted per frame by the {@link UploadScheduler} of the canvas,
+     * which starts a new frame in {@link GLCanvas#endFrame()}.
+     */
+    @Deprecated
     public static void resetUploadLimit() {
-        sUploadedCount = 0;
     }
 
+    /**
+     * @deprecated See {@link UploadScheduler#getQueueDepth()}.
+     */
+    @Deprecated
     public static boolean uploadLimitReached() {
-        return sUploadedCount > UPLOAD_LIMIT;
+        return false;
+    }
+
+    // The canvas copies rectangles of ARGB_8888 bitmaps only.
+    private boolean isPartialUpload(Bitmap bitmap) {
+        return mDirtyRects != null && bitmap.getConfig() == Config.ARGB_8888
+                && mDirtyRects.isPartialUpload(bitmap.getWidth(), bitmap.getHeight());
+    }
+
+    // The bytes the first upload to the canvas allocates.
+    long getUploadBytes(GLCanvas canvas) {
+        Bitmap bitmap = getBitmap();
+        fitTextureSize(canvas.isNpotSupported());
+        return (long) getTextureWidth() * getTextureHeight() * TextureCache.getBytesPerTexel(bitmap);
     }
 
     private void uploadToCanvas(GLCanvas canvas) {
 
         Bitmap bitmap = getBitmap();
         if (bitmap != null) {
+            fitTextureSize(canvas.isNpotSupported());
             try {
                 int bWidth = bitmap.getWidth();
                 int bHeight = bitmap.getHeight();
@@ -268,6 +338,7 @@ public abstract class UploadedTexture extends BasicTexture {
             setAssociatedCanvas(canvas);
             mState = STATE_LOADED;
             mContentValid = true;
+            if (mDirtyRects != null) mDirtyRects.clear();
         } else {
             mState = STATE_ERROR;
             throw new RuntimeException("Texture load fail, no bitmap");
@@ -296,6 +367,10 @@ public abstract class UploadedTexture extends BasicTexture {
 
     @Override
     public void recycle() {
+        UploadScheduler.Entry entry = mUploadEntry;
+        if (entry != null) {
+            entry.mCancelled = true;
+        }
         super.recycle();
         if (mBitmap != null) freeBitmap();
     }
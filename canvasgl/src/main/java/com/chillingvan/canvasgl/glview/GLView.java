@@ -31,6 +31,7 @@ import android.util.AttributeSet;
 import com.chillingvan.canvasgl.CanvasGL;
 import com.chillingvan.canvasgl.ICanvasGL;
 import com.chillingvan.canvasgl.OpenGLUtil;
+import com.chillingvan.canvasgl.glcanvas.GLErrorChecker;
 
 import javax.microedition.khronos.egl.EGLConfig;
 import javax.microedition.khronos.opengles.GL10;
@@ -85,6 +86,9 @@ public abstract class GLView extends GLSurfaceView implements GLSurfaceView.Rend
         this.gl = gl;
         mCanvas.clearBuffer();
         onGLDraw(mCanvas);
+        mCanvas.getGlCanvas().flush();
+        mCanvas.getGlCanvas().endFrame();
+        GLErrorChecker.checkFrame();
     }
 
 
@@ -8,9 +8,11 @@ import android.support.annotation.ColorInt;
 import android.util.AttributeSet;
 
 import com.chillingvan.canvasgl.CanvasGL;
+import com.chillingvan.canvasgl.DirtyRegion;
 import com.chillingvan.canvasgl.ICanvasGL;
 import com.chillingvan.canvasgl.Loggers;
 import com.chillingvan.canvasgl.OpenGLUtil;
+import com.chillingvan.canvasgl.glcanvas.GLErrorChecker;
 import com.chillingvan.canvasgl.glview.GLView;
 
 /**
@@ -22,6 +24,9 @@ abstract class BaseGLCanvasTextureView extends BaseGLTextureView implements GLVi
 
     protected ICanvasGL mCanvas;
     private int backgroundColor = Color.TRANSPARENT;
+    private final DirtyRegion dirtyRegion = new DirtyRegion();
+    private final Rect redrawRect = new Rect();
+    private volatile boolean partialRedrawEnabled;
 
     public BaseGLCanvasTextureView(Context context) {
         super(context);
@@ -41,6 +46,14 @@ abstract class BaseGLCanvasTextureView extends BaseGLTextureView implements GLVi
         setRenderer(this);
     }
 
+    @Override
+    protected void createGLThread() {
+        super.createGLThread();
+        if (mGLThread != null) {
+            mGLThread.setPreserveContent(partialRedrawEnabled);
+        }
+    }
+
     @Override
     public void onSurfaceCreated() {
         Loggers.d("BaseGLCanvasTextureView", "onSurfaceCreated: ");
@@ -51,13 +64,38 @@ abstract class BaseGLCanvasTextureView extends BaseGLTextureView implements GLVi
     public void onSurfaceChanged(int width, int height) {
         Loggers.d("BaseGLCanvasTextureView", "onSurfaceChanged: ");
         mCanvas.setSize(width, height);
-
+        dirtyRegion.setSize(width, height);
     }
 
     @Override
     public void onDrawFrame() {
+        if (partialRedrawEnabled && mGLThread != null && dirtyRegion.nextFrame(mGLThread.getBufferAge(), redrawRect)) {
+            drawPartialFrame(redrawRect);
+        } else {
+            drawFullFrame();
+        }
+    }
+
+    private void drawFullFrame() {
         mCanvas.clearBuffer(backgroundColor);
         onGLDraw(mCanvas);
+        mCanvas.getGlCanvas().flush();
+        mCanvas.getGlCanvas().endFrame();
+        GLErrorChecker.checkFrame();
+    }
+
+    // The rest of the buffer still holds the last frame.
+    private void drawPartialFrame(Rect rect) {
+        if (!rect.isEmpty()) {
+            mCanvas.save();
+            mCanvas.clipRect(rect.left, rect.top, rect.right, rect.bottom);
+            mCanvas.clearBuffer(backgroundColor);
+            onGLDraw(mCanvas);
+            mCanvas.restore();
+        }
+        mCanvas.getGlCanvas().flush();
+        mCanvas.getGlCanvas().endFrame();
+        GLErrorChecker.checkFrame();
     }
 
     protected abstract void onGLDraw(ICanvasGL canvas);
@@ -68,6 +106,32 @@ abstract class BaseGLCanvasTextureView extends BaseGLTextureView implements GLVi
      */
     public void setRenderBackgroundColor(@ColorInt int color) {
         this.backgroundColor = color;
+        dirtyRegion.invalidateAll();
+    }
+
+    /**
+     * With partial redraw, a frame only redraws the areas passed to {@link #requestRender(Rect)}
+     * since the last frame, drawing outside of them is clipped. A frame requested without an area
+     * redraws everything, and so does any frame when the buffer content cannot be kept.
+     */
+    public void setPartialRedrawEnabled(boolean enabled) {
+        partialRedrawEnabled = enabled;
+        dirtyRegion.invalidateAll();
+        if (mGLThread != null) {
+            mGLThread.setPreserveContent(enabled);
+        }
+    }
+
+    public boolean isPartialRedrawEnabled() {
+        return partialRedrawEnabled;
+    }
+
+    /**
+     * Requests a frame which redraws the dirty area, in view coordinates.
+     */
+    public void requestRender(Rect dirty) {
+        dirtyRegion.invalidate(dirty.left, dirty.top, dirty.right, dirty.bottom);
+        requestRender();
     }
 
 
@@ -76,8 +140,8 @@ abstract class BaseGLCanvasTextureView extends BaseGLTextureView implements GLVi
         queueEvent(new Runnable() {
             @Override
             public void run() {
-                onDrawFrame();
-                onDrawFrame();
+                drawFullFrame();
+                drawFullFrame();
                 final Bitmap bitmapFromGLSurface = OpenGLUtil.createBitmapFromGLSurface(rect.left, rect.top, rect.right - rect.left, rect.bottom - rect.top, getHeight());
 
                 post(new Runnable() {
@@ -34,6 +34,10 @@ import javax.microedition.khronos.egl.EGLSurface;
  * Created by Chilling on 2016/11/2.
  */
 public class EglHelper implements IEglHelper {
+    // Not in EGL10
+    private static final int EGL_SWAP_BEHAVIOR = 0x3093;
+    private static final int EGL_BUFFER_PRESERVED = 0x3094;
+    private static final int EGL_BUFFER_AGE_EXT = 0x313D;
 
 
     private GLThread.EGLConfigChooser eglConfigChooser;
@@ -44,6 +48,10 @@ public class EglHelper implements IEglHelper {
     private EGLSurface mEglSurface;
     private EGLConfig mEglConfig;
     private EGLContext mEglContext;
+    private boolean mBufferAgeSupported;
+    private boolean mContentPreserved;
+    private boolean mSwapped;
+    private final int[] mQueryValue = new int[1];
 
 
     public EglHelper(GLThread.EGLConfigChooser configChooser, GLThread.EGLContextFactory eglContextFactory
@@ -160,6 +168,11 @@ public class EglHelper implements IEglHelper {
             return false;
         }
 
+        String extensions = mEgl.eglQueryString(mEglDisplay, EGL10.EGL_EXTENSIONS);
+        mBufferAgeSupported = extensions != null && extensions.contains("EGL_EXT_buffer_age");
+        mContentPreserved = mEgl.eglQuerySurface(mEglDisplay, mEglSurface, EGL_SWAP_BEHAVIOR, mQueryValue)
+                && mQueryValue[0] == EGL_BUFFER_PRESERVED;
+        mSwapped = false;
         return true;
     }
 
@@ -173,9 +186,31 @@ public class EglHelper implements IEglHelper {
         if (!mEgl.eglSwapBuffers(mEglDisplay, mEglSurface)) {
             return mEgl.eglGetError();
         }
+        mSwapped = true;
         return EGL10.EGL_SUCCESS;
     }
 
+    @Override
+    public int getBufferAge() {
+        if (mEglSurface == null || !mSwapped) {
+            return 0;
+        }
+        if (mContentPreserved) {
+            return 1;
+        }
+        if (mBufferAgeSupported && mEgl.eglQuerySurface(mEglDisplay, mEglSurface, EGL_BUFFER_AGE_EXT, mQueryValue)) {
+            return mQueryValue[0];
+        }
+        return 0;
+    }
+
+    /**
+     * EGL10 has no eglSurfaceAttrib, only a surface which keeps its content already is used.
+     */
+    @Override
+    public void setPreserveContent(boolean preserve) {
+    }
+
     @Override
     public void destroySurface() {
         if (GLThread.LOG_EGL) {
@@ -20,6 +20,7 @@ import static com.chillingvan.canvasgl.glview.texture.gles.EglHelper.formatEglEr
 
 @RequiresApi(Build.VERSION_CODES.JELLY_BEAN_MR1)
 public class EglHelperAPI17 implements IEglHelper {
+    private static final int EGL_BUFFER_AGE_EXT = 0x313D;
 
     private GLThread.EGLConfigChooser eglConfigChooser;
     private GLThread.EGLContextFactory eglContextFactory;
@@ -28,6 +29,11 @@ public class EglHelperAPI17 implements IEglHelper {
     private EGLConfig mEglConfig;
     private EGLContext mEglContext;
     private EGLSurface mEglSurface;
+    private boolean mBufferAgeSupported;
+    private boolean mPreserveContent;
+    private boolean mContentPreserved;
+    private boolean mSwapped;
+    private final int[] mQueryValue = new int[1];
 
     public EglHelperAPI17(GLThread.EGLConfigChooser configChooser, GLThread.EGLContextFactory eglContextFactory
             , GLThread.EGLWindowSurfaceFactory eglWindowSurfaceFactory) {
@@ -119,9 +125,19 @@ public class EglHelperAPI17 implements IEglHelper {
             return false;
         }
 
+        String extensions = EGL14.eglQueryString(mEglDisplay, EGL14.EGL_EXTENSIONS);
+        mBufferAgeSupported = extensions != null && extensions.contains("EGL_EXT_buffer_age");
+        mPreserveContent = false;
+        mContentPreserved = isSwapPreserving();
+        mSwapped = false;
         return true;
     }
 
+    private boolean isSwapPreserving() {
+        return EGL14.eglQuerySurface(mEglDisplay, mEglSurface, EGL14.EGL_SWAP_BEHAVIOR, mQueryValue, 0)
+                && mQueryValue[0] == EGL14.EGL_BUFFER_PRESERVED;
+    }
+
 
     @Override
     public int swap() {
@@ -129,9 +145,41 @@ public class EglHelperAPI17 implements IEglHelper {
             Loggers.w("EglHelperAPI17", String.format("swap: start get error"));
             return EGL14.eglGetError();
         }
+        mSwapped = true;
         return EGL14.EGL_SUCCESS;
     }
 
+    @Override
+    public int getBufferAge() {
+        if (mEglSurface == null || !mSwapped) {
+            return 0;
+        }
+        if (mContentPreserved) {
+            return 1;
+        }
+        if (mBufferAgeSupported && EGL14.eglQuerySurface(mEglDisplay, mEglSurface, EGL_BUFFER_AGE_EXT, mQueryValue, 0)) {
+            return mQueryValue[0];
+        }
+        return 0;
+    }
+
+    /**
+     * Preserving makes every swap copy the buffer on most GPUs, so it is only asked for
+     * when the buffer age is unknown. It fails if the config lacks EGL_SWAP_BEHAVIOR_PRESERVED_BIT.
+     */
+    @Override
+    public void setPreserveContent(boolean preserve) {
+        if (preserve == mPreserveContent || mEglSurface == null || mBufferAgeSupported) {
+            return;
+        }
+        mPreserveContent = preserve;
+        if (!EGL14.eglSurfaceAttrib(mEglDisplay, mEglSurface, EGL14.EGL_SWAP_BEHAVIOR,
+                preserve ? EGL14.EGL_BUFFER_PRESERVED : EGL14.EGL_BUFFER_DESTROYED)) {
+            Loggers.w("EglHelperAPI17", "setPreserveContent: eglSurfaceAttrib failed " + EGL14.eglGetError());
+        }
+        mContentPreserved = isSwapPreserving();
+    }
+
     @Override
     public void destroySurface() {
         if (GLThread.LOG_EGL) {
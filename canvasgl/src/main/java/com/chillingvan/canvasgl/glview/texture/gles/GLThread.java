@@ -95,6 +95,8 @@ public class GLThread extends Thread {
 
     private ChoreographerRenderWrapper mChoreographerRenderWrapper = new ChoreographerRenderWrapper(this);
     private long frameTimeNanos;
+    private volatile boolean mPreserveContent;
+    private int mBufferAge;
 
     GLThread(EGLConfigChooser configChooser, EGLContextFactory eglContextFactory
             , EGLWindowSurfaceFactory eglWindowSurfaceFactory, GLViewRenderer renderer
@@ -401,6 +403,8 @@ public class GLThread extends Thread {
                     if (LOG_RENDERER_DRAW_FRAME) {
                         Log.w("GLThread", "onDrawFrame tid=" + getId());
                     }
+                    mEglHelper.setPreserveContent(mPreserveContent);
+                    mBufferAge = mEglHelper.getBufferAge();
                     mRenderer.onDrawFrame();
                     mEglHelper.setPresentationTime(frameTimeNanos);
                     int swapError = mEglHelper.swap();
@@ -467,6 +471,22 @@ public class GLThread extends Thread {
         return mEglContext;
     }
 
+    /**
+     * Asks the surface to keep its content on swap when the buffer age cannot be queried,
+     * for renderers which redraw only the changed part of a frame.
+     */
+    public void setPreserveContent(boolean preserveContent) {
+        mPreserveContent = preserveContent;
+    }
+
+    /**
+     * Only valid on the GL thread in {@link GLViewRenderer#onDrawFrame()}.
+     * @return the frames since the buffer drawn to was last drawn, 0 if its content is undefined.
+     */
+    public int getBufferAge() {
+        return mBufferAge;
+    }
+
     public void setOnCreateGLContextListener(OnCreateGLContextListener onCreateGLContextListener) {
         this.onCreateGLContextListener = onCreateGLContextListener;
     }
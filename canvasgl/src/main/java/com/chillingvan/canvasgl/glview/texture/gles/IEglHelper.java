@@ -15,4 +15,16 @@ public interface IEglHelper {
     void finish();
 
     void setPresentationTime(long nsecs);
+
+    /**
+     * @return the frames since the back buffer was last drawn, or 0 if its content is undefined.
+     * From EGL_EXT_buffer_age, or 1 when the surface keeps its content on swap.
+     */
+    int getBufferAge();
+
+    /**
+     * Asks the surface to keep its content on swap, so a frame may redraw only part of it.
+     * Nothing is done when the buffer age is known anyway.
+     */
+    void setPreserveContent(boolean preserve);
 }
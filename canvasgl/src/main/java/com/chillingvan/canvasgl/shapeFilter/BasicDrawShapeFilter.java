@@ -2,6 +2,7 @@ package com.chillingvan.canvasgl.shapeFilter;
 
 import com.chillingvan.canvasgl.ICanvasGL;
 import com.chillingvan.canvasgl.glcanvas.GLES20Canvas;
+import com.chillingvan.canvasgl.glcanvas.ProgramCache;
 
 /**
  * Created by Chilling on 2016/11/11.
@@ -44,6 +45,6 @@ public class BasicDrawShapeFilter implements DrawShapeFilter {
 
     @Override
     public void destroy() {
-
+        ProgramCache.release(this);
     }
 }
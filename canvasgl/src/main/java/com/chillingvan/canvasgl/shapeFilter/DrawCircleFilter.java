@@ -1,10 +1,9 @@
 package com.chillingvan.canvasgl.shapeFilter;
 
-import android.opengl.GLES20;
 import android.support.annotation.FloatRange;
 
 import com.chillingvan.canvasgl.ICanvasGL;
-import com.chillingvan.canvasgl.OpenGLUtil;
+import com.chillingvan.canvasgl.glcanvas.GLProgram;
 
 /**
  * Created by Chilling on 2016/11/11.
@@ -49,6 +48,10 @@ public class DrawCircleFilter extends BasicDrawShapeFilter {
         this.lineWidth = lineWidth;
     }
 
+    public float getLineWidth() {
+        return lineWidth;
+    }
+
     @Override
     public String getVertexShader() {
         return CIRCLE_VERTEX_SHADER;
@@ -62,7 +65,8 @@ public class DrawCircleFilter extends BasicDrawShapeFilter {
     @Override
     public void onPreDraw(int program, ICanvasGL canvas) {
         super.onPreDraw(program, canvas);
-        int lineWidthLocation = GLES20.glGetUniformLocation(program, UNIFORM_LINE_WIDTH);
-        OpenGLUtil.setFloat(lineWidthLocation, lineWidth);
+        GLProgram glProgram = canvas.getGlCanvas().getProgram(program);
+        int lineWidthLocation = glProgram.getUniformLocation(UNIFORM_LINE_WIDTH);
+        glProgram.setFloat(lineWidthLocation, lineWidth);
     }
 }
@@ -0,0 +1,141 @@
+/*
+ *
+ *  *
+ *  *  * Copyright (C) 2016 ChillingVan
+ *  *  *
+ *  *  * Licensed under the Apache License, Version 2.0 (the "License");
+ *  *  * you may not use this file except in compliance with the License.
+ *  *  * You may obtain a copy of the License at
+ *  *  *
+ *  *  * http://www.apache.org/licenses/LICENSE-2.0
+ *  *  *
+ *  *  * Unless required by applicable law or agreed to in writing, software
+ *  *  * distributed under the License is distributed on an "AS IS" BASIS,
+ *  *  * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  *  * See the License for the specific language governing permissions and
+ *  *  * limitations under the License.
+ *  *
+ *
+ */
+
+package com.chillingvan.canvasgl.shapeFilter;
+
+import com.chillingvan.canvasgl.ICanvasGL;
+import com.chillingvan.canvasgl.glcanvas.GLES20Canvas;
+import com.chillingvan.canvasgl.glcanvas.ProgramCache;
+
+/**
+ * Draws circles, rings, ovals, rounded rects and arcs from their signed distance field.
+ * The fragment shader computes how far the pixel is from the edge of the shape and turns
+ * that into coverage, so the edges are anti-aliased without MSAA.
+ * <p>
+ * The shape parameters are vertex attributes instead of uniforms, so shapes of any kind,
+ * size and color are drawn in one batch. The canvas writes the vertices, see
+ * {@link #SHAPE_ATTRIBUTE} and {@link #PARAMS_ATTRIBUTE}. Drawing with this filter and a canvas
+ * matrix which is not 2D still works, one draw call per shape.
+ */
+public class SdfShapeFilter implements DrawShapeFilter {
+    public static final String MATRIX_UNIFORM = GLES20Canvas.MATRIX_UNIFORM;
+    public static final String POSITION_ATTRIBUTE = GLES20Canvas.POSITION_ATTRIBUTE;
+
+    /**
+     * The premultiplied color.
+     */
+    public static final String COLOR_ATTRIBUTE = "aColor";
+
+    /**
+     * x, y of the vertex relative to the center of the shape and half the width and height of
+     * the shape, all in pixels.
+     */
+    public static final String SHAPE_ATTRIBUTE = "aShape";
+
+    /**
+     * The corner radius in pixels or {@link #RADIUS_OVAL}, the stroke (half the stroke width in
+     * pixels, negative to stroke and fill, 0 to fill), the start angle and the sweep angle of the
+     * arc in radians. A sweep of {@link #SWEEP_FULL} draws the whole shape.
+     */
+    public static final String PARAMS_ATTRIBUTE = "aParams";
+
+    /**
+     * The corner radius which makes the shape an oval.
+     */
+    public static final float RADIUS_OVAL = -1;
+
+    public static final float SWEEP_FULL = (float) (4 * Math.PI);
+
+    public static final String SDF_VERTEX_SHADER = ""
+            + "uniform mat4 " + MATRIX_UNIFORM + ";\n"
+            + "attribute vec2 " + POSITION_ATTRIBUTE + ";\n"
+            + "attribute vec4 " + COLOR_ATTRIBUTE + ";\n"
+            + "attribute vec4 " + SHAPE_ATTRIBUTE + ";\n"
+            + "attribute vec4 " + PARAMS_ATTRIBUTE + ";\n"
+            + "varying vec4 vColor;\n"
+            + "varying vec4 vShape;\n"
+            + "varying vec3 vParams;\n"
+            + "varying vec4 vArc;\n"
+            + "void main() {\n"
+            + "  gl_Position = " + MATRIX_UNIFORM + " * vec4(" + POSITION_ATTRIBUTE + ", 0.0, 1.0);\n"
+            + "  vColor = " + COLOR_ATTRIBUTE + ";\n"
+            + "  vShape = " + SHAPE_ATTRIBUTE + ";\n"
+            // The trigonometry of the arc is the same for the whole shape, so it is done here.
+            + "  float halfSweep = " + PARAMS_ATTRIBUTE + ".w * 0.5;\n"
+            + "  float middle = " + PARAMS_ATTRIBUTE + ".z + halfSweep;\n"
+            + "  vArc = vec4(cos(middle), sin(middle), cos(halfSweep), sin(halfSweep));\n"
+            + "  vParams = vec3(" + PARAMS_ATTRIBUTE + ".xy, step(" + PARAMS_ATTRIBUTE + ".w, 6.2831));\n"
+            + "}\n";
+
+    public static final String SDF_FRAGMENT_SHADER = ""
+            + "#ifdef GL_FRAGMENT_PRECISION_HIGH\n"
+            + "precision highp float;\n"
+            + "#else\n"
+            + "precision mediump float;\n"
+            + "#endif\n"
+            + "varying vec4 vColor;\n"
+            + "varying vec4 vShape;\n"
+            + "varying vec3 vParams;\n"
+            + "varying vec4 vArc;\n"
+            + "void main() {\n"
+            + "  vec2 p = vShape.xy;\n"
+            + "  vec2 size = vShape.zw;\n"
+            // Rounded rect, exact. A circle is a rounded rect with the radius of half its size.
+            + "  float radius = max(vParams.x, 0.0);\n"
+            + "  vec2 q = abs(p) - size + radius;\n"
+            + "  float d = min(max(q.x, q.y), 0.0) + length(max(q, 0.0)) - radius;\n"
+            // Oval, the first order approximation which is exact on the edge.
+            + "  vec2 n = p / size;\n"
+            + "  float k0 = length(n);\n"
+            + "  float k1 = length(n / size);\n"
+            + "  float oval = k1 > 0.0 ? k0 * (k0 - 1.0) / k1 : -min(size.x, size.y);\n"
+            + "  d = vParams.x < 0.0 ? oval : d;\n"
+            + "  d = (vParams.y > 0.0 ? abs(d) : d) - abs(vParams.y);\n"
+            // The arc cuts the shape to the wedge around the middle angle. Ovals are cut
+            // on the circle they are stretched from.
+            + "  vec2 c = p * (min(size.x, size.y) / size);\n"
+            + "  vec2 w = vec2(dot(c, vArc.xy), abs(vArc.x * c.y - vArc.y * c.x));\n"
+            + "  vec2 edge = vArc.zw;\n"
+            + "  float m = length(w - edge * max(dot(w, edge), 0.0));\n"
+            + "  float wedge = edge.y * w.x - edge.x * w.y > 0.0 ? -m : m;\n"
+            + "  d = vParams.z > 0.5 ? max(d, wedge) : d;\n"
+            + "  gl_FragColor = vColor * clamp(0.5 - d, 0.0, 1.0);\n"
+            + "}\n";
+
+    @Override
+    public String getVertexShader() {
+        return SDF_VERTEX_SHADER;
+    }
+
+    @Override
+    public String getFragmentShader() {
+        return SDF_FRAGMENT_SHADER;
+    }
+
+    @Override
+    public void onPreDraw(int program, ICanvasGL canvas) {
+
+    }
+
+    @Override
+    public void destroy() {
+        ProgramCache.release(this);
+    }
+}
@@ -23,6 +23,7 @@ package com.chillingvan.canvasgl.textureFilter;
 import com.chillingvan.canvasgl.ICanvasGL;
 import com.chillingvan.canvasgl.glcanvas.BasicTexture;
 import com.chillingvan.canvasgl.glcanvas.GLES20Canvas;
+import com.chillingvan.canvasgl.glcanvas.ProgramCache;
 
 /**
  * Created by Matthew on 2016/10/14.
@@ -85,6 +86,6 @@ public class BasicTextureFilter implements TextureFilter {
 
     @Override
     public void destroy() {
-
+        ProgramCache.release(this);
     }
 }
@@ -1,11 +1,10 @@
 package com.chillingvan.canvasgl.textureFilter;
 
-import android.opengl.GLES20;
 import android.support.annotation.FloatRange;
 
 import com.chillingvan.canvasgl.ICanvasGL;
-import com.chillingvan.canvasgl.OpenGLUtil;
 import com.chillingvan.canvasgl.glcanvas.BasicTexture;
+import com.chillingvan.canvasgl.glcanvas.GLProgram;
 
 /**
  * Created by Chilling on 2017/4/15.
@@ -58,8 +57,9 @@ public class ColorMatrixFilter extends BasicTextureFilter implements OneValueFil
     @Override
     public void onPreDraw(int program, BasicTexture texture, ICanvasGL canvas) {
         super.onPreDraw(program, texture, canvas);
-        OpenGLUtil.setFloat(GLES20.glGetUniformLocation(program, UNIFORM_INTENSITY), mIntensity);
-        OpenGLUtil.setUniformMatrix4f(GLES20.glGetUniformLocation(program, UNIFORM_COLOR_MATRIX), mColorMatrix);
+        GLProgram glProgram = canvas.getGlCanvas().getProgram(program);
+        glProgram.setFloat(glProgram.getUniformLocation(UNIFORM_INTENSITY), mIntensity);
+        glProgram.setMatrix4(glProgram.getUniformLocation(UNIFORM_COLOR_MATRIX), mColorMatrix, 0);
     }
 
     @Override
@@ -20,12 +20,11 @@
 
 package com.chillingvan.canvasgl.textureFilter;
 
-import android.opengl.GLES20;
 import android.support.annotation.FloatRange;
 
 import com.chillingvan.canvasgl.ICanvasGL;
-import com.chillingvan.canvasgl.OpenGLUtil;
 import com.chillingvan.canvasgl.glcanvas.BasicTexture;
+import com.chillingvan.canvasgl.glcanvas.GLProgram;
 
 /**
  * Created by Matthew on 2016/10/14.
@@ -70,8 +69,9 @@ public class ContrastFilter extends BasicTextureFilter implements OneValueFilter
     @Override
     public void onPreDraw(int program, BasicTexture texture, ICanvasGL canvas) {
         super.onPreDraw(program, texture, canvas);
-        int contrastLocation = GLES20.glGetUniformLocation(program, UNIFORM_CONTRAST);
-        OpenGLUtil.setFloat(contrastLocation, mContrast);
+        GLProgram glProgram = canvas.getGlCanvas().getProgram(program);
+        int contrastLocation = glProgram.getUniformLocation(UNIFORM_CONTRAST);
+        glProgram.setFloat(contrastLocation, mContrast);
     }
 
     @Override
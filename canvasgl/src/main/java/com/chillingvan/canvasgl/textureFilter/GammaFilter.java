@@ -20,12 +20,11 @@
 
 package com.chillingvan.canvasgl.textureFilter;
 
-import android.opengl.GLES20;
 import android.support.annotation.FloatRange;
 
 import com.chillingvan.canvasgl.ICanvasGL;
-import com.chillingvan.canvasgl.OpenGLUtil;
 import com.chillingvan.canvasgl.glcanvas.BasicTexture;
+import com.chillingvan.canvasgl.glcanvas.GLProgram;
 
 /**
  * Created by Chilling on 2016/11/2.
@@ -68,8 +67,9 @@ public class GammaFilter extends BasicTextureFilter implements OneValueFilter {
     @Override
     public void onPreDraw(int program, BasicTexture texture, ICanvasGL canvas) {
         super.onPreDraw(program, texture, canvas);
-        mGammaLocation = GLES20.glGetUniformLocation(program, UNIFORM_GAMMA);
-        OpenGLUtil.setFloat(mGammaLocation, mGamma);
+        GLProgram glProgram = canvas.getGlCanvas().getProgram(program);
+        mGammaLocation = glProgram.getUniformLocation(UNIFORM_GAMMA);
+        glProgram.setFloat(mGammaLocation, mGamma);
     }
 
     @Override
@@ -20,12 +20,11 @@
 
 package com.chillingvan.canvasgl.textureFilter;
 
-import android.opengl.GLES20;
 import android.support.annotation.FloatRange;
 
 import com.chillingvan.canvasgl.ICanvasGL;
-import com.chillingvan.canvasgl.OpenGLUtil;
 import com.chillingvan.canvasgl.glcanvas.BasicTexture;
+import com.chillingvan.canvasgl.glcanvas.GLProgram;
 
 /**
  * Created by Chilling on 2016/11/1.
@@ -96,8 +95,9 @@ public class HueFilter extends BasicTextureFilter implements OneValueFilter{
     @Override
     public void onPreDraw(int program, BasicTexture texture, ICanvasGL canvas) {
         super.onPreDraw(program, texture, canvas);
-        mHueLocation = GLES20.glGetUniformLocation(program, UNIFORM_HUE);
-        OpenGLUtil.setFloat(mHueLocation, hueAdjust);
+        GLProgram glProgram = canvas.getGlCanvas().getProgram(program);
+        mHueLocation = glProgram.getUniformLocation(UNIFORM_HUE);
+        glProgram.setFloat(mHueLocation, hueAdjust);
     }
 
     @Override
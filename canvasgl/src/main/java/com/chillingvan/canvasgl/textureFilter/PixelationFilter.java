@@ -20,12 +20,11 @@
 
 package com.chillingvan.canvasgl.textureFilter;
 
-import android.opengl.GLES20;
 import android.support.annotation.FloatRange;
 
 import com.chillingvan.canvasgl.ICanvasGL;
-import com.chillingvan.canvasgl.OpenGLUtil;
 import com.chillingvan.canvasgl.glcanvas.BasicTexture;
+import com.chillingvan.canvasgl.glcanvas.GLProgram;
 
 /**
  * Created by Chilling on 2016/11/1.
@@ -73,13 +72,14 @@ public class PixelationFilter extends BasicTextureFilter implements OneValueFilt
     @Override
     public void onPreDraw(int program, BasicTexture texture, ICanvasGL canvas) {
         super.onPreDraw(program, texture, canvas);
-        mImageWidthFactorLocation = GLES20.glGetUniformLocation(program, UNIFORM_IMAGE_WIDTH_FACTOR);
-        mImageHeightFactorLocation = GLES20.glGetUniformLocation(program, UNIFORM_IMAGE_HEIGHT_FACTOR);
-        mPixelLocation = GLES20.glGetUniformLocation(program, UNIFORM_PIXEL);
+        GLProgram glProgram = canvas.getGlCanvas().getProgram(program);
+        mImageWidthFactorLocation = glProgram.getUniformLocation(UNIFORM_IMAGE_WIDTH_FACTOR);
+        mImageHeightFactorLocation = glProgram.getUniformLocation(UNIFORM_IMAGE_HEIGHT_FACTOR);
+        mPixelLocation = glProgram.getUniformLocation(UNIFORM_PIXEL);
 
-        OpenGLUtil.setFloat(mImageWidthFactorLocation, 1.0f / texture.getWidth());
-        OpenGLUtil.setFloat(mImageHeightFactorLocation, 1.0f / texture.getHeight());
-        OpenGLUtil.setFloat(mPixelLocation, mPixel);
+        glProgram.setFloat(mImageWidthFactorLocation, 1.0f / texture.getWidth());
+        glProgram.setFloat(mImageHeightFactorLocation, 1.0f / texture.getHeight());
+        glProgram.setFloat(mPixelLocation, mPixel);
     }
 
     @Override
@@ -1,11 +1,10 @@
 package com.chillingvan.canvasgl.textureFilter;
 
-import android.opengl.GLES20;
 import android.support.annotation.FloatRange;
 
 import com.chillingvan.canvasgl.ICanvasGL;
-import com.chillingvan.canvasgl.OpenGLUtil;
 import com.chillingvan.canvasgl.glcanvas.BasicTexture;
+import com.chillingvan.canvasgl.glcanvas.GLProgram;
 
 /**
  * Created by Chilling on 2017/4/15.
@@ -65,9 +64,10 @@ public class RGBFilter extends BasicTextureFilter implements OneValueFilter {
     @Override
     public void onPreDraw(int program, BasicTexture texture, ICanvasGL canvas) {
         super.onPreDraw(program, texture, canvas);
-        OpenGLUtil.setFloat(GLES20.glGetUniformLocation(program, UNIFORM_RED), red);
-        OpenGLUtil.setFloat(GLES20.glGetUniformLocation(program, UNIFORM_GREEN), green);
-        OpenGLUtil.setFloat(GLES20.glGetUniformLocation(program, UNIFORM_BLUE), blue);
+        GLProgram glProgram = canvas.getGlCanvas().getProgram(program);
+        glProgram.setFloat(glProgram.getUniformLocation(UNIFORM_RED), red);
+        glProgram.setFloat(glProgram.getUniformLocation(UNIFORM_GREEN), green);
+        glProgram.setFloat(glProgram.getUniformLocation(UNIFORM_BLUE), blue);
     }
 
     @Override
@@ -20,12 +20,11 @@
 
 package com.chillingvan.canvasgl.textureFilter;
 
-import android.opengl.GLES20;
 import android.support.annotation.FloatRange;
 
 import com.chillingvan.canvasgl.ICanvasGL;
-import com.chillingvan.canvasgl.OpenGLUtil;
 import com.chillingvan.canvasgl.glcanvas.BasicTexture;
+import com.chillingvan.canvasgl.glcanvas.GLProgram;
 
 /**
  * Created by Chilling on 2016/10/23.
@@ -74,8 +73,9 @@ public class SaturationFilter extends BasicTextureFilter implements OneValueFilt
     @Override
     public void onPreDraw(int program, BasicTexture texture, ICanvasGL canvas) {
         super.onPreDraw(program, texture, canvas);
-        mSaturationLocation = GLES20.glGetUniformLocation(program, UNIFORM_SATURATION);
-        OpenGLUtil.setFloat(mSaturationLocation, mSaturation);
+        GLProgram glProgram = canvas.getGlCanvas().getProgram(program);
+        mSaturationLocation = glProgram.getUniformLocation(UNIFORM_SATURATION);
+        glProgram.setFloat(mSaturationLocation, mSaturation);
     }
 
     @Override
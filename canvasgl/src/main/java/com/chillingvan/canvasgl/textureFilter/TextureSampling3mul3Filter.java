@@ -20,12 +20,11 @@
 
 package com.chillingvan.canvasgl.textureFilter;
 
-import android.opengl.GLES20;
 import android.support.annotation.FloatRange;
 
 import com.chillingvan.canvasgl.ICanvasGL;
-import com.chillingvan.canvasgl.OpenGLUtil;
 import com.chillingvan.canvasgl.glcanvas.BasicTexture;
+import com.chillingvan.canvasgl.glcanvas.GLProgram;
 
 /**
  * Created by Chilling on 2016/11/6.
@@ -125,11 +124,12 @@ public abstract class TextureSampling3mul3Filter extends BasicTextureFilter impl
         mTexelWidth = !mHasOverriddenImageWidthFactor ? mLineSize / texture.getWidth() : mTexelWidth;
         mTexelHeight = !mHasOverriddenImageHeightFactor ? mLineSize / texture.getHeight() : mTexelHeight;
 
-        mUniformTexelWidthLocation = GLES20.glGetUniformLocation(program, UNIFORM_TEXEL_WIDTH);
-        mUniformTexelHeightLocation = GLES20.glGetUniformLocation(program, UNIFORM_TEXEL_HEIGHT);
+        GLProgram glProgram = canvas.getGlCanvas().getProgram(program);
+        mUniformTexelWidthLocation = glProgram.getUniformLocation(UNIFORM_TEXEL_WIDTH);
+        mUniformTexelHeightLocation = glProgram.getUniformLocation(UNIFORM_TEXEL_HEIGHT);
         if (mTexelWidth != 0) {
-            OpenGLUtil.setFloat(mUniformTexelWidthLocation, mTexelWidth);
-            OpenGLUtil.setFloat(mUniformTexelHeightLocation, mTexelHeight);
+            glProgram.setFloat(mUniformTexelWidthLocation, mTexelWidth);
+            glProgram.setFloat(mUniformTexelHeightLocation, mTexelHeight);
         }
     }
 
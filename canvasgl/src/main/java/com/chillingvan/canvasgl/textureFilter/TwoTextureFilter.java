@@ -30,6 +30,7 @@ import com.chillingvan.canvasgl.ICanvasGL;
 import com.chillingvan.canvasgl.glcanvas.BasicTexture;
 import com.chillingvan.canvasgl.glcanvas.BitmapTexture;
 import com.chillingvan.canvasgl.glcanvas.GLES20Canvas;
+import com.chillingvan.canvasgl.glcanvas.GLProgram;
 import com.chillingvan.canvasgl.glcanvas.TextureMatrixTransformer;
 
 import java.util.Arrays;
@@ -96,13 +97,12 @@ public abstract class TwoTextureFilter extends BasicTextureFilter {
         TextureMatrixTransformer.setTextureMatrix(mTempSrcRectF, mTempTextureMatrix);
 
         GLES20Canvas.printMatrix("two tex matrix", mTempTextureMatrix, 0);
-        int textureMatrixPosition = GLES20.glGetUniformLocation(program, TEXTURE_MATRIX_UNIFORM2);
-        GLES20.glUniformMatrix4fv(textureMatrixPosition, 1, false, mTempTextureMatrix, 0);
+        GLProgram glProgram = canvas.getGlCanvas().getProgram(program);
+        int textureMatrixPosition = glProgram.getUniformLocation(TEXTURE_MATRIX_UNIFORM2);
+        glProgram.setMatrix4(textureMatrixPosition, mTempTextureMatrix, 0);
 
-        int sampler2 = GLES20.glGetUniformLocation(program, UNIFORM_TEXTURE_SAMPLER2);
-        GLES20Canvas.checkError();
-        GLES20.glUniform1i(sampler2, 3);
-        GLES20Canvas.checkError();
+        int sampler2 = glProgram.getUniformLocation(UNIFORM_TEXTURE_SAMPLER2);
+        glProgram.setInt(sampler2, 3);
     }
 
     @Override
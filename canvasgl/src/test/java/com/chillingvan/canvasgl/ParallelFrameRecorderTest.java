@@ -0,0 +1,521 @@
+/*
+ *
+ *  *
+ *  *  * Copyright (C) 2016 ChillingVan
+ *  *  *
+ *  *  * Licensed under the Apache License, Version 2.0 (the "License");
+ *  *  * you may not use this file except in compliance with the License.
+ *  *  * You may obtain a copy of the License at
+ *  *  *
+ *  *  * http://www.apache.org/licenses/LICENSE-2.0
+ *  *  *
+ *  *  * Unless required by applicable law or agreed to in writing, software
+ *  *  * distributed under the License is distributed on an "AS IS" BASIS,
+ *  *  * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  *  * See the License for the specific language governing permissions and
+ *  *  * limitations under the License.
+ *  *
+ *
+ */
+
+package com.chillingvan.canvasgl;
+
+import android.graphics.Bitmap;
+import android.graphics.Rect;
+import android.graphics.RectF;
+import android.graphics.SurfaceTexture;
+
+import com.chillingvan.canvasgl.glcanvas.BasicTexture;
+import com.chillingvan.canvasgl.glcanvas.BitmapAtlas;
+import com.chillingvan.canvasgl.glcanvas.BitmapTexture;
+import com.chillingvan.canvasgl.glcanvas.GLCanvas;
+import com.chillingvan.canvasgl.glcanvas.GLPaint;
+import com.chillingvan.canvasgl.glcanvas.GLPath;
+import com.chillingvan.canvasgl.glcanvas.RawTexture;
+import com.chillingvan.canvasgl.textureFilter.TextureFilter;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Checks that recording the parts of a frame in parallel gives the same calls as recording them
+ * one after another on one thread.
+ */
+public class ParallelFrameRecorderTest {
+
+    private static final int WIDTH = 1080;
+    private static final int HEIGHT = 1920;
+
+    private ParallelFrameRecorder recorder;
+
+    @Before
+    public void setUp() {
+        recorder = new ParallelFrameRecorder(7);
+    }
+
+    @After
+    public void tearDown() {
+        recorder.release();
+    }
+
+    @Test
+    public void parallelRecordingReplaysLikeSingleThreadedRecording() {
+        List<ScenePart> parts = new ArrayList<>();
+        for (int i = 0; i < 64; i++) {
+            parts.add(new ScenePart(i));
+        }
+
+        recorder.record(parts, WIDTH, HEIGHT);
+        LoggingCanvas parallel = new LoggingCanvas();
+        recorder.replay(parallel);
+
+        LoggingCanvas single = new LoggingCanvas();
+        recordSingleThreaded(parts).replay(single);
+
+        assertTrue(single.log.length() > 0);
+        assertEquals(single.log.toString(), parallel.log.toString());
+    }
+
+    @Test
+    public void repeatedRecordsGiveTheSameFrame() {
+        List<ScenePart> parts = new ArrayList<>();
+        for (int i = 0; i < 16; i++) {
+            parts.add(new ScenePart(i));
+        }
+        String first = null;
+        for (int frame = 0; frame < 20; frame++) {
+            recorder.record(parts, WIDTH, HEIGHT);
+            LoggingCanvas canvas = new LoggingCanvas();
+            recorder.replay(canvas);
+            if (first == null) {
+                first = canvas.log.toString();
+            } else {
+                assertEquals(first, canvas.log.toString());
+            }
+        }
+    }
+
+    @Test
+    public void fewerPartsThanBeforeReplayOnlyTheNewOnes() {
+        List<ScenePart> parts = new ArrayList<>();
+        for (int i = 0; i < 8; i++) {
+            parts.add(new ScenePart(i));
+        }
+        recorder.record(parts, WIDTH, HEIGHT);
+        List<ScenePart> fewer = parts.subList(0, 3);
+        recorder.record(fewer, WIDTH, HEIGHT);
+
+        LoggingCanvas parallel = new LoggingCanvas();
+        recorder.replay(parallel);
+        LoggingCanvas single = new LoggingCanvas();
+        recordSingleThreaded(fewer).replay(single);
+
+        assertEquals(3, recorder.getPartCount());
+        assertEquals(single.log.toString(), parallel.log.toString());
+    }
+
+    @Test
+    public void exceptionOfAPartIsRethrown() {
+        final IllegalStateException error = new IllegalStateException("part failed");
+        List<ParallelFrameRecorder.Part> parts = new ArrayList<>();
+        parts.add(new ScenePart(0));
+        parts.add(new ParallelFrameRecorder.Part() {
+            @Override
+            public void onRecord(ICanvasGL canvas) {
+                throw error;
+            }
+        });
+        parts.add(new ScenePart(2));
+        try {
+            recorder.record(parts, WIDTH, HEIGHT);
+            fail();
+        } catch (IllegalStateException e) {
+            assertSame(error, e);
+        }
+        // The recorder is still usable.
+        recorder.record(parts.subList(0, 1), WIDTH, HEIGHT);
+    }
+
+    @Test
+    public void errorOfAPartIsRethrown() {
+        final AssertionError error = new AssertionError("part failed");
+        List<ParallelFrameRecorder.Part> parts = new ArrayList<>();
+        parts.add(new ScenePart(0));
+        parts.add(new ScenePart(1));
+        parts.add(new ParallelFrameRecorder.Part() {
+            @Override
+            public void onRecord(ICanvasGL canvas) {
+                throw error;
+            }
+        });
+        try {
+            recorder.record(parts, WIDTH, HEIGHT);
+        } catch (AssertionError e) {
+            assertSame(error, e);
+            recorder.record(parts.subList(0, 2), WIDTH, HEIGHT);
+            return;
+        }
+        fail();
+    }
+
+    @Test
+    public void transformsOfAPartDoNotLeakIntoTheNext() {
+        List<ParallelFrameRecorder.Part> parts = new ArrayList<>();
+        parts.add(new ParallelFrameRecorder.Part() {
+            @Override
+            public void onRecord(ICanvasGL canvas) {
+                canvas.translate(10, 20);
+                canvas.clearBuffer(1);
+            }
+        });
+        parts.add(new ParallelFrameRecorder.Part() {
+            @Override
+            public void onRecord(ICanvasGL canvas) {
+                canvas.clearBuffer(2);
+            }
+        });
+        recorder.record(parts, WIDTH, HEIGHT);
+        LoggingCanvas canvas = new LoggingCanvas();
+        recorder.replay(canvas);
+
+        assertEquals("save(-1)\ntranslate(10.0,20.0)\nclearBuffer(1)\nrestore()\n"
+                + "save(-1)\nclearBuffer(2)\nrestore()\n", canvas.log.toString());
+    }
+
+    private static DisplayList recordSingleThreaded(List<? extends ParallelFrameRecorder.Part> parts) {
+        DisplayList displayList = new DisplayList();
+        ICanvasGL canvas = displayList.beginRecording(WIDTH, HEIGHT);
+        for (ParallelFrameRecorder.Part part : parts) {
+            canvas.save();
+            part.onRecord(canvas);
+            canvas.restore();
+        }
+        displayList.endRecording();
+        return displayList;
+    }
+
+    // Draws a deterministic pseudo random tree of transforms for its index, with some math to
+    // keep the worker threads busy.
+    private static class ScenePart implements ParallelFrameRecorder.Part {
+        private final int index;
+
+        ScenePart(int index) {
+            this.index = index;
+        }
+
+        @Override
+        public void onRecord(ICanvasGL canvas) {
+            Random random = new Random(index);
+            int count = random.nextInt(200);
+            int depth = 0;
+            for (int i = 0; i < count; i++) {
+                double angle = i * Math.PI / 180;
+                switch (random.nextInt(8)) {
+                    case 0:
+                        canvas.save();
+                        depth++;
+                        break;
+                    case 1:
+                        if (depth > 0) {
+                            canvas.restore();
+                            depth--;
+                        }
+                        break;
+                    case 2:
+                        canvas.translate((float) Math.cos(angle) * index, (float) Math.sin(angle) * index);
+                        break;
+                    case 3:
+                        canvas.rotate(random.nextFloat() * 360, random.nextInt(WIDTH), random.nextInt(HEIGHT));
+                        break;
+                    case 4:
+                        canvas.scale(0.5f + random.nextFloat(), 0.5f + random.nextFloat());
+                        break;
+                    case 5:
+                        canvas.setAlpha(random.nextInt(256));
+                        break;
+                    default:
+                        canvas.clearBuffer(random.nextInt());
+                        break;
+                }
+            }
+            while (depth > 0) {
+                canvas.restore();
+                depth--;
+            }
+        }
+    }
+
+    // Writes every call it gets to the log.
+    private static class LoggingCanvas implements ICanvasGL {
+        final StringBuilder log = new StringBuilder();
+
+        private void log(String call) {
+            log.append(call).append('\n');
+        }
+
+        @Override
+        public BitmapTexture bindBitmapToTexture(int whichTexture, Bitmap bitmap) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void setBitmapAtlas(BitmapAtlas bitmapAtlas) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void setAsyncUploader(AsyncTextureUploader asyncUploader) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public boolean isBitmapReady(Bitmap bitmap) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void beginRenderTarget(RawTexture texture) {
+            log("beginRenderTarget(" + texture + ")");
+        }
+
+        @Override
+        public void endRenderTarget() {
+            log("endRenderTarget()");
+        }
+
+        @Override
+        public GLCanvas getGlCanvas() {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void drawSurfaceTexture(BasicTexture texture, SurfaceTexture surfaceTexture, int left, int top, int right, int bottom) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void drawSurfaceTexture(BasicTexture texture, SurfaceTexture surfaceTexture, int left, int top, int right, int bottom, TextureFilter textureFilter) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void drawBitmap(Bitmap bitmap, CanvasGL.BitmapMatrix matrix) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void drawBitmap(Bitmap bitmap, CanvasGL.BitmapMatrix matrix, TextureFilter textureFilter) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void drawBitmap(Bitmap bitmap, Rect src, RectF dst) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void drawBitmap(Bitmap bitmap, int left, int top) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void drawBitmap(Bitmap bitmap, int left, int top, TextureFilter textureFilter) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void drawBitmap(Bitmap bitmap, Rect src, Rect dst) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void drawBitmap(Bitmap bitmap, RectF src, RectF dst, TextureFilter textureFilter) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void drawBitmap(Bitmap bitmap, int left, int top, int width, int height) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void drawBitmap(Bitmap bitmap, int left, int top, int width, int height, TextureFilter textureFilter) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void drawBitmapInstances(Bitmap bitmap, float[] instances, int count) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void invalidateTextureContent(Bitmap bitmap) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void invalidateTextureContent(Bitmap bitmap, Rect rect) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void drawCircle(float x, float y, float radius, GLPaint paint) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void drawLine(float startX, float startY, float stopX, float stopY, GLPaint paint) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void drawRect(RectF rect, GLPaint paint) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void drawRect(Rect r, GLPaint paint) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void drawRect(float left, float top, float right, float bottom, GLPaint paint) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void drawRoundRect(float left, float top, float right, float bottom, float radius, GLPaint paint) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void drawRoundRect(RectF rect, float radius, GLPaint paint) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void drawOval(float left, float top, float right, float bottom, GLPaint paint) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void drawOval(RectF oval, GLPaint paint) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void drawArc(RectF oval, float startAngle, float sweepAngle, GLPaint paint) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void drawPath(GLPath path, GLPaint paint) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void drawPolyline(float[] points, int offset, int pointCount, GLPaint paint) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void drawText(String text, float x, float y, GLPaint paint) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void drawText(CharSequence text, int start, int end, float x, float y, GLPaint paint) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void save() {
+            log("save()");
+        }
+
+        @Override
+        public void save(int saveFlags) {
+            log("save(" + saveFlags + ")");
+        }
+
+        @Override
+        public void restore() {
+            log("restore()");
+        }
+
+        @Override
+        public void clipRect(float left, float top, float right, float bottom) {
+            log("clipRect(" + left + "," + top + "," + right + "," + bottom + ")");
+        }
+
+        @Override
+        public void clipRect(RectF rect) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void rotate(float degrees) {
+            log("rotate(" + degrees + ")");
+        }
+
+        @Override
+        public void rotate(float degrees, float px, float py) {
+            log("rotate(" + degrees + "," + px + "," + py + ")");
+        }
+
+        @Override
+        public void scale(float sx, float sy) {
+            log("scale(" + sx + "," + sy + ")");
+        }
+
+        @Override
+        public void scale(float sx, float sy, float px, float py) {
+            log("scale(" + sx + "," + sy + "," + px + "," + py + ")");
+        }
+
+        @Override
+        public void translate(float dx, float dy) {
+            log("translate(" + dx + "," + dy + ")");
+        }
+
+        @Override
+        public void clearBuffer() {
+            log("clearBuffer()");
+        }
+
+        @Override
+        public void clearBuffer(int color) {
+            log("clearBuffer(" + color + ")");
+        }
+
+        @Override
+        public void setSize(int width, int height) {
+            log("setSize(" + width + "," + height + ")");
+        }
+
+        @Override
+        public int getWidth() {
+            return WIDTH;
+        }
+
+        @Override
+        public int getHeight() {
+            return HEIGHT;
+        }
+
+        @Override
+        public void setAlpha(int alpha) {
+            log("setAlpha(" + alpha + ")");
+        }
+    }
+}
@@ -0,0 +1,101 @@
+/*
+ *
+ *  *
+ *  *  * Copyright (C) 2016 ChillingVan
+ *  *  *
+ *  *  * Licensed under the Apache License, Version 2.0 (the "License");
+ *  *  * you may not use this file except in compliance with the License.
+ *  *  * You may obtain a copy of the License at
+ *  *  *
+ *  *  * http://www.apache.org/licenses/LICENSE-2.0
+ *  *  *
+ *  *  * Unless required by applicable law or agreed to in writing, software
+ *  *  * distributed under the License is distributed on an "AS IS" BASIS,
+ *  *  * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  *  * See the License for the specific language governing permissions and
+ *  *  * limitations under the License.
+ *  *
+ *
+ */
+
+package com.chillingvan.canvasgl.glcanvas;
+
+import java.util.Locale;
+
+/**
+ * Compares the matrix work of one draw with 4x4 matrices, as GLES20Canvas did it before, and
+ * with the 2D affine path: a save, a translate and a rotate of the canvas, then the matrix of
+ * the draw. Run main on the development machine; it is not a test, so the unit test run
+ * stays fast.
+ * <p>
+ * On a device the 4x4 path also pays a JNI call for every Matrix.multiplyMM, which is not
+ * measured here, so the numbers understate the difference.
+ */
+public class Affine2DBenchmark {
+
+    private static final int WIDTH = 1080;
+    private static final int HEIGHT = 1920;
+    private static final int DRAWS = 1000000;
+    private static final int ROUNDS = 5;
+
+    private final float[] projection = new float[16];
+    private final float[] matrices = new float[32];
+    private final float[] temp = new float[32];
+    private float sink;
+
+    private Affine2DBenchmark() {
+        ReferenceMatrix.orthoM(projection, 0, 0, WIDTH, 0, HEIGHT, -1, 1);
+        ReferenceMatrix.setIdentityM(matrices, 0);
+        ReferenceMatrix.translateM(matrices, 0, 0, HEIGHT, 0);
+        ReferenceMatrix.scaleM(matrices, 0, 1, -1, 1);
+    }
+
+    private void drawMatrix4x4(int i) {
+        System.arraycopy(matrices, 0, matrices, 16, 16);
+        ReferenceMatrix.translateM(matrices, 16, i & 255, 64, 0);
+        ReferenceMatrix.setRotateM(temp, 0, i & 63, 0, 0, 1);
+        ReferenceMatrix.multiplyMM(temp, 16, matrices, 16, temp, 0);
+        System.arraycopy(temp, 16, matrices, 16, 16);
+
+        ReferenceMatrix.translateM(temp, 0, matrices, 16, 10, 20, 0);
+        ReferenceMatrix.scaleM(temp, 0, 100, 50, 1);
+        ReferenceMatrix.multiplyMM(temp, 16, projection, 0, temp, 0);
+        sink += temp[28];
+    }
+
+    private void drawMatrixAffine(int i) {
+        System.arraycopy(matrices, 0, matrices, 16, 16);
+        Affine2D.translate(matrices, 16, i & 255, 64);
+        Affine2D.rotate(matrices, 16, i & 63);
+
+        Affine2D.multiply(temp, 0, projection, 0, matrices, 16);
+        Affine2D.multiply(temp, 16, temp, 0, 100, 0, 0, 50, 10, 20);
+        sink += temp[28];
+    }
+
+    private double measure(boolean affine) {
+        long start = System.nanoTime();
+        for (int i = 0; i < DRAWS; i++) {
+            if (affine) {
+                drawMatrixAffine(i);
+            } else {
+                drawMatrix4x4(i);
+            }
+        }
+        return (System.nanoTime() - start) / (double) DRAWS;
+    }
+
+    public static void main(String[] args) {
+        Affine2DBenchmark benchmark = new Affine2DBenchmark();
+        // Warm up both paths before measuring.
+        benchmark.measure(false);
+        benchmark.measure(true);
+        for (int round = 0; round < ROUNDS; round++) {
+            double matrix4x4 = benchmark.measure(false);
+            double affine = benchmark.measure(true);
+            System.out.println(String.format(Locale.US, "round %d: 4x4 %.1f ns/draw, affine %.1f ns/draw, %.1fx",
+                    round, matrix4x4, affine, matrix4x4 / affine));
+        }
+        System.out.println("checksum " + benchmark.sink);
+    }
+}
@@ -0,0 +1,211 @@
+/*
+ *
+ *  *
+ *  *  * Copyright (C) 2016 ChillingVan
+ *  *  *
+ *  *  * Licensed under the Apache License, Version 2.0 (the "License");
+ *  *  * you may not use this file except in compliance with the License.
+ *  *  * You may obtain a copy of the License at
+ *  *  *
+ *  *  * http://www.apache.org/licenses/LICENSE-2.0
+ *  *  *
+ *  *  * Unless required by applicable law or agreed to in writing, software
+ *  *  * distributed under the License is distributed on an "AS IS" BASIS,
+ *  *  * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  *  * See the License for the specific language governing permissions and
+ *  *  * limitations under the License.
+ *  *
+ *
+ */
+
+package com.chillingvan.canvasgl.glcanvas;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that the 2D affine operations give the matrices the 4x4 operations of
+ * android.opengl.Matrix give, as GLES20Canvas used them before.
+ */
+public class Affine2DTest {
+
+    private static final int WIDTH = 1080;
+    private static final int HEIGHT = 1920;
+    // The matrices are stored at an offset, as in the save stack of the canvas.
+    private static final int OFFSET = 16;
+
+    private Random random;
+    private float[] affine;
+    private float[] reference;
+
+    @Before
+    public void setUp() {
+        random = new Random(42);
+        affine = new float[OFFSET + 16];
+        reference = new float[OFFSET + 16];
+        screenMatrix(affine);
+        screenMatrix(reference);
+    }
+
+    // The matrix setSize gives the canvas for the screen.
+    private static void screenMatrix(float[] m) {
+        ReferenceMatrix.setIdentityM(m, OFFSET);
+        ReferenceMatrix.translateM(m, OFFSET, 0, HEIGHT, 0);
+        ReferenceMatrix.scaleM(m, OFFSET, 1, -1, 1);
+    }
+
+    @Test
+    public void translateMatchesTranslateM() {
+        Affine2D.translate(affine, OFFSET, 12.5f, -40f);
+        ReferenceMatrix.translateM(reference, OFFSET, 12.5f, -40f, 0);
+        assertMatrixEquals(reference, affine);
+    }
+
+    @Test
+    public void scaleMatchesScaleM() {
+        Affine2D.scale(affine, OFFSET, 2f, 0.25f);
+        ReferenceMatrix.scaleM(reference, OFFSET, 2f, 0.25f, 1);
+        assertMatrixEquals(reference, affine);
+    }
+
+    @Test
+    public void rotateMatchesRotationAroundZ() {
+        float[] angles = {1f, 30f, 45f, 90f, -60f, 180f, 359.5f};
+        for (float angle : angles) {
+            Affine2D.rotate(affine, OFFSET, angle);
+            ReferenceMatrix.rotateM(reference, OFFSET, angle, 0, 0, 1);
+            assertMatrixEquals(reference, affine);
+        }
+    }
+
+    @Test
+    public void concatMatchesMultiplyMM() {
+        float[] rhs = new float[16];
+        ReferenceMatrix.setIdentityM(rhs, 0);
+        ReferenceMatrix.translateM(rhs, 0, 30, 70, 0);
+        ReferenceMatrix.rotateM(rhs, 0, 33, 0, 0, 1);
+        ReferenceMatrix.scaleM(rhs, 0, 1.5f, 0.5f, 1);
+        assertTrue(Affine2D.isAffine(rhs, 0));
+
+        Affine2D.concat(affine, OFFSET, rhs, 0);
+        float[] expected = new float[16];
+        ReferenceMatrix.multiplyMM(expected, 0, reference, OFFSET, rhs, 0);
+        assertMatrixEquals(expected, 0, affine, OFFSET);
+    }
+
+    @Test
+    public void randomTransformsMatchReference() {
+        for (int i = 0; i < 200; i++) {
+            switch (random.nextInt(3)) {
+                case 0:
+                    float x = random.nextFloat() * 200 - 100;
+                    float y = random.nextFloat() * 200 - 100;
+                    Affine2D.translate(affine, OFFSET, x, y);
+                    ReferenceMatrix.translateM(reference, OFFSET, x, y, 0);
+                    break;
+                case 1:
+                    float sx = 0.9f + random.nextFloat() * 0.2f;
+                    float sy = 0.9f + random.nextFloat() * 0.2f;
+                    Affine2D.scale(affine, OFFSET, sx, sy);
+                    ReferenceMatrix.scaleM(reference, OFFSET, sx, sy, 1);
+                    break;
+                default:
+                    float angle = random.nextFloat() * 360 - 180;
+                    Affine2D.rotate(affine, OFFSET, angle);
+                    ReferenceMatrix.rotateM(reference, OFFSET, angle, 0, 0, 1);
+                    break;
+            }
+        }
+        assertTrue(Affine2D.isAffine(affine, OFFSET));
+        assertMatrixEquals(reference, affine);
+    }
+
+    @Test
+    public void drawMatrixMatchesSetMatrix() {
+        float[] projection = new float[16];
+        ReferenceMatrix.orthoM(projection, 0, 0, WIDTH, 0, HEIGHT, -1, 1);
+        Affine2D.translate(affine, OFFSET, 100, 200);
+        Affine2D.rotate(affine, OFFSET, 20);
+        ReferenceMatrix.translateM(reference, OFFSET, 100, 200, 0);
+        ReferenceMatrix.rotateM(reference, OFFSET, 20, 0, 0, 1);
+
+        // The canvas keeps the first product per save level and places each draw with the second.
+        float[] mvp = new float[16];
+        Affine2D.multiply(mvp, 0, projection, 0, affine, OFFSET);
+        float[] result = new float[32];
+        Affine2D.multiply(result, 16, mvp, 0, 300, 0, 0, 150, 15, 25);
+
+        // What setMatrix does with 4x4 matrices.
+        float[] expected = new float[32];
+        ReferenceMatrix.translateM(expected, 0, reference, OFFSET, 15, 25, 0);
+        ReferenceMatrix.scaleM(expected, 0, 300, 150, 1);
+        ReferenceMatrix.multiplyMM(expected, 16, projection, 0, expected, 0);
+        assertMatrixEquals(expected, 16, result, 16);
+    }
+
+    @Test
+    public void placementMatchesSetMatrixForThreeDimensionalMatrices() {
+        float[] projection = new float[16];
+        ReferenceMatrix.orthoM(projection, 0, 0, WIDTH, 0, HEIGHT, -1, 1);
+        ReferenceMatrix.rotateM(reference, OFFSET, 40, 0, 1, 0);
+        float[] mvp = new float[16];
+        ReferenceMatrix.multiplyMM(mvp, 0, projection, 0, reference, OFFSET);
+
+        float[] result = new float[16];
+        Affine2D.multiply(result, 0, mvp, 0, 64, 0, 0, 32, -10, 5);
+
+        float[] expected = new float[32];
+        ReferenceMatrix.translateM(expected, 0, reference, OFFSET, -10, 5, 0);
+        ReferenceMatrix.scaleM(expected, 0, 64, 32, 1);
+        ReferenceMatrix.multiplyMM(expected, 16, projection, 0, expected, 0);
+        assertMatrixEquals(expected, 16, result, 0);
+    }
+
+    @Test
+    public void multiplyMatchesMultiplyMM() {
+        float[] projection = new float[16];
+        ReferenceMatrix.orthoM(projection, 0, 0, WIDTH, 0, HEIGHT, -1, 1);
+        Affine2D.scale(affine, OFFSET, 3, 2);
+        ReferenceMatrix.scaleM(reference, OFFSET, 3, 2, 1);
+
+        float[] result = new float[16];
+        Affine2D.multiply(result, 0, projection, 0, affine, OFFSET);
+        float[] expected = new float[16];
+        ReferenceMatrix.multiplyMM(expected, 0, projection, 0, reference, OFFSET);
+        assertMatrixEquals(expected, 0, result, 0);
+    }
+
+    @Test
+    public void isAffineRejectsThreeDimensionalMatrices() {
+        assertTrue(Affine2D.isAffine(affine, OFFSET));
+
+        ReferenceMatrix.rotateM(reference, OFFSET, 30, 1, 0, 0);
+        assertFalse(Affine2D.isAffine(reference, OFFSET));
+
+        screenMatrix(reference);
+        ReferenceMatrix.translateM(reference, OFFSET, 0, 0, 5);
+        assertFalse(Affine2D.isAffine(reference, OFFSET));
+
+        screenMatrix(reference);
+        ReferenceMatrix.scaleM(reference, OFFSET, 1, 1, 2);
+        assertFalse(Affine2D.isAffine(reference, OFFSET));
+    }
+
+    private static void assertMatrixEquals(float[] expected, float[] actual) {
+        assertMatrixEquals(expected, OFFSET, actual, OFFSET);
+    }
+
+    private static void assertMatrixEquals(float[] expected, int expectedOffset, float[] actual, int actualOffset) {
+        for (int i = 0; i < 16; i++) {
+            float e = expected[expectedOffset + i];
+            float tolerance = 1e-4f * Math.max(1f, Math.abs(e));
+            assertEquals("element " + i, e, actual[actualOffset + i], tolerance);
+        }
+    }
+}
@@ -0,0 +1,84 @@
+/*
+ *
+ *  *
+ *  *  * Copyright (C) 2016 ChillingVan
+ *  *  *
+ *  *  * Licensed under the Apache License, Version 2.0 (the "License");
+ *  *  * you may not use this file except in compliance with the License.
+ *  *  * You may obtain a copy of the License at
+ *  *  *
+ *  *  * http://www.apache.org/licenses/LICENSE-2.0
+ *  *  *
+ *  *  * Unless required by applicable law or agreed to in writing, software
+ *  *  * distributed under the License is distributed on an "AS IS" BASIS,
+ *  *  * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  *  * See the License for the specific language governing permissions and
+ *  *  * limitations under the License.
+ *  *
+ *
+ */
+
+package com.chillingvan.canvasgl.glcanvas;
+
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * Measures how fast AtlasPacker places icon sized rectangles: pages of 1024 are filled with
+ * rectangles from 8 to 64 pixels until 16 in a row do not fit, then reset. Reports the time per
+ * insertion and the occupancy reached. Run main on the development machine; it is not a test.
+ */
+public class AtlasPackerBenchmark {
+
+    private static final int PAGE_SIZE = 1024;
+    private static final int PAGES = 200;
+    private static final int ROUNDS = 5;
+
+    private final AtlasPacker packer = new AtlasPacker(PAGE_SIZE, PAGE_SIZE);
+    private final int[] sizes = new int[4096];
+    private final int[] position = new int[2];
+    private int insertions;
+    private double occupancy;
+
+    private AtlasPackerBenchmark() {
+        Random random = new Random(3);
+        for (int i = 0; i < sizes.length; i++) {
+            sizes[i] = 8 + random.nextInt(57);
+        }
+    }
+
+    private double measure() {
+        insertions = 0;
+        occupancy = 0;
+        int next = 0;
+        long start = System.nanoTime();
+        for (int page = 0; page < PAGES; page++) {
+            packer.reset();
+            int failures = 0;
+            while (failures < 16) {
+                int width = sizes[next++ & 4095];
+                int height = sizes[next++ & 4095];
+                if (packer.insert(width, height, position)) {
+                    insertions++;
+                    failures = 0;
+                } else {
+                    failures++;
+                }
+            }
+            occupancy += packer.getOccupancy();
+        }
+        return (System.nanoTime() - start) / (double) insertions;
+    }
+
+    public static void main(String[] args) {
+        AtlasPackerBenchmark benchmark = new AtlasPackerBenchmark();
+        benchmark.measure();
+        for (int round = 0; round < ROUNDS; round++) {
+            double perInsertion = benchmark.measure();
+            System.out.println(String.format(Locale.US,
+                    "round %d: %.1f ns/insert, %.0f inserts/s, %d rects/page, %.1f%% occupancy",
+                    round, perInsertion, 1e9 / perInsertion, benchmark.insertions / PAGES,
+                    100 * benchmark.occupancy / PAGES));
+        }
+    }
+}
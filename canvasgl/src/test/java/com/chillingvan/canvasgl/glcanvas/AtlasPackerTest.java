@@ -0,0 +1,131 @@
+/*
+ *
+ *  *
+ *  *  * Copyright (C) 2016 ChillingVan
+ *  *  *
+ *  *  * Licensed under the Apache License, Version 2.0 (the "License");
+ *  *  * you may not use this file except in compliance with the License.
+ *  *  * You may obtain a copy of the License at
+ *  *  *
+ *  *  * http://www.apache.org/licenses/LICENSE-2.0
+ *  *  *
+ *  *  * Unless required by applicable law or agreed to in writing, software
+ *  *  * distributed under the License is distributed on an "AS IS" BASIS,
+ *  *  * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  *  * See the License for the specific language governing permissions and
+ *  *  * limitations under the License.
+ *  *
+ *
+ */
+
+package com.chillingvan.canvasgl.glcanvas;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that AtlasPacker keeps rectangles inside the page and apart from each other, and how much
+ * of the page it fills.
+ */
+public class AtlasPackerTest {
+
+    private static final int SIZE = 256;
+
+    private AtlasPacker packer;
+    private final int[] position = new int[2];
+    private final ArrayList<int[]> placed = new ArrayList<>();
+
+    @Before
+    public void setUp() {
+        packer = new AtlasPacker(SIZE, SIZE);
+    }
+
+    @Test
+    public void equalSquaresFillThePage() {
+        for (int i = 0; i < 64; i++) {
+            assertTrue(insert(32, 32));
+        }
+        assertEquals(1, packer.getOccupancy(), 0);
+        assertFalse(insert(1, 1));
+    }
+
+    @Test
+    public void randomRectanglesDoNotOverlap() {
+        Random random = new Random(7);
+        int failures = 0;
+        while (failures < 20) {
+            if (!insert(4 + random.nextInt(40), 4 + random.nextInt(40))) {
+                failures++;
+            }
+        }
+        long area = 0;
+        for (int i = 0; i < placed.size(); i++) {
+            int[] a = placed.get(i);
+            assertTrue(a[0] >= 0 && a[1] >= 0 && a[0] + a[2] <= SIZE && a[1] + a[3] <= SIZE);
+            for (int j = i + 1; j < placed.size(); j++) {
+                int[] b = placed.get(j);
+                assertFalse(a[0] < b[0] + b[2] && b[0] < a[0] + a[2] && a[1] < b[1] + b[3] && b[1] < a[1] + a[3]);
+            }
+            area += a[2] * a[3];
+        }
+        assertEquals(area, packer.getUsedArea());
+        assertTrue("occupancy " + packer.getOccupancy(), packer.getOccupancy() > 0.75f);
+    }
+
+    @Test
+    public void tallestFirstFillsMostOfThePage() {
+        // The heights the atlas uses for compaction, sorted as it sorts them.
+        Random random = new Random(11);
+        int[] heights = new int[300];
+        for (int i = 0; i < heights.length; i++) {
+            heights[i] = 4 + random.nextInt(28);
+        }
+        Arrays.sort(heights);
+        for (int i = heights.length - 1; i >= 0; i--) {
+            if (!insert(heights[i], heights[i])) {
+                break;
+            }
+        }
+        assertTrue("occupancy " + packer.getOccupancy(), packer.getOccupancy() > 0.85f);
+    }
+
+    @Test
+    public void failedInsertLeavesThePageAsItWas() {
+        assertTrue(insert(200, 100));
+        assertTrue(insert(56, 256));
+        assertFalse(insert(201, 157));
+        assertFalse(insert(0, 10));
+        assertFalse(insert(SIZE + 1, 1));
+        assertEquals(200 * 100 + 56 * 256, packer.getUsedArea());
+        assertTrue(insert(200, 156));
+        assertArrayEquals(new int[]{0, 100}, position);
+        assertEquals(1, packer.getOccupancy(), 0);
+    }
+
+    @Test
+    public void resetEmptiesThePage() {
+        assertTrue(insert(SIZE, SIZE));
+        assertFalse(insert(1, 1));
+        packer.reset();
+        assertEquals(0, packer.getUsedArea());
+        assertTrue(insert(10, 10));
+        assertArrayEquals(new int[]{0, 0}, position);
+    }
+
+    private boolean insert(int width, int height) {
+        if (!packer.insert(width, height, position)) {
+            return false;
+        }
+        placed.add(new int[]{position[0], position[1], width, height});
+        return true;
+    }
+}
@@ -0,0 +1,99 @@
+/*
+ *
+ *  *
+ *  *  * Copyright (C) 2016 ChillingVan
+ *  *  *
+ *  *  * Licensed under the Apache License, Version 2.0 (the "License");
+ *  *  * you may not use this file except in compliance with the License.
+ *  *  * You may obtain a copy of the License at
+ *  *  *
+ *  *  * http://www.apache.org/licenses/LICENSE-2.0
+ *  *  *
+ *  *  * Unless required by applicable law or agreed to in writing, software
+ *  *  * distributed under the License is distributed on an "AS IS" BASIS,
+ *  *  * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  *  * See the License for the specific language governing permissions and
+ *  *  * limitations under the License.
+ *  *
+ *
+ */
+
+package com.chillingvan.canvasgl.glcanvas;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Checks the triangles PathTessellator writes by their total area. The triangles of a stroke must
+ * not overlap, so their areas add up to the area the stroke covers.
+ */
+public class PathTessellatorTest {
+
+    private static final float DELTA = 1e-2f;
+    private static final float[] SQUARE = {0, 0, 10, 0, 10, 10, 0, 10};
+
+    private PathTessellator tessellator;
+
+    @Before
+    public void setUp() {
+        tessellator = new PathTessellator();
+    }
+
+    @Test
+    public void fillCoversThePolygon() {
+        tessellator.fill(SQUARE, 0, 4);
+        assertEquals(100, area(), DELTA);
+
+        // An L shape, one vertex is reflex.
+        tessellator.reset();
+        tessellator.fill(new float[]{0, 0, 20, 0, 20, 10, 10, 10, 10, 20, 0, 20}, 0, 6);
+        assertEquals(300, area(), DELTA);
+    }
+
+    @Test
+    public void buttStrokeIsTheSegmentWidened() {
+        tessellator.stroke(new float[]{5, 5, 15, 5}, 0, 2, false, 2, PathTessellator.JOIN_MITER,
+                PathTessellator.CAP_BUTT);
+        assertEquals(20, area(), DELTA);
+    }
+
+    @Test
+    public void squareCapsExtendBothEnds() {
+        tessellator.stroke(new float[]{5, 5, 15, 5}, 0, 2, false, 2, PathTessellator.JOIN_MITER,
+                PathTessellator.CAP_SQUARE);
+        assertEquals(24, area(), DELTA);
+    }
+
+    @Test
+    public void closedMiterStrokeDoesNotOverlapAtTheCorners() {
+        tessellator.stroke(SQUARE, 0, 4, true, 2, PathTessellator.JOIN_MITER, PathTessellator.CAP_BUTT);
+        assertEquals(12 * 12 - 8 * 8, area(), DELTA);
+    }
+
+    @Test
+    public void bevelJoinCutsTheOuterCorner() {
+        tessellator.stroke(new float[]{0, 0, 10, 0, 10, 10}, 0, 3, false, 2, PathTessellator.JOIN_BEVEL,
+                PathTessellator.CAP_BUTT);
+        // Two 10 x 2 bands overlapping in a 1 x 1 inner square, plus half the outer 1 x 1 corner.
+        assertEquals(40 - 1 + 0.5f, area(), DELTA);
+    }
+
+    @Test
+    public void offsetSelectsThePoints() {
+        tessellator.stroke(new float[]{99, 5, 5, 15, 5}, 1, 2, false, 2, PathTessellator.JOIN_MITER,
+                PathTessellator.CAP_BUTT);
+        assertEquals(20, area(), DELTA);
+    }
+
+    private float area() {
+        float[] v = tessellator.getVertices();
+        float sum = 0;
+        for (int i = 0; i < tessellator.getVertexCount() * 2; i += 6) {
+            float cross = (v[i + 2] - v[i]) * (v[i + 5] - v[i + 1]) - (v[i + 4] - v[i]) * (v[i + 3] - v[i + 1]);
+            sum += Math.abs(cross) / 2;
+        }
+        return sum;
+    }
+}
@@ -0,0 +1,71 @@
+/*
+ *
+ *  *
+ *  *  * Copyright (C) 2016 ChillingVan
+ *  *  *
+ *  *  * Licensed under the Apache License, Version 2.0 (the "License");
+ *  *  * you may not use this file except in compliance with the License.
+ *  *  * You may obtain a copy of the License at
+ *  *  *
+ *  *  * http://www.apache.org/licenses/LICENSE-2.0
+ *  *  *
+ *  *  * Unless required by applicable law or agreed to in writing, software
+ *  *  * distributed under the License is distributed on an "AS IS" BASIS,
+ *  *  * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  *  * See the License for the specific language governing permissions and
+ *  *  * limitations under the License.
+ *  *
+ *
+ */
+
+package com.chillingvan.canvasgl.glcanvas;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Checks the ARGB to RGBA conversion of PixelBuffer against the bytes glTexSubImage2D reads.
+ */
+public class PixelBufferTest {
+
+    @Test
+    public void opaqueColorIsOnlyReordered() {
+        int[] pixels = {0xFF112233};
+        PixelBuffer.toRgba(pixels, 1, true);
+        // R, G, B, A from the lowest byte up.
+        assertEquals(0xFF332211, pixels[0]);
+    }
+
+    @Test
+    public void translucentColorIsPremultiplied() {
+        int[] pixels = {0x80FF4000, 0x00FFFFFF};
+        PixelBuffer.toRgba(pixels, 2, true);
+        assertEquals(0x80002080, pixels[0]);
+        assertEquals(0, pixels[1]);
+    }
+
+    @Test
+    public void premultiplyRoundsLikeDivisionBy255() {
+        int[] pixels = new int[256 * 256];
+        for (int a = 0; a < 256; a++) {
+            for (int c = 0; c < 256; c++) {
+                pixels[a * 256 + c] = (a << 24) | c;
+            }
+        }
+        PixelBuffer.toRgba(pixels, pixels.length, true);
+        for (int a = 0; a < 256; a++) {
+            for (int c = 0; c < 256; c++) {
+                int blue = (pixels[a * 256 + c] >> 16) & 0xFF;
+                assertEquals(Math.round(c * a / 255f), blue);
+            }
+        }
+    }
+
+    @Test
+    public void unpremultipliedBitmapKeepsItsColor() {
+        int[] pixels = {0x80FF4000};
+        PixelBuffer.toRgba(pixels, 1, false);
+        assertEquals(0x800040FF, pixels[0]);
+    }
+}
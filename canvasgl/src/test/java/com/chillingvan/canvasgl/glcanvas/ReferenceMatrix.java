@@ -0,0 +1,160 @@
+/*
+ *
+ *  *
+ *  *  * Copyright (C) 2016 ChillingVan
+ *  *  *
+ *  *  * Licensed under the Apache License, Version 2.0 (the "License");
+ *  *  * you may not use this file except in compliance with the License.
+ *  *  * You may obtain a copy of the License at
+ *  *  *
+ *  *  * http://www.apache.org/licenses/LICENSE-2.0
+ *  *  *
+ *  *  * Unless required by applicable law or agreed to in writing, software
+ *  *  * distributed under the License is distributed on an "AS IS" BASIS,
+ *  *  * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  *  * See the License for the specific language governing permissions and
+ *  *  * limitations under the License.
+ *  *
+ *
+ */
+
+package com.chillingvan.canvasgl.glcanvas;
+
+/**
+ * The 4x4 operations of android.opengl.Matrix which GLES20Canvas uses, written as the platform
+ * does, so local tests can compare against them without an Android runtime.
+ */
+final class ReferenceMatrix {
+
+    private ReferenceMatrix() {
+    }
+
+    static void setIdentityM(float[] sm, int smOffset) {
+        for (int i = 0; i < 16; i++) {
+            sm[smOffset + i] = 0;
+        }
+        for (int i = 0; i < 16; i += 5) {
+            sm[smOffset + i] = 1.0f;
+        }
+    }
+
+    // result must not overlap lhs or rhs.
+    static void multiplyMM(float[] result, int resultOffset, float[] lhs, int lhsOffset, float[] rhs, int rhsOffset) {
+        for (int i = 0; i < 4; i++) {
+            for (int j = 0; j < 4; j++) {
+                float sum = 0;
+                for (int k = 0; k < 4; k++) {
+                    sum += lhs[lhsOffset + k * 4 + j] * rhs[rhsOffset + i * 4 + k];
+                }
+                result[resultOffset + i * 4 + j] = sum;
+            }
+        }
+    }
+
+    // resultVec must not overlap lhsMat or rhsVec.
+    static void multiplyMV(float[] resultVec, int resultVecOffset, float[] lhsMat, int lhsMatOffset,
+                           float[] rhsVec, int rhsVecOffset) {
+        for (int row = 0; row < 4; row++) {
+            float sum = 0;
+            for (int k = 0; k < 4; k++) {
+                sum += lhsMat[lhsMatOffset + k * 4 + row] * rhsVec[rhsVecOffset + k];
+            }
+            resultVec[resultVecOffset + row] = sum;
+        }
+    }
+
+    static void translateM(float[] tm, int tmOffset, float[] m, int mOffset, float x, float y, float z) {
+        for (int i = 0; i < 12; i++) {
+            tm[tmOffset + i] = m[mOffset + i];
+        }
+        for (int i = 0; i < 4; i++) {
+            int tmi = tmOffset + i;
+            int mi = mOffset + i;
+            tm[12 + tmi] = m[mi] * x + m[4 + mi] * y + m[8 + mi] * z + m[12 + mi];
+        }
+    }
+
+    static void translateM(float[] m, int mOffset, float x, float y, float z) {
+        for (int i = 0; i < 4; i++) {
+            int mi = mOffset + i;
+            m[12 + mi] += m[mi] * x + m[4 + mi] * y + m[8 + mi] * z;
+        }
+    }
+
+    static void scaleM(float[] m, int mOffset, float x, float y, float z) {
+        for (int i = 0; i < 4; i++) {
+            int mi = mOffset + i;
+            m[mi] *= x;
+            m[4 + mi] *= y;
+            m[8 + mi] *= z;
+        }
+    }
+
+    static void setRotateM(float[] rm, int rmOffset, float a, float x, float y, float z) {
+        rm[rmOffset + 3] = 0;
+        rm[rmOffset + 7] = 0;
+        rm[rmOffset + 11] = 0;
+        rm[rmOffset + 12] = 0;
+        rm[rmOffset + 13] = 0;
+        rm[rmOffset + 14] = 0;
+        rm[rmOffset + 15] = 1;
+        a *= (float) (Math.PI / 180.0f);
+        float s = (float) Math.sin(a);
+        float c = (float) Math.cos(a);
+        if (x == 0 && y == 0 && z == 1) {
+            rm[rmOffset] = c;
+            rm[rmOffset + 5] = c;
+            rm[rmOffset + 1] = s;
+            rm[rmOffset + 4] = -s;
+            rm[rmOffset + 2] = 0;
+            rm[rmOffset + 6] = 0;
+            rm[rmOffset + 8] = 0;
+            rm[rmOffset + 9] = 0;
+            rm[rmOffset + 10] = 1;
+            return;
+        }
+        float len = (float) Math.sqrt(x * x + y * y + z * z);
+        if (len != 1) {
+            float recipLen = 1.0f / len;
+            x *= recipLen;
+            y *= recipLen;
+            z *= recipLen;
+        }
+        float nc = 1.0f - c;
+        float xy = x * y;
+        float yz = y * z;
+        float zx = z * x;
+        float xs = x * s;
+        float ys = y * s;
+        float zs = z * s;
+        rm[rmOffset] = x * x * nc + c;
+        rm[rmOffset + 4] = xy * nc - zs;
+        rm[rmOffset + 8] = zx * nc + ys;
+        rm[rmOffset + 1] = xy * nc + zs;
+        rm[rmOffset + 5] = y * y * nc + c;
+        rm[rmOffset + 9] = yz * nc - xs;
+        rm[rmOffset + 2] = zx * nc - ys;
+        rm[rmOffset + 6] = yz * nc + xs;
+        rm[rmOffset + 10] = z * z * nc + c;
+    }
+
+    static void rotateM(float[] m, int mOffset, float a, float x, float y, float z) {
+        float[] temp = new float[32];
+        setRotateM(temp, 0, a, x, y, z);
+        multiplyMM(temp, 16, m, mOffset, temp, 0);
+        System.arraycopy(temp, 16, m, mOffset, 16);
+    }
+
+    static void orthoM(float[] m, int mOffset, float left, float right, float bottom, float top, float near, float far) {
+        float rWidth = 1.0f / (right - left);
+        float rHeight = 1.0f / (top - bottom);
+        float rDepth = 1.0f / (far - near);
+        setIdentityM(m, mOffset);
+        m[mOffset] = 2.0f * rWidth;
+        m[mOffset + 5] = 2.0f * rHeight;
+        m[mOffset + 10] = -2.0f * rDepth;
+        m[mOffset + 12] = -(right + left) * rWidth;
+        m[mOffset + 13] = -(top + bottom) * rHeight;
+        m[mOffset + 14] = -(far + near) * rDepth;
+    }
+}
@@ -0,0 +1,112 @@
+/*
+ *
+ *  *
+ *  *  * Copyright (C) 2016 ChillingVan
+ *  *  *
+ *  *  * Licensed under the Apache License, Version 2.0 (the "License");
+ *  *  * you may not use this file except in compliance with the License.
+ *  *  * You may obtain a copy of the License at
+ *  *  *
+ *  *  * http://www.apache.org/licenses/LICENSE-2.0
+ *  *  *
+ *  *  * Unless required by applicable law or agreed to in writing, software
+ *  *  * distributed under the License is distributed on an "AS IS" BASIS,
+ *  *  * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  *  * See the License for the specific language governing permissions and
+ *  *  * limitations under the License.
+ *  *
+ *
+ */
+
+package com.chillingvan.canvasgl.glcanvas;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.Locale;
+
+/**
+ * Measures the CPU vertex writer of SpriteBatch: full batches of quads, each under its own
+ * rotated matrix as in the bubble sample, written into the float array of the batch. Also
+ * reports the bytes allocated per quad where the JVM can tell, which should be 0. Run main on
+ * the development machine; it is not a test.
+ */
+public class SpriteBatchBenchmark {
+
+    private static final int BATCHES = 2000;
+    private static final int ROUNDS = 5;
+
+    private final float[] vertices = new float[SpriteBatch.MAX_QUADS * SpriteBatch.FLOATS_PER_QUAD];
+    private final float[] matrices = new float[32];
+    private float sink;
+
+    private SpriteBatchBenchmark() {
+        ReferenceMatrix.setIdentityM(matrices, 0);
+        Affine2D.translate(matrices, 0, 0, 1920);
+        Affine2D.scale(matrices, 0, 1, -1);
+    }
+
+    // One batch of quads, each drawn inside save, rotate around its center, restore.
+    private void writeRotatedBatch(int batch) {
+        for (int quad = 0; quad < SpriteBatch.MAX_QUADS; quad++) {
+            float x = (quad & 31) * 32;
+            float y = (quad >> 5) * 32;
+            System.arraycopy(matrices, 0, matrices, 16, 16);
+            Affine2D.translate(matrices, 16, x + 16, y + 16);
+            Affine2D.rotate(matrices, 16, (batch + quad) & 255);
+            Affine2D.translate(matrices, 16, -16, -16);
+            SpriteBatch.putQuad(vertices, quad * SpriteBatch.FLOATS_PER_QUAD, matrices, 16,
+                    0, 0, 32, 32, 0, 0, 1, 1, 1);
+        }
+        sink += vertices[batch & 1023];
+    }
+
+    // The same quads with the rotation folded into the writer.
+    private void writeRotatedQuads(int batch) {
+        for (int quad = 0; quad < SpriteBatch.MAX_QUADS; quad++) {
+            float x = (quad & 31) * 32;
+            float y = (quad >> 5) * 32;
+            SpriteBatch.putRotatedQuad(vertices, quad * SpriteBatch.FLOATS_PER_QUAD, matrices, 0,
+                    x + 16, y + 16, 32, 32, (batch + quad) & 255, 1, 0, 0, 1, 1, 1);
+        }
+        sink += vertices[batch & 1023];
+    }
+
+    private double measure(boolean rotatedWriter) {
+        long start = System.nanoTime();
+        for (int batch = 0; batch < BATCHES; batch++) {
+            if (rotatedWriter) {
+                writeRotatedQuads(batch);
+            } else {
+                writeRotatedBatch(batch);
+            }
+        }
+        return (System.nanoTime() - start) / (double) (BATCHES * SpriteBatch.MAX_QUADS);
+    }
+
+    // Only the HotSpot flavour of the bean counts allocated bytes.
+    private static long allocatedBytes() {
+        ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (bean instanceof com.sun.management.ThreadMXBean) {
+            return ((com.sun.management.ThreadMXBean) bean).getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+        return -1;
+    }
+
+    public static void main(String[] args) {
+        SpriteBatchBenchmark benchmark = new SpriteBatchBenchmark();
+        benchmark.measure(false);
+        benchmark.measure(true);
+        for (int round = 0; round < ROUNDS; round++) {
+            long before = allocatedBytes();
+            double matrixPerQuad = benchmark.measure(false);
+            double rotatedWriter = benchmark.measure(true);
+            long after = allocatedBytes();
+            String allocation = before < 0 ? "unknown" : String.format(Locale.US, "%.3f",
+                    (after - before) / (2.0 * BATCHES * SpriteBatch.MAX_QUADS));
+            System.out.println(String.format(Locale.US,
+                    "round %d: matrix per quad %.1f ns/quad, rotated writer %.1f ns/quad, %s bytes/quad",
+                    round, matrixPerQuad, rotatedWriter, allocation));
+        }
+        System.out.println("checksum " + benchmark.sink);
+    }
+}
@@ -0,0 +1,118 @@
+/*
+ *
+ *  *
+ *  *  * Copyright (C) 2016 ChillingVan
+ *  *  *
+ *  *  * Licensed under the Apache License, Version 2.0 (the "License");
+ *  *  * you may not use this file except in compliance with the License.
+ *  *  * You may obtain a copy of the License at
+ *  *  *
+ *  *  * http://www.apache.org/licenses/LICENSE-2.0
+ *  *  *
+ *  *  * Unless required by applicable law or agreed to in writing, software
+ *  *  * distributed under the License is distributed on an "AS IS" BASIS,
+ *  *  * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  *  * See the License for the specific language governing permissions and
+ *  *  * limitations under the License.
+ *  *
+ *
+ */
+
+package com.chillingvan.canvasgl.glcanvas;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Checks that the vertices SpriteBatch writes on the CPU land where the vertex shader would
+ * put the corners of the quad under the same canvas matrix.
+ */
+public class SpriteBatchVertexTest {
+
+    private static final float DELTA = 1e-3f;
+    private static final int HEIGHT = 1920;
+
+    private float[] matrix;
+    private float[] vertices;
+
+    @Before
+    public void setUp() {
+        matrix = new float[16];
+        ReferenceMatrix.setIdentityM(matrix, 0);
+        ReferenceMatrix.translateM(matrix, 0, 0, HEIGHT, 0);
+        ReferenceMatrix.scaleM(matrix, 0, 1, -1, 1);
+        vertices = new float[SpriteBatch.FLOATS_PER_QUAD * 2];
+    }
+
+    @Test
+    public void quadCornersFollowTheStripOrder() {
+        ReferenceMatrix.setIdentityM(matrix, 0);
+        SpriteBatch.putQuad(vertices, 0, matrix, 0, 10, 20, 110, 70, 0.25f, 0.5f, 0.75f, 1f, 0.5f);
+
+        assertVertex(0, 10, 20, 0.25f, 0.5f, 0.5f);
+        assertVertex(1, 110, 20, 0.75f, 0.5f, 0.5f);
+        assertVertex(2, 10, 70, 0.25f, 1f, 0.5f);
+        assertVertex(3, 110, 70, 0.75f, 1f, 0.5f);
+    }
+
+    @Test
+    public void quadCornersAreTransformedLikeTheShaderDoes() {
+        ReferenceMatrix.translateM(matrix, 0, 300, 400, 0);
+        ReferenceMatrix.rotateM(matrix, 0, 37, 0, 0, 1);
+        ReferenceMatrix.scaleM(matrix, 0, 1.5f, 0.75f, 1);
+        int offset = SpriteBatch.FLOATS_PER_QUAD;
+        SpriteBatch.putQuad(vertices, offset, matrix, 0, -50, -25, 50, 25, 0, 0, 1, 1, 1);
+
+        float[] corners = {-50, -25, 50, -25, -50, 25, 50, 25};
+        for (int corner = 0; corner < 4; corner++) {
+            float[] expected = transform(matrix, corners[corner * 2], corners[corner * 2 + 1]);
+            int i = offset + corner * SpriteBatch.FLOATS_PER_VERTEX;
+            assertEquals("x of corner " + corner, expected[0], vertices[i], DELTA);
+            assertEquals("y of corner " + corner, expected[1], vertices[i + 1], DELTA);
+        }
+    }
+
+    @Test
+    public void rotatedQuadMatchesDrawingUnderARotatedMatrix() {
+        float[] angles = {0, 15, 90, 135, -200};
+        for (float degrees : angles) {
+            float centerX = 240;
+            float centerY = 320;
+            float width = 64;
+            float height = 48;
+            float scale = 1.25f;
+            SpriteBatch.putRotatedQuad(vertices, 0, matrix, 0, centerX, centerY, width, height,
+                    degrees, scale, 0, 0, 1, 1, 1);
+
+            // The transforms a draw with its own uniform matrix would use.
+            float[] drawMatrix = matrix.clone();
+            ReferenceMatrix.translateM(drawMatrix, 0, centerX, centerY, 0);
+            ReferenceMatrix.rotateM(drawMatrix, 0, degrees, 0, 0, 1);
+            ReferenceMatrix.scaleM(drawMatrix, 0, scale, scale, 1);
+            ReferenceMatrix.translateM(drawMatrix, 0, -width / 2, -height / 2, 0);
+            int offset = SpriteBatch.FLOATS_PER_QUAD;
+            SpriteBatch.putQuad(vertices, offset, drawMatrix, 0, 0, 0, width, height, 0, 0, 1, 1, 1);
+
+            for (int i = 0; i < SpriteBatch.FLOATS_PER_QUAD; i++) {
+                assertEquals(degrees + " degrees, float " + i, vertices[offset + i], vertices[i], DELTA);
+            }
+        }
+    }
+
+    private static float[] transform(float[] matrix, float x, float y) {
+        float[] result = new float[4];
+        ReferenceMatrix.multiplyMV(result, 0, matrix, 0, new float[]{x, y, 0, 1}, 0);
+        return result;
+    }
+
+    private void assertVertex(int vertex, float x, float y, float u, float v, float alpha) {
+        int i = vertex * SpriteBatch.FLOATS_PER_VERTEX;
+        assertEquals("x of vertex " + vertex, x, vertices[i], DELTA);
+        assertEquals("y of vertex " + vertex, y, vertices[i + 1], DELTA);
+        assertEquals("u of vertex " + vertex, u, vertices[i + 2], DELTA);
+        assertEquals("v of vertex " + vertex, v, vertices[i + 3], DELTA);
+        assertEquals("alpha of vertex " + vertex, alpha, vertices[i + 4], DELTA);
+    }
+}
@@ -0,0 +1,152 @@
+/*
+ *
+ *  *
+ *  *  * Copyright (C) 2016 ChillingVan
+ *  *  *
+ *  *  * Licensed under the Apache License, Version 2.0 (the "License");
+ *  *  * you may not use this file except in compliance with the License.
+ *  *  * You may obtain a copy of the License at
+ *  *  *
+ *  *  * http://www.apache.org/licenses/LICENSE-2.0
+ *  *  *
+ *  *  * Unless required by applicable law or agreed to in writing, software
+ *  *  * distributed under the License is distributed on an "AS IS" BASIS,
+ *  *  * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  *  * See the License for the specific language governing permissions and
+ *  *  * limitations under the License.
+ *  *
+ *
+ */
+
+package com.chillingvan.canvasgl.glcanvas;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that TextureDirtyRects merges what should be one rectangle, stays under its limit and always
+ * covers what was added.
+ */
+public class TextureDirtyRectsTest {
+
+    private TextureDirtyRects rects;
+
+    @Before
+    public void setUp() {
+        rects = new TextureDirtyRects();
+    }
+
+    @Test
+    public void emptyRectsAreIgnored() {
+        rects.add(10, 10, 10, 20);
+        rects.add(10, 20, 30, 10);
+        assertTrue(rects.isEmpty());
+    }
+
+    @Test
+    public void overlappingStrokeBecomesOneRect() {
+        // A brush dragged to the right, each dab overlapping the last.
+        for (int i = 0; i < 20; i++) {
+            rects.add(100 + i * 8, 200, 132 + i * 8, 232);
+        }
+        assertEquals(1, rects.getCount());
+        assertRect(0, 100, 200, 284, 232);
+        assertEquals(184 * 32, rects.getArea());
+    }
+
+    @Test
+    public void containedRectIsDropped() {
+        rects.add(0, 0, 100, 100);
+        rects.add(10, 10, 20, 20);
+        assertEquals(1, rects.getCount());
+        assertRect(0, 0, 0, 100, 100);
+    }
+
+    @Test
+    public void farApartRectsStayApart() {
+        rects.add(0, 0, 10, 10);
+        rects.add(1000, 1000, 1010, 1010);
+        assertEquals(2, rects.getCount());
+        assertEquals(200, rects.getArea());
+    }
+
+    @Test
+    public void mergeCascades() {
+        rects.add(0, 0, 10, 10);
+        rects.add(20, 0, 30, 10);
+        // Bridges the two, so all three become one.
+        rects.add(5, 0, 25, 10);
+        assertEquals(1, rects.getCount());
+        assertRect(0, 0, 0, 30, 10);
+    }
+
+    @Test
+    public void staysUnderTheLimitAndCoversEverything() {
+        Random random = new Random(7);
+        int[][] added = new int[200][];
+        for (int i = 0; i < added.length; i++) {
+            int x = random.nextInt(2000);
+            int y = random.nextInt(2000);
+            added[i] = new int[]{x, y, x + 1 + random.nextInt(40), y + 1 + random.nextInt(40)};
+            rects.add(added[i][0], added[i][1], added[i][2], added[i][3]);
+            assertTrue(rects.getCount() <= TextureDirtyRects.MAX_RECTS);
+        }
+        for (int[] rect : added) {
+            assertTrue(isCovered(rect));
+        }
+    }
+
+    @Test
+    public void brushStrokesOnALargeBitmapArePartial() {
+        // The paint example on a 2048x2048 bitmap, which may be an async texture.
+        for (int i = 0; i < 50; i++) {
+            rects.add(300 + i * 6, 900 + i * 2, 348 + i * 6, 948 + i * 2);
+        }
+        for (int i = 0; i < 50; i++) {
+            rects.add(1500, 100 + i * 6, 1548, 148 + i * 6);
+        }
+        assertTrue(rects.isPartialUpload(2048, 2048));
+        assertTrue(rects.getArea() < 2048 * 2048 / 16);
+    }
+
+    @Test
+    public void mostOfTheImageIsNotPartial() {
+        assertFalse(rects.isPartialUpload(2048, 2048));
+        rects.add(0, 0, 2048, 1024);
+        assertFalse(rects.isPartialUpload(2048, 2048));
+        rects.clear();
+        rects.add(0, 0, 2048, 1023);
+        assertTrue(rects.isPartialUpload(2048, 2048));
+    }
+
+    @Test
+    public void clearEmpties() {
+        rects.add(0, 0, 10, 10);
+        rects.clear();
+        assertTrue(rects.isEmpty());
+        assertEquals(0, rects.getArea());
+    }
+
+    private boolean isCovered(int[] rect) {
+        for (int i = 0; i < rects.getCount(); i++) {
+            if (rects.getLeft(i) <= rect[0] && rects.getTop(i) <= rect[1]
+                    && rects.getRight(i) >= rect[2] && rects.getBottom(i) >= rect[3]) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void assertRect(int i, int left, int top, int right, int bottom) {
+        assertEquals(left, rects.getLeft(i));
+        assertEquals(top, rects.getTop(i));
+        assertEquals(right, rects.getRight(i));
+        assertEquals(bottom, rects.getBottom(i));
+    }
+}
@@ -66,6 +66,8 @@ public class AnimGLView extends GLContinuousView {
 
     @Override
     protected void onGLDraw(ICanvasGL canvas) {
+        // Bubbles with the basic filter are then rotated on the CPU and share one draw call.
+        canvas.getGlCanvas().setBatchEnabled(true);
         for (Bubble bubble : bubbles) {
             bubble.glDraw(canvas);
             if (wallTop.isTouch(bubble.point, bubble.collisionRadius) || wallBottom.isTouch(bubble.point, bubble.collisionRadius)) {
@@ -26,6 +26,7 @@ import android.graphics.BitmapFactory;
 import android.graphics.Canvas;
 import android.graphics.Color;
 import android.graphics.Paint;
+import android.graphics.RectF;
 import android.util.AttributeSet;
 
 import com.chillingvan.canvasgl.CanvasGL;
@@ -113,5 +114,15 @@ public class CompareGLView extends GLView {
         strokeCirclePaint.setLineWidth(4);
         strokeCirclePaint.setStyle(Paint.Style.STROKE);
         canvas.drawCircle(490, 30, 30, strokeCirclePaint);
+
+        //round rect, oval and arc
+        canvas.drawRoundRect(new RectF(400, 140, 460, 190), 12, circlePaint);
+
+        GLPaint strokePaint = new GLPaint();
+        strokePaint.setColor(Color.parseColor("#880000FF"));
+        strokePaint.setLineWidth(6);
+        strokePaint.setStyle(Paint.Style.STROKE);
+        canvas.drawOval(new RectF(470, 140, 540, 190), strokePaint);
+        canvas.drawArc(new RectF(550, 140, 600, 190), -90, 270, strokePaint);
     }
 }
@@ -27,6 +27,7 @@ import android.graphics.Canvas;
 import android.graphics.Color;
 import android.graphics.Matrix;
 import android.graphics.Paint;
+import android.graphics.RectF;
 import android.util.AttributeSet;
 import android.view.View;
 
@@ -110,6 +111,16 @@ public class CompareNormalView extends View {
         strokeCirclePaint.setStrokeWidth(4);
         strokeCirclePaint.setStyle(Paint.Style.STROKE);
         canvas.drawCircle(490, 30, 30, strokeCirclePaint);
+
+        //round rect, oval and arc
+        canvas.drawRoundRect(new RectF(400, 140, 460, 190), 12, 12, circlePaint);
+
+        Paint strokePaint = new Paint();
+        strokePaint.setColor(Color.parseColor("#880000FF"));
+        strokePaint.setStrokeWidth(6);
+        strokePaint.setStyle(Paint.Style.STROKE);
+        canvas.drawOval(new RectF(470, 140, 540, 190), strokePaint);
+        canvas.drawArc(new RectF(550, 140, 600, 190), -90, 270, false, strokePaint);
     }
 
 
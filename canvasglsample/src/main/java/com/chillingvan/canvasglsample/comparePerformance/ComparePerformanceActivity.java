@@ -5,6 +5,7 @@ import android.graphics.BitmapFactory;
 import android.os.Bundle;
 import android.support.v7.app.AppCompatActivity;
 import android.view.View;
+import android.widget.Button;
 import android.widget.TextView;
 
 import com.chillingvan.canvasglsample.R;
@@ -45,7 +46,8 @@ public class ComparePerformanceActivity extends AppCompatActivity {
                 }
                 oneText.setText(String.format(Locale.CHINA, "hw canvas:%d", hwBubblesView.getCnt()));
                 twoText.setText(String.format(Locale.CHINA, "sw canvas:%d", swBubblesView.getCnt()));
-                threeText.setText(String.format(Locale.CHINA, "gl canvas:%d", glBubblesView.getCnt()));
+                threeText.setText(String.format(Locale.CHINA, "gl canvas:%d\n%dus", glBubblesView.getCnt(),
+                        glBubblesView.getAndClearAverageDrawTimeUs()));
                 threeText.postDelayed(this, 500);
             }
         }, 500);
@@ -63,6 +65,12 @@ public class ComparePerformanceActivity extends AppCompatActivity {
         glBubblesView.setAdd(true);
     }
 
+    public void onToggleInstances(View view) {
+        boolean useInstances = !glBubblesView.isUseInstances();
+        glBubblesView.setUseInstances(useInstances);
+        ((Button) view).setText(useInstances ? "gl: instances" : "gl: drawBitmap loop");
+    }
+
     @Override
     protected void onResume() {
         super.onResume();
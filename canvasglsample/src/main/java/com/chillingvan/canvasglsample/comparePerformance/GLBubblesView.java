@@ -2,11 +2,14 @@ package com.chillingvan.canvasglsample.comparePerformance;
 
 import android.content.Context;
 import android.graphics.Bitmap;
+import android.graphics.Color;
 import android.graphics.PointF;
 import android.util.AttributeSet;
 import android.view.View;
 
 import com.chillingvan.canvasgl.ICanvasGL;
+import com.chillingvan.canvasgl.glcanvas.GLCanvas;
+import com.chillingvan.canvasgl.glcanvas.GLPaint;
 import com.chillingvan.canvasgl.glview.GLContinuousView;
 import com.chillingvan.canvasglsample.animation.bubble.Bubble;
 
@@ -27,6 +30,13 @@ public class GLBubblesView extends GLContinuousView {
     private long last;
     private int cnt;
     private boolean isAdd;
+    private boolean useInstances;
+    private float[] instances = new float[0];
+    private long drawTimeNs;
+    private int drawFrameCount;
+    // The bubble count, drawn from the glyph cache without allocating.
+    private final StringBuilder countText = new StringBuilder();
+    private final GLPaint countPaint = new GLPaint();
 
 
     public GLBubblesView(Context context) {
@@ -40,6 +50,8 @@ public class GLBubblesView extends GLContinuousView {
     @Override
     protected void init() {
         super.init();
+        countPaint.setColor(Color.WHITE);
+        countPaint.setTextSize(48);
     }
 
 
@@ -50,8 +62,23 @@ public class GLBubblesView extends GLContinuousView {
             last = now;
             return;
         }
+        long drawStart = System.nanoTime();
+        if (useInstances) {
+            drawInstances(canvas);
+        } else {
+            for (Bubble bubble : bubbles) {
+                bubble.glDraw(canvas);
+            }
+        }
+        countText.setLength(0);
+        countText.append(bubbles.size());
+        canvas.drawText(countText, 0, countText.length(), 24, 72, countPaint);
+        // Submit the draws so that both ways are measured with their GL calls.
+        canvas.getGlCanvas().flush();
+        drawTimeNs += System.nanoTime() - drawStart;
+        drawFrameCount++;
+
         for (Bubble bubble : bubbles) {
-            bubble.glDraw(canvas);
             bubble.updatePosition((int) (INTERNVAL_TIME_MS));
         }
         Iterator<Bubble> iterator = bubbles.iterator();
@@ -70,6 +97,26 @@ public class GLBubblesView extends GLContinuousView {
         last = now;
     }
 
+    private void drawInstances(ICanvasGL canvas) {
+        int count = bubbles.size();
+        if (count == 0) {
+            return;
+        }
+        if (instances.length < count * GLCanvas.INSTANCE_STRIDE) {
+            instances = new float[count * 2 * GLCanvas.INSTANCE_STRIDE];
+        }
+        int i = 0;
+        for (Bubble bubble : bubbles) {
+            instances[i + GLCanvas.INSTANCE_X] = bubble.point.x;
+            instances[i + GLCanvas.INSTANCE_Y] = bubble.point.y;
+            instances[i + GLCanvas.INSTANCE_ROTATION] = bubble.rotateDegree;
+            instances[i + GLCanvas.INSTANCE_SCALE] = 1;
+            instances[i + GLCanvas.INSTANCE_ALPHA] = 1;
+            i += GLCanvas.INSTANCE_STRIDE;
+        }
+        canvas.drawBitmapInstances(bitmap, instances, count);
+    }
+
     public static Bubble createBubble(View view, Bitmap bitmap) {
         float vx = 0;
         float vy = -0.3f;
@@ -100,4 +147,21 @@ public class GLBubblesView extends GLContinuousView {
         isAdd = add;
     }
 
+    // Draw all bubbles with drawBitmapInstances instead of a drawBitmap per bubble.
+    public void setUseInstances(boolean useInstances) {
+        this.useInstances = useInstances;
+    }
+
+    public boolean isUseInstances() {
+        return useInstances;
+    }
+
+    // Average time to issue and flush the bubble draws since the last call, in microseconds.
+    public long getAndClearAverageDrawTimeUs() {
+        long average = drawFrameCount == 0 ? 0 : drawTimeNs / drawFrameCount / 1000;
+        drawTimeNs = 0;
+        drawFrameCount = 0;
+        return average;
+    }
+
 }